@@ -0,0 +1,226 @@
+/*
+ * Under LGPL
+ * by George Giannakopoulos
+ */
+
+package gr.demokritos.iit.conceptualIndex;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.atomic.AtomicInteger;
+import gr.demokritos.iit.jinsect.supportUtils.linguistic.WordDefinition;
+
+/** A meaning extractor that memoizes the lookups of another (source) meaning extractor.
+ * Definitions are kept in a bounded concurrent map, evicting the oldest lookups first.
+ * Concurrent lookups of the same word are coalesced into a single lookup of the source
+ * extractor. Optionally, the results are also kept in a persistent
+ * {@link FileMeaningExtractor}, which is consulted before the source extractor.
+ * <p>Only definitive results are persisted: the absence of a definition is stored only if
+ * the source is an {@link IDefinitiveMeaningExtractor}, as other extractors also return
+ * null when a lookup fails. For other extractors, it is only kept in memory (until evicted
+ * or {@link #clear()} is called), so that repeated misses do not reach the source again.
+ * Lookups throwing an exception are never kept.</p>
+ * <p>Many words can be looked up in parallel using {@link #getMeanings(Collection)}.</p>
+ *
+ * @author ggianna
+ */
+public class CachedMeaningExtractor implements IMeaningExtractor {
+    /** The default maximum number of cached lookups. */
+    public static final int DEFAULT_CACHE_SIZE = 10000;
+
+    /** The extractor actually performing the lookups. */
+    protected IMeaningExtractor Source;
+    /** The persistent store of definitions, or null if not used. */
+    protected FileMeaningExtractor Store;
+    /** The maximum number of cached lookups. */
+    protected int MaxCacheSize;
+    /** The number of threads used for batch lookups. */
+    protected int Threads = Runtime.getRuntime().availableProcessors() * 2;
+
+    /** The (possibly pending) lookups, per word. */
+    protected ConcurrentHashMap<String,FutureTask<WordDefinition>> Cache =
+            new ConcurrentHashMap<String,FutureTask<WordDefinition>>();
+    /** The cached words, in order of lookup, used for eviction. */
+    protected ConcurrentLinkedQueue<String> CacheOrder = new ConcurrentLinkedQueue<String>();
+    /** The number of cached words. */
+    protected AtomicInteger CacheSize = new AtomicInteger(0);
+
+    /** Creates a new instance of CachedMeaningExtractor, with the default cache size and no
+     * persistent store.
+     *@param meSource The extractor to look meanings up with.
+     */
+    public CachedMeaningExtractor(IMeaningExtractor meSource) {
+        this(meSource, null, DEFAULT_CACHE_SIZE);
+    }
+
+    /** Creates a new instance of CachedMeaningExtractor.
+     *@param meSource The extractor to look meanings up with.
+     *@param fmeStore The persistent store of definitions, or null if no store is to be used.
+     *@param iMaxCacheSize The maximum number of lookups to keep in memory.
+     */
+    public CachedMeaningExtractor(IMeaningExtractor meSource, FileMeaningExtractor fmeStore,
+            int iMaxCacheSize) {
+        Source = meSource;
+        Store = fmeStore;
+        MaxCacheSize = Math.max(1, iMaxCacheSize);
+    }
+
+    /** Returns the extractor actually performing the lookups. */
+    public IMeaningExtractor getSource() {
+        return Source;
+    }
+
+    /** Sets the number of threads used for batch lookups. Since lookups are usually bound by
+     * I/O or external processes, this defaults to twice the number of available processors.
+     *@param iThreads The number of threads.
+     */
+    public void setThreads(int iThreads) {
+        Threads = Math.max(1, iThreads);
+    }
+
+    /** Clears the in-memory cache, so that misses are looked up again. The persistent store
+     * is not affected. */
+    public void clear() {
+        Cache.clear();
+        CacheOrder.clear();
+        CacheSize.set(0);
+    }
+
+    /** Returns the meaning of a word, looking it up only if it has not already been looked up
+     * (or is not being looked up by another thread).
+     *@param sString The word to look up.
+     *@return The definition of the word, or null if no definition was found.
+     *@see WordDefinition
+     */
+    public WordDefinition getMeaning(final String sString) {
+        FutureTask<WordDefinition> ftLookup = Cache.get(sString);
+        if (ftLookup == null) {
+            FutureTask<WordDefinition> ftNew = new FutureTask<WordDefinition>(
+                    new Callable<WordDefinition>() {
+                public WordDefinition call() throws Exception {
+                    return lookup(sString);
+                }
+            });
+            ftLookup = Cache.putIfAbsent(sString, ftNew);
+            if (ftLookup == null) {
+                // Perform the lookup in this thread
+                ftLookup = ftNew;
+                CacheOrder.add(sString);
+                if (CacheSize.incrementAndGet() > MaxCacheSize)
+                    evict();
+                ftNew.run();
+            }
+        }
+
+        try {
+            return ftLookup.get();
+        } catch (InterruptedException ex) {
+            Thread.currentThread().interrupt();
+            return null;
+        } catch (ExecutionException ex) {
+            // Forget failed lookups, so that they can be retried
+            forget(sString, ftLookup);
+            ex.getCause().printStackTrace(System.err);
+            return null;
+        }
+    }
+
+    /** Removes a lookup from the cache, unless it has already been replaced. */
+    private void forget(String sString, FutureTask<WordDefinition> ftLookup) {
+        if (Cache.remove(sString, ftLookup) && CacheOrder.remove(sString))
+            CacheSize.decrementAndGet();
+    }
+
+    /** Looks up the meanings of a set of words in parallel. Duplicate words are looked up
+     * once.
+     *@param cWords The words to look up.
+     *@return A map from every word to its definition (null if no definition was found).
+     */
+    public Map<String,WordDefinition> getMeanings(Collection<String> cWords) {
+        List<String> lWords = new ArrayList<String>(new LinkedHashSet<String>(cWords));
+        Map<String,WordDefinition> mRes = new HashMap<String,WordDefinition>();
+        if (lWords.isEmpty())
+            return mRes;
+
+        if ((Threads == 1) || (lWords.size() == 1)) {
+            for (String sWord : lWords)
+                mRes.put(sWord, getMeaning(sWord));
+            return mRes;
+        }
+
+        List<Callable<WordDefinition>> lTasks =
+                new ArrayList<Callable<WordDefinition>>(lWords.size());
+        for (final String sWord : lWords)
+            lTasks.add(new Callable<WordDefinition>() {
+                public WordDefinition call() throws Exception {
+                    return getMeaning(sWord);
+                }
+            });
+
+        ExecutorService es = Executors.newFixedThreadPool(Math.min(Threads, lWords.size()));
+        try {
+            List<Future<WordDefinition>> lResults = es.invokeAll(lTasks);
+            for (int iCnt = 0; iCnt < lWords.size(); iCnt++)
+                mRes.put(lWords.get(iCnt), lResults.get(iCnt).get());
+        } catch (InterruptedException ex) {
+            Thread.currentThread().interrupt();
+        } catch (ExecutionException ex) {
+            throw new IllegalStateException(ex.getCause());
+        }
+        finally {
+            es.shutdownNow();
+        }
+
+        return mRes;
+    }
+
+    /** Looks up a word in the persistent store and, if not found there, in the source
+     * extractor. Definitive results of the source extractor are added to the store.
+     *@param sString The word to look up.
+     *@return The definition of the word, or null if no definition was found.
+     *@throws IOException If the source is an {@link IDefinitiveMeaningExtractor} and the
+     * lookup failed.
+     */
+    protected WordDefinition lookup(String sString) throws IOException {
+        if ((Store != null) && Store.contains(sString))
+            return Store.getMeaning(sString);
+
+        WordDefinition wd;
+        boolean bDefinitive = Source instanceof IDefinitiveMeaningExtractor;
+        if (bDefinitive)
+            wd = ((IDefinitiveMeaningExtractor)Source).lookupMeaning(sString);
+        else
+            wd = Source.getMeaning(sString);
+        if ((Store != null) && ((wd != null) || bDefinitive))
+            try {
+                Store.store(sString, wd);
+            } catch (IOException ex) {
+                ex.printStackTrace(System.err);
+            }
+        return wd;
+    }
+
+    /** Removes the oldest lookups, until the cache is within its maximum size. */
+    private void evict() {
+        while (CacheSize.get() > MaxCacheSize) {
+            String sOldest = CacheOrder.poll();
+            if (sOldest == null)
+                break;
+            Cache.remove(sOldest);
+            CacheSize.decrementAndGet();
+        }
+    }
+}
@@ -0,0 +1,148 @@
+/*
+ * Under LGPL
+ * by George Giannakopoulos
+ */
+
+package gr.demokritos.iit.conceptualIndex;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import gr.demokritos.iit.jinsect.supportUtils.linguistic.ArrayOfDefinition;
+import gr.demokritos.iit.jinsect.supportUtils.linguistic.Definition;
+import gr.demokritos.iit.jinsect.supportUtils.linguistic.Dictionary;
+import gr.demokritos.iit.jinsect.supportUtils.linguistic.WordDefinition;
+
+/** This class looks up word definitions in a local text file, which can be used as a
+ * stand-in for WordNet (e.g. where WordNet is not installed) and as a persistent store of
+ * definitions found by another {@link IMeaningExtractor}.
+ * <p>The file is in UTF-8 and holds one line per definition, of the form
+ * <code>word&lt;TAB&gt;definition</code>. A line holding only a word (optionally followed by a
+ * tab) indicates that the word is known to have no definition. Tabs and line breaks of words
+ * and definitions are stored (and looked up) as spaces.</p>
+ *
+ * @author ggianna
+ */
+public class FileMeaningExtractor implements IDefinitiveMeaningExtractor {
+    /** The file of definitions. */
+    protected File DefinitionFile;
+    /** The definitions of every known word (empty for words without definitions). */
+    protected HashMap<String,List<String>> Definitions = new HashMap<String,List<String>>();
+
+    /** Creates a new instance of FileMeaningExtractor, loading the definitions of a given file.
+     * The file is created when definitions are first stored, if it does not exist.
+     *@param sFilename The file of definitions.
+     *@throws IOException If the file exists, but cannot be read.
+     */
+    public FileMeaningExtractor(String sFilename) throws IOException {
+        DefinitionFile = new File(sFilename);
+        if (!DefinitionFile.exists())
+            return;
+
+        BufferedReader br = new BufferedReader(new InputStreamReader(
+                new FileInputStream(DefinitionFile), "UTF-8"));
+        try {
+            String sLine;
+            while ((sLine = br.readLine()) != null) {
+                if (sLine.length() == 0)
+                    continue;
+                int iTab = sLine.indexOf('\t');
+                String sWord = (iTab < 0) ? sLine : sLine.substring(0, iTab);
+                List<String> lDefs = Definitions.get(sWord);
+                if (lDefs == null) {
+                    lDefs = new ArrayList<String>(1);
+                    Definitions.put(sWord, lDefs);
+                }
+                if ((iTab >= 0) && (iTab < sLine.length() - 1))
+                    lDefs.add(sLine.substring(iTab + 1));
+            }
+        }
+        finally {
+            br.close();
+        }
+    }
+
+    /** Returns true if the file contains a given word, either with or without definitions.
+     *@param sString The word to look up.
+     */
+    public synchronized boolean contains(String sString) {
+        return Definitions.containsKey(clean(sString));
+    }
+
+    /** Looks up a word in the file of definitions.
+     *@param sString The word to look up.
+     *@return The definition of the word, or null if the word has no definitions in the file.
+     *@see WordDefinition
+     */
+    public synchronized WordDefinition getMeaning(String sString) {
+        List<String> lDefs = Definitions.get(clean(sString));
+        if ((lDefs == null) || lDefs.isEmpty())
+            return null; // No definition found
+
+        // Create definition object and add definitions
+        WordDefinition wd = new WordDefinition();
+        wd.setWord(sString);
+        ArrayOfDefinition aodDefs = new ArrayOfDefinition();
+        List lDefinitions = new ArrayList();
+        for (String sDefinition : lDefs) {
+            Definition dTmp = new Definition();
+            dTmp.setWord(sString);
+            dTmp.setDictionary(new Dictionary());
+            dTmp.setWordDefinition(sDefinition);
+            lDefinitions.add(dTmp);
+        }
+        aodDefs.getDefinition().addAll(lDefinitions);
+        wd.setDefinitions(aodDefs);
+
+        return wd;
+    }
+
+    /** Looks up a word in the file of definitions. Since the file is read in memory, the
+     * lookup cannot fail.
+     *@param sString The word to look up.
+     *@return The definition of the word, or null if the word has no definitions in the file.
+     */
+    public WordDefinition lookupMeaning(String sString) {
+        return getMeaning(sString);
+    }
+
+    /** Stores the definitions of a word, appending them to the file.
+     *@param sString The word.
+     *@param wd The definition of the word, or null to indicate that it has no definitions.
+     *@throws IOException If the file cannot be written.
+     */
+    public synchronized void store(String sString, WordDefinition wd) throws IOException {
+        String sWord = clean(sString);
+        List<String> lDefs = new ArrayList<String>(1);
+        if ((wd != null) && (wd.getDefinitions() != null))
+            for (Definition dCur : wd.getDefinitions().getDefinition())
+                if ((dCur.getWordDefinition() != null) &&
+                        (clean(dCur.getWordDefinition()).length() > 0))
+                    lDefs.add(clean(dCur.getWordDefinition()));
+
+        Writer wOut = new OutputStreamWriter(new FileOutputStream(DefinitionFile, true), "UTF-8");
+        try {
+            if (lDefs.isEmpty())
+                wOut.write(sWord + "\n");
+            for (String sDefinition : lDefs)
+                wOut.write(sWord + "\t" + sDefinition + "\n");
+        }
+        finally {
+            wOut.close();
+        }
+        Definitions.put(sWord, lDefs);
+    }
+
+    /** Replaces the tabs and line breaks of a string, which the file format cannot hold. */
+    private static String clean(String sStr) {
+        return sStr.replaceAll("[\t\r\n]", " ");
+    }
+}
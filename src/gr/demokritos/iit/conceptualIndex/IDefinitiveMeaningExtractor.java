@@ -0,0 +1,26 @@
+/*
+ * Under LGPL
+ * by George Giannakopoulos
+ */
+
+package gr.demokritos.iit.conceptualIndex;
+
+import java.io.IOException;
+import gr.demokritos.iit.jinsect.supportUtils.linguistic.WordDefinition;
+
+/** Interface for meaning extractors that can tell a failed lookup from a word without
+ * definitions. Only the results of such extractors can safely be kept, e.g. by a
+ * {@link CachedMeaningExtractor}.
+ *
+ * @author ggianna
+ */
+public interface IDefinitiveMeaningExtractor extends IMeaningExtractor {
+    /** Looks up a word, reporting failures instead of returning null.
+     *@param sString The string to lookup.
+     *@return The meaning of the word being looked up, or null only if the word is known to
+     * have no definition.
+     *@throws IOException If the lookup failed.
+     *@see WordDefinition
+     */
+    public WordDefinition lookupMeaning(String sString) throws IOException;
+}
@@ -19,18 +19,30 @@ import gr.demokritos.iit.jinsect.supportUtils.linguistic.Dictionary;
 import gr.demokritos.iit.jinsect.supportUtils.linguistic.WordDefinition;
 
 /** This class uses locally installed <a href='http://wordnet.princeton.edu/'>WordNet</a> 
- * to extract word definitions.
+ * to extract word definitions. If the WordNet database files can be located, meanings are
+ * looked up in-process through a {@link WordNetIndex}; otherwise the WordNet executable is
+ * run for every lookup.
  *
  * @author ggianna
  */
-public class LocalWordNetMeaningExtractor implements IMeaningExtractor {
+public class LocalWordNetMeaningExtractor implements IDefinitiveMeaningExtractor {
+    /** The in-process index of the WordNet database, or null if the WordNet executable is used
+     * for lookups. */
+    protected WordNetIndex Index = null;
     
     /** Creates a new instance of LocalWordNetMeaningExtractor, checking there is a reachable 
-     * WordNet instance installed.
+     * WordNet instance installed. The WordNet database is used in-process, if it is found by
+     * {@link WordNetIndex#locateDictionary()}.
      *@throws IOException If WordNet is not found an appropriate {@link IOException} is thrown.
      *@see IOException
      */
     public LocalWordNetMeaningExtractor() throws IOException {
+        String sDictDir = WordNetIndex.locateDictionary();
+        if (sDictDir != null) {
+            Index = WordNetIndex.getIndex(sDictDir);
+            return;
+        }
+
         Process p = Runtime.getRuntime().exec("wordnet");
         try {
             p.waitFor();
@@ -46,78 +58,138 @@ public class LocalWordNetMeaningExtractor implements IMeaningExtractor {
         }
     }
     
+    /** Creates a new instance of LocalWordNetMeaningExtractor, which looks meanings up
+     * in-process, in a given WordNet database directory.
+     *@param sDictDir The WordNet database directory (holding the index and data files).
+     *@throws IOException If the database cannot be read.
+     */
+    public LocalWordNetMeaningExtractor(String sDictDir) throws IOException {
+        Index = WordNetIndex.getIndex(sDictDir);
+    }
+
+    /** Converts a line of the WordNet overview output to a definition.
+     *@param sString The word being looked up.
+     *@param str The output line.
+     *@return The definition, or null if the line is not a definition line.
+     */
+    private Definition toDefinition(String sString, String str) {
+        // Only add definition lines
+        if (!str.matches("\\d+[.]\\s+([(]\\d+[)])*.+"))
+            return null;
+        // Add definition line, removing idices and so forth
+        Definition dTmp = new Definition();
+        dTmp.setWord(sString);
+        dTmp.setDictionary(new Dictionary());
+        dTmp.setWordDefinition(str.replaceAll("\\d+[.]\\s+[(]\\d+[)]", ""));
+        return dTmp;
+    }
+
     /** Looks up a word using a locally installed WordNet instance.
-     *@return The definition of the word being looked up.
+     *@return The definition of the word being looked up, or null if no definition is found
+     * or the lookup failed.
      *@see WordDefinition
      */
     public WordDefinition getMeaning(String sString) {
+        try {
+            return lookupMeaning(sString);
+        }
+        catch (IOException ioe) {
+            System.out.println("Execution failed: " + ioe.getMessage());
+            return null; // Failure
+        }
+    }
+
+    /** Looks up a word using a locally installed WordNet instance.
+     *@return The definition of the word being looked up, or null if no definition is found.
+     *@throws IOException If the WordNet executable cannot be run or is interrupted.
+     *@see WordDefinition
+     */
+    public WordDefinition lookupMeaning(String sString) throws IOException {
+        if (Index != null)
+            return getIndexedMeaning(sString);
+
         // Create definition object and add definitions
         WordDefinition wd = new WordDefinition();
         wd.setWord(sString);
         ArrayOfDefinition aodDefs = new ArrayOfDefinition();
         List lDefinitions = new ArrayList();
         String sDefinition = "";
-        try {
-            String[] saCmd = {"wordnet",sString,"-over"};
-            // DEBUG LINES
-            // System.out.println("Executing: " + saCmd.toString());
-            //////////////
-            ProcessBuilder pbP = new ProcessBuilder(saCmd);
-            Process p = pbP.start();
-            InputStream isIn = p.getInputStream();
-        
-            BufferedReader br =
-                new BufferedReader(new InputStreamReader(isIn));
-    
-            // read output lines from command
+        String[] saCmd = {"wordnet",sString,"-over"};
+        // DEBUG LINES
+        // System.out.println("Executing: " + saCmd.toString());
+        //////////////
+        ProcessBuilder pbP = new ProcessBuilder(saCmd);
+        Process p = pbP.start();
+        InputStream isIn = p.getInputStream();
     
-            String str;
-            while ((str = br.readLine()) != null) {
-                // Only add definition lines
-                if (str.matches("\\d+[.]\\s+([(]\\d+[)])*.+")) {
-                    // Add definition line, removing idices and so forth
-                    //sDefinition += str.replaceAll("\\d+[.]\\s+[(]\\d+[)]", "");
-                    sDefinition = str.replaceAll("\\d+[.]\\s+[(]\\d+[)]", "");
-                    Definition dTmp = new Definition();
-                    dTmp.setWord(sString);
-                    dTmp.setDictionary(new Dictionary());
-                    dTmp.setWordDefinition(sDefinition);
-                    lDefinitions.add(dTmp);
-                }
-            }
-    
-            // wait for command to terminate
-    
-            try {
-                p.waitFor();
-            }
-            catch (InterruptedException e) {
-                System.err.println("process was interrupted");
+        BufferedReader br =
+            new BufferedReader(new InputStreamReader(isIn));
+
+        // read output lines from command
+
+        String str;
+        while ((str = br.readLine()) != null) {
+            Definition dTmp = toDefinition(sString, str);
+            if (dTmp != null) {
+                sDefinition = dTmp.getWordDefinition();
+                lDefinitions.add(dTmp);
             }
-    
-            // check its exit value
-//            if (p.exitValue() != 0)
-//                System.err.println("exit value was non-zero");
-    
-            // close stream
-    
-            br.close();                
+        }
 
-            isIn.close();
+        // wait for command to terminate
 
-            if (sDefinition.length() == 0)
-                return null; // No definition found
+        try {
+            p.waitFor();
         }
-        catch (IOException ioe) {
-            System.out.println("Execution failed: " + ioe.getMessage());
-            return null; // Failure
+        catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IOException("WordNet process was interrupted.");
         }
+
+        // check its exit value
+//            if (p.exitValue() != 0)
+//                System.err.println("exit value was non-zero");
+
+        // close stream
+
+        br.close();                
+
+        isIn.close();
+
+        if (sDefinition.length() == 0)
+            return null; // No definition found
         aodDefs.getDefinition().addAll(lDefinitions);
         wd.setDefinitions(aodDefs);                        
         
         return wd;
     }
     
+    /** Looks up a word in the in-process WordNet index, producing the same definitions as
+     * the overview output of the WordNet executable.
+     *@param sString The word to look up.
+     *@return The definition of the word, or null if no definition is found.
+     */
+    protected WordDefinition getIndexedMeaning(String sString) {
+        List lDefinitions = new ArrayList();
+        String sDefinition = "";
+        for (String str : Index.getOverview(sString)) {
+            Definition dTmp = toDefinition(sString, str);
+            if (dTmp != null) {
+                sDefinition = dTmp.getWordDefinition();
+                lDefinitions.add(dTmp);
+            }
+        }
+        if (sDefinition.length() == 0)
+            return null; // No definition found
+
+        WordDefinition wd = new WordDefinition();
+        wd.setWord(sString);
+        ArrayOfDefinition aodDefs = new ArrayOfDefinition();
+        aodDefs.getDefinition().addAll(lDefinitions);
+        wd.setDefinitions(aodDefs);
+        return wd;
+    }
+    
     /**
      * Returns the gloss of a given word, for a given part-of-speech and a 
      * predefined sense number.
@@ -0,0 +1,753 @@
+/*
+ * Under LGPL
+ * by George Giannakopoulos
+ */
+
+package gr.demokritos.iit.conceptualIndex;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.BufferedReader;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.RandomAccessFile;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+
+/** An in-process reader of the <a href='http://wordnet.princeton.edu/'>WordNet</a> database
+ * files, which replaces the execution of the WordNet command line tool for overview lookups.
+ * The lemma index (lemma to synset offsets), the morphological exception lists and the sense
+ * tag counts are parsed once into compact arrays, which are kept in an index file so that later
+ * instances need not parse the database again. The data files, holding the synsets and their
+ * glosses, are memory-mapped and read by synset offset.
+ * <p>Once created, an instance is read-only and can be used by concurrent readers.</p>
+ *
+ * @author ggianna
+ */
+public class WordNetIndex {
+    /** The parts of speech, as named in the database files. */
+    public static final String[] POS_NAMES = {"noun", "verb", "adj", "adv"};
+    /** The suffix of the default index filename. */
+    public static final String INDEX_SUFFIX = ".wnidx";
+    /** The directory of the default index files, under the home directory of the user. */
+    public static final String CACHE_DIR = ".jinsect" + File.separator + "wordnet";
+
+    private static final int INDEX_MAGIC = 0x4A574E49; // "JWNI"
+    private static final int INDEX_VERSION = 1;
+    private static final int BUFFER_SIZE = 1 << 16;
+    private static final String ENCODING = "ISO-8859-1";
+
+    /** The detachment rules of the WordNet morphological processor, per part of speech, as
+     * (suffix, ending) pairs. */
+    private static final String[][] MORPH_RULES = {
+        {"s", "", "ses", "s", "xes", "x", "zes", "z", "ches", "ch", "shes", "sh",
+            "men", "man", "ies", "y"},
+        {"s", "", "ies", "y", "es", "e", "es", "", "ed", "e", "ed", "", "ing", "e",
+            "ing", ""},
+        {"er", "", "est", "", "er", "e", "est", "e"},
+        {}
+    };
+    /** The prepositions the WordNet morphological processor looks for in verb collocations. */
+    private static final String[] PREPOSITIONS = {"to", "at", "of", "on", "off", "in", "out",
+        "up", "down", "from", "with", "into", "for", "about", "between"};
+
+    /** The instances created through {@link #getIndex(String)}, per database directory. */
+    private static final HashMap<String,WordNetIndex> Instances =
+            new HashMap<String,WordNetIndex>();
+
+    /** The WordNet database directory. */
+    protected File DictDir;
+    /** The index file, or null if no index file is kept. */
+    protected File IndexFile;
+
+    /** The lemmas of every part of speech, in ascending order. */
+    private String[][] Lemmas = new String[POS_NAMES.length][];
+    /** The position of the first synset offset of every lemma (plus a final entry), per part of
+     * speech. */
+    private int[][] SenseStarts = new int[POS_NAMES.length][];
+    /** The synset offsets of all lemmas, in sense order, per part of speech. */
+    private int[][] Synsets = new int[POS_NAMES.length][];
+    /** The morphological exceptions (inflected form to base forms), per part of speech. */
+    private ArrayList<HashMap<String,String[]>> Exceptions =
+            new ArrayList<HashMap<String,String[]>>();
+    /** The (non zero) tag counts of word senses, keyed by {@link #senseKey(String, int, int)}. */
+    private HashMap<String,Integer> TagCounts = new HashMap<String,Integer>();
+    /** The mapped data files, per part of speech. */
+    private MappedByteBuffer[] Data = new MappedByteBuffer[POS_NAMES.length];
+
+    /** Returns the index of a given WordNet database directory, creating it on first use. The
+     * index file is kept in the {@link #CACHE_DIR} directory of the user, which only the user can
+     * access. If that directory cannot be created, no index file is kept.
+     *@param sDictDir The WordNet database directory (e.g. <code>/usr/share/wordnet</code>).
+     *@return The index.
+     *@throws IOException If the database cannot be read.
+     */
+    public static WordNetIndex getIndex(String sDictDir) throws IOException {
+        String sKey = new File(sDictDir).getCanonicalPath();
+        synchronized (Instances) {
+            WordNetIndex wniRes = Instances.get(sKey);
+            if (wniRes == null) {
+                File fCacheDir = getCacheDir();
+                String sIndex = null;
+                if (fCacheDir != null)
+                    sIndex = new File(fCacheDir, "wordnet-" +
+                            Integer.toHexString(sKey.hashCode()) + INDEX_SUFFIX).getPath();
+                wniRes = new WordNetIndex(sKey, sIndex);
+                Instances.put(sKey, wniRes);
+            }
+            return wniRes;
+        }
+    }
+
+    /** Returns the directory of the default index files, creating it (accessible only by its
+     * owner) if needed.
+     *@return The directory, or null if it cannot be created.
+     */
+    private static File getCacheDir() {
+        File fRes = new File(System.getProperty("user.home"), CACHE_DIR);
+        if (!fRes.isDirectory()) {
+            if (!fRes.mkdirs()) {
+                System.err.println("Could not create index directory " + fRes +
+                        ". No index file is kept.");
+                return null;
+            }
+            fRes.setReadable(false, false);
+            fRes.setWritable(false, false);
+            fRes.setExecutable(false, false);
+            fRes.setReadable(true, true);
+            fRes.setWritable(true, true);
+            fRes.setExecutable(true, true);
+        }
+        return fRes;
+    }
+
+    /** Locates an installed WordNet database directory, using the WNSEARCHDIR and WNHOME
+     * environment variables of WordNet, or the usual installation directories.
+     *@return The database directory, or null if none is found.
+     */
+    public static String locateDictionary() {
+        List<String> lCandidates = new ArrayList<String>();
+        if (System.getenv("WNSEARCHDIR") != null)
+            lCandidates.add(System.getenv("WNSEARCHDIR"));
+        if (System.getenv("WNHOME") != null)
+            lCandidates.add(System.getenv("WNHOME") + File.separator + "dict");
+        lCandidates.add("/usr/share/wordnet");
+        lCandidates.add("/usr/local/WordNet-3.0/dict");
+        lCandidates.add("/usr/local/share/wordnet");
+        for (String sCandidate : lCandidates)
+            if (new File(sCandidate, "index.noun").canRead() &&
+                    new File(sCandidate, "data.noun").canRead())
+                return sCandidate;
+        return null;
+    }
+
+    /** Creates the index of a given WordNet database directory. If the index file exists and
+     * matches the database (same file sizes and modification times), it is loaded. Otherwise, or
+     * if the index file cannot be read (e.g. it is corrupt), the database is parsed and the index
+     * file is (re)written; failing to write it only causes a warning.
+     *@param sDictDir The WordNet database directory.
+     *@param sIndexFile The index file, or null to parse the database without keeping an index
+     * file.
+     *@throws IOException If the database cannot be read.
+     */
+    public WordNetIndex(String sDictDir, String sIndexFile) throws IOException {
+        DictDir = new File(sDictDir);
+        IndexFile = (sIndexFile == null) ? null : new File(sIndexFile);
+        if (!new File(DictDir, "index.noun").canRead())
+            throw new IOException("Cannot find WordNet database in " + sDictDir);
+
+        boolean bLoaded = false;
+        if ((IndexFile != null) && IndexFile.exists())
+            try {
+                bLoaded = loadIndex();
+            } catch (Exception e) {
+                System.err.println("Could not read index file " + IndexFile +
+                        ". Rebuilding. Cause: " + e);
+            } catch (OutOfMemoryError oome) {
+                System.err.println("Could not read index file " + IndexFile +
+                        ". Rebuilding. Cause: " + oome);
+            }
+
+        if (!bLoaded) {
+            clear();
+            buildIndex();
+            if (IndexFile != null)
+                try {
+                    saveIndex();
+                } catch (IOException ioe) {
+                    System.err.println("Could not write index file " + IndexFile +
+                            ". Cause:");
+                    ioe.printStackTrace(System.err);
+                }
+        }
+
+        // Map data files
+        for (int iPOS = 0; iPOS < POS_NAMES.length; iPOS++) {
+            File fData = new File(DictDir, "data." + POS_NAMES[iPOS]);
+            if (!fData.canRead())
+                continue;
+            RandomAccessFile rafData = new RandomAccessFile(fData, "r");
+            try {
+                FileChannel fcData = rafData.getChannel();
+                Data[iPOS] = fcData.map(FileChannel.MapMode.READ_ONLY, 0, fcData.size());
+            }
+            finally {
+                rafData.close();
+            }
+        }
+    }
+
+    private void clear() {
+        Exceptions.clear();
+        for (int iPOS = 0; iPOS < POS_NAMES.length; iPOS++) {
+            Lemmas[iPOS] = new String[0];
+            SenseStarts[iPOS] = new int[1];
+            Synsets[iPOS] = new int[0];
+            Exceptions.add(new HashMap<String,String[]>());
+        }
+        TagCounts.clear();
+    }
+
+    /** Returns the database files the index is built from. */
+    private File[] getSourceFiles() {
+        File[] faRes = new File[POS_NAMES.length * 2 + 1];
+        for (int iPOS = 0; iPOS < POS_NAMES.length; iPOS++) {
+            faRes[iPOS * 2] = new File(DictDir, "index." + POS_NAMES[iPOS]);
+            faRes[iPOS * 2 + 1] = new File(DictDir, POS_NAMES[iPOS] + ".exc");
+        }
+        faRes[faRes.length - 1] = new File(DictDir, "index.sense");
+        return faRes;
+    }
+
+    /** Parses the index, exception and sense index files of the database. */
+    private void buildIndex() throws IOException {
+        for (int iPOS = 0; iPOS < POS_NAMES.length; iPOS++) {
+            readLemmas(iPOS, new File(DictDir, "index." + POS_NAMES[iPOS]));
+            readExceptions(iPOS, new File(DictDir, POS_NAMES[iPOS] + ".exc"));
+        }
+        readTagCounts(new File(DictDir, "index.sense"));
+    }
+
+    private static BufferedReader openReader(File fIn) throws IOException {
+        return new BufferedReader(new InputStreamReader(new FileInputStream(fIn), ENCODING),
+                BUFFER_SIZE);
+    }
+
+    /** Reads the lemmas of a part of speech from an index file. Every line holds the lemma,
+     * the part of speech, the synset count, the pointer count, the pointer symbols, the sense
+     * count, the tagged sense count and the synset offsets. */
+    private void readLemmas(int iPOS, File fIndex) throws IOException {
+        if (!fIndex.canRead())
+            return;
+        final ArrayList<String> alLemmas = new ArrayList<String>();
+        final ArrayList<int[]> alSynsets = new ArrayList<int[]>();
+        boolean bSorted = true;
+        BufferedReader br = openReader(fIndex);
+        try {
+            String sLine;
+            while ((sLine = br.readLine()) != null) {
+                if ((sLine.length() == 0) || (sLine.charAt(0) == ' '))
+                    continue; // License lines
+                String[] saTokens = sLine.split(" ");
+                int iSynsetCnt = Integer.parseInt(saTokens[2]);
+                int iFirst = 4 + Integer.parseInt(saTokens[3]) + 2;
+                int[] iaOffsets = new int[iSynsetCnt];
+                for (int iCnt = 0; iCnt < iSynsetCnt; iCnt++)
+                    iaOffsets[iCnt] = Integer.parseInt(saTokens[iFirst + iCnt]);
+                if (!alLemmas.isEmpty() &&
+                        (alLemmas.get(alLemmas.size() - 1).compareTo(saTokens[0]) >= 0))
+                    bSorted = false;
+                alLemmas.add(saTokens[0]);
+                alSynsets.add(iaOffsets);
+            }
+        }
+        finally {
+            br.close();
+        }
+
+        Integer[] iaOrder = new Integer[alLemmas.size()];
+        for (int iCnt = 0; iCnt < iaOrder.length; iCnt++)
+            iaOrder[iCnt] = iCnt;
+        if (!bSorted)
+            Arrays.sort(iaOrder, new Comparator<Integer>() {
+                public int compare(Integer i1, Integer i2) {
+                    return alLemmas.get(i1).compareTo(alLemmas.get(i2));
+                }
+            });
+
+        String[] saLemmas = new String[iaOrder.length];
+        int[] iaStarts = new int[iaOrder.length + 1];
+        int iTotal = 0;
+        for (int[] iaOffsets : alSynsets)
+            iTotal += iaOffsets.length;
+        int[] iaSynsets = new int[iTotal];
+        int iNext = 0;
+        for (int iCnt = 0; iCnt < iaOrder.length; iCnt++) {
+            saLemmas[iCnt] = alLemmas.get(iaOrder[iCnt]);
+            iaStarts[iCnt] = iNext;
+            int[] iaOffsets = alSynsets.get(iaOrder[iCnt]);
+            System.arraycopy(iaOffsets, 0, iaSynsets, iNext, iaOffsets.length);
+            iNext += iaOffsets.length;
+        }
+        iaStarts[iaOrder.length] = iNext;
+        Lemmas[iPOS] = saLemmas;
+        SenseStarts[iPOS] = iaStarts;
+        Synsets[iPOS] = iaSynsets;
+    }
+
+    /** Reads the morphological exceptions of a part of speech. Every line holds an inflected
+     * form, followed by its base forms. */
+    private void readExceptions(int iPOS, File fExc) throws IOException {
+        if (!fExc.canRead())
+            return;
+        BufferedReader br = openReader(fExc);
+        try {
+            String sLine;
+            while ((sLine = br.readLine()) != null) {
+                String[] saTokens = sLine.trim().split(" +");
+                if (saTokens.length < 2)
+                    continue;
+                String[] saOld = Exceptions.get(iPOS).get(saTokens[0]);
+                String[] saBases = Arrays.copyOfRange(saTokens, 1, saTokens.length);
+                if (saOld != null) {
+                    // Append to the bases of earlier lines
+                    String[] saAll = Arrays.copyOf(saOld, saOld.length + saBases.length);
+                    System.arraycopy(saBases, 0, saAll, saOld.length, saBases.length);
+                    saBases = saAll;
+                }
+                Exceptions.get(iPOS).put(saTokens[0], saBases);
+            }
+        }
+        finally {
+            br.close();
+        }
+    }
+
+    /** Reads the tag counts of word senses from the sense index. Every line holds a sense key
+     * (<code>lemma%ss_type:lex_filenum:lex_id:head_word:head_id</code>), the synset offset, the
+     * sense number and the tag count. */
+    private void readTagCounts(File fSenses) throws IOException {
+        if (!fSenses.canRead())
+            return;
+        BufferedReader br = openReader(fSenses);
+        try {
+            String sLine;
+            while ((sLine = br.readLine()) != null) {
+                String[] saTokens = sLine.split(" ");
+                if (saTokens.length < 4)
+                    continue;
+                int iCount = Integer.parseInt(saTokens[3]);
+                if (iCount == 0)
+                    continue;
+                int iPercent = saTokens[0].indexOf('%');
+                // Satellite adjectives (type 5) are kept with the adjectives
+                int iType = saTokens[0].charAt(iPercent + 1) - '0';
+                int iPOS = (iType == 5) ? 2 : iType - 1;
+                TagCounts.put(senseKey(saTokens[0].substring(0, iPercent), iPOS,
+                        Integer.parseInt(saTokens[1])), iCount);
+            }
+        }
+        finally {
+            br.close();
+        }
+    }
+
+    /** Returns the key of the tag count of a word sense. */
+    private static String senseKey(String sLemma, int iPOS, int iOffset) {
+        return sLemma + '%' + iPOS + ':' + iOffset;
+    }
+
+    /** Reads a count of the index file, which cannot exceed a given maximum.
+     *@throws IOException If the count is negative or exceeds the maximum.
+     */
+    private int readCount(DataInputStream disIn, long lMax) throws IOException {
+        int iRes = disIn.readInt();
+        if ((iRes < 0) || (iRes > lMax))
+            throw new IOException("Invalid count " + iRes + " in index file " + IndexFile);
+        return iRes;
+    }
+
+    /** Loads the index file, if it matches the database. Every count read is checked against
+     * the size of the file, so that a corrupt file causes an exception instead of huge
+     * allocations.
+     *@return True if the index was loaded, false if it is out of date.
+     *@throws IOException If the index file cannot be read or is corrupt.
+     */
+    private boolean loadIndex() throws IOException {
+        // Every counted item takes at least a byte
+        long lMax = IndexFile.length();
+        DataInputStream disIn = new DataInputStream(new BufferedInputStream(
+                new FileInputStream(IndexFile), BUFFER_SIZE));
+        try {
+            if (disIn.readInt() != INDEX_MAGIC ||
+                    disIn.readInt() != INDEX_VERSION ||
+                    !disIn.readUTF().equals(DictDir.getAbsolutePath()))
+                return false;
+            for (File fSource : getSourceFiles())
+                if (disIn.readLong() != fSource.length() ||
+                        disIn.readLong() != fSource.lastModified())
+                    return false;
+
+            clear();
+            for (int iPOS = 0; iPOS < POS_NAMES.length; iPOS++) {
+                int iLemmas = readCount(disIn, lMax);
+                Lemmas[iPOS] = new String[iLemmas];
+                SenseStarts[iPOS] = new int[iLemmas + 1];
+                for (int iCnt = 0; iCnt < iLemmas; iCnt++) {
+                    Lemmas[iPOS][iCnt] = disIn.readUTF();
+                    // Lookups are binary searches
+                    if ((iCnt > 0) && (Lemmas[iPOS][iCnt - 1].compareTo(Lemmas[iPOS][iCnt]) >= 0))
+                        throw new IOException("Unsorted lemmas in index file " + IndexFile);
+                    long lNext = SenseStarts[iPOS][iCnt] + (long)readCount(disIn, lMax);
+                    if (lNext > lMax)
+                        throw new IOException("Invalid sense count in index file " + IndexFile);
+                    SenseStarts[iPOS][iCnt + 1] = (int)lNext;
+                }
+                Synsets[iPOS] = new int[SenseStarts[iPOS][iLemmas]];
+                for (int iCnt = 0; iCnt < Synsets[iPOS].length; iCnt++)
+                    Synsets[iPOS][iCnt] = disIn.readInt();
+
+                int iExceptions = readCount(disIn, lMax);
+                for (int iCnt = 0; iCnt < iExceptions; iCnt++) {
+                    String sForm = disIn.readUTF();
+                    String[] saBases = new String[readCount(disIn, lMax)];
+                    for (int iBase = 0; iBase < saBases.length; iBase++)
+                        saBases[iBase] = disIn.readUTF();
+                    Exceptions.get(iPOS).put(sForm, saBases);
+                }
+            }
+            int iCounts = readCount(disIn, lMax);
+            for (int iCnt = 0; iCnt < iCounts; iCnt++)
+                TagCounts.put(disIn.readUTF(), disIn.readInt());
+            if (disIn.read() != -1)
+                throw new IOException("Trailing data in index file " + IndexFile);
+            return true;
+        }
+        finally {
+            disIn.close();
+        }
+    }
+
+    /** Writes the index file, through a new temporary file of the same directory which is then
+     * renamed, so that a partially written index is never used and concurrent writers do not
+     * interfere. */
+    private void saveIndex() throws IOException {
+        File fTmp = File.createTempFile(IndexFile.getName(), ".tmp",
+                IndexFile.getAbsoluteFile().getParentFile());
+        boolean bSaved = false;
+        try {
+            writeIndex(fTmp);
+            // Renaming replaces the index at once where the system allows it
+            if (!fTmp.renameTo(IndexFile)) {
+                if (IndexFile.exists() && !IndexFile.delete())
+                    throw new IOException("Cannot replace index file " + IndexFile);
+                if (!fTmp.renameTo(IndexFile))
+                    throw new IOException("Cannot rename " + fTmp + " to " + IndexFile);
+            }
+            bSaved = true;
+        }
+        finally {
+            if (!bSaved)
+                fTmp.delete();
+        }
+    }
+
+    private void writeIndex(File fOut) throws IOException {
+        DataOutputStream dosOut = new DataOutputStream(new BufferedOutputStream(
+                new FileOutputStream(fOut), BUFFER_SIZE));
+        try {
+            dosOut.writeInt(INDEX_MAGIC);
+            dosOut.writeInt(INDEX_VERSION);
+            dosOut.writeUTF(DictDir.getAbsolutePath());
+            for (File fSource : getSourceFiles()) {
+                dosOut.writeLong(fSource.length());
+                dosOut.writeLong(fSource.lastModified());
+            }
+            for (int iPOS = 0; iPOS < POS_NAMES.length; iPOS++) {
+                dosOut.writeInt(Lemmas[iPOS].length);
+                for (int iCnt = 0; iCnt < Lemmas[iPOS].length; iCnt++) {
+                    dosOut.writeUTF(Lemmas[iPOS][iCnt]);
+                    dosOut.writeInt(SenseStarts[iPOS][iCnt + 1] - SenseStarts[iPOS][iCnt]);
+                }
+                for (int iOffset : Synsets[iPOS])
+                    dosOut.writeInt(iOffset);
+
+                dosOut.writeInt(Exceptions.get(iPOS).size());
+                for (Map.Entry<String,String[]> eCur : Exceptions.get(iPOS).entrySet()) {
+                    dosOut.writeUTF(eCur.getKey());
+                    dosOut.writeInt(eCur.getValue().length);
+                    for (String sBase : eCur.getValue())
+                        dosOut.writeUTF(sBase);
+                }
+            }
+            dosOut.writeInt(TagCounts.size());
+            for (Map.Entry<String,Integer> eCur : TagCounts.entrySet()) {
+                dosOut.writeUTF(eCur.getKey());
+                dosOut.writeInt(eCur.getValue());
+            }
+        }
+        finally {
+            dosOut.close();
+        }
+    }
+
+    /** Returns the synset offsets of a lemma, in sense order.
+     *@param sLemma The lemma, in lower case and with underscores instead of spaces.
+     *@param iPOS The part of speech, as an index of {@link #POS_NAMES}.
+     *@return The offsets, or null if the lemma is not found.
+     */
+    public int[] getSynsetOffsets(String sLemma, int iPOS) {
+        int iLemma = Arrays.binarySearch(Lemmas[iPOS], sLemma);
+        if (iLemma < 0)
+            return null;
+        return Arrays.copyOfRange(Synsets[iPOS], SenseStarts[iPOS][iLemma],
+                SenseStarts[iPOS][iLemma + 1]);
+    }
+
+    /** Returns true if a lemma exists for a given part of speech. */
+    protected boolean isDefined(String sLemma, int iPOS) {
+        return Arrays.binarySearch(Lemmas[iPOS], sLemma) >= 0;
+    }
+
+    /** Returns the lemmas of the index matching a searched string, trying the variations the
+     * WordNet tool tries (lower case, spaces as underscores, underscores as hyphens, hyphens as
+     * underscores, no hyphens or underscores, no periods). */
+    private List<String> getIndexLemmas(String sString, int iPOS) {
+        String sBase = sString.trim().toLowerCase().replace(' ', '_');
+        LinkedHashSet<String> hsVariations = new LinkedHashSet<String>();
+        hsVariations.add(sBase);
+        hsVariations.add(sBase.replace('_', '-'));
+        hsVariations.add(sBase.replace('-', '_'));
+        hsVariations.add(sBase.replace("-", "").replace("_", ""));
+        hsVariations.add(sBase.replace(".", ""));
+        List<String> lRes = new ArrayList<String>();
+        for (String sVariation : hsVariations)
+            if (isDefined(sVariation, iPOS))
+                lRes.add(sVariation);
+        return lRes;
+    }
+
+    /** Returns the base forms of a word or collocation, as the WordNet morphological processor
+     * does: the base forms of the exception list if the string is an exception; otherwise the base
+     * form of the whole string (except for verbs); otherwise, for verbs followed by a preposition,
+     * the collocation with the verb (and possibly the last word) in base form; otherwise the
+     * collocation with every word in base form, if it exists in the index.
+     *@param sWord The word, in lower case and with underscores instead of spaces.
+     *@param iPOS The part of speech, as an index of {@link #POS_NAMES}.
+     *@return The base forms (possibly empty).
+     */
+    public List<String> getBaseForms(String sWord, int iPOS) {
+        List<String> lRes = new ArrayList<String>();
+        String[] saExceptions = Exceptions.get(iPOS).get(sWord);
+        if ((saExceptions != null) && !saExceptions[0].equals(sWord)) {
+            lRes.addAll(Arrays.asList(saExceptions));
+            return lRes;
+        }
+        if (iPOS != 1) {
+            String sBase = getBaseWord(sWord, iPOS);
+            if ((sBase != null) && !sBase.equals(sWord)) {
+                lRes.add(sBase);
+                return lRes;
+            }
+        }
+        if ((iPOS == 1) && hasPreposition(sWord)) {
+            String sBase = getVerbCollocationBase(sWord);
+            if (sBase != null)
+                lRes.add(sBase);
+            return lRes;
+        }
+
+        // Every word of the collocation (separated by underscores or hyphens) in base form
+        StringBuilder sbBase = new StringBuilder();
+        int iStart = 0;
+        while (true) {
+            int iEnd = iStart;
+            while ((iEnd < sWord.length()) && (sWord.charAt(iEnd) != '_') &&
+                    (sWord.charAt(iEnd) != '-'))
+                iEnd++;
+            String sPart = sWord.substring(iStart, iEnd);
+            String sBase = getBaseWord(sPart, iPOS);
+            sbBase.append((sBase == null) ? sPart : sBase);
+            if (iEnd == sWord.length())
+                break;
+            sbBase.append(sWord.charAt(iEnd));
+            iStart = iEnd + 1;
+        }
+        String sBase = sbBase.toString();
+        if (!sBase.equals(sWord) && isDefined(sBase, iPOS))
+            lRes.add(sBase);
+        return lRes;
+    }
+
+    /** Returns the base form of a single string, i.e. the first base form of the exception list
+     * if the string is an exception, otherwise the first form derived by the detachment rules
+     * which exists in the index.
+     *@return The base form, or null if none is found.
+     */
+    private String getBaseWord(String sWord, int iPOS) {
+        String[] saExceptions = Exceptions.get(iPOS).get(sWord);
+        if (saExceptions != null)
+            return saExceptions[0];
+        if (MORPH_RULES[iPOS].length == 0)
+            return null;
+
+        String sStem = sWord, sEnd = "";
+        if (iPOS == 0) {
+            if (sWord.endsWith("ful")) {
+                sStem = sWord.substring(0, sWord.length() - 3);
+                sEnd = "ful";
+            }
+            else
+            if (sWord.endsWith("ss") || (sWord.length() <= 2))
+                return null;
+        }
+        String[] saRules = MORPH_RULES[iPOS];
+        for (int iCnt = 0; iCnt < saRules.length; iCnt += 2) {
+            if (!sStem.endsWith(saRules[iCnt]))
+                continue;
+            String sBase = sStem.substring(0, sStem.length() - saRules[iCnt].length()) +
+                    saRules[iCnt + 1];
+            if (!sBase.equals(sStem) && isDefined(sBase, iPOS))
+                return sBase + sEnd;
+        }
+        return null;
+    }
+
+    /** Returns true if a word after the first word of a collocation is a preposition. */
+    private static boolean hasPreposition(String sWord) {
+        String[] saWords = sWord.split("_");
+        for (int iCnt = 1; iCnt < saWords.length; iCnt++)
+            if (Arrays.asList(PREPOSITIONS).contains(saWords[iCnt]))
+                return true;
+        return false;
+    }
+
+    /** Returns the base form of a verb collocation containing a preposition, by putting the
+     * verb (assumed to be the first word) in base form and, if that is not found in the index,
+     * also the last word (as a noun).
+     *@return The base form, or null if none is found.
+     */
+    private String getVerbCollocationBase(String sWord) {
+        int iRest = sWord.indexOf('_');
+        int iLast = sWord.lastIndexOf('_');
+        String sVerb = sWord.substring(0, iRest);
+        String sRest = sWord.substring(iRest);
+        String sLastRest = null;
+        if (iRest != iLast) {
+            String sLastBase = getBaseWord(sWord.substring(iLast + 1), 0);
+            if (sLastBase != null)
+                sLastRest = sWord.substring(iRest, iLast + 1) + sLastBase;
+        }
+        for (int iCnt = 0; iCnt < sVerb.length(); iCnt++)
+            if (!Character.isLetterOrDigit(sVerb.charAt(iCnt)))
+                return null;
+
+        List<String> lVerbBases = new ArrayList<String>();
+        String[] saExceptions = Exceptions.get(1).get(sVerb);
+        if (saExceptions != null)
+            lVerbBases.add(saExceptions[0]);
+        String[] saRules = MORPH_RULES[1];
+        for (int iCnt = 0; iCnt < saRules.length; iCnt += 2)
+            if (sVerb.endsWith(saRules[iCnt]))
+                lVerbBases.add(sVerb.substring(0, sVerb.length() - saRules[iCnt].length()) +
+                        saRules[iCnt + 1]);
+        for (String sVerbBase : lVerbBases) {
+            if (sVerbBase.equals(sVerb))
+                continue;
+            if (isDefined(sVerbBase + sRest, 1))
+                return sVerbBase + sRest;
+            if ((sLastRest != null) && isDefined(sVerbBase + sLastRest, 1))
+                return sVerbBase + sLastRest;
+        }
+        if ((sLastRest != null) && !sWord.equals(sVerb + sLastRest))
+            return sVerb + sLastRest;
+        return null;
+    }
+
+    /** Returns the lemmas to look up for a word, i.e. the matching lemmas of the index followed
+     * by the lemmas of the base forms of the word. */
+    private List<String> getSearchLemmas(String sWord, int iPOS) {
+        LinkedHashSet<String> hsRes = new LinkedHashSet<String>(getIndexLemmas(sWord, iPOS));
+        for (String sBase : getBaseForms(sWord.trim().toLowerCase().replace(' ', '_'), iPOS))
+            hsRes.addAll(getIndexLemmas(sBase, iPOS));
+        return new ArrayList<String>(hsRes);
+    }
+
+    /** Reads the line of a synset from a data file. Reads use absolute positions of the
+     * mapped file, so concurrent calls do not interfere. */
+    private String readSynsetLine(int iPOS, int iOffset) {
+        MappedByteBuffer mbbData = Data[iPOS];
+        if ((mbbData == null) || (iOffset >= mbbData.limit()))
+            return null;
+        StringBuilder sbLine = new StringBuilder(256);
+        for (int iPos = iOffset; iPos < mbbData.limit(); iPos++) {
+            char cCur = (char)(mbbData.get(iPos) & 0xFF);
+            if (cCur == '\n')
+                break;
+            sbLine.append(cCur);
+        }
+        return sbLine.toString();
+    }
+
+    /** Returns the words and the gloss of a synset. The words are given as the WordNet tool
+     * shows them, i.e. with spaces instead of underscores and without adjective markers.
+     *@param iPOS The part of speech, as an index of {@link #POS_NAMES}.
+     *@param iOffset The synset offset.
+     *@return An array of the words followed by the gloss, or null if the synset is not found.
+     */
+    public String[] getSynset(int iPOS, int iOffset) {
+        String sLine = readSynsetLine(iPOS, iOffset);
+        if (sLine == null)
+            return null;
+        int iGloss = sLine.indexOf('|');
+        String[] saTokens = ((iGloss < 0) ? sLine : sLine.substring(0, iGloss)).split(" ");
+        int iWords = Integer.parseInt(saTokens[3], 16);
+        String[] saRes = new String[iWords + 1];
+        for (int iCnt = 0; iCnt < iWords; iCnt++)
+            saRes[iCnt] = saTokens[4 + iCnt * 2].replaceAll("[(][a-z]+[)]$", "").replace(
+                    '_', ' ');
+        saRes[iWords] = (iGloss < 0) ? "" : sLine.substring(iGloss + 1).trim();
+        return saRes;
+    }
+
+    /** Returns the sense lines of the overview of a word (as printed by the <code>-over</code>
+     * option of the WordNet tool) for all parts of speech, in the order the tool prints them.
+     * Every line is of the form <code>N. [(tag count)] words -- (gloss)</code>.
+     *@param sWord The word to look up.
+     *@return The sense lines (possibly empty).
+     */
+    public List<String> getOverview(String sWord) {
+        List<String> lRes = new ArrayList<String>();
+        for (int iPOS = 0; iPOS < POS_NAMES.length; iPOS++)
+            for (String sLemma : getSearchLemmas(sWord, iPOS)) {
+                int[] iaOffsets = getSynsetOffsets(sLemma, iPOS);
+                for (int iSense = 0; iSense < iaOffsets.length; iSense++) {
+                    String[] saSynset = getSynset(iPOS, iaOffsets[iSense]);
+                    if (saSynset == null)
+                        continue;
+                    StringBuilder sbLine = new StringBuilder();
+                    sbLine.append(iSense + 1).append(". ");
+                    Integer iCount = TagCounts.get(senseKey(sLemma, iPOS, iaOffsets[iSense]));
+                    if (iCount != null)
+                        sbLine.append('(').append(iCount).append(") ");
+                    for (int iCnt = 0; iCnt < saSynset.length - 1; iCnt++)
+                        sbLine.append((iCnt == 0) ? "" : ", ").append(saSynset[iCnt]);
+                    sbLine.append(" -- (").append(saSynset[saSynset.length - 1]).append(')');
+                    lRes.add(sbLine.toString());
+                }
+            }
+        return lRes;
+    }
+}
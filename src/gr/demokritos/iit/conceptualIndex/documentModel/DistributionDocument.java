@@ -10,11 +10,13 @@ package gr.demokritos.iit.conceptualIndex.documentModel;
 import gr.demokritos.iit.conceptualIndex.events.IDistributionComparisonListener;
 import gr.demokritos.iit.conceptualIndex.structs.Distribution;
 import gr.demokritos.iit.conceptualIndex.structs.DistributionGraph;
+import gr.demokritos.iit.conceptualIndex.structs.TransitionTable;
 import java.io.ByteArrayOutputStream;
 import java.io.FileInputStream;
 import java.io.IOException;
 import java.io.Serializable;
 import java.util.Iterator;
+import java.util.Map;
 import gr.demokritos.iit.jinsect.utils;
 import salvo.jesus.graph.Edge;
 import salvo.jesus.graph.VertexImpl;
@@ -23,17 +25,28 @@ import salvo.jesus.graph.VertexImpl;
  * probability of a token (character) to appear after a given n-gram, indicated as <i>source</i>.
  * Allows input and output operations
  * and can function as grammar indicator, to determine normality of other texts.
+ * <p>The distributions are held in a {@link TransitionTable}, i.e. as primitive arrays of
+ * neighbourhood window size; the graph is only created when requested.</p>
  *
  * @author ggianna
  */
 public class DistributionDocument  implements Serializable {
+    /** Kept equal to the implicit value of the graph based versions, so that their
+     * serialized documents can still be read.
+     */
+    private static final long serialVersionUID = -3025699745337102762L;
     
     /* Instance Variables */
     
-    /** The Graph representing the document
+    /** The Graph representing the document. Created from the transitions on demand.
      *@see DistributionGraph
      */
-    protected DistributionGraph Graph;
+    protected DistributionGraph Graph = null;
+    /** The transitions of the document, holding the distribution of distances of every
+     * token from every source n-gram it follows.
+     *@see TransitionTable
+     */
+    protected TransitionTable Transitions;
     /** The string corresponding to input texts directly.
      */
     protected String DataString = "";
@@ -53,7 +66,7 @@ public class DistributionDocument  implements Serializable {
     
     private void writeObject(java.io.ObjectOutputStream out)
       throws IOException {
-        out.writeObject(Graph);
+        out.writeObject(Transitions);
         out.writeObject(DataString);
         out.writeInt(NeighbourhoodWindow);
         out.writeInt(SourceNGramSize);
@@ -61,10 +74,15 @@ public class DistributionDocument  implements Serializable {
 
     private void readObject(java.io.ObjectInputStream in)
       throws IOException, ClassNotFoundException {
-        Graph = (DistributionGraph)in.readObject();
+        Object oModel = in.readObject();
         DataString = (String)in.readObject();
         NeighbourhoodWindow = in.readInt();
         SourceNGramSize = in.readInt();
+        // Documents saved before the use of transition tables hold the graph
+        if (oModel instanceof DistributionGraph)
+            setDocumentGraph((DistributionGraph)oModel);
+        else
+            Transitions = (TransitionTable)oModel;
     }
     
     /** Creates a new instance of DistributionDocument. The source n-gram size is set to the default
@@ -73,8 +91,8 @@ public class DistributionDocument  implements Serializable {
      *source n-gram and a given token.
      */
     public DistributionDocument(int iNeighbourhoodWindow) {
-        Graph = new DistributionGraph();
         NeighbourhoodWindow = iNeighbourhoodWindow;
+        Transitions = new TransitionTable(NeighbourhoodWindow);
         //hNGrams = new HashMap();
     }
     
@@ -85,14 +103,15 @@ public class DistributionDocument  implements Serializable {
      */
     public DistributionDocument(int iNeighbourhoodWindow, int iSourceNGramSize) {
         SourceNGramSize = iSourceNGramSize;
-        Graph = new DistributionGraph();
         NeighbourhoodWindow = iNeighbourhoodWindow;
+        Transitions = new TransitionTable(NeighbourhoodWindow);
         //hNGrams = new HashMap();
     }
     
     /** Clears the document graph, resetting the representation. */
     public void clearDocumentGraph() {
-        Graph = new DistributionGraph();
+        Transitions = new TransitionTable(NeighbourhoodWindow);
+        Graph = null;
     }
     
     /** Sets the document graph to a selected existing graph.
@@ -100,15 +119,39 @@ public class DistributionDocument  implements Serializable {
      *@see DistributionGraph
      */
     public void setDocumentGraph(DistributionGraph dgNew) {
+        Transitions = toTransitionTable(dgNew);
         Graph = dgNew;
     }
 
+    /** Returns the document graph, creating it from the transitions of the document if
+     * required. The graph should not be modified; use {@link #setDocumentGraph} instead.
+     *@return The document graph.
+     *@see DistributionGraph
+     */
+    public DistributionGraph getDocumentGraph() {
+        if (Graph == null) {
+            DistributionGraph dgRes = new DistributionGraph();
+            for (int iEntry = 0; iEntry < Transitions.size(); iEntry++) {
+                try {
+                    Edge e = dgRes.addEdge(new VertexImpl(Transitions.getSource(iEntry)),
+                            new VertexImpl(Transitions.getNext(iEntry)));
+                    dgRes.setEdgeDistro(e, Transitions.getDistribution(iEntry));
+                }
+                catch (Exception exc) {
+                    exc.printStackTrace();
+                }
+            }
+            Graph = dgRes;
+        }
+        return Graph;
+    }
+
     /**Calculates the size of the full document object, by getting the edge count of the
      * corresponding graph and <i>not</i> the datastring (i.e. text) size.
      *@return The size of the document object, based on edge count.
      ***/
     public int length() {
-        return Graph.getEdgesCount();
+        return Transitions.size();
     }
     
     /** Loads the contents of a file as the datastring.
@@ -169,54 +212,53 @@ public class DistributionDocument  implements Serializable {
             //hNGrams.clear();
         }
         
+        addTransitions(sDataString, iNGramSize, Transitions);
+        Graph = null; // Graph has to be recreated
+        
+        if (clearCurrentData)
+            DataString = sDataString;
+        else
+            DataString += sDataString;
+    }
+
+    /** Adds the transitions of a string to a given table, using substrings of selected size
+     * as source n-grams and substrings of size 1 (letters) as tokens.
+     *@param sDataString The data string to analyse.
+     *@param iNGramSize The size of the n-grams used as sources.
+     *@param ttTarget The table to add the transitions to.
+     */
+    protected void addTransitions(String sDataString, int iNGramSize, TransitionTable ttTarget) {
         int iLen = sDataString.length();
         
         // If n-gram not bigger than text
         if (iNGramSize < iLen)
         {
-            // TODO: Use text preprocessor
-            String sUsableString = new String(sDataString);
-
-            // The String has a size of at least [iNGramSize]
-            String sCurNGram = "";
-            for (int iCurStart = 0; iCurStart < iLen; iCurStart++)
+            // Identify every token once
+            int[] iaTokens = new int[iLen];
+            int[] iaCharIds = new int[256];
+            for (int iPos = iNGramSize; iPos < iLen; iPos++) {
+                char cCur = sDataString.charAt(iPos);
+                if (cCur < iaCharIds.length) {
+                    if (iaCharIds[cCur] == 0)
+                        iaCharIds[cCur] = ttTarget.addSymbol(String.valueOf(cCur)) + 1;
+                    iaTokens[iPos] = iaCharIds[cCur] - 1;
+                }
+                else
+                    iaTokens[iPos] = ttTarget.addSymbol(String.valueOf(cCur));
+            }
+            
+            for (int iCurStart = 0; iCurStart + iNGramSize < iLen; iCurStart++)
             {
-                // Do not exceed string length
-                if (iCurStart + iNGramSize > iLen)
-                    continue;
-                
-                // Get n-gram                
-                sCurNGram = sUsableString.substring(iCurStart, iCurStart + iNGramSize);
+                // Get n-gram
+                int iCurNGram = ttTarget.addSymbol(sDataString.substring(iCurStart,
+                        iCurStart + iNGramSize));
                 for (int iCurNeighbour = 0; 
                     (iCurNeighbour < NeighbourhoodWindow) && (iCurStart + iNGramSize + iCurNeighbour < iLen);
                     iCurNeighbour++)
-                {
-                    String sNeighbour = sUsableString.substring(iCurStart + iNGramSize + iCurNeighbour,
-                            iCurStart + iNGramSize + iCurNeighbour + 1);
-                    try {
-                        Edge e = gr.demokritos.iit.jinsect.utils.locateEdgeInGraph(Graph, sCurNGram, sNeighbour);
-                        if (e == null)
-                            e = Graph.addEdge(new VertexImpl(sCurNGram), new VertexImpl(sNeighbour));
-                        Distribution d = (Graph.getEdgeDistro(e) == null) ? 
-                            new Distribution() : Graph.getEdgeDistro(e);
-                        d.setValue(iCurNeighbour + 1, d.getValue(iCurNeighbour + 1) + 1.0);
-                        
-                        // Add word
-                        //hNGrams.put(sCurNGram + sNeighbour, 1);
-                        
-                        Graph.setEdgeDistro(e, d);
-                    }
-                    catch (Exception exc) {
-                        exc.printStackTrace();
-                    }
-                }
-            }            
+                    ttTarget.add(iCurNGram, iaTokens[iCurStart + iNGramSize + iCurNeighbour],
+                            iCurNeighbour + 1, 1.0f);
+            }
         }
-        
-        if (clearCurrentData)
-            DataString = sDataString;
-        else
-            DataString += sDataString;
     }
     
     /** Returns the current data string (i.e. text representation) of the document.
@@ -226,11 +268,25 @@ public class DistributionDocument  implements Serializable {
         return DataString;
     }
     
-    /** TODO: Document
+    /** Merges the distributions of another document into this document, by adding the
+     * distributions of every transition. The data string of the other document is appended to the
+     * data string of this document.
+     *@param tpData The document to merge with.
+     *@param fLearningRate The factor multiplying the distributions of the other document before
+     * the addition. A value of 1.0 has the same effect as training with the other document.
+     *@throws IllegalArgumentException If the documents differ in neighbourhood window or
+     * source n-gram size, so that their distributions are not comparable.
      */
     public void mergeWith(DistributionDocument tpData, double fLearningRate) {
-        // TODO: IMPLEMENT
-        //Graph.mergeGraph(tpData.getDocumentGraph(), fLearningRate);
+        if ((tpData.NeighbourhoodWindow != NeighbourhoodWindow) ||
+                (tpData.SourceNGramSize != SourceNGramSize))
+            throw new IllegalArgumentException("Cannot merge a document of window " +
+                    tpData.NeighbourhoodWindow + " and source n-gram size " +
+                    tpData.SourceNGramSize + " into one of window " + NeighbourhoodWindow +
+                    " and source n-gram size " + SourceNGramSize + ".");
+        Transitions.addAll(tpData.Transitions, (float)fLearningRate);
+        Graph = null; // Graph has to be recreated
+        DataString += tpData.DataString;
     }
     
     /** TODO: Document
@@ -241,10 +297,68 @@ public class DistributionDocument  implements Serializable {
         // Graph.prune(dMinCoexistenceImportance);
     }
 
+    /** Returns the size of the window indicating neighbourhood.
+     */
+    public int getNeighbourhoodWindow() {
+        return NeighbourhoodWindow;
+    }
+
+    /** Returns the size of the source n-grams.
+     */
+    public int getSourceNGramSize() {
+        return SourceNGramSize;
+    }
+
+    /** Returns the {@link TransitionTable} holding the distributions of the document. The
+     * table is not a copy; it should not be modified.
+     *@return The table of the document.
+     *@see TransitionTable#normalityOf(TransitionTable)
+     */
+    public TransitionTable toTransitionTable() {
+        return Transitions;
+    }
+
+    /** Creates a {@link TransitionTable} holding the distributions of all the edges of a graph.
+     *@param dgGraph The graph to use.
+     *@return The table.
+     */
+    protected TransitionTable toTransitionTable(DistributionGraph dgGraph) {
+        TransitionTable ttRes = new TransitionTable(NeighbourhoodWindow);
+        Iterator iIter = dgGraph.getEdgeSet().iterator();
+        while (iIter.hasNext()) {
+            Edge eCur = (Edge)iIter.next();
+            Distribution dCur = dgGraph.getEdgeDistro(eCur);
+            if (dCur == null)
+                continue;
+            Iterator<Map.Entry> iValues = dCur.asTreeMap().entrySet().iterator();
+            while (iValues.hasNext()) {
+                Map.Entry eValue = iValues.next();
+                int iDistance = ((Number)eValue.getKey()).intValue();
+                if ((iDistance < 1) || (iDistance > NeighbourhoodWindow))
+                    continue;
+                ttRes.add(eCur.getVertexA().getLabel(), eCur.getVertexB().getLabel(),
+                        iDistance, ((Double)eValue.getValue()).floatValue());
+            }
+        }
+        return ttRes;
+    }
+
+    /** Creates the {@link TransitionTable} of a given string, containing the same distributions
+     * as this document would after {@link #setDataString(String, boolean)} with the string
+     * (and no other data).
+     *@param sDataString The string to analyse.
+     *@return The table of the string.
+     */
+    public TransitionTable getTransitionTable(String sDataString) {
+        TransitionTable ttRes = new TransitionTable(NeighbourhoodWindow);
+        addTransitions(sDataString, SourceNGramSize, ttRes);
+        return ttRes;
+    }
+
     /** Returns a string representation of the document graph.
      */
     public String toString() {
-        return Graph.toString();
+        return getDocumentGraph().toString();
     }
     
     /** Calculates a degree of normality, indicating whether a given string appears in a form
@@ -255,31 +369,20 @@ public class DistributionDocument  implements Serializable {
      *@see Distribution
      */
     public double normality(String s) {
-        DistributionDocument dDoc = new DistributionDocument(NeighbourhoodWindow,SourceNGramSize);
-        dDoc.setDataString(s, SourceNGramSize, true);
+        TransitionTable ttCandidate = getTransitionTable(s);
+        if (OnCompare == null)
+            return Transitions.normalityOf(ttCandidate);
         
         double dRes = 0.0; // Normality
         int iCnt = 0;
         try {
-            Iterator iIter = dDoc.Graph.getEdgeSet().iterator();
-            while (iIter.hasNext()){
-                Edge eCur = (Edge)iIter.next();
-                Distribution dCur = dDoc.Graph.getEdgeDistro(eCur);
-                
-                Edge e = gr.demokritos.iit.jinsect.utils.locateEdgeInGraph(Graph, eCur.getVertexA(), eCur.getVertexB());
-                if (e != null) // If the edge was found then
-                {
-                    Distribution d = (Graph.getEdgeDistro(e) == null) ? 
-                        new Distribution() : Graph.getEdgeDistro(e);
-                    
-                    if (OnCompare != null)
-                        dRes += OnCompare.compareDistributions(dCur, d);
-                    else
-                        dRes += dCur.similarityTo(d);                    
-                }
+            for (iCnt = 0; iCnt < ttCandidate.size(); iCnt++) {
+                int iEntry = Transitions.find(ttCandidate.getSource(iCnt),
+                        ttCandidate.getNext(iCnt));
+                if (iEntry >= 0) // If the transition was found then
+                    dRes += OnCompare.compareDistributions(ttCandidate.getDistribution(iCnt),
+                            Transitions.getDistribution(iEntry));
                 //else ignore
-                
-                iCnt ++;
             }
         }
         catch (Exception exc) {
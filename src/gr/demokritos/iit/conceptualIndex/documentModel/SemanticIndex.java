@@ -7,6 +7,8 @@
 
 package gr.demokritos.iit.conceptualIndex.documentModel;
 
+import gr.demokritos.iit.conceptualIndex.CachedMeaningExtractor;
+import gr.demokritos.iit.conceptualIndex.IDefinitiveMeaningExtractor;
 import gr.demokritos.iit.conceptualIndex.IMeaningExtractor;
 import gr.demokritos.iit.conceptualIndex.InternetWordNetMeaningExtractor;
 import gr.demokritos.iit.conceptualIndex.LocalWordNetMeaningExtractor;
@@ -14,6 +16,7 @@ import gr.demokritos.iit.jinsect.events.NotificationListener;
 import java.io.IOException;
 import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.Collection;
 import java.util.List;
 import java.util.HashMap;
 import java.util.Iterator;
@@ -55,6 +58,10 @@ public class SemanticIndex implements Notifier {
      *@see IMeaningExtractor
      */
     public IMeaningExtractor MeaningExtractor = null;
+    /** The cache of lookups of the meaning extractor.
+     *@see #getMeaningExtractor()
+     */
+    protected CachedMeaningExtractor CachedExtractor = null;
     
     public NotificationListener Listener = null; 
     
@@ -86,11 +93,7 @@ public class SemanticIndex implements Notifier {
         //DictService_Impl dServe = new DictService_Impl();
         //DictServiceSoap dsServe = dServe.getDictServiceSoap();
         //WordDefinition wd = dsServe.defineInDict("wn", vNode.toString()); // WordNet
-        if (MeaningExtractor == null)
-        {
-            MeaningExtractor = new InternetWordNetMeaningExtractor(); // Init to default
-        }
-        WordDefinition wd = MeaningExtractor.getMeaning(vNode.toString());
+        WordDefinition wd = getMeaningExtractor().getMeaning(vNode.toString());
 
         boolean bMeaningFound = (wd != null);
         if (bMeaningFound)
@@ -140,6 +143,38 @@ public class SemanticIndex implements Notifier {
         return wd;        
     }
     
+    /** Returns the (cached) meaning extractor used for lookups. The assigned
+     * {@link #MeaningExtractor} (or the default {@link InternetWordNetMeaningExtractor}, if none
+     * is assigned) is wrapped in a {@link CachedMeaningExtractor}, unless it is already cached.
+     *@return The meaning extractor to use.
+     */
+    protected synchronized IMeaningExtractor getMeaningExtractor() {
+        if (MeaningExtractor == null)
+        {
+            MeaningExtractor = new InternetWordNetMeaningExtractor(); // Init to default
+        }
+        if (MeaningExtractor instanceof CachedMeaningExtractor)
+            return MeaningExtractor;
+        // Wrap anew, if the extractor has been replaced
+        if ((CachedExtractor == null) || (CachedExtractor.getSource() != MeaningExtractor))
+            CachedExtractor = new CachedMeaningExtractor(MeaningExtractor);
+        return CachedExtractor;
+    }
+
+    /** Looks up the meanings of a set of strings in parallel, so that subsequent calls to
+     * {@link #getMeaning(String)} for these strings do not need to wait for the meaning
+     * extractor. Only done if the cached extractor is an {@link IDefinitiveMeaningExtractor}
+     * (e.g. a local WordNet), since other extractors (e.g. remote services) would be sent
+     * many lookups that may never be needed.
+     *@param cStrings The strings to look up.
+     */
+    public void prefetchMeanings(Collection<String> cStrings) {
+        IMeaningExtractor me = getMeaningExtractor();
+        if ((me instanceof CachedMeaningExtractor) &&
+                (((CachedMeaningExtractor)me).getSource() instanceof IDefinitiveMeaningExtractor))
+            ((CachedMeaningExtractor)me).getMeanings(cStrings);
+    }
+
     /**
      * TODO: Implement 
      * Determines the similarity between two nodes of this graph.
@@ -8,6 +8,7 @@
 package gr.demokritos.iit.conceptualIndex.documentModel;
 
 import gr.demokritos.iit.jinsect.structs.EdgeCachedLocator;
+import gr.demokritos.iit.jinsect.structs.SuffixArray;
 import java.io.ByteArrayOutputStream;
 import java.io.FileInputStream;
 import java.io.IOException;
@@ -19,6 +20,13 @@ import java.util.ListIterator;
 import java.util.Map;
 import java.util.Set;
 import java.util.TreeSet;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.logging.Level;
+import java.util.logging.Logger;
 import gr.demokritos.iit.jinsect.events.NotificationListener;
 import gr.demokritos.iit.jinsect.structs.UniqueVertexGraph;
 import gr.demokritos.iit.jinsect.structs.UniqueVertexHugeGraph;
@@ -46,7 +54,14 @@ public class SymbolicGraph extends UniqueVertexHugeGraph implements gr.demokrito
     protected String DataString;
     /**The alphabet of symbols (characters) contained in the data string
      */
-    protected Set Alphabet = null;
+    protected volatile Set Alphabet = null;
+    /**The suffix array of the data string, used for substring statistics. Built when first
+     *needed and reset whenever the data string changes.
+     */
+    protected transient volatile SuffixArray DataIndex = null;
+    /**The builder holding the text given to {@link #appendDataString(String)}.
+     */
+    protected transient SymbolicGraphBuilder Builder = null;
     
     /** Creates a new instance of SymbolicGraph given a range of n-gram ranks (lengths).  
      *@param iMinNGramSize The minimum n-gram size within this graph.
@@ -419,7 +434,10 @@ public class SymbolicGraph extends UniqueVertexHugeGraph implements gr.demokrito
     
     /** Augments this graph given a string. For all n-gram ranks the n-grams are computed
      * and vertices are created mapping lower rank vertices to higher rank vertices. 
+     * The given string is processed on its own, i.e. no n-grams spanning previously
+     * given strings are considered.
      *@param sDataString The string used to extract n-grams.
+     *@see #appendDataString(String)
      */
     public void setDataString(String sDataString) {
         if (DataString != null)
@@ -427,86 +445,144 @@ public class SymbolicGraph extends UniqueVertexHugeGraph implements gr.demokrito
         else
             DataString = sDataString;
         
-        // Reset alphabet
+        // Reset alphabet and index
         Alphabet = null;
+        DataIndex = null;
         
-        int iLen = sDataString.length();
-        int iStart = 0, iNGramSize = 0;
-        EdgeCachedLocator ecl = new EdgeCachedLocator(100);
-        
-        HashMap hCache = new HashMap();
+        SymbolicGraphBuilder sgbBuilder = new SymbolicGraphBuilder(MinNGramSize, MaxNGramSize);
+        sgbBuilder.append(sDataString);
+        updateEdges(sgbBuilder);
+    }
+    
+    /** Augments this graph given a list of strings, as consecutive calls of 
+     * {@link #setDataString(String)} for every string would. The n-grams of the strings 
+     * are extracted in parallel, while the graph is updated by the calling thread, 
+     * in the order of the strings.
+     *@param lDataStrings The strings used to extract n-grams.
+     *@param iThreads The number of threads to use for the extraction of n-grams.
+     *@throws InterruptedException If the calling thread is interrupted. In that case 
+     * the graph has been augmented with a (possibly empty) prefix of the given strings.
+     */
+    public void setDataStrings(List<String> lDataStrings, int iThreads) 
+            throws InterruptedException {
+        if (lDataStrings.isEmpty())
+            return;
         
-        for (iNGramSize = MinNGramSize; iNGramSize <= MaxNGramSize; iNGramSize++) {
-            
-            String sCurNGram = "";
-            String sCurNGramChild = "";
+        // Keep a window of strings being processed ahead of the graph update
+        int iWindow = Math.max(1, iThreads) * 4;
+        ExecutorService esBuilders = Executors.newFixedThreadPool(Math.max(1, iThreads));
+        List<Future<SymbolicGraphBuilder>> lBuilders = 
+                new ArrayList<Future<SymbolicGraphBuilder>>(lDataStrings.size());
+        StringBuilder sbDataString = new StringBuilder(DataString == null ? "" : DataString);
+        boolean bUpdated = false;
+        try {
+            for (int iCnt = 0; iCnt < lDataStrings.size(); iCnt++) {
+                // Fill window
+                while ((lBuilders.size() < lDataStrings.size()) && 
+                        (lBuilders.size() < iCnt + iWindow)) {
+                    final String sCur = lDataStrings.get(lBuilders.size());
+                    lBuilders.add(esBuilders.submit(new Callable<SymbolicGraphBuilder>() {
+                        public SymbolicGraphBuilder call() {
+                            SymbolicGraphBuilder sgbBuilder = new SymbolicGraphBuilder(
+                                    MinNGramSize, MaxNGramSize);
+                            sgbBuilder.append(sCur);
+                            return sgbBuilder;
+                        }
+                    }));
+                }
+                if (Thread.currentThread().isInterrupted())
+                    throw new InterruptedException();
+                
+                SymbolicGraphBuilder sgbBuilder;
+                try {
+                    sgbBuilder = lBuilders.get(iCnt).get();
+                } catch (ExecutionException ee) {
+                    throw new IllegalStateException(ee.getCause());
+                }
+                lBuilders.set(iCnt, null); // Release
+                sbDataString.append(lDataStrings.get(iCnt));
+                bUpdated = true;
+                updateEdges(sgbBuilder);
+            }
+        }
+        finally {
+            esBuilders.shutdownNow();
             
-            if (iNGramSize > sDataString.length()) // Data string is shorter than required length.
+            if (bUpdated) {
+                DataString = sbDataString.toString();
+                // Reset alphabet and index
+                Alphabet = null;
+                DataIndex = null;
+            }
+        }
+    }
+    
+    /** Augments this graph given a string, which continues the text given to previous 
+     * calls of this method. N-grams spanning the strings are taken into account, so
+     * that the graph is updated as if all the strings were given at once 
+     * to {@link #setDataString(String)}. The continued text does not survive serialization.
+     *@param sDataString The string to append.
+     */
+    public synchronized void appendDataString(String sDataString) {
+        if (DataString != null)
+            DataString = DataString + sDataString;
+        else
+            DataString = sDataString;
+        
+        // Reset alphabet and index
+        Alphabet = null;
+        DataIndex = null;
+        
+        if (Builder == null)
+            Builder = new SymbolicGraphBuilder(MinNGramSize, MaxNGramSize);
+        Builder.append(sDataString);
+        updateEdges(Builder);
+    }
+    
+    /** Applies the changed n-gram transitions of a builder to the edges of the graph.
+     *@param sgbBuilder The builder holding the transitions.
+     */
+    protected void updateEdges(SymbolicGraphBuilder sgbBuilder) {
+        final EdgeCachedLocator ecl = new EdgeCachedLocator(100);
+        
+        for (int iNGramSize = MinNGramSize; iNGramSize <= MaxNGramSize; iNGramSize++) {
+            if (iNGramSize > sgbBuilder.length()) // Data string is shorter than required length.
                 break;
-            for (iStart = 0; iStart < sDataString.length(); iStart++) {
-                // Get current NGram
-                if (iStart + iNGramSize <= sDataString.length())
-                    sCurNGram = sDataString.substring(iStart, iStart + iNGramSize); // Get current NGram
-                else
-                    continue;
-                // Check cache to avoid duplicates
-                if (hCache.containsKey(sCurNGram))
-                    continue;
-                else
-                    hCache.put(sCurNGram, 1);
-                
-                int iOccurenceCnt = 1; // Count occurences counting from one.
-                
-                // For selected NGram, get child of first occurence
-                if (iStart + iNGramSize + 1 < sDataString.length())
-                     sCurNGramChild = sDataString.substring(iStart, iStart + iNGramSize + 1);
-                
-                WeightedEdge we = null;
-                // Create first edge
-                if ((we = (WeightedEdge)ecl.locateEdgeInGraph(this, new VertexImpl(sCurNGram), new VertexImpl(sCurNGramChild))) == null)
+            
+            sgbBuilder.visitChangedEdges(iNGramSize, new SymbolicGraphBuilder.EdgeVisitor() {
+                public void visit(String sNGram, String sChild, int iDelta, int iWeight) {
+                    VertexImpl vNGram = new VertexImpl(sNGram);
+                    VertexImpl vChild = new VertexImpl(sChild);
+                    WeightedEdge we = (WeightedEdge)ecl.locateEdgeInGraph(SymbolicGraph.this,
+                            vNGram, vChild);
                     try {
-                        this.addEdge(new VertexImpl(sCurNGram), new VertexImpl(sCurNGramChild),
-                                1.0);
+                        if (we == null)
+                            addEdge(vNGram, vChild, iDelta);
+                        else if (we.getWeight() + iDelta > 0.0)
+                            we.setWeight(we.getWeight() + iDelta);
+                        else {
+                            // Retracted edge
+                            removeEdge(we);
+                            ecl.resetCache();
+                            Vertex vEmpty = locateVertex(vChild);
+                            if (sChild.length() == 0 && vEmpty != null && 
+                                    getEdges(vEmpty).isEmpty())
+                                remove(vEmpty);
+                        }
                     }
                     catch (Exception e) {
-                        System.out.println("Cannot add edge:(" + sCurNGram + "," + sCurNGramChild + "");
-                        e.printStackTrace();
-                        continue;
+                        Logger.getLogger(SymbolicGraph.class.getName()).log(Level.WARNING,
+                                "Cannot update edge:(" + sNGram + "," + sChild + ")", e);
                     }
-                else
-                {
-                    we.setWeight(we.getWeight() + 1.0);
-                }
-                // Then get all subsequent occurences
-                int iCurPos = iStart + 1;
-                while ((iCurPos = sDataString.indexOf(sCurNGram, ++iCurPos)) > -1) {
-                    if (iCurPos + iNGramSize + 1 < sDataString.length())
-                         sCurNGramChild = sDataString.substring(iCurPos, iCurPos + iNGramSize + 1);
-                    
-                    if ((we = (WeightedEdge)ecl.locateEdgeInGraph(this, new VertexImpl(sCurNGram), new VertexImpl(sCurNGramChild))) == null)
-                        try {
-                            this.addEdge(new VertexImpl(sCurNGram), new VertexImpl(sCurNGramChild), 
-                                    1.0);
-                        }
-                        catch (Exception e) {
-                            System.out.println("Cannot add edge:(" + sCurNGram + "," + sCurNGramChild + "");
-                            e.printStackTrace();
-                            continue;
-                        }
-                    else
-                    {
-                        we.setWeight(we.getWeight() + 1.0);
-                    }                    
                 }
+            });
             
-                
-            }
-            if (Listener != null) // Notify
+            if (Listener != null) // Notify of the percentage of n-gram sizes done
             {
-                Listener.Notify(this, iNGramSize - MinNGramSize / 100);
+                Listener.Notify(this, new Double(100.0 * (iNGramSize - MinNGramSize + 1) /
+                        (MaxNGramSize - MinNGramSize + 1)));
             }
         }
-                    
     }
     
 
@@ -517,18 +593,36 @@ public class SymbolicGraph extends UniqueVertexHugeGraph implements gr.demokrito
         return DataString;
     }
     
+    /** Returns the suffix array of the data string of the graph, which can be used to
+     * count substring occurrences within the data string. The array is built once
+     * and shared until the data string changes.
+     *@return The {@link SuffixArray} of the data string.
+     */
+    public SuffixArray getSuffixArray() {
+        SuffixArray saRes = DataIndex;
+        if (saRes == null)
+            synchronized (this) {
+                if ((saRes = DataIndex) == null)
+                    DataIndex = saRes = new SuffixArray(DataString == null ? "" : DataString);
+            }
+        return saRes;
+    }
+    
     /** Returns the set of characters contained in the data string of the graph.
      *@return A {@link Set} containing the unique characters in the data string.
      */
     public Set getAlphabet() {
         Set sRes = new TreeSet();
-        if (Alphabet == null) {
+        Set sAlphabet = Alphabet;
+        if (sAlphabet == null) {
             for (int iCnt=0; iCnt<DataString.length(); iCnt++) {
                 sRes.add(DataString.charAt(iCnt));
             }
+            // Keep for subsequent calls
+            Alphabet = new TreeSet(sRes);
         }
         else
-            sRes.addAll(Alphabet);
+            sRes.addAll(sAlphabet);
         
         return sRes;
     }
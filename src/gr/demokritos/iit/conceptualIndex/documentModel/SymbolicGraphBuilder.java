@@ -0,0 +1,408 @@
+/*
+ * Under LGPL
+ * by George Giannakopoulos
+ */
+
+package gr.demokritos.iit.conceptualIndex.documentModel;
+
+import java.util.Arrays;
+
+/** Counts the (n-gram to (n+1)-gram child) transitions that make up a
+ * {@link SymbolicGraph}, in a single pass over a text that may be appended to
+ * incrementally. The n-grams are identified by a rolling (prefix) hash over
+ * the text and all counters are held in primitive tables, so no strings are
+ * created except for the labels of changed edges.
+ * <p>The counts are those of {@link SymbolicGraph#setDataString(String)} over
+ * the whole text appended so far: every distinct n-gram is linked to the child
+ * starting at each of its occurrences, except for the occurrence immediately
+ * following the first one. Occurrences near the end of the text, that have no
+ * child yet, are linked to the last child met before them (or the empty
+ * string); these edges are retracted once more text is appended.</p>
+ *
+ * @author ggianna
+ */
+public class SymbolicGraphBuilder {
+    /** The multiplier of the rolling hash. */
+    private static final long HASH_BASE = 0x100000001B3L;
+    /** The number of recently registered positions to remember per n-gram
+     * size (a power of two). Counting lags registration by up to two
+     * positions. */
+    private static final int RECENT = 4;
+
+    /** The minimum n-gram size. */
+    protected int MinNGramSize;
+    /** The maximum n-gram size. */
+    protected int MaxNGramSize;
+    /** The text appended so far. */
+    protected char[] Text = new char[1024];
+    /** The length of the text. */
+    protected int Length = 0;
+    /** The hash of every prefix of the text, i.e. PrefixHashes[i] is the hash
+     * of the first i characters. */
+    protected long[] PrefixHashes = new long[Text.length + 1];
+    /** The powers of the hash multiplier, up to the maximum child size. */
+    protected long[] Powers;
+    /** The distinct n-grams of every size from the minimum n-gram size to the
+     * maximum size plus one (i.e. including the children of the largest
+     * n-grams). */
+    protected GramTable[] Grams;
+    /** The transition counts for every n-gram size. */
+    protected EdgeTable[] Edges;
+    /** The next position to register, per n-gram size. */
+    protected int[] NextRegistered;
+    /** The next position to count a transition from, per n-gram size. */
+    protected int[] NextCounted;
+    /** The identifiers of the n-grams at the last registered positions, per
+     * n-gram size. */
+    protected int[][] RecentIds;
+
+    /** Creates a new builder for a given range of n-gram sizes.
+     *@param iMinNGramSize The minimum n-gram size.
+     *@param iMaxNGramSize The maximum n-gram size.
+     */
+    public SymbolicGraphBuilder(int iMinNGramSize, int iMaxNGramSize) {
+        MinNGramSize = iMinNGramSize;
+        MaxNGramSize = iMaxNGramSize;
+
+        int iLevels = Math.max(0, MaxNGramSize - MinNGramSize + 1);
+        Powers = new long[MaxNGramSize + 2];
+        Powers[0] = 1;
+        for (int iCnt = 1; iCnt < Powers.length; iCnt++)
+            Powers[iCnt] = Powers[iCnt - 1] * HASH_BASE;
+        Grams = new GramTable[iLevels + 1];
+        for (int iCnt = 0; iCnt < Grams.length; iCnt++)
+            Grams[iCnt] = new GramTable();
+        Edges = new EdgeTable[iLevels];
+        for (int iCnt = 0; iCnt < Edges.length; iCnt++)
+            Edges[iCnt] = new EdgeTable();
+        NextRegistered = new int[iLevels + 1];
+        NextCounted = new int[iLevels];
+        RecentIds = new int[iLevels + 1][RECENT];
+    }
+
+    /** Returns the length of the text appended so far. */
+    public int length() {
+        return Length;
+    }
+
+    /** Appends text, counting all the transitions it completes, including
+     * those that span the previous end of the text.
+     *@param sText The text to append.
+     */
+    public void append(CharSequence sText) {
+        int iAdded = sText.length();
+        if (Length + iAdded > Text.length) {
+            int iNewSize = Math.max(Text.length * 2, Length + iAdded);
+            Text = Arrays.copyOf(Text, iNewSize);
+            PrefixHashes = Arrays.copyOf(PrefixHashes, iNewSize + 1);
+        }
+        for (int iCnt = 0; iCnt < iAdded; iCnt++) {
+            Text[Length] = sText.charAt(iCnt);
+            PrefixHashes[Length + 1] = PrefixHashes[Length] * HASH_BASE +
+                    Text[Length];
+            Length++;
+        }
+
+        int iFrom = Length;
+        for (int iPos : NextRegistered)
+            iFrom = Math.min(iFrom, iPos);
+        for (int iPos : NextCounted)
+            iFrom = Math.min(iFrom, iPos);
+
+        // Single pass over the positions that are affected by the new text
+        for (int iPos = iFrom; iPos < Length; iPos++) {
+            for (int iLevel = 0; iLevel < Grams.length; iLevel++) {
+                int iSize = MinNGramSize + iLevel;
+                if (NextRegistered[iLevel] == iPos && iPos + iSize <= Length) {
+                    register(iLevel, iPos);
+                    NextRegistered[iLevel]++;
+                }
+            }
+            for (int iLevel = 0; iLevel < Edges.length; iLevel++) {
+                int iSize = MinNGramSize + iLevel;
+                if (NextCounted[iLevel] == iPos && iPos + iSize + 1 < Length) {
+                    count(iLevel, iPos);
+                    NextCounted[iLevel]++;
+                }
+            }
+        }
+    }
+
+    /** Returns the hash of a substring of the text. */
+    private long hash(int iPos, int iSize) {
+        return PrefixHashes[iPos + iSize] - PrefixHashes[iPos] * Powers[iSize];
+    }
+
+    /** Registers the n-gram at a given position, if not already known. */
+    private void register(int iLevel, int iPos) {
+        int iSize = MinNGramSize + iLevel;
+        RecentIds[iLevel][iPos & (RECENT - 1)] =
+                Grams[iLevel].findOrAdd(hash(iPos, iSize), Text, iPos, iSize);
+    }
+
+    /** Returns the identifier of the (already registered) n-gram at a given
+     * position. */
+    private int gramAt(int iLevel, int iPos) {
+        if (NextRegistered[iLevel] - iPos <= RECENT)
+            return RecentIds[iLevel][iPos & (RECENT - 1)];
+        int iSize = MinNGramSize + iLevel;
+        return Grams[iLevel].findOrAdd(hash(iPos, iSize), Text, iPos, iSize);
+    }
+
+    /** Counts the transition from the n-gram at a given position to its
+     * child. */
+    private void count(int iLevel, int iPos) {
+        GramTable gtGrams = Grams[iLevel];
+        int iGram = gramAt(iLevel, iPos);
+        int iFirst = gtGrams.Firsts[iGram];
+        if (iPos == iFirst + 1)
+            return; // The occurence following the first one is not counted
+        if (iPos == iFirst)
+            gtGrams.LastNew = iGram;
+        gtGrams.LastChildPos[iGram] = iPos;
+        Edges[iLevel].add(iGram, gramAt(iLevel + 1, iPos), 1, false);
+    }
+
+    /** Reassigns the transitions of the n-grams at the end of the text, that
+     * have no child yet, to the last child met before them.
+     */
+    private void assignTail(int iLevel) {
+        int iSize = MinNGramSize + iLevel;
+        GramTable gtGrams = Grams[iLevel];
+        EdgeTable etEdges = Edges[iLevel];
+        etEdges.clearTails();
+        if (iSize > Length)
+            return;
+
+        // The child of the last new n-gram, or none (the empty string)
+        int iStaleChild = -1;
+        if (gtGrams.LastNew >= 0)
+            iStaleChild = gramAt(iLevel + 1, gtGrams.LastChildPos[gtGrams.LastNew]);
+        for (int iPos = Math.max(0, Length - iSize - 1); iPos <= Length - iSize;
+                iPos++) {
+            int iGram = gramAt(iLevel, iPos);
+            int iFirst = gtGrams.Firsts[iGram];
+            if (iPos == iFirst)
+                etEdges.add(iGram, iStaleChild, 1, true);
+            else if (iPos != iFirst + 1)
+                etEdges.add(iGram, gramAt(iLevel + 1, gtGrams.LastChildPos[iGram]),
+                        1, true);
+        }
+    }
+
+    /** Visits the transitions of a given n-gram size that changed since the
+     * last visit, and marks them as unchanged.
+     *@param iNGramSize The n-gram size.
+     *@param evVisitor The visitor of the changed transitions.
+     */
+    public void visitChangedEdges(int iNGramSize, EdgeVisitor evVisitor) {
+        int iLevel = iNGramSize - MinNGramSize;
+        assignTail(iLevel);
+
+        EdgeTable etEdges = Edges[iLevel];
+        for (int iCnt = 0; iCnt < etEdges.DirtyCount; iCnt++) {
+            int iEntry = etEdges.DirtyList[iCnt];
+            etEdges.Dirty[iEntry] = false;
+            int iWeight = etEdges.Counts[iEntry] + etEdges.Tails[iEntry];
+            int iDelta = iWeight - etEdges.Written[iEntry];
+            if (iDelta == 0)
+                continue;
+            etEdges.Written[iEntry] = iWeight;
+
+            long lKey = etEdges.Keys[iEntry];
+            int iGram = (int)(lKey >>> 32);
+            int iChild = (int)lKey - 1;
+            String sNGram = new String(Text, Grams[iLevel].Firsts[iGram],
+                    iNGramSize);
+            String sChild = (iChild < 0) ? "" : new String(Text,
+                    Grams[iLevel + 1].Firsts[iChild], iNGramSize + 1);
+            evVisitor.visit(sNGram, sChild, iDelta, iWeight);
+        }
+        etEdges.DirtyCount = 0;
+    }
+
+    /** A visitor of changed transitions.
+     *@see SymbolicGraphBuilder#visitChangedEdges(int, EdgeVisitor)
+     */
+    public static interface EdgeVisitor {
+        /** Visits a changed transition.
+         *@param sNGram The n-gram.
+         *@param sChild The child n-gram (may be the empty string).
+         *@param iDelta The change of the transition count.
+         *@param iWeight The current transition count. Zero if the transition
+         * no longer exists.
+         */
+        public void visit(String sNGram, String sChild, int iDelta, int iWeight);
+    }
+
+    /** An open addressing table of the distinct n-grams of a given size. */
+    protected static class GramTable {
+        /** The hash of every n-gram, by identifier. */
+        long[] Hashes = new long[16];
+        /** The first occurence of every n-gram, by identifier. */
+        int[] Firsts = new int[16];
+        /** The last position every n-gram was counted at, by identifier. */
+        int[] LastChildPos = new int[16];
+        /** The table slots, holding identifiers plus one (zero if empty). */
+        int[] Slots = new int[32];
+        /** The number of n-grams. */
+        int Size = 0;
+        /** The last n-gram counted at its first occurence. */
+        int LastNew = -1;
+
+        /** Returns the identifier of an n-gram, adding it if not found. */
+        int findOrAdd(long lHash, char[] caText, int iPos, int iSize) {
+            int iMask = Slots.length - 1;
+            int iSlot = mix(lHash) & iMask;
+            int iEntry;
+            while ((iEntry = Slots[iSlot]) != 0) {
+                int iId = iEntry - 1;
+                if (Hashes[iId] == lHash &&
+                        regionMatches(caText, Firsts[iId], iPos, iSize))
+                    return iId;
+                iSlot = (iSlot + 1) & iMask;
+            }
+
+            if (Size == Hashes.length) {
+                Hashes = Arrays.copyOf(Hashes, Size * 2);
+                Firsts = Arrays.copyOf(Firsts, Size * 2);
+                LastChildPos = Arrays.copyOf(LastChildPos, Size * 2);
+            }
+            Hashes[Size] = lHash;
+            Firsts[Size] = iPos;
+            LastChildPos[Size] = -1;
+            Slots[iSlot] = ++Size;
+            if (Size * 2 > Slots.length)
+                rehash();
+            return Size - 1;
+        }
+
+        private void rehash() {
+            Slots = new int[Slots.length * 2];
+            int iMask = Slots.length - 1;
+            for (int iId = 0; iId < Size; iId++) {
+                int iSlot = mix(Hashes[iId]) & iMask;
+                while (Slots[iSlot] != 0)
+                    iSlot = (iSlot + 1) & iMask;
+                Slots[iSlot] = iId + 1;
+            }
+        }
+
+        private static boolean regionMatches(char[] caText, int iFirst,
+                int iSecond, int iSize) {
+            if (iFirst == iSecond)
+                return true;
+            for (int iCnt = 0; iCnt < iSize; iCnt++)
+                if (caText[iFirst + iCnt] != caText[iSecond + iCnt])
+                    return false;
+            return true;
+        }
+    }
+
+    /** An open addressing table of transition counts, keyed by (n-gram,
+     * child) identifier pairs. */
+    protected static class EdgeTable {
+        /** The key of every entry. */
+        long[] Keys = new long[16];
+        /** The counted transitions of every entry. */
+        int[] Counts = new int[16];
+        /** The (provisional) transitions of every entry from the end of the
+         * text. */
+        int[] Tails = new int[16];
+        /** The weight last visited for every entry. */
+        int[] Written = new int[16];
+        /** Whether every entry changed since the last visit. */
+        boolean[] Dirty = new boolean[16];
+        /** The table slots, holding entry indices plus one (zero if empty). */
+        int[] Slots = new int[32];
+        /** The number of entries. */
+        int Size = 0;
+        /** The changed entries. */
+        int[] DirtyList = new int[16];
+        /** The number of changed entries. */
+        int DirtyCount = 0;
+        /** The entries with a tail transition. */
+        int[] TailList = new int[4];
+        /** The number of entries with a tail transition. */
+        int TailCount = 0;
+
+        /** Adds to the count of a transition.
+         *@param iGram The n-gram identifier.
+         *@param iChild The child identifier, or -1 for the empty string.
+         *@param iCount The count to add.
+         *@param bTail True if the transition is a provisional one from the
+         * end of the text.
+         */
+        void add(int iGram, int iChild, int iCount, boolean bTail) {
+            long lKey = ((long)iGram << 32) | ((iChild + 1) & 0xFFFFFFFFL);
+            int iMask = Slots.length - 1;
+            int iSlot = mix(lKey) & iMask;
+            int iEntry;
+            while ((iEntry = Slots[iSlot]) != 0 && Keys[iEntry - 1] != lKey)
+                iSlot = (iSlot + 1) & iMask;
+            if (iEntry == 0) {
+                if (Size == Keys.length) {
+                    Keys = Arrays.copyOf(Keys, Size * 2);
+                    Counts = Arrays.copyOf(Counts, Size * 2);
+                    Tails = Arrays.copyOf(Tails, Size * 2);
+                    Written = Arrays.copyOf(Written, Size * 2);
+                    Dirty = Arrays.copyOf(Dirty, Size * 2);
+                }
+                Keys[Size] = lKey;
+                Slots[iSlot] = iEntry = ++Size;
+                if (Size * 2 > Slots.length)
+                    rehash();
+            }
+
+            iEntry--;
+            if (bTail) {
+                if (Tails[iEntry] == 0) {
+                    if (TailCount == TailList.length)
+                        TailList = Arrays.copyOf(TailList, TailCount * 2);
+                    TailList[TailCount++] = iEntry;
+                }
+                Tails[iEntry] += iCount;
+            }
+            else
+                Counts[iEntry] += iCount;
+            markDirty(iEntry);
+        }
+
+        /** Removes all the provisional transitions. */
+        void clearTails() {
+            for (int iCnt = 0; iCnt < TailCount; iCnt++) {
+                Tails[TailList[iCnt]] = 0;
+                markDirty(TailList[iCnt]);
+            }
+            TailCount = 0;
+        }
+
+        private void markDirty(int iEntry) {
+            if (Dirty[iEntry])
+                return;
+            Dirty[iEntry] = true;
+            if (DirtyCount == DirtyList.length)
+                DirtyList = Arrays.copyOf(DirtyList, DirtyCount * 2);
+            DirtyList[DirtyCount++] = iEntry;
+        }
+
+        private void rehash() {
+            Slots = new int[Slots.length * 2];
+            int iMask = Slots.length - 1;
+            for (int iEntry = 0; iEntry < Size; iEntry++) {
+                int iSlot = mix(Keys[iEntry]) & iMask;
+                while (Slots[iSlot] != 0)
+                    iSlot = (iSlot + 1) & iMask;
+                Slots[iSlot] = iEntry + 1;
+            }
+        }
+    }
+
+    /** Spreads the bits of a hash value. */
+    private static int mix(long lValue) {
+        lValue ^= lValue >>> 33;
+        lValue *= 0xFF51AFD7ED558CCDL;
+        lValue ^= lValue >>> 33;
+        return (int)lValue;
+    }
+}
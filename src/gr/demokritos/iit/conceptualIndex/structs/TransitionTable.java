@@ -0,0 +1,328 @@
+/*
+ * Under LGPL
+ * by George Giannakopoulos
+ */
+
+package gr.demokritos.iit.conceptualIndex.structs;
+
+import java.io.Serializable;
+import java.util.Arrays;
+
+/** A compact table of transitions from source n-grams to following tokens.
+ * Every (source, next token) pair maps to a dense row of values, one for every
+ * distance (from 1 to the window size) at which the token follows the source.
+ * Symbols are mapped to integer identifiers and all the rows are held in a
+ * single primitive array, indexed by open addressing tables.
+ * <p>The rows correspond to the edge distributions of a
+ * {@link DistributionGraph}; the similarity of two rows is calculated as in
+ * {@link Distribution#similarityTo(Distribution)}. As with the edges of the
+ * graph, transitions are located regardless of direction: the transition from
+ * <i>a</i> to <i>b</i> is the same as the one from <i>b</i> to <i>a</i>, and
+ * keeps the direction it was first added with.</p>
+ *
+ * @author ggianna
+ */
+public class TransitionTable implements Serializable {
+    /** The number of distances (row size). */
+    protected int Window;
+
+    /** The symbols, by identifier. */
+    protected String[] Symbols = new String[16];
+    /** The number of symbols. */
+    protected int SymbolCount = 0;
+    /** The symbol slots, holding identifiers plus one (zero if empty). */
+    protected int[] SymbolSlots = new int[32];
+
+    /** The (source, next) identifier pair of every transition. */
+    protected long[] Keys = new long[16];
+    /** The rows of all transitions, one after the other. */
+    protected float[] Values;
+    /** The number of transitions. */
+    protected int Size = 0;
+    /** The transition slots, holding transition indices plus one (zero if
+     * empty). */
+    protected int[] Slots = new int[32];
+
+    /** Creates a new, empty table.
+     *@param iWindow The number of distances a token may follow a source at.
+     */
+    public TransitionTable(int iWindow) {
+        Window = iWindow;
+        Values = new float[Keys.length * Window];
+    }
+
+    /** Returns the number of distances (i.e. the row size). */
+    public int getWindow() {
+        return Window;
+    }
+
+    /** Returns the number of transitions. */
+    public int size() {
+        return Size;
+    }
+
+    /** Clears the table. */
+    public void clear() {
+        Arrays.fill(Symbols, 0, SymbolCount, null);
+        SymbolCount = 0;
+        Arrays.fill(SymbolSlots, 0);
+        Arrays.fill(Values, 0, Size * Window, 0.0f);
+        Size = 0;
+        Arrays.fill(Slots, 0);
+    }
+
+    /** Returns the identifier of a symbol, or -1 if the symbol is unknown. */
+    public int getSymbolId(String sSymbol) {
+        int iMask = SymbolSlots.length - 1;
+        int iSlot = mix(sSymbol.hashCode()) & iMask;
+        int iEntry;
+        while ((iEntry = SymbolSlots[iSlot]) != 0) {
+            if (Symbols[iEntry - 1].equals(sSymbol))
+                return iEntry - 1;
+            iSlot = (iSlot + 1) & iMask;
+        }
+        return -1;
+    }
+
+    /** Returns the identifier of a symbol, adding the symbol if unknown. */
+    public int addSymbol(String sSymbol) {
+        int iMask = SymbolSlots.length - 1;
+        int iSlot = mix(sSymbol.hashCode()) & iMask;
+        int iEntry;
+        while ((iEntry = SymbolSlots[iSlot]) != 0) {
+            if (Symbols[iEntry - 1].equals(sSymbol))
+                return iEntry - 1;
+            iSlot = (iSlot + 1) & iMask;
+        }
+        if (SymbolCount == Symbols.length)
+            Symbols = Arrays.copyOf(Symbols, SymbolCount * 2);
+        Symbols[SymbolCount] = sSymbol;
+        SymbolSlots[iSlot] = ++SymbolCount;
+        if (SymbolCount * 2 > SymbolSlots.length) {
+            // Rehash
+            SymbolSlots = new int[SymbolSlots.length * 2];
+            iMask = SymbolSlots.length - 1;
+            for (int iId = 0; iId < SymbolCount; iId++) {
+                iSlot = mix(Symbols[iId].hashCode()) & iMask;
+                while (SymbolSlots[iSlot] != 0)
+                    iSlot = (iSlot + 1) & iMask;
+                SymbolSlots[iSlot] = iId + 1;
+            }
+        }
+        return SymbolCount - 1;
+    }
+
+    /** Returns the index of the transition between two symbols.
+     *@param sSource The source n-gram.
+     *@param sNext The following token.
+     *@return The index of the transition, or -1 if it does not exist.
+     */
+    public int find(String sSource, String sNext) {
+        int iSource = getSymbolId(sSource);
+        if (iSource < 0)
+            return -1;
+        int iNext = getSymbolId(sNext);
+        if (iNext < 0)
+            return -1;
+        return find(iSource, iNext);
+    }
+
+    /** Returns the index of the transition between two symbols, given their
+     * identifiers, or -1 if it does not exist. */
+    protected int find(int iSource, int iNext) {
+        long lKey = key(iSource, iNext);
+        long lReverse = key(iNext, iSource);
+        int iMask = Slots.length - 1;
+        int iSlot = slot(iSource, iNext) & iMask;
+        int iEntry;
+        while ((iEntry = Slots[iSlot]) != 0) {
+            long lCur = Keys[iEntry - 1];
+            if ((lCur == lKey) || (lCur == lReverse))
+                return iEntry - 1;
+            iSlot = (iSlot + 1) & iMask;
+        }
+        return -1;
+    }
+
+    /** Adds to the value of a transition at a given distance, creating the
+     * transition if required.
+     *@param sSource The source n-gram.
+     *@param sNext The following token.
+     *@param iDistance The distance of the token from the source, from 1 to
+     * the window size.
+     *@param fValue The value to add.
+     *@return The index of the transition.
+     */
+    public int add(String sSource, String sNext, int iDistance, float fValue) {
+        return add(addSymbol(sSource), addSymbol(sNext), iDistance, fValue);
+    }
+
+    /** Adds to the value of a transition at a given distance, creating the
+     * transition if required.
+     *@param iSource The identifier of the source n-gram.
+     *@param iNext The identifier of the following token.
+     *@param iDistance The distance of the token from the source, from 1 to
+     * the window size.
+     *@param fValue The value to add.
+     *@return The index of the transition.
+     *@see #addSymbol(String)
+     */
+    public int add(int iSource, int iNext, int iDistance, float fValue) {
+        int iEntry = getOrAdd(iSource, iNext);
+        Values[iEntry * Window + iDistance - 1] += fValue;
+        return iEntry;
+    }
+
+    /** Adds all the transitions of another table to this table, summing the
+     * rows of common transitions.
+     *@param ttOther The table to add.
+     *@param fScale The factor to multiply the values of the other table with
+     * (1.0 for a plain sum).
+     *@throws IllegalArgumentException If the tables differ in window size.
+     */
+    public void addAll(TransitionTable ttOther, float fScale) {
+        if (ttOther.Window != Window)
+            throw new IllegalArgumentException("Cannot add a table of window " +
+                    ttOther.Window + " to a table of window " + Window + ".");
+        for (int iEntry = 0; iEntry < ttOther.Size; iEntry++) {
+            int iOwn = getOrAdd(addSymbol(ttOther.getSource(iEntry)),
+                    addSymbol(ttOther.getNext(iEntry)));
+            int iBase = iOwn * Window, iOtherBase = iEntry * ttOther.Window;
+            for (int iCnt = 0; iCnt < Window; iCnt++)
+                Values[iBase + iCnt] += ttOther.Values[iOtherBase + iCnt] * fScale;
+        }
+    }
+
+    /** Returns the index of a transition, creating it if required. */
+    protected int getOrAdd(int iSource, int iNext) {
+        long lKey = key(iSource, iNext);
+        long lReverse = key(iNext, iSource);
+        int iMask = Slots.length - 1;
+        int iSlot = slot(iSource, iNext) & iMask;
+        int iEntry;
+        while ((iEntry = Slots[iSlot]) != 0) {
+            long lCur = Keys[iEntry - 1];
+            if ((lCur == lKey) || (lCur == lReverse))
+                return iEntry - 1;
+            iSlot = (iSlot + 1) & iMask;
+        }
+        if (Size == Keys.length) {
+            Keys = Arrays.copyOf(Keys, Size * 2);
+            Values = Arrays.copyOf(Values, Size * 2 * Window);
+        }
+        Keys[Size] = lKey;
+        Slots[iSlot] = ++Size;
+        if (Size * 2 > Slots.length) {
+            // Rehash
+            Slots = new int[Slots.length * 2];
+            iMask = Slots.length - 1;
+            for (int iCnt = 0; iCnt < Size; iCnt++) {
+                iSlot = slot((int)(Keys[iCnt] >>> 32), (int)Keys[iCnt]) & iMask;
+                while (Slots[iSlot] != 0)
+                    iSlot = (iSlot + 1) & iMask;
+                Slots[iSlot] = iCnt + 1;
+            }
+        }
+        return Size - 1;
+    }
+
+    /** Returns the source n-gram of a transition. */
+    public String getSource(int iEntry) {
+        return Symbols[(int)(Keys[iEntry] >>> 32)];
+    }
+
+    /** Returns the following token of a transition. */
+    public String getNext(int iEntry) {
+        return Symbols[(int)Keys[iEntry]];
+    }
+
+    /** Returns the value of a transition at a given distance (from 1 to the
+     * window size). */
+    public float getValue(int iEntry, int iDistance) {
+        return Values[iEntry * Window + iDistance - 1];
+    }
+
+    /** Returns the row of a transition as a {@link Distribution}, mapping
+     * (Integer) distances to values. Zero values are omitted.
+     *@param iEntry The index of the transition.
+     *@return The distribution.
+     */
+    public Distribution getDistribution(int iEntry) {
+        Distribution dRes = new Distribution();
+        int iBase = iEntry * Window;
+        for (int iCnt = 0; iCnt < Window; iCnt++)
+            if (Values[iBase + iCnt] != 0.0f)
+                dRes.setValue(iCnt + 1, Values[iBase + iCnt]);
+        return dRes;
+    }
+
+    /** Adds the row of a transition to a given array.
+     *@param iEntry The index of the transition.
+     *@param daRow The array to add to, of (at least) the window size.
+     */
+    public void addRowTo(int iEntry, double[] daRow) {
+        int iBase = iEntry * Window;
+        for (int iCnt = 0; iCnt < Window; iCnt++)
+            daRow[iCnt] += Values[iBase + iCnt];
+    }
+
+    /** Calculates the similarity of a row to the row of a transition of this
+     * table, as in {@link Distribution#similarityTo(Distribution)}.
+     *@param daRow The row to compare, of the window size.
+     *@param iEntry The index of the transition, or -1 for no transition (in
+     * which case the similarity is zero).
+     *@return The similarity.
+     */
+    public double similarityTo(double[] daRow, int iEntry) {
+        if (iEntry < 0)
+            return 0.0;
+        int iBase = iEntry * Window;
+        double dDiff = 0.0, dTotal = 0.0;
+        for (int iCnt = 0; iCnt < Window; iCnt++) {
+            double dValue = Values[iBase + iCnt];
+            dDiff += Math.abs(daRow[iCnt] - dValue);
+            dTotal += daRow[iCnt] + dValue;
+        }
+        return 1.0 - (dDiff / dTotal);
+    }
+
+    /** Calculates the normality of the transitions of a given (candidate)
+     * table, based on this table: the average similarity of every candidate
+     * transition to the same transition in this table (zero where the
+     * transition does not exist here).
+     *@param ttCandidate The candidate table.
+     *@return The normality.
+     */
+    public double normalityOf(TransitionTable ttCandidate) {
+        double[] daRow = new double[ttCandidate.Window];
+        double dRes = 0.0;
+        for (int iEntry = 0; iEntry < ttCandidate.Size; iEntry++) {
+            int iOwn = find(ttCandidate.getSource(iEntry),
+                    ttCandidate.getNext(iEntry));
+            if (iOwn < 0)
+                continue;
+            Arrays.fill(daRow, 0.0);
+            ttCandidate.addRowTo(iEntry, daRow);
+            dRes += similarityTo(daRow, iOwn);
+        }
+        return dRes / (ttCandidate.Size == 0 ? 1 : ttCandidate.Size);
+    }
+
+    /** Returns the key of a directed (source, next) identifier pair. */
+    private static long key(int iSource, int iNext) {
+        return ((long)iSource << 32) | (iNext & 0xFFFFFFFFL);
+    }
+
+    /** Returns the hash of an identifier pair, regardless of direction. */
+    private static int slot(int iSource, int iNext) {
+        return mix(key(Math.min(iSource, iNext), Math.max(iSource, iNext)));
+    }
+
+    /** Spreads the bits of a hash value. */
+    private static int mix(long lValue) {
+        lValue ^= lValue >>> 33;
+        lValue *= 0xFF51AFD7ED558CCDL;
+        lValue ^= lValue >>> 33;
+        return (int)lValue;
+    }
+}
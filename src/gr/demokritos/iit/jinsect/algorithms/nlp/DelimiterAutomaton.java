@@ -0,0 +1,212 @@
+/*
+ * Under LGPL licence.
+ */
+
+package gr.demokritos.iit.jinsect.algorithms.nlp;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.TreeMap;
+
+/** A chunker that splits strings after every occurrence of any of a set of
+ * delimiter strings. The delimiters are compiled once into an Aho-Corasick
+ * automaton, so that all (possibly overlapping) occurrences are found in a
+ * single pass over the string to chunk.
+ * <p>Every occurrence of a delimiter defines a split point right after it; if
+ * the same delimiter is given more than once, each of its occurrences defines
+ * the split point as many times (resulting in empty chunks).</p>
+ *
+ * @author ggianna
+ */
+public class DelimiterAutomaton implements IChunker {
+    /** The index of the first outgoing transition of every state, plus a
+     * final entry for the end of the transitions. */
+    protected int[] TransitionStart;
+    /** The characters of the transitions, sorted per state. */
+    protected char[] TransitionChars;
+    /** The target states of the transitions. */
+    protected int[] TransitionTargets;
+    /** The failure state of every state. */
+    protected int[] Failures;
+    /** The number of delimiters ending at every state (including those
+     * ending at its failure states). */
+    protected int[] Matches;
+
+    /** Compiles an automaton for a given set of delimiters.
+     *@param cDelimiters The delimiter strings. Empty strings are ignored.
+     */
+    public DelimiterAutomaton(Collection<String> cDelimiters) {
+        // Build the trie
+        List<TreeMap<Character, Integer>> lTrie =
+                new ArrayList<TreeMap<Character, Integer>>();
+        lTrie.add(new TreeMap<Character, Integer>());
+        int[] iaMatches = new int[16];
+        for (String sDelimiter : cDelimiters) {
+            if (sDelimiter.length() == 0)
+                continue;
+            int iState = 0;
+            for (int iCnt = 0; iCnt < sDelimiter.length(); iCnt++) {
+                Integer iNext = lTrie.get(iState).get(sDelimiter.charAt(iCnt));
+                if (iNext == null) {
+                    iNext = lTrie.size();
+                    lTrie.add(new TreeMap<Character, Integer>());
+                    lTrie.get(iState).put(sDelimiter.charAt(iCnt), iNext);
+                }
+                iState = iNext;
+            }
+            if (iState >= iaMatches.length)
+                iaMatches = Arrays.copyOf(iaMatches, Math.max(iState + 1,
+                        iaMatches.length * 2));
+            iaMatches[iState]++;
+        }
+
+        // Flatten the transitions
+        int iStates = lTrie.size();
+        int iTransitions = iStates - 1;
+        TransitionStart = new int[iStates + 1];
+        TransitionChars = new char[iTransitions];
+        TransitionTargets = new int[iTransitions];
+        int iNextTransition = 0;
+        for (int iState = 0; iState < iStates; iState++) {
+            TransitionStart[iState] = iNextTransition;
+            for (Map.Entry<Character, Integer> eCur :
+                    lTrie.get(iState).entrySet()) {
+                TransitionChars[iNextTransition] = eCur.getKey();
+                TransitionTargets[iNextTransition++] = eCur.getValue();
+            }
+        }
+        TransitionStart[iStates] = iNextTransition;
+        Matches = Arrays.copyOf(iaMatches, iStates);
+
+        // Compute failure states, in breadth-first order
+        Failures = new int[iStates];
+        int[] iaQueue = new int[iStates];
+        int iHead = 0, iTail = 0;
+        for (int iCnt = TransitionStart[0]; iCnt < TransitionStart[1]; iCnt++)
+            iaQueue[iTail++] = TransitionTargets[iCnt];
+        while (iHead < iTail) {
+            int iState = iaQueue[iHead++];
+            Matches[iState] += Matches[Failures[iState]];
+            for (int iCnt = TransitionStart[iState];
+                    iCnt < TransitionStart[iState + 1]; iCnt++) {
+                int iChild = TransitionTargets[iCnt];
+                Failures[iChild] = (iState == 0) ? 0 :
+                    next(Failures[iState], TransitionChars[iCnt]);
+                iaQueue[iTail++] = iChild;
+            }
+        }
+    }
+
+    /** Returns the state reached from a given state by a given character. */
+    protected final int next(int iState, char cNext) {
+        while (true) {
+            // Binary search among the transitions of the state
+            int iLow = TransitionStart[iState];
+            int iHigh = TransitionStart[iState + 1] - 1;
+            while (iLow <= iHigh) {
+                int iMid = (iLow + iHigh) >>> 1;
+                char cMid = TransitionChars[iMid];
+                if (cMid < cNext)
+                    iLow = iMid + 1;
+                else if (cMid > cNext)
+                    iHigh = iMid - 1;
+                else
+                    return TransitionTargets[iMid];
+            }
+            if (iState == 0)
+                return 0;
+            iState = Failures[iState];
+        }
+    }
+
+    /** Returns the split points of a given string, i.e. the positions right
+     * after every occurrence of every delimiter.
+     *@param sStr The string to split.
+     *@return The split points, in ascending order.
+     */
+    public int[] splitPoints(CharSequence sStr) {
+        int[] iaRes = new int[16];
+        int iCount = 0;
+        int iState = 0;
+        int iLen = sStr.length();
+        for (int iPos = 0; iPos < iLen; iPos++) {
+            iState = next(iState, sStr.charAt(iPos));
+            for (int iCnt = Matches[iState]; iCnt > 0; iCnt--) {
+                if (iCount == iaRes.length)
+                    iaRes = Arrays.copyOf(iaRes, iCount * 2);
+                iaRes[iCount++] = iPos + 1;
+            }
+        }
+        return Arrays.copyOf(iaRes, iCount);
+    }
+
+    /** Splits a string into chunks, each ending at a split point. A string
+     * with n split points results in n+1 chunks.
+     *@param sToChunk The string to chunk.
+     *@return The {@link List} of chunks.
+     */
+    public List<String> chunkString(String sToChunk) {
+        int[] iaSplits = splitPoints(sToChunk);
+        List<String> lRes = new ArrayList<String>(iaSplits.length + 1);
+        int iLast = 0;
+        for (int iSplit : iaSplits) {
+            lRes.add(sToChunk.substring(iLast, iSplit));
+            iLast = iSplit;
+        }
+        lRes.add(sToChunk.substring(iLast));
+        return lRes;
+    }
+
+    /** Returns an iterator over the chunks of a string, which locates every
+     * split point only when the corresponding chunk is requested.
+     *@param sToChunk The string to chunk.
+     *@return An {@link Iterator} of the chunks, as subsequences of the
+     * string.
+     *@see #chunkString(String)
+     */
+    public Iterator<CharSequence> chunks(final CharSequence sToChunk) {
+        return new Iterator<CharSequence>() {
+            int Pos = 0;
+            int Last = 0;
+            int State = 0;
+            int Pending = 0;
+            boolean Finished = false;
+
+            public boolean hasNext() {
+                return !Finished;
+            }
+
+            public CharSequence next() {
+                if (Finished)
+                    throw new NoSuchElementException();
+                if (Pending > 0) {
+                    // Another delimiter ending at the same point
+                    Pending--;
+                    return sToChunk.subSequence(Pos, Pos);
+                }
+                int iLen = sToChunk.length();
+                while (Pos < iLen) {
+                    State = DelimiterAutomaton.this.next(State,
+                            sToChunk.charAt(Pos++));
+                    if (Matches[State] > 0) {
+                        Pending = Matches[State] - 1;
+                        CharSequence sRes = sToChunk.subSequence(Last, Pos);
+                        Last = Pos;
+                        return sRes;
+                    }
+                }
+                Finished = true;
+                return sToChunk.subSequence(Last, iLen);
+            }
+
+            public void remove() {
+                throw new UnsupportedOperationException("Not supported.");
+            }
+        };
+    }
+}
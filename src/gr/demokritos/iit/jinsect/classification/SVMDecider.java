@@ -9,16 +9,18 @@
  */
 
 package gr.demokritos.iit.jinsect.classification;
-import java.io.BufferedReader;
-import java.io.FileReader;
-import java.io.FileWriter;
-import java.io.InputStreamReader;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.HashMap;
 import java.util.Iterator;
+import java.util.List;
 import java.util.ListIterator;
-import java.util.TreeSet;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
 import gr.demokritos.iit.jinsect.documentModel.representations.DocumentNGramGraph;
 import gr.demokritos.iit.jinsect.documentModel.documentTypes.SimpleTextCategory;
 import gr.demokritos.iit.jinsect.documentModel.documentTypes.SimpleTextDocument;
@@ -35,15 +37,21 @@ import salvo.jesus.graph.WeightedEdge;
 /** This class describes objects that use Support Vector Machine (SVM) mechanics, in order to 
  * classify texts to given categories. The class uses LibSVM implementation of SVMs 
  * (see <a href='http://www.csie.ntu.edu.tw/~cjlin/libsvm/'>LibSVM</a> for more).
+ * Training and prediction are performed in-process. The trained model is kept
+ * in memory until new evidence is added, and documents can be classified in
+ * parallel batches.
  * @author PCKid
  */
 public class SVMDecider extends Decider {
-    /** The SVM model produced. */
-    svm_model Model;    
-    /** The list of categories. */
-    ArrayList CategoryList;
+    /** The SVM model produced and its categories. Null if it needs to be 
+     * (re)trained. */
+    volatile TrainedModel Trained;
     
-    HashMap EdgeMapping = new HashMap();
+    /** The mapping of graph edges to feature indices. */
+    ConcurrentHashMap<String,Integer> EdgeMapping = 
+            new ConcurrentHashMap<String, Integer>();
+    /** The number of threads used for feature extraction and prediction. */
+    public int Threads = Runtime.getRuntime().availableProcessors();
     /** Default value for SVM tolerance. */
     private double dTolerance = 1e-3;
     /** Default value for SVM cost. */
@@ -56,43 +64,80 @@ public class SVMDecider extends Decider {
      */
     public SVMDecider(INSECTDB dbRepository) {
         super(dbRepository);
-        CategoryList = new ArrayList();
+    }
+    
+    /** A trained SVM model, together with the categories of its classes, so 
+     * that a prediction is always mapped to the categories the model was 
+     * trained on. */
+    protected static final class TrainedModel {
+        /** The SVM model. */
+        final svm_model Model;
+        /** The categories of the model classes, in the form used by the 
+         * decider (e.g. a list of category names). */
+        final Object Categories;
+        
+        TrainedModel(svm_model mModel, Object oCategories) {
+            Model = mModel;
+            Categories = oCategories;
+        }
     }
     
     private void createSVMModel(double dTolerance, double dCost, double dGamma) {
         // For all categories
         svm_problem spProblem = new svm_problem();
-        CategoryList.clear();
-        CategoryList.addAll(Arrays.asList(Repository.getObjectList(Repository.CATEGORY_TYPE)));
-        spProblem.l = CategoryList.size(); // No of categories
+        ArrayList lCategories = new ArrayList(Arrays.asList(
+                Repository.getObjectList(Repository.CATEGORY_TYPE)));
+        spProblem.l = lCategories.size(); // No of categories
         
-        // Init array of feture (node) lists
-        spProblem.x = new svm_node[spProblem.l][];
         // Init array of expected outcome
         spProblem.y = new double[spProblem.l];
         
         // For every category
-        ListIterator iIter = CategoryList.listIterator();
+        ListIterator iIter = lCategories.listIterator();
+        ArrayList<SimpleTextDocument> lCategoryDocs = 
+                new ArrayList<SimpleTextDocument>(spProblem.l);
         int iCnt = 0;
         while (iIter.hasNext()) {
             // Load it
             String sCatName = (String)iIter.next();
-            SimpleTextCategory cCurCat = (SimpleTextCategory)Repository.loadObject(sCatName, Repository.CATEGORY_TYPE);
-            
-            // Add it in the array of lists
-            spProblem.x[iCnt] = documentToNodeArray(cCurCat);
+            lCategoryDocs.add((SimpleTextCategory)Repository.loadObject(sCatName, 
+                    Repository.CATEGORY_TYPE));
             // Add category in the output Set
             spProblem.y[iCnt++] = (double)iIter.previousIndex();
-            // DEBUG LINES
-            //System.out.println(String.format("Category '%s' with index %d", sCatName, iIter.previousIndex()));
-            //////////////
         }
-        // Complete the problem description
+        // Extract the feature (node) lists in parallel
+        spProblem.x = toNodeArrays(documentsToFeatures(lCategoryDocs, true));
+        
+        svm_parameter spParam = createParameters(dTolerance, dCost, dGamma);
+        spParam.degree = 0;
+
+        String error_msg = svm.svm_check_parameter(spProblem,spParam);
+
+        if(error_msg != null)
+        {
+                System.err.print("Error: "+error_msg+"\n");
+               return;
+        }
+
+        // Create model
+        Trained = new TrainedModel(svm.svm_train(spProblem, spParam), 
+                lCategories);
+    }
+    
+    /** Creates the SVM parameters used for training (a C-SVC with an RBF 
+     * kernel).
+     *@param dTolerance The tolerance of the SVM model.
+     *@param dCost The cost of the SVM model.
+     *@param dGamma The gamma of the SVM model.
+     *@return The parameters.
+     */
+    protected svm_parameter createParameters(double dTolerance, double dCost, 
+            double dGamma) {
         svm_parameter spParam = new svm_parameter();
         // default values
         spParam.svm_type = svm_parameter.C_SVC;
         spParam.kernel_type = svm_parameter.RBF;
-        spParam.degree = 0;
+        spParam.degree = 1;
         spParam.gamma = dGamma;
         spParam.coef0 = 0;
         spParam.nu = 0.5;
@@ -105,71 +150,53 @@ public class SVMDecider extends Decider {
         spParam.nr_weight = 0;
         spParam.weight_label = new int[0];
         spParam.weight = new double[0];
-
-        String error_msg = svm.svm_check_parameter(spProblem,spParam);
-
-        if(error_msg != null)
-        {
-                System.err.print("Error: "+error_msg+"\n");
-               return;
-        }
-
-        // Create train file
-        System.out.println("Creating train file...");
-        
-        try {
-            FileWriter fw = new FileWriter("train.dat");
-            for (int iLine = 0; iLine < spProblem.l; iLine++) {
-                fw.write(String.valueOf(spProblem.y[iLine]) + " ");
-                for (int iElem = 0 ; iElem < spProblem.x[iLine].length; iElem++) {
-
-                    fw.write(String.valueOf(spProblem.x[iLine][iElem].index) + ":" + 
-                            String.valueOf(spProblem.x[iLine][iElem].value) + " ");
-                    if ((iElem % 1000 == 0)) System.out.println(String.valueOf(iElem) + " elements complete out of" +
-                            String.valueOf(spProblem.x[iLine].length));
-                }
-                fw.write("\n");
-                if ((iLine % 1000 == 0)) System.out.println(String.valueOf(iLine) + " lines complete out of" +
-                        String.valueOf(spProblem.l));
-            }
-            fw.close();
-        }
-        catch (Exception e) {
-            e.printStackTrace();
-            return;
-        }
-        
-        // Create model
-        try {
-            // Create model file
-            System.out.println("Creating model file...");
-            Process p = (new ProcessBuilder("svmtrain.exe","-s " + String.valueOf(spParam.svm_type), 
-                    "-t " + String.valueOf(spParam.kernel_type), 
-                    "-g " + String.valueOf(dGamma),
-                    //"-p " + String.valueOf(spParam.eps), 
-                    //"-c " + String.format("%.5f", spParam.C), 
-                    "-v 10",
-                     "train.dat", "model.dat")).start();
-            
-            InputStreamReader reader =                // step 3
-                new InputStreamReader ( p.getInputStream () );
-
-              BufferedReader buf_reader =
-                 new BufferedReader (reader );        // step 4.
-
-              String line;
-              while ((line = buf_reader.readLine ()) != null)
-                           System.out.println (line);
-        }
-        catch (Exception ioe) {
-            ioe.printStackTrace();
-            return;
-        }
-        
-        // Create model file
-        System.out.println("All created OK.");
-        // Create model
-        Model = svm.svm_train(spProblem, spParam);        
+        return spParam;
+    }
+    
+    /** Trains the SVM model, using the current evidence. */
+    protected void trainModel() {
+        createSVMModel(dTolerance, dCost, dGamma);
+    }
+    
+    /** Returns the SVM model, training it first if it is out of date.
+     *@return The model, or null if it could not be trained.
+     */
+    protected synchronized TrainedModel getModel() {
+        if (Trained == null) // If dirty
+            trainModel();
+        return Trained;
+    }
+    
+    /** Marks the model as out of date. Waits for a training in progress, so 
+     * that a model trained before the latest evidence is not kept.
+     */
+    protected synchronized void invalidateModel() {
+        Trained = null;
+    }
+    
+    /** Returns the category corresponding to an SVM prediction.
+     *@param tmModel The model that made the prediction.
+     *@param dPrediction The predicted class.
+     *@return The category name, or an empty string if unknown.
+     */
+    protected String getPredictedCategory(TrainedModel tmModel, 
+            double dPrediction) {
+        ArrayList lCategories = (ArrayList)tmModel.Categories;
+        int iIdx = (int)dPrediction;
+        if ((iIdx < 0) || (iIdx >= lCategories.size()))
+            return "";
+        return (String)lCategories.get(iIdx);
+    }
+    
+    /** Classifies a document using a given model. */
+    private Decision predict(TrainedModel tmModel, SimpleTextDocument dDoc) {
+        SimpleTextDocument stdTemp = new SimpleTextDocument();
+        // DO NOT Use category to filter datastring to valid words        
+        stdTemp.setDataString(dDoc.getTempDataString());
+        double dPrediction = svm.svm_predict(tmModel.Model, 
+                documentToFeatures(stdTemp, false).toNodeArray());
+        return new Decision(dDoc, getPredictedCategory(tmModel, dPrediction), 
+                1.0, new HashMap());
     }
     
     /** Suggests a category for a given document.
@@ -177,70 +204,69 @@ public class SVMDecider extends Decider {
      *@return A {@link Decision} upon the classification of the given document.
      */
     protected Decision suggestCategory(SimpleTextDocument dDoc) {
-        SimpleTextDocument stdTemp = new SimpleTextDocument();
-        // DO NOT Use category to filter datastring to valid words        
-        stdTemp.setDataString(dDoc.getTempDataString());
-        // Check model
-        if (Model == null) // If dirty
-            createSVMModel(dTolerance, dCost, dGamma);
-        
-        if (Model == null) // If failed
+        TrainedModel tmModel = getModel();
+        if (tmModel == null) // If failed
             return new Decision(dDoc, "", 1.0, new HashMap());
         
-        //double dPrediction = svm.svm_predict(Model, documentToNodeArray(stdTemp));
-        double dPrediction = -1;
-        svm_node[] naDoc = documentToNodeArray(stdTemp);
-        // Create train file
-        try {
-            FileWriter fw = new FileWriter("test.dat");
-            String sLine = String.valueOf(0) + " ";
-            for (int iElem = 0 ; iElem < naDoc.length; iElem++) {
-
-                sLine += String.valueOf(naDoc[iElem].index) + ":" + 
-                        String.valueOf(naDoc[iElem].value) + " ";
-            }
-            fw.write(sLine + "\n");
-            fw.close();
-        }
-        catch (Exception e) {
-            e.printStackTrace();
+        return predict(tmModel, dDoc);
+    }
+    
+    /** Suggests categories for a batch of documents, classifying the 
+     * documents in parallel.
+     *@param lDocs The documents to classify.
+     *@return The {@link Decision}s upon the classification of the given 
+     * documents, in the order of the documents.
+     */
+    public Decision[] suggestCategories(final List<? extends SimpleTextDocument> lDocs) {
+        Decision[] daRes = new Decision[lDocs.size()];
+        final TrainedModel tmModel = getModel();
+        if (tmModel == null) { // If failed
+            for (int iCnt = 0; iCnt < daRes.length; iCnt++)
+                daRes[iCnt] = new Decision(lDocs.get(iCnt), "", 1.0, new HashMap());
+            return daRes;
         }
         
-        try {
-            int iRes=-1;
-            Process p = (new ProcessBuilder("svmpredict.exe", "test.dat", "model.dat", "output")).start();
-            InputStreamReader reader =                // step 3
-                new InputStreamReader ( p.getInputStream () );
-
-            BufferedReader buf_reader =
-             new BufferedReader (reader );        // step 4.
-
-            String line;
-            while ((line = buf_reader.readLine ()) != null)
-                //System.out.println (line);
-                ;
-            
-            //try {iRes = p.exitValue(); } catch (IllegalThreadStateException e) { Thread.sleep(500); }
-            FileReader fRes = new FileReader("output");
-            BufferedReader brOutput = new BufferedReader(fRes);
-            String sCur = brOutput.readLine();
-            if (sCur != "")
-                dPrediction = Double.valueOf(sCur);
-        }
-        catch (Exception ioe) {
-            ioe.printStackTrace();
-            dPrediction = -1;
+        ArrayList<Callable<Decision>> lTasks = new ArrayList<Callable<Decision>>(
+                lDocs.size());
+        for (final SimpleTextDocument dDoc : lDocs)
+            lTasks.add(new Callable<Decision>() {
+                public Decision call() {
+                    return predict(tmModel, dDoc);
+                }
+            });
+        return runAll(lTasks).toArray(daRes);
+    }
+    
+    /** Runs a set of tasks using {@link #Threads} threads.
+     *@return The results of the tasks, in order.
+     */
+    private <T> List<T> runAll(List<Callable<T>> lTasks) {
+        ArrayList<T> lRes = new ArrayList<T>(lTasks.size());
+        if ((Threads <= 1) || (lTasks.size() <= 1)) {
+            try {
+                for (Callable<T> cCur : lTasks)
+                    lRes.add(cCur.call());
+            } catch (Exception e) {
+                throw new IllegalStateException(e);
+            }
+            return lRes;
         }
         
+        ExecutorService esPool = Executors.newFixedThreadPool(Math.min(Threads, 
+                lTasks.size()));
         try {
-            String sCategory = (String)CategoryList.get((int)dPrediction);
-            Decision dRes = new Decision(dDoc, sCategory, 1.0, new HashMap());            
-            return dRes;
+            for (Future<T> fCur : esPool.invokeAll(lTasks))
+                lRes.add(fCur.get());
+        } catch (InterruptedException ie) {
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException("Interrupted while classifying.", ie);
+        } catch (ExecutionException ee) {
+            throw new IllegalStateException(ee.getCause());
         }
-        catch (Exception e) {
-            Decision dRes = new Decision(dDoc, "", 1.0, new HashMap()); // Failed
-            return dRes;
+        finally {
+            esPool.shutdownNow();
         }
+        return lRes;
     }
     
     public void addEvidence(Decision dPrv, String sFinalCategory) {
@@ -264,7 +290,7 @@ public class SVMDecider extends Decider {
                     cCat.mergeWith(dDoc);                
                     // Replace existing object
                     Repository.saveObject(cCat, sFinalCategory, Repository.CATEGORY_TYPE);
-                    Model = null; // Reset to null - dirty
+                    invalidateModel(); // Dirty
                     bCorrectedOK = true;
                     /* DO NOT UPDATE MODEL FOR TIME BEING
                     // Update model
@@ -303,7 +329,7 @@ public class SVMDecider extends Decider {
                 SimpleTextCategory cCat = new SimpleTextCategory(sFinalCategory);
                 cCat.setDataString(dDoc.getDataString());
                 Repository.saveObject(cCat, sFinalCategory, Repository.CATEGORY_TYPE);
-                Model = null; // Reset to null - dirty
+                invalidateModel(); // Dirty
                 // Update model
                 //createSVMModel(dTolerance, dCost, dGamma);
             }                    
@@ -318,11 +344,28 @@ public class SVMDecider extends Decider {
      *@return An svm_node array structure representing the given document.
      */
     protected svm_node[] documentToNodeArray(SimpleTextDocument dDoc) {
-        // Use treeset for correct feature ordering
-        TreeSet tsNodes = new TreeSet();
-
-        // For every level in it extract edges
+        return documentToFeatures(dDoc, true).toNodeArray();
+    }
+    
+    /** Provides the sparse feature vector of a text document. Every edge of 
+     * the document graph is a feature, weighted by the edge weight.
+     *@param dDoc The text document to represent.
+     *@param bAddFeatures If true, edges not seen before are assigned new 
+     * feature indices (as during training). Otherwise, they are assigned 
+     * indices unknown to the model, without changing the feature mapping (as 
+     * during prediction), so that concurrent predictions do not interfere.
+     *@return The feature vector representing the given document.
+     */
+    protected SparseFeatureVector documentToFeatures(SimpleTextDocument dDoc, 
+            boolean bAddFeatures) {
         DocumentNGramGraph dg = dDoc.getDocumentGraph();
+        int[] iaIndices = new int[256];
+        double[] daValues = new double[256];
+        int iSize = 0;
+        int iUnknownBase = EdgeMapping.size();
+        int iUnknown = 0;
+        
+        // For every level in it extract edges
         for (int iCnt = dg.getMinSize(); iCnt <= dg.getMaxSize(); iCnt++) {
             UniqueVertexGraph g = dg.getGraphLevelByNGramSize(iCnt);
             // Get category graph edges
@@ -332,48 +375,71 @@ public class SVMDecider extends Decider {
                 WeightedEdge we = (WeightedEdge)edgeIter.next();
                 if (dg.degredationDegree(we) > 3)
                     continue;
-                // Create edge node
-                svm_ordered_node snCur = new svm_ordered_node();
                 String sData = (we.getVertexA().getLabel() + " " + we.getVertexB().getLabel());
-                // Add mapping for edge feature
-                if (!EdgeMapping.containsKey(sData))
-                    EdgeMapping.put(sData, EdgeMapping.size() + 1);
-                snCur.index = ((Integer)EdgeMapping.get(sData)).intValue();
-                snCur.value = we.getWeight();
-
-                tsNodes.add(snCur);
+                // Get mapping for edge feature
+                Integer iIndex = bAddFeatures ? getFeatureIndex(sData) : 
+                        EdgeMapping.get(sData);
+                if (iSize == iaIndices.length) {
+                    iaIndices = Arrays.copyOf(iaIndices, iSize * 2);
+                    daValues = Arrays.copyOf(daValues, iSize * 2);
+                }
+                iaIndices[iSize] = (iIndex == null) ? 
+                        iUnknownBase + (++iUnknown) : iIndex.intValue();
+                daValues[iSize++] = we.getWeight();
             }                
         }
-
-        // Add it in the array of lists
-        svm_node[] snaTemp = new svm_node[tsNodes.size()];
-        Iterator iIter = tsNodes.iterator();
-        int iCnt = 0;
-        while (iIter.hasNext()) {
-            snaTemp[iCnt++] = (svm_node)iIter.next();
-        }
                 
-        return snaTemp;
+        return new SparseFeatureVector(iaIndices, daValues, iSize);
     }
     
-    public void reset() {
-        Model = null;
-        CategoryList.clear();
+    /** Returns the feature index of an edge, assigning a new index if the 
+     * edge has not been seen before. */
+    private Integer getFeatureIndex(String sEdge) {
+        Integer iRes = EdgeMapping.get(sEdge);
+        if (iRes != null)
+            return iRes;
+        synchronized (EdgeMapping) {
+            iRes = EdgeMapping.get(sEdge);
+            if (iRes == null) {
+                iRes = EdgeMapping.size() + 1;
+                EdgeMapping.put(sEdge, iRes);
+            }
+        }
+        return iRes;
+    }
+    
+    /** Extracts the feature vectors of a list of documents in parallel.
+     *@param lDocs The documents.
+     *@param bAddFeatures If true, unseen edges are added to the feature 
+     * mapping.
+     *@return The feature vectors, in the order of the documents.
+     *@see #documentToFeatures(SimpleTextDocument, boolean)
+     */
+    protected List<SparseFeatureVector> documentsToFeatures(
+            List<? extends SimpleTextDocument> lDocs, final boolean bAddFeatures) {
+        ArrayList<Callable<SparseFeatureVector>> lTasks = 
+                new ArrayList<Callable<SparseFeatureVector>>(lDocs.size());
+        for (final SimpleTextDocument dDoc : lDocs)
+            lTasks.add(new Callable<SparseFeatureVector>() {
+                public SparseFeatureVector call() {
+                    return documentToFeatures(dDoc, bAddFeatures);
+                }
+            });
+        return runAll(lTasks);
+    }
+    
+    /** Converts a list of feature vectors to LibSVM node arrays. */
+    protected static svm_node[][] toNodeArrays(List<SparseFeatureVector> lFeatures) {
+        svm_node[][] naRes = new svm_node[lFeatures.size()][];
+        for (int iCnt = 0; iCnt < naRes.length; iCnt++)
+            naRes[iCnt] = lFeatures.get(iCnt).toNodeArray();
+        return naRes;
+    }
+    
+    public synchronized void reset() {
+        Trained = null;
         EdgeMapping.clear();
         super.reset();    
     }
 
 }
-
-/** Local class, providing comparable svm_nodes, to use in TreeMap.
- */
-class svm_ordered_node extends svm_node implements Comparable {
-    public int compareTo(Object o) {
-        svm_node n = (svm_node)o;
-        return index - n.index;
-    }
-    
-    public String toString() {
-        return String.format("(%d, %f)", index, value);
-    }
-}
\ No newline at end of file
@@ -6,20 +6,16 @@
  */
 
 package gr.demokritos.iit.jinsect.classification;
-import java.io.BufferedReader;
-import java.io.FileReader;
-import java.io.FileWriter;
-import java.io.InputStreamReader;
 import java.util.ArrayList;
 import java.util.HashMap;
 import java.util.Iterator;
+import java.util.List;
 import java.util.ListIterator;
 import gr.demokritos.iit.jinsect.documentModel.documentTypes.SimpleTextCategory;
 import gr.demokritos.iit.jinsect.documentModel.documentTypes.SimpleTextDocument;
 import gr.demokritos.iit.jinsect.storage.INSECTDB;
 import gr.demokritos.iit.jinsect.structs.Decision;
 import libsvm.svm;
-import libsvm.svm_node;
 import libsvm.svm_parameter;
 import libsvm.svm_problem;
 
@@ -31,6 +27,10 @@ import libsvm.svm_problem;
  */
 public class SVMDocDecider extends SVMDecider {
     protected ArrayList DocumentList;
+    /** The feature vectors of the documents in the document list, extracted
+     * so far. */
+    protected ArrayList<SparseFeatureVector> FeatureList = 
+            new ArrayList<SparseFeatureVector>();
     /**
      * Creates a new instance of SVMDocDecider, given an {@link INSECTDB} repository.
      *@param dbRepository The repository to use.
@@ -54,14 +54,19 @@ public class SVMDocDecider extends SVMDecider {
         spProblem.l = DocumentList.size(); // No of categories
         if (spProblem.l == 0) // If no instances were given
         {
-            Model = null;
+            Trained = null;
             return null ; // Cannot model
         }
             
         HashMap hCategories = new HashMap();
         
+        // Extract the features of documents added since the last training
+        List<SimpleTextDocument> lNewDocs = new ArrayList<SimpleTextDocument>();
+        for (Object oCur : DocumentList.subList(FeatureList.size(), spProblem.l))
+            lNewDocs.add((SimpleTextDocument)((Decision)oCur).Document);
+        FeatureList.addAll(documentsToFeatures(lNewDocs, true));
         // Init array of feture (node) lists
-        spProblem.x = new svm_node[spProblem.l][];
+        spProblem.x = toNodeArrays(FeatureList);
         // Init array of expected outcome
         spProblem.y = new double[spProblem.l];
         
@@ -72,37 +77,15 @@ public class SVMDocDecider extends SVMDecider {
             // Load it
             Decision idDocInfo = (Decision)iIter.next();
             
-            // Add it in the array of lists
-            spProblem.x[iCnt] = documentToNodeArray((SimpleTextDocument)idDocInfo.Document);
-            
             // Store category in category list, if needed
             if (!hCategories.containsKey(idDocInfo.FinalDecision))
                 hCategories.put(idDocInfo.FinalDecision, hCategories.size() + 1);
             
             // Add decision to the output Set
             spProblem.y[iCnt++] = ((Integer)hCategories.get(idDocInfo.FinalDecision)).doubleValue();
-            // DEBUG LINES
-            //System.out.println(String.format("Category '%s' with index %d", sCatName, iIter.previousIndex()));
-            //////////////
         }
         // Complete the problem description
-        svm_parameter spParam = new svm_parameter();
-        // default values
-        spParam.svm_type = svm_parameter.C_SVC;
-        spParam.kernel_type = svm_parameter.RBF;
-        spParam.degree = 1;
-        spParam.gamma = dGamma;
-        spParam.coef0 = 0;
-        spParam.nu = 0.5;
-        spParam.cache_size = 100;
-        spParam.C = dCost;
-        spParam.eps = dTolerance;
-        spParam.p = 0.1;
-        spParam.shrinking = 0;
-        spParam.probability = 0;
-        spParam.nr_weight = 0;
-        spParam.weight_label = new int[0];
-        spParam.weight = new double[0];
+        svm_parameter spParam = createParameters(dTolerance, dCost, dGamma);
 
         String error_msg = svm.svm_check_parameter(spProblem,spParam);
 
@@ -112,47 +95,36 @@ public class SVMDocDecider extends SVMDecider {
                return null;
         }
 
-        // Create train file
-        try {
-            FileWriter fw = new FileWriter("train.dat");
-            for (int iLine = 0; iLine < spProblem.l; iLine++) {
-                String sLine = String.valueOf(spProblem.y[iLine]) + " ";
-                for (int iElem = 0 ; iElem < spProblem.x[iLine].length; iElem++) {
-
-                    sLine += String.valueOf(spProblem.x[iLine][iElem].index) + ":" + 
-                            String.valueOf(spProblem.x[iLine][iElem].value) + " ";
-                }
-                fw.write(sLine + "\n");
+        // The (category name, index) mapping is kept with the model
+        Trained = new TrainedModel(svm.svm_train(spProblem, spParam), 
+                hCategories);
+        return hCategories; // Return
+    }
+    
+    @Override
+    protected void trainModel() {
+        createSVMModel(1e-3, 1e3, 10); // Default params
+    }
+    
+    @Override
+    protected String getPredictedCategory(TrainedModel tmModel, 
+            double dPrediction) {
+        HashMap hCats = (HashMap)tmModel.Categories;
+        if (hCats == null)
+            return "";
+        Iterator iIter = hCats.keySet().iterator();
+        // Init category
+        String sCategory = "";
+        while (iIter.hasNext()) {
+            // Locate category
+            String sCurCategory = (String)iIter.next();
+            if (((Integer)hCats.get(sCurCategory)).doubleValue() == dPrediction) {
+                sCategory = sCurCategory; // Found it
+                break; // No more searching
             }
-            fw.close();
-        }
-        catch (Exception e) {
-            e.printStackTrace();
-            return hCategories;
-        }
-        
-        // Create model
-        try {
-            Process p = (new ProcessBuilder("svmtrain.exe","-s 0", "-t 2", "-g " + String.valueOf(dGamma),
-                    "-v 10", "train.dat", "model.dat")).start();
-            
-            InputStreamReader reader =                // step 3
-                new InputStreamReader ( p.getInputStream () );
-
-              BufferedReader buf_reader =
-                 new BufferedReader (reader );        // step 4.
-
-              String line;
-              while ((line = buf_reader.readLine ()) != null)
-                           System.out.println (line);
-        }
-        catch (Exception ioe) {
-            ioe.printStackTrace();
-            return hCategories;
-        }
                 
-        Model = svm.svm_train(spProblem, spParam);        
-        return hCategories; // Return
+        }
+        return sCategory;
     }
     
     public void addEvidence(Decision dPrv, String sFinalCategory) {
@@ -181,77 +153,16 @@ public class SVMDocDecider extends SVMDecider {
             }
         }
 
-        DocumentList.add(new Decision(dDoc, sFinalCategory, 1.0, null));
+        synchronized (this) {
+            DocumentList.add(new Decision(dDoc, sFinalCategory, 1.0, null));
+            Trained = null; // Reset to null - dirty
+        }
     }
     
-    protected Decision suggestCategory(SimpleTextDocument dDoc) {
-        SimpleTextDocument stdTemp = new SimpleTextDocument();
-        // DO NOT Use category to filter datastring to valid words        
-        stdTemp.setDataString(dDoc.getTempDataString());
-        // Create model
-        HashMap hCats = createSVMModel(1e-3, 1e3, 10); // Default params
-        // TODO: Remove remark
-        // Check model
-        if (Model == null)
-            return new Decision(dDoc, "", 1.0, new HashMap());
-        //////////////////////
-        
-        //double dPrediction = svm.svm_predict(Model, documentToNodeArray(stdTemp));
-        double dPrediction;
-        svm_node[] naDoc = documentToNodeArray(stdTemp);
-        // Create train file
-        try {
-            FileWriter fw = new FileWriter("test.dat");
-            String sLine = String.valueOf(0) + " ";
-            for (int iElem = 0 ; iElem < naDoc.length; iElem++) {
-
-                sLine += String.valueOf(naDoc[iElem].index) + ":" + 
-                        String.valueOf(naDoc[iElem].value) + " ";
-            }
-            fw.write(sLine + "\n");
-            fw.close();
-        }
-        catch (Exception e) {
-            e.printStackTrace();
-        }
-        
-        try {
-            int iRes=-1;
-            Process p = (new ProcessBuilder("svmpredict.exe", "test.dat", "model.dat", "output")).start();
-            InputStreamReader reader =                // step 3
-                new InputStreamReader ( p.getInputStream () );
-
-            BufferedReader buf_reader =
-             new BufferedReader (reader );        // step 4.
-
-            String line;
-            while ((line = buf_reader.readLine ()) != null)
-                       System.out.println (line);
-            //try {iRes = p.exitValue(); } catch (IllegalThreadStateException e) { Thread.sleep(500); }
-            FileReader fRes = new FileReader("output");
-            BufferedReader brOutput = new BufferedReader(fRes);
-            String sCur = brOutput.readLine();
-            dPrediction = Double.valueOf(sCur);
-        }
-        catch (Exception ioe) {
-            ioe.printStackTrace();
-            dPrediction = -1;
-        }
-        
-        Iterator iIter = hCats.keySet().iterator();
-        // Init category
-        String sCategory = "";
-        while (iIter.hasNext()) {
-            // Locate category
-            String sCurCategory = (String)iIter.next();
-            if (((Integer)hCats.get(sCurCategory)).doubleValue() == dPrediction) {
-                sCategory = sCurCategory; // Found it
-                break; // No more searching
-            }
-                
-        }
-        Decision dRes = new Decision(dDoc, sCategory, 1.0, new HashMap());
-        
-        return dRes;
+    @Override
+    public synchronized void reset() {
+        // Feature indices are reset
+        FeatureList.clear();
+        super.reset();
     }
 }
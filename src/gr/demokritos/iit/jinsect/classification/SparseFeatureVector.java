@@ -0,0 +1,79 @@
+/*
+ * Under LGPL licence.
+ */
+
+package gr.demokritos.iit.jinsect.classification;
+
+import java.io.Serializable;
+import java.util.Arrays;
+import libsvm.svm_node;
+
+/** A sparse vector of features, held in primitive arrays sorted by feature
+ * index. It can be converted to the {@link svm_node} array form required by
+ * LibSVM.
+ *
+ * @author ggianna
+ */
+public class SparseFeatureVector implements Serializable {
+    /** The feature indices, in ascending order. */
+    protected int[] Indices;
+    /** The feature values, in the order of the indices. */
+    protected double[] Values;
+
+    /** Creates a vector from (possibly unordered) features. If a feature
+     * index appears more than once, its first value is kept.
+     *@param iaIndices The feature indices.
+     *@param daValues The feature values.
+     *@param iSize The number of features in the arrays to use.
+     */
+    public SparseFeatureVector(int[] iaIndices, double[] daValues, int iSize) {
+        // Sort by index, then by position, packed in a single primitive key
+        long[] laKeys = new long[iSize];
+        for (int iCnt = 0; iCnt < iSize; iCnt++)
+            laKeys[iCnt] = ((long)iaIndices[iCnt] << 32) | iCnt;
+        Arrays.sort(laKeys);
+
+        Indices = new int[iSize];
+        Values = new double[iSize];
+        int iLen = 0;
+        for (int iCnt = 0; iCnt < iSize; iCnt++) {
+            int iIndex = (int)(laKeys[iCnt] >>> 32);
+            if (iLen > 0 && Indices[iLen - 1] == iIndex)
+                continue;
+            Indices[iLen] = iIndex;
+            Values[iLen++] = daValues[(int)laKeys[iCnt]];
+        }
+        if (iLen < iSize) {
+            Indices = Arrays.copyOf(Indices, iLen);
+            Values = Arrays.copyOf(Values, iLen);
+        }
+    }
+
+    /** Returns the number of (non-zero) features. */
+    public int size() {
+        return Indices.length;
+    }
+
+    /** Returns the index of the i-th feature. */
+    public int getIndex(int i) {
+        return Indices[i];
+    }
+
+    /** Returns the value of the i-th feature. */
+    public double getValue(int i) {
+        return Values[i];
+    }
+
+    /** Returns the vector as a LibSVM node array.
+     *@return A new array of nodes, ordered by index.
+     */
+    public svm_node[] toNodeArray() {
+        svm_node[] naRes = new svm_node[Indices.length];
+        for (int iCnt = 0; iCnt < Indices.length; iCnt++) {
+            naRes[iCnt] = new svm_node();
+            naRes[iCnt].index = Indices[iCnt];
+            naRes[iCnt].value = Values[iCnt];
+        }
+        return naRes;
+    }
+}
@@ -6,6 +6,7 @@
 package gr.demokritos.iit.jinsect.console;
 
 import gr.demokritos.iit.jinsect.gui.IStatusDisplayer;
+import gr.demokritos.iit.jinsect.storage.RepresentationCache;
 import gr.demokritos.iit.jinsect.structs.DocumentSet;
 import gr.demokritos.iit.jinsect.threading.ThreadList;
 import gr.demokritos.iit.jinsect.utils;
@@ -32,6 +33,14 @@ public class MultiLing2011SummaryEvaluator {
                 String.valueOf(Boolean.FALSE))).booleanValue();
         boolean bSupportJacknifing = Boolean.valueOf(utils.getSwitch(hSwitches, "supportJack",
                 String.valueOf(Boolean.FALSE))).booleanValue();
+        // Cache the representations of the peers and models, which are
+        // loaded again by the evaluation of every peer
+        String sCacheDir = utils.getSwitch(hSwitches, "cacheDir",
+                System.getProperty(RepresentationCache.CACHE_DIR_PROPERTY, ""));
+        if (sCacheDir.length() > 0)
+            RepresentationCache.setDefault(new RepresentationCache(sCacheDir,
+                    Long.valueOf(utils.getSwitch(hSwitches, "cacheSizeMB",
+                    String.valueOf(RepresentationCache.DEFAULT_CACHE_SIZE_MB))) << 20));
 
         IStatusDisplayer sdOut = new StreamOutputConsole(System.err, true);
 
@@ -8,6 +8,7 @@ import gr.demokritos.iit.jinsect.documentModel.comparators.NGramGraphEuclidianCo
 import gr.demokritos.iit.jinsect.documentModel.representations.DocumentNGramGraph;
 import gr.demokritos.iit.jinsect.events.NotificationListener;
 import gr.demokritos.iit.jinsect.storage.INSECTFileDB;
+import gr.demokritos.iit.jinsect.storage.INSECTLogDB;
 import gr.demokritos.iit.jinsect.structs.Decision;
 import gr.demokritos.iit.jinsect.structs.GraphSimilarity;
 import gr.demokritos.iit.jinsect.threading.ThreadQueue;
@@ -61,7 +62,7 @@ public class SpamFilterServer {
     
     protected int iSpamCnt, iHamCnt, iOverallCnt;
     protected final int MAX_SEND_ATTEMPTS = 5;
-    protected INSECTFileDB<DocumentNGramGraph> repos;
+    protected INSECTLogDB<DocumentNGramGraph> repos;
     
     protected boolean bIgnoreFurtherTraining;
     protected boolean bEnableDegrade;
@@ -79,7 +80,7 @@ public class SpamFilterServer {
         iHamCnt = 0;
         iOverallCnt = 0;
         RespondToPort = iRespondToPortParam;
-        repos = new INSECTFileDB<DocumentNGramGraph>("ceas", "./models/");
+        repos = new INSECTLogDB<DocumentNGramGraph>("ceas", "./models/");
         bLinearWareoff = false; // Exponential by default
         Wareoff = 1.7; // Default value
         bIgnoreFurtherTraining = false;
@@ -139,6 +140,16 @@ public class SpamFilterServer {
     public void loadModels() {
         dgSpam = repos.loadObject(C_SPAM, "DGFile");
         dgHam = repos.loadObject(C_HAM, "DGFile");
+        if ((dgSpam == null) || (dgHam == null)) {
+            // Try models saved by older versions, one file per model
+            INSECTFileDB<DocumentNGramGraph> dbOld =
+                    new INSECTFileDB<DocumentNGramGraph>("ceas", "./models/");
+            if (dbOld.existsObject(C_SPAM, "DGFile") &&
+                    dbOld.existsObject(C_HAM, "DGFile")) {
+                dgSpam = (DocumentNGramGraph)dbOld.loadObject(C_SPAM, "DGFile");
+                dgHam = (DocumentNGramGraph)dbOld.loadObject(C_HAM, "DGFile");
+            }
+        }
         if ((dgSpam == null) || (dgHam == null)) {
             System.err.println("Loading failed...Resetting models.");
             dgSpam = new DocumentNGramGraph();
@@ -153,6 +164,11 @@ public class SpamFilterServer {
         System.err.println("Done.");
     }
     
+    /** Closes the model repository, forcing the saved models to disk. */
+    public void close() {
+        repos.finalizeDB();
+    }
+    
     public void start() {
         ServerSocket sServer = null;
         String sMessage = "";
@@ -686,7 +702,13 @@ public class SpamFilterServer {
         boolean bEuclidian = Boolean.valueOf(utils.getSwitch(hSwitches, 
                 "euclidian", String.valueOf(false))) || bWeightedEuclidian;
         
-        SpamFilterServer sServer = new SpamFilterServer(iPort, iRespondToPort);
+        final SpamFilterServer sServer = new SpamFilterServer(iPort, iRespondToPort);
+        // Close the repository also if the server is killed
+        Runtime.getRuntime().addShutdownHook(new Thread(new Runnable() {
+            public void run() {
+                sServer.close();
+            }
+        }));
         if (bLoadModels)
             sServer.loadModels();
         if (bIgnoreTraining)
@@ -704,6 +726,7 @@ public class SpamFilterServer {
         sServer.start();
         if (bSaveModels)
             sServer.saveModels();
+        sServer.close();
     }
 
 }
@@ -0,0 +1,849 @@
+/*
+ * Under LGPL
+ * by George Giannakopoulos
+ */
+
+package gr.demokritos.iit.jinsect.console;
+
+import gr.demokritos.iit.ducTools.DUCDocumentInfo;
+import gr.demokritos.iit.jinsect.documentModel.ILoadableTextPrint;
+import gr.demokritos.iit.jinsect.documentModel.comparators.StandardDocumentComparator;
+import gr.demokritos.iit.jinsect.documentModel.comparators.StandardDocumentDistroComparator;
+import gr.demokritos.iit.jinsect.documentModel.documentTypes.NGramDocument;
+import gr.demokritos.iit.jinsect.events.SimilarityComparatorListener;
+import gr.demokritos.iit.jinsect.storage.RepresentationCache;
+import gr.demokritos.iit.jinsect.structs.CategorizedFileEntry;
+import gr.demokritos.iit.jinsect.structs.DocumentSet;
+import gr.demokritos.iit.jinsect.structs.GraphSimilarity;
+import gr.demokritos.iit.jinsect.utils;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InvalidClassException;
+import java.io.PrintStream;
+import java.io.RandomAccessFile;
+import java.lang.reflect.Constructor;
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.HashSet;
+import java.util.Hashtable;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+
+/** A staged, resumable summary evaluation pipeline. The evaluation is split
+ * into the following stages, connected by bounded queues:
+ * <ol>
+ *  <li>listing of the peer summaries per topic (skipping already evaluated
+ *   ones),</li>
+ *  <li>loading the summaries and building their representations,</li>
+ *  <li>comparison to the model summaries of the topic,</li>
+ *  <li>output of the comparisons.</li>
+ * </ol>
+ * Every model representation is built exactly once and is released as soon
+ * as all the peers of its topic have been evaluated. The output has the
+ * format of {@link summaryEvaluator} (and {@link summaryGenericEvaluator}):
+ * one row per peer and model pair, holding the similarities of every
+ * {@link Representation} used.
+ * <p>Every evaluated peer is recorded in a checkpoint file, together with the
+ * length of the output after its rows were written, so that an interrupted
+ * evaluation resumes from where it stopped: rows written after the last
+ * recorded peer are discarded and their peers are evaluated again.</p>
+ * <p>If a stage fails unexpectedly, the remaining stages are drained and
+ * the evaluation fails.</p>
+ *
+ * @author ggianna
+ */
+public class SummaryEvaluationPipeline implements Runnable {
+    /** The column names of a word (or generic) representation. */
+    public static final String[] WORD_COLUMNS = {"GraphCooccurence", "GraphValue",
+        "GraphSize", "HistoContainmentSimilarity", "HistoValue", "HistoSize",
+        "OverallSimil"};
+    /** The column names of a character representation. */
+    public static final String[] CHAR_COLUMNS = {"CharGraphCooccurence",
+        "CharGraphValue", "CharGraphSize", "NHistoContainmentSimilarity",
+        "NHistoValue", "NHistoSize", "NOverallSimil"};
+
+    protected int Threads, QueueSize;
+    protected String OutFile, SummaryDir, ModelDir, CheckpointFile;
+    protected boolean Silent, Progress;
+    /** The representations by which peers are compared to models. */
+    protected ArrayList<Representation> Representations = new ArrayList<Representation>();
+
+    /** The topics under evaluation, by name. */
+    protected ConcurrentHashMap<String, TopicState> Topics =
+            new ConcurrentHashMap<String, TopicState>();
+    /** The number of peer summaries evaluated in this run. */
+    protected AtomicInteger Evaluated = new AtomicInteger(0);
+    /** The first unexpected failure of a stage, if any. */
+    protected AtomicReference<Throwable> Failure = new AtomicReference<Throwable>();
+
+    /** Marks the end of the stream of a queue. */
+    private static final PeerTask END_OF_QUEUE = new PeerTask(null, null);
+
+    /**
+     * @param args the command line arguments
+     */
+    public static void main(String[] args) {
+        SummaryEvaluationPipeline sepCur = new SummaryEvaluationPipeline(args);
+        sepCur.run();
+    }
+
+    /** Provides command-line syntax information for the main function. */
+    private static void printUsage() {
+            System.err.println("Syntax:\nSummaryEvaluationPipeline [-summaryDir=summaries/] [-modelDir=models/]"+
+                    "[-nMin=#] [-nMax=#] [-dist=#] [-t=#] [-queue=#] [-checkpoint=file]" +
+                    "[-s] [-progress] [-docClass=...] [-compClass=...]");
+            System.err.println("nMin=#\tMin n-gram size.\nnMax=#\tMax n-gram size.\n" +
+                    "dist=#\tN-gram window.\n" +
+                    "-o=outFile\tThe file to output data. Default is stdout.\n" +
+                    "-t=#\tNumber of threads per stage. Defaults to number of available processors declared by system.\n" +
+                    "-queue=#\tThe capacity of the queues between stages. Defaults to four times the threads.\n" +
+                    "-checkpoint=file\tThe file recording evaluated summaries. If it exists, the evaluation resumes. " +
+                        "Defaults to outFile.checkpoint, if an output file is given.\n" +
+                    "-s\tFor non-verbose output (silent).\n" +
+                    "-progress\tFor progress indication (even in silent mode).\n" +
+                    "-docClass=...\tA java class identifier to use as Document class. " +
+                        "Defaults to jinsect.documentModel.NGramDocument \n" +
+                    "-compClass=...\tA java class identifier to use as Comparator class. " +
+                        "Defaults to jinsect.documentModel.StandardDocumentComparator \n" +
+                    "-?\tShow this screen.");
+    }
+
+    /** Creates a new pipeline, given an array of command-line like parameters.
+     * The pipeline uses a single, generic representation.
+     *@param args The parameters.
+     */
+    public SummaryEvaluationPipeline(String[] args) {
+        Hashtable hSwitches = utils.parseCommandLineSwitches(args);
+        if (utils.getSwitch(hSwitches,"?", "").length() > 0) {
+            printUsage();
+            System.exit(0);
+        }
+
+        try {
+            int iNMin = Integer.valueOf(utils.getSwitch(hSwitches,"nMin", "3"));
+            int iNMax = Integer.valueOf(utils.getSwitch(hSwitches,"nMax", "5"));
+            int iDist = Integer.valueOf(utils.getSwitch(hSwitches,"dist", "3"));
+            Threads = Integer.valueOf(utils.getSwitch(hSwitches,"t",
+                    "" + Runtime.getRuntime().availableProcessors()));
+            QueueSize = Integer.valueOf(utils.getSwitch(hSwitches,"queue",
+                    "" + (4 * Threads)));
+            String sDocumentClass = utils.getSwitch(hSwitches,"docClass",
+                    NGramDocument.class.getName());
+            String sComparatorClass = utils.getSwitch(hSwitches,"compClass",
+                    StandardDocumentComparator.class.getName());
+            OutFile = utils.getSwitch(hSwitches, "o", "");
+            CheckpointFile = utils.getSwitch(hSwitches, "checkpoint",
+                    OutFile.length() > 0 ? OutFile + ".checkpoint" : "");
+            SummaryDir = utils.getSwitch(hSwitches, "summaryDir", "summaries" +
+                    System.getProperty("file.separator"));
+            ModelDir = utils.getSwitch(hSwitches, "modelDir", "models" +
+                    System.getProperty("file.separator"));
+            Silent = utils.getSwitch(hSwitches, "s", "FALSE").equals("TRUE");
+            Progress = utils.getSwitch(hSwitches, "progress", "FALSE").equals("TRUE");
+            addRepresentation(new Representation(sDocumentClass, sComparatorClass,
+                    iNMin, iNMax, iDist, WORD_COLUMNS, false, false));
+
+            if (!Silent)
+                System.err.println("Using parameters:\n" + hSwitches);
+        }
+        catch (ClassCastException cce) {
+            System.err.println("Malformed switch:" + cce.getMessage() + ". Aborting...");
+            printUsage();
+        }
+    }
+
+    /** Creates a new pipeline using a single, generic representation, with
+     * the output of {@link summaryGenericEvaluator}.
+     *@param iNMin The min n-gram rank to use.
+     *@param iNMax The max n-gram rank to use.
+     *@param iDist The n-gram neighbourhood distance to use.
+     *@param iThreads The number of threads to use per stage.
+     *@param iQueueSize The capacity of the queues between stages.
+     *@param sOutFile The file to output results. If empty, standard output is
+     * used.
+     *@param sCheckpointFile The checkpoint file. If empty, no checkpoint is
+     * kept.
+     *@param sSummaryDir The peer summary base directory.
+     *@param sModelDir The model summaries base directory.
+     *@param sDocumentClass The document class by which to represent texts.
+     *@param sComparatorClass The comparator class to use for the evaluation.
+     *@param bSilent If true, no debug messages are output.
+     *@param bProgress If true, progress indication is output, even in silent
+     * mode.
+     */
+    public SummaryEvaluationPipeline(int iNMin, int iNMax, int iDist,
+            int iThreads, int iQueueSize, String sOutFile, String sCheckpointFile,
+            String sSummaryDir, String sModelDir, String sDocumentClass,
+            String sComparatorClass, boolean bSilent, boolean bProgress) {
+        this(iThreads, iQueueSize, sOutFile, sCheckpointFile, sSummaryDir,
+                sModelDir, bSilent, bProgress);
+        addRepresentation(new Representation(sDocumentClass, sComparatorClass,
+                iNMin, iNMax, iDist, WORD_COLUMNS, false, false));
+    }
+
+    /** Creates a new pipeline without representations. At least one
+     * representation should be added, using {@link #addRepresentation}, before
+     * the evaluation.
+     *@param iThreads The number of threads to use per stage.
+     *@param iQueueSize The capacity of the queues between stages.
+     *@param sOutFile The file to output results. If empty, standard output is
+     * used.
+     *@param sCheckpointFile The checkpoint file. If empty, no checkpoint is
+     * kept.
+     *@param sSummaryDir The peer summary base directory.
+     *@param sModelDir The model summaries base directory.
+     *@param bSilent If true, no debug messages are output.
+     *@param bProgress If true, progress indication is output, even in silent
+     * mode.
+     */
+    public SummaryEvaluationPipeline(int iThreads, int iQueueSize, String sOutFile,
+            String sCheckpointFile, String sSummaryDir, String sModelDir,
+            boolean bSilent, boolean bProgress) {
+        Threads = iThreads;
+        QueueSize = iQueueSize;
+        OutFile = sOutFile;
+        CheckpointFile = sCheckpointFile;
+        SummaryDir = sSummaryDir;
+        ModelDir = sModelDir;
+        Silent = bSilent;
+        Progress = bProgress;
+    }
+
+    /** Adds a representation by which peers are compared to models. The
+     * columns of the representations are output in the order the
+     * representations were added.
+     *@param rRep The representation.
+     */
+    public void addRepresentation(Representation rRep) {
+        Representations.add(rRep);
+    }
+
+    /** Executes the evaluation. */
+    public void run() {
+        try {
+            evaluate();
+        } catch (Exception ex) {
+            ex.printStackTrace(System.err);
+        }
+    }
+
+    /** Performs the evaluation, resuming from the checkpoint if one exists.
+     *@throws Exception If the document sets are empty, the output cannot be
+     * written, a stage fails or the evaluation is interrupted.
+     */
+    public void evaluate() throws Exception {
+        if (Representations.isEmpty())
+            throw new IllegalStateException("No representation defined.");
+
+        DocumentSet dsSummarySet = new DocumentSet(SummaryDir, 1.0);
+        DocumentSet dsModelSet = new DocumentSet(ModelDir, 1.0);
+        dsSummarySet.createSets();
+        dsModelSet.createSets();
+
+        if (dsSummarySet.getTrainingSet().size() *  dsModelSet.getTrainingSet().size()== 0)
+        {
+            System.err.println("Empty document set...");
+            throw new Exception("Empty document set...");
+        }
+
+        // Read checkpoint
+        CheckpointData cpDone = readCheckpoint();
+        boolean bResuming = cpDone.Done.size() > 0;
+        if (bResuming && !Silent)
+            System.err.println("Resuming evaluation. " + cpDone.Done.size() +
+                    " summaries already evaluated.");
+
+        FileOutputStream fosOut = null;
+        if (OutFile.length() != 0) {
+            // Discard any output not covered by the checkpoint
+            if (bResuming && (cpDone.OutputLength >= 0))
+                truncate(new File(OutFile), cpDone.OutputLength);
+            fosOut = new FileOutputStream(OutFile, bResuming);
+        }
+        PrintStream pOut = (fosOut == null) ? System.out : new PrintStream(fosOut);
+        PrintStream pCheckpoint = (CheckpointFile.length() == 0) ? null :
+            new PrintStream(new FileOutputStream(CheckpointFile, true));
+
+        if (!bResuming) {
+            pOut.println(getHeader());
+            pOut.flush();
+        }
+
+        final BlockingQueue<PeerTask> qToBuild = new ArrayBlockingQueue<PeerTask>(QueueSize);
+        final BlockingQueue<PeerTask> qToCompare = new ArrayBlockingQueue<PeerTask>(QueueSize);
+        final BlockingQueue<PeerTask> qToWrite = new ArrayBlockingQueue<PeerTask>(QueueSize);
+
+        ExecutorService esBuilders = Executors.newFixedThreadPool(Threads);
+        ExecutorService esComparers = Executors.newFixedThreadPool(Threads);
+        final CountDownLatch cdlBuilders = new CountDownLatch(Threads);
+        final CountDownLatch cdlComparers = new CountDownLatch(Threads);
+
+        for (int iCnt = 0; iCnt < Threads; iCnt++) {
+            esBuilders.submit(new Runnable() {
+                public void run() {
+                    try {
+                        buildStage(qToBuild, qToCompare);
+                    }
+                    catch (Throwable t) {
+                        fail(t);
+                        drain(qToBuild);
+                    }
+                    finally {
+                        cdlBuilders.countDown();
+                    }
+                }
+            });
+            esComparers.submit(new Runnable() {
+                public void run() {
+                    try {
+                        compareStage(qToCompare, qToWrite);
+                    }
+                    catch (Throwable t) {
+                        fail(t);
+                        drain(qToCompare);
+                    }
+                    finally {
+                        cdlComparers.countDown();
+                    }
+                }
+            });
+        }
+
+        // Count pending work
+        int iTotal = 0;
+        ArrayList<TopicState> lTopics = new ArrayList<TopicState>();
+        for (Object oCategory : dsModelSet.getCategories()) {
+            String sTopic = (String)oCategory;
+            TopicState tsCur = new TopicState(sTopic,
+                    dsModelSet.getFilesFromCategory(sTopic));
+            for (Object oPeer : dsSummarySet.getFilesFromCategory(sTopic,
+                    DocumentSet.FROM_TRAINING_SET)) {
+                CategorizedFileEntry cfePeer = (CategorizedFileEntry)oPeer;
+                if (!cpDone.Done.contains(cfePeer.getFileName()))
+                    tsCur.Peers.add(cfePeer);
+            }
+            if (tsCur.Peers.size() == 0)
+                continue;
+            tsCur.Remaining.set(tsCur.Peers.size());
+            lTopics.add(tsCur);
+            iTotal += tsCur.Peers.size();
+        }
+
+        Thread tWriter = new Thread(new WriterStage(qToWrite, pOut, fosOut,
+                pCheckpoint, iTotal));
+        tWriter.start();
+
+        try {
+            // Listing stage: feed the peers, topic by topic, until a failure
+            listing:
+            for (TopicState tsCur : lTopics) {
+                if (!Silent)
+                    System.err.println("Processing category:" + tsCur.Topic);
+                Topics.put(tsCur.Topic, tsCur);
+                for (CategorizedFileEntry cfePeer : tsCur.Peers) {
+                    if (Failure.get() != null)
+                        break listing;
+                    qToBuild.put(new PeerTask(cfePeer, tsCur.Topic));
+                }
+            }
+
+            // Close stages in order
+            for (int iCnt = 0; iCnt < Threads; iCnt++)
+                qToBuild.put(END_OF_QUEUE);
+            cdlBuilders.await();
+            for (int iCnt = 0; iCnt < Threads; iCnt++)
+                qToCompare.put(END_OF_QUEUE);
+            cdlComparers.await();
+            qToWrite.put(END_OF_QUEUE);
+            tWriter.join();
+        }
+        finally {
+            esBuilders.shutdownNow();
+            esComparers.shutdownNow();
+            tWriter.interrupt();
+            if (pOut != System.out)
+                pOut.close();
+            if (pCheckpoint != null)
+                pCheckpoint.close();
+        }
+
+        if (Failure.get() != null)
+            throw new Exception("Evaluation failed after " + Evaluated.get() +
+                    " summaries.", Failure.get());
+
+        System.err.println("Completed 100%. A total of " + Evaluated.get() +
+                " summaries were evaluated.");
+    }
+
+    /** Returns the header line of the output. */
+    protected String getHeader() {
+        StringBuilder sbRes = new StringBuilder("Theme\tSystemID\t");
+        for (Representation rCur : Representations)
+            for (String sColumn : rCur.Columns)
+                sbRes.append(sColumn).append('\t');
+        return sbRes.toString();
+    }
+
+    /** Records the first unexpected failure of a stage.
+     *@param t The failure.
+     */
+    protected void fail(Throwable t) {
+        if (Failure.compareAndSet(null, t)) {
+            System.err.println("Evaluation stage failed. Stopping evaluation. Reason:");
+            t.printStackTrace(System.err);
+        }
+    }
+
+    /** Consumes a queue up to its end of stream, so that the stages feeding it
+     * never block.
+     *@param qIn The queue to drain.
+     */
+    protected static void drain(BlockingQueue<PeerTask> qIn) {
+        try {
+            while (qIn.take() != END_OF_QUEUE);
+        }
+        catch (InterruptedException ie) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    /** Reads the already evaluated peer summaries from the checkpoint file.
+     * Every complete line of the file holds the length of the output after
+     * the rows of a peer were written, a tab and the file name of the peer.
+     * An incomplete last line, left by an interrupted run, is removed.
+     *@return The checkpoint read.
+     */
+    protected CheckpointData readCheckpoint() throws IOException {
+        CheckpointData cpRes = new CheckpointData();
+        File fCheckpoint = new File(CheckpointFile);
+        if ((CheckpointFile.length() == 0) || !fCheckpoint.exists())
+            return cpRes;
+
+        ByteArrayOutputStream bIn = new ByteArrayOutputStream();
+        FileInputStream fisIn = new FileInputStream(fCheckpoint);
+        try {
+            byte[] baBuf = new byte[8192];
+            int iRead;
+            while ((iRead = fisIn.read(baBuf)) > 0)
+                bIn.write(baBuf, 0, iRead);
+        }
+        finally {
+            fisIn.close();
+        }
+
+        byte[] baData = bIn.toByteArray();
+        int iEnd = baData.length;
+        while ((iEnd > 0) && (baData[iEnd - 1] != '\n'))
+            iEnd--;
+        if (iEnd < baData.length)
+            truncate(fCheckpoint, iEnd);
+
+        for (String sLine : new String(baData, 0, iEnd).split("\n")) {
+            int iTab = sLine.indexOf('\t');
+            if (iTab <= 0)
+                continue;
+            try {
+                cpRes.OutputLength = Long.parseLong(sLine.substring(0, iTab));
+            }
+            catch (NumberFormatException nfe) {
+                continue;
+            }
+            cpRes.Done.add(sLine.substring(iTab + 1));
+        }
+        return cpRes;
+    }
+
+    /** Truncates a file to a given length.
+     *@param fFile The file.
+     *@param lLength The new length of the file.
+     */
+    private static void truncate(File fFile, long lLength) throws IOException {
+        RandomAccessFile rafFile = new RandomAccessFile(fFile, "rw");
+        try {
+            if (rafFile.length() > lLength)
+                rafFile.setLength(lLength);
+        }
+        finally {
+            rafFile.close();
+        }
+    }
+
+    /** The build stage: loads peer summaries and creates their
+     * representations. */
+    protected void buildStage(BlockingQueue<PeerTask> qIn,
+            BlockingQueue<PeerTask> qOut) {
+        try {
+            PeerTask ptCur;
+            while ((ptCur = qIn.take()) != END_OF_QUEUE) {
+                if (Failure.get() != null)
+                    continue;
+                try {
+                    ptCur.Documents = new ILoadableTextPrint[Representations.size()];
+                    for (int iRep = 0; iRep < Representations.size(); iRep++)
+                        ptCur.Documents[iRep] = Representations.get(iRep).createDocument(
+                                ptCur.Entry.getFileName());
+                }
+                catch (Exception e) {
+                    System.err.println("Cannot represent summary " +
+                            ptCur.Entry.getFileName() + ". Reason:");
+                    e.printStackTrace(System.err);
+                    ptCur.Failed = true;
+                }
+                qOut.put(ptCur);
+            }
+        }
+        catch (InterruptedException ie) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    /** The comparison stage: compares peer representations to the models of
+     * their topic, creating the output rows. */
+    protected void compareStage(BlockingQueue<PeerTask> qIn,
+            BlockingQueue<PeerTask> qOut) {
+        // Comparators are not assumed thread-safe: one per worker
+        SimilarityComparatorListener[] saComparators =
+                new SimilarityComparatorListener[Representations.size()];
+        try {
+            for (int iRep = 0; iRep < Representations.size(); iRep++)
+                saComparators[iRep] = Representations.get(iRep).createComparator();
+        } catch (Exception e) {
+            System.err.println("Cannot create comparator. Reason:");
+            e.printStackTrace(System.err);
+            saComparators = null;
+        }
+
+        try {
+            PeerTask ptCur;
+            while ((ptCur = qIn.take()) != END_OF_QUEUE) {
+                if (Failure.get() != null)
+                    continue;
+                if (!ptCur.Failed) {
+                    try {
+                        if (saComparators == null)
+                            throw new Exception("No comparator available.");
+                        comparePeer(ptCur, saComparators);
+                    }
+                    catch (InterruptedException ie) {
+                        throw ie;
+                    }
+                    catch (Exception e) {
+                        System.err.println("Cannot compare summary " +
+                            ptCur.Entry.getFileName() + ". Reason:");
+                        e.printStackTrace(System.err);
+                        ptCur.Failed = true;
+                    }
+                }
+                // Release the representations as soon as possible
+                ptCur.Documents = null;
+                qOut.put(ptCur);
+            }
+        }
+        catch (InterruptedException ie) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    /** Compares a given peer to all the models of its topic, creating one
+     * output row per model.
+     *@param ptPeer The peer task.
+     *@param saComparators The comparators to use, one per representation.
+     */
+    protected void comparePeer(PeerTask ptPeer,
+            SimilarityComparatorListener[] saComparators) throws Exception {
+        TopicState tsTopic = Topics.get(ptPeer.Topic);
+        String sPeerName = new File(ptPeer.Entry.getFileName()).getName();
+        DUCDocumentInfo d = new DUCDocumentInfo(ptPeer.Entry.getFileName());
+        String sID = d.Topic + "\t" + d.Summarizer; // Only print Theme and SystemID
+
+        for (Object oModel : tsTopic.Models) {
+            CategorizedFileEntry cfeModel = (CategorizedFileEntry)oModel;
+            // Ignore docs with exactly same names (i.e. same files)
+            if (new File(cfeModel.getFileName()).getName().equals(sPeerName)) {
+                if (!Silent)
+                    synchronized (System.err) {
+                        System.err.println("Ignoring identically named files:" +
+                                cfeModel.getFileName() + " , " + ptPeer.Entry.getFileName());
+                    }
+                continue;
+            }
+
+            try {
+                StringBuilder sbRow = new StringBuilder(sID);
+                for (int iRep = 0; iRep < Representations.size(); iRep++) {
+                    Representation rCur = Representations.get(iRep);
+                    ILoadableTextPrint dModel = tsTopic.getModel(iRep,
+                            cfeModel.getFileName());
+                    sbRow.append('\t').append(rCur.compare(saComparators[iRep],
+                            ptPeer.Documents[iRep], dModel));
+                    if ((iRep == Representations.size() - 1) && rCur.TrailingSeparator)
+                        sbRow.append('\t');
+                }
+                ptPeer.Rows.add(sbRow.toString());
+            }
+            catch (InvalidClassException iceE) {
+                System.err.println("Cannot compare...");
+            }
+        }
+    }
+
+    /** The checkpoint of an evaluation. */
+    protected static class CheckpointData {
+        /** The file names of the evaluated peers. */
+        Set<String> Done = new HashSet<String>();
+        /** The length of the output covered by the checkpoint, or -1 if
+         * unknown. */
+        long OutputLength = -1;
+    }
+
+    /** A representation by which peers are compared to models: a document
+     * class, its n-gram parameters and the comparator to use. */
+    public static class Representation {
+        String DocumentClass, ComparatorClass;
+        int NMin, NMax, Dist;
+        String[] Columns;
+        boolean Detailed, TrailingSeparator;
+
+        /** Creates a new representation.
+         *@param sDocumentClass The document class by which to represent texts.
+         *@param sComparatorClass The comparator class to use for the
+         * evaluation.
+         *@param iNMin The min n-gram rank to use.
+         *@param iNMax The max n-gram rank to use.
+         *@param iDist The n-gram neighbourhood distance to use.
+         *@param saColumns The names of the seven output columns.
+         *@param bDetailed If true, the comparator is created with its default
+         * constructor and the graph and histogram parts of the similarity are
+         * output, as in {@link summaryEvaluator}. Otherwise, the comparator is
+         * created to use the graph only and only the overall similarity is
+         * output, as in {@link summaryGenericEvaluator}.
+         *@param bTrailingSeparator If true, and this is the last
+         * representation, the output rows end with a tab.
+         */
+        public Representation(String sDocumentClass, String sComparatorClass,
+                int iNMin, int iNMax, int iDist, String[] saColumns,
+                boolean bDetailed, boolean bTrailingSeparator) {
+            DocumentClass = sDocumentClass;
+            ComparatorClass = sComparatorClass;
+            NMin = iNMin;
+            NMax = iNMax;
+            Dist = iDist;
+            Columns = saColumns;
+            Detailed = bDetailed;
+            TrailingSeparator = bTrailingSeparator;
+        }
+
+        /** Creates and loads the representation of a given file.
+         *@param sFilename The file to represent.
+         *@return The representation.
+         */
+        public ILoadableTextPrint createDocument(String sFilename) throws Exception {
+            Class cDoc = Class.forName(DocumentClass);
+            ILoadableTextPrint dRes = null;
+            for (Constructor cCur : cDoc.getConstructors()) {
+                if (cCur.getParameterTypes().length == 3) {
+                    dRes = (ILoadableTextPrint)cCur.newInstance(NMin, NMax, Dist);
+                    break;
+                }
+            }
+            if (dRes == null)
+                for (Constructor cCur : cDoc.getConstructors()) {
+                    if (cCur.getParameterTypes().length == 5) {
+                        dRes = (ILoadableTextPrint)cCur.newInstance(NMin, NMax, Dist,
+                                NMin, NMax);
+                        break;
+                    }
+                }
+            if (dRes == null)
+                throw new InstantiationException("No suitable constructor for " +
+                        DocumentClass);
+
+            return RepresentationCache.loadCached(dRes, sFilename, NMin, NMax, Dist);
+        }
+
+        /** Creates a comparator for this representation.
+         *@return The comparator.
+         */
+        public SimilarityComparatorListener createComparator() throws Exception {
+            Class cComp = Class.forName(ComparatorClass);
+            if (!Detailed)
+                for (Constructor cCur : cComp.getConstructors()) {
+                    if (cCur.getParameterTypes().length == 1)
+                        return (SimilarityComparatorListener)cCur.newInstance(1.0); // Graph only
+                }
+            return (SimilarityComparatorListener)cComp.newInstance();
+        }
+
+        /** Compares two representations, returning the seven output columns,
+         * separated by tabs.
+         *@param sclComparator The comparator to use.
+         *@param oPeer The peer representation.
+         *@param oModel The model representation.
+         *@return The output columns.
+         */
+        public String compare(SimilarityComparatorListener sclComparator,
+                Object oPeer, Object oModel) throws InvalidClassException {
+            GraphSimilarity gsOverall = (GraphSimilarity)sclComparator.getSimilarityBetween(
+                    oPeer, oModel);
+            GraphSimilarity gsGraph = gsOverall, gsHisto = null;
+            if (Detailed) {
+                if (sclComparator instanceof StandardDocumentComparator) {
+                    gsGraph = ((StandardDocumentComparator)sclComparator).getGraphSimilarity();
+                    gsHisto = ((StandardDocumentComparator)sclComparator).getHistogramSimilarity();
+                }
+                else if (sclComparator instanceof StandardDocumentDistroComparator) {
+                    gsGraph = ((StandardDocumentDistroComparator)sclComparator).getGraphSimilarity();
+                    gsHisto = ((StandardDocumentDistroComparator)sclComparator).getHistogramSimilarity();
+                }
+            }
+
+            return gsGraph.ContainmentSimilarity + "\t" +
+                    gsGraph.ValueSimilarity + "\t" +
+                    gsGraph.SizeSimilarity + "\t" +
+                    (gsHisto == null ? "0.0\t0.0\t0.0\t" :
+                        gsHisto.ContainmentSimilarity + "\t" +
+                        gsHisto.ValueSimilarity + "\t" +
+                        gsHisto.SizeSimilarity + "\t") +
+                    gsOverall.getOverallSimilarity();
+        }
+    }
+
+    /** A peer summary on its way through the pipeline. */
+    protected static class PeerTask {
+        CategorizedFileEntry Entry;
+        String Topic;
+        ILoadableTextPrint[] Documents = null;
+        ArrayList<String> Rows = new ArrayList<String>();
+        boolean Failed = false;
+
+        public PeerTask(CategorizedFileEntry cfeEntry, String sTopic) {
+            Entry = cfeEntry;
+            Topic = sTopic;
+        }
+    }
+
+    /** The state of a topic under evaluation: its peers, its models and the
+     * lazily built model representations. */
+    protected class TopicState {
+        String Topic;
+        List Models;
+        ArrayList<CategorizedFileEntry> Peers = new ArrayList<CategorizedFileEntry>();
+        AtomicInteger Remaining = new AtomicInteger(0);
+        ConcurrentHashMap<String, FutureTask<ILoadableTextPrint>> ModelDocs =
+                new ConcurrentHashMap<String, FutureTask<ILoadableTextPrint>>();
+
+        public TopicState(String sTopic, List lModels) {
+            Topic = sTopic;
+            Models = lModels;
+        }
+
+        /** Returns a representation of a model, building it exactly once
+         * even if requested concurrently.
+         *@param iRep The index of the representation.
+         *@param sFilename The model file.
+         *@return The model representation.
+         */
+        public ILoadableTextPrint getModel(final int iRep, final String sFilename)
+                throws InterruptedException, ExecutionException {
+            String sKey = iRep + "\t" + sFilename;
+            FutureTask<ILoadableTextPrint> ftModel = ModelDocs.get(sKey);
+            if (ftModel == null) {
+                FutureTask<ILoadableTextPrint> ftNew = new FutureTask<ILoadableTextPrint>(
+                        new Callable<ILoadableTextPrint>() {
+                    public ILoadableTextPrint call() throws Exception {
+                        return Representations.get(iRep).createDocument(sFilename);
+                    }
+                });
+                ftModel = ModelDocs.putIfAbsent(sKey, ftNew);
+                if (ftModel == null) {
+                    ftModel = ftNew;
+                    ftModel.run();
+                }
+            }
+            return ftModel.get();
+        }
+    }
+
+    /** The output stage: writes the result rows and the checkpoint, and
+     * releases the topics that have been fully evaluated. */
+    protected class WriterStage implements Runnable {
+        BlockingQueue<PeerTask> In;
+        PrintStream Out, Checkpoint;
+        FileOutputStream OutStream;
+        int Total;
+
+        public WriterStage(BlockingQueue<PeerTask> qIn, PrintStream pOut,
+                FileOutputStream fosOut, PrintStream pCheckpoint, int iTotal) {
+            In = qIn;
+            Out = pOut;
+            OutStream = fosOut;
+            Checkpoint = pCheckpoint;
+            Total = iTotal;
+        }
+
+        public void run() {
+            Date dStart = new Date();
+            try {
+                PeerTask ptCur;
+                while ((ptCur = In.take()) != END_OF_QUEUE) {
+                    if (!ptCur.Failed)
+                        write(ptCur);
+
+                    // Release topic models when done
+                    TopicState tsTopic = Topics.get(ptCur.Topic);
+                    if ((tsTopic != null) && (tsTopic.Remaining.decrementAndGet() == 0))
+                        Topics.remove(ptCur.Topic);
+
+                    int iCur = Evaluated.incrementAndGet();
+                    if (!Silent || Progress) {
+                        long lRemaining = (Total - iCur) * (long)((double)(
+                                new Date().getTime() - dStart.getTime()) / iCur);
+                        System.err.print("Completed " + String.format("%7.4f",
+                                (double)iCur / Total * 100) + "%" +
+                            String.format(" - Remaining %50s\r",
+                                utils.millisToMinSecString(lRemaining)));
+                    }
+                }
+            }
+            catch (InterruptedException ie) {
+                Thread.currentThread().interrupt();
+            }
+            catch (Throwable t) {
+                fail(t);
+                drain(In);
+            }
+        }
+
+        /** Writes the rows of a peer and then records the peer, together with
+         * the length of the output, in the checkpoint. */
+        protected void write(PeerTask ptCur) throws IOException {
+            for (String sRow : ptCur.Rows)
+                Out.println(sRow);
+            Out.flush();
+            if (Out.checkError())
+                throw new IOException("Cannot write output.");
+
+            if (Checkpoint != null) {
+                long lLength = (OutStream == null) ? -1 : OutStream.getChannel().position();
+                Checkpoint.println(lLength + "\t" + ptCur.Entry.getFileName());
+                Checkpoint.flush();
+                if (Checkpoint.checkError())
+                    throw new IOException("Cannot write checkpoint.");
+            }
+        }
+    }
+}
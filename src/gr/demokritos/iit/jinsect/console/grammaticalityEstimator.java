@@ -10,6 +10,7 @@ package gr.demokritos.iit.jinsect.console;
 import gr.demokritos.iit.conceptualIndex.documentModel.DistributionDocument;
 import gr.demokritos.iit.conceptualIndex.documentModel.DistributionWordDocument;
 import gr.demokritos.iit.conceptualIndex.structs.Distribution;
+import gr.demokritos.iit.conceptualIndex.structs.TransitionTable;
 import gr.demokritos.iit.ducTools.DUCDocumentInfo;
 import java.io.BufferedReader;
 import java.io.FileInputStream;
@@ -21,11 +22,22 @@ import java.io.ObjectInputStream;
 import java.io.ObjectOutputStream;
 import java.io.OutputStream;
 import java.io.Serializable;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
 import java.util.HashSet;
 import java.util.Hashtable;
 import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
 import java.util.Set;
 import java.util.TreeMap;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
 import gr.demokritos.iit.jinsect.structs.CategorizedFileEntry;
 import gr.demokritos.iit.jinsect.structs.DocumentSet;
 import java.io.File;
@@ -41,6 +53,10 @@ import java.util.zip.GZIPOutputStream;
  * @author ggianna
  */
 public class grammaticalityEstimator implements Serializable {
+    /** Kept equal to the implicit value of earlier versions, so that saved estimators
+     * can still be read.
+     */
+    private static final long serialVersionUID = -7060892126976969781L;
     
     /** Map between level and distribution documents.
      */
@@ -60,7 +76,20 @@ public class grammaticalityEstimator implements Serializable {
     /** The concatenation of all corpus texts.
      */
     protected String FullTextDataString;
-    
+
+    /** The number of prefixes, the analysis of which is kept for reuse.
+     *@see #getNormalities(String, List)
+     */
+    public static final int PREFIX_CACHE_SIZE = 64;
+
+    /** The number of threads used to evaluate batches of strings.
+     */
+    protected int Threads = Runtime.getRuntime().availableProcessors();
+
+    /** The analysis of recently evaluated prefixes (per character level), in access order.
+     */
+    protected transient Map<String,PrefixState[]> PrefixCache;
+
     private void writeObject(java.io.ObjectOutputStream out)
      throws IOException 
     {
@@ -95,6 +124,8 @@ public class grammaticalityEstimator implements Serializable {
         DistroWordDocs = (TreeMap<Integer,DistributionWordDocument>)in.readObject();
         // Full data string
         FullTextDataString = (String)in.readObject();
+        // Defaults
+        Threads = Runtime.getRuntime().availableProcessors();
     }
 
 /**
@@ -342,6 +373,8 @@ public class grammaticalityEstimator implements Serializable {
                     dWordCur.setDataString(FullTextDataString, iCnt,
                             bResetExisting);
         }
+
+        resetPrefixCache();
     }
 
     /** Performs the training of the distribution model.
@@ -366,6 +399,71 @@ public class grammaticalityEstimator implements Serializable {
             if (dWordCur != null)
                 dWordCur.setDataString(FullTextDataString, iCnt, true);
         }
+
+        resetPrefixCache();
+    }
+
+    /** Sets the number of threads used to evaluate batches of strings.
+     *@param iThreads The number of threads. Values below 2 indicate serial evaluation.
+     *@see #getNormalities(List)
+     */
+    public void setThreads(int iThreads) {
+        Threads = iThreads;
+    }
+
+    /** Discards the analysed prefixes, which are outdated after training.
+     */
+    protected synchronized void resetPrefixCache() {
+        PrefixCache = null;
+    }
+
+    /** Returns the cache of analysed prefixes, creating it if required.
+     */
+    protected synchronized Map<String,PrefixState[]> getPrefixCache() {
+        if (PrefixCache == null)
+            PrefixCache = Collections.synchronizedMap(
+                    new LinkedHashMap<String,PrefixState[]>(16, 0.75f, true) {
+                @Override
+                protected boolean removeEldestEntry(Map.Entry<String,PrefixState[]> eEldest) {
+                    return size() > PREFIX_CACHE_SIZE;
+                }
+            });
+        return PrefixCache;
+    }
+
+    /** Combines the per level normalities of a string to an overall normality, as described in
+     * {@link #getNormality(String)}.
+     *@param daChar The character level normalities, from the minimum to the maximum level.
+     *@param daWord The word level normalities, from the minimum to the maximum level.
+     *@return The overall normality.
+     */
+    protected double combineNormalities(double[] daChar, double[] daWord) {
+        Distribution dDist = new Distribution();
+        if (iMinCharNGram > 0)
+            for (int iCnt=iMinCharNGram; iCnt<=iMaxCharNGram; iCnt++)
+                dDist.setValue(Double.valueOf(iCnt), daChar[iCnt - iMinCharNGram]);
+
+        if (iMinWordNGram > 0)
+            for (int iCnt=iMinWordNGram; iCnt<=iMaxWordNGram; iCnt++)
+                dDist.setValue(Double.valueOf(iCnt), (dDist.getValue(Double.valueOf(iCnt)) +
+                        daWord[iCnt - iMinWordNGram]) / 2.0);
+
+        if (dDist.sumOfValues() > 0.0)
+            return dDist.average(false);
+        else
+            return 0.0; // Everything is zero
+    }
+
+    /** Calculates the word level normalities of a string, from the minimum to the maximum
+     * level (empty if word levels are not used).
+     */
+    protected double[] wordNormalities(String sStr) {
+        if (iMinWordNGram <= 0)
+            return new double[0];
+        double[] daRes = new double[iMaxWordNGram - iMinWordNGram + 1];
+        for (int iCnt=iMinWordNGram; iCnt<=iMaxWordNGram; iCnt++)
+            daRes[iCnt - iMinWordNGram] = DistroWordDocs.get(iCnt).normality(sStr);
+        return daRes;
     }
     
     /** Calculates a degree of normality, indicating whether a given string appears in a form
@@ -376,24 +474,197 @@ public class grammaticalityEstimator implements Serializable {
      *@see DistributionDocument
      */    
     public double getNormality(String sStr) {
-        Distribution dDist = new Distribution();
-        if (iMinCharNGram > 0)
-            for (int iCnt=iMinCharNGram; iCnt<=iMaxCharNGram; iCnt++) {
-                DistributionDocument dCur =  DistroDocs.get(iCnt);
-                dDist.setValue(Double.valueOf(iCnt), dCur.normality(sStr));
+        double[] daChar = new double[0];
+        if (iMinCharNGram > 0) {
+            daChar = new double[iMaxCharNGram - iMinCharNGram + 1];
+            for (int iCnt=iMinCharNGram; iCnt<=iMaxCharNGram; iCnt++)
+                daChar[iCnt - iMinCharNGram] = DistroDocs.get(iCnt).normality(sStr);
+        }
+
+        return combineNormalities(daChar, wordNormalities(sStr));
+    }
+
+    /** Calculates the normality of every string in a batch, as {@link #getNormality(String)}
+     * does, evaluating them in parallel.
+     *@param lStrs The strings to test.
+     *@return The normalities of the strings, in the order of the list.
+     */
+    public double[] getNormalities(List<String> lStrs) {
+        List<Callable<Double>> lTasks = new ArrayList<Callable<Double>>(lStrs.size());
+        for (final String sCur : lStrs)
+            lTasks.add(new Callable<Double>() {
+                public Double call() {
+                    return getNormality(sCur);
+                }
+            });
+        return runAll(lTasks);
+    }
+
+    /** Calculates the normality of the concatenation of a common prefix with every one of a
+     * set of continuations, as {@link #getNormality(String)} does. The character n-grams of
+     * the prefix are analysed once (and kept for subsequent calls with the same prefix), so that
+     * only the n-grams involving the continuation are looked up for every candidate.
+     *@param sPrefix The common prefix (e.g. the text generated so far).
+     *@param lContinuations The continuations to append to the prefix (e.g. candidate words).
+     *@return The normalities of the concatenations, in the order of the list.
+     */
+    public double[] getNormalities(final String sPrefix, List<String> lContinuations) {
+        final PrefixState[] psaStates = getPrefixStates(sPrefix);
+        List<Callable<Double>> lTasks = new ArrayList<Callable<Double>>(lContinuations.size());
+        for (final String sCur : lContinuations)
+            lTasks.add(new Callable<Double>() {
+                public Double call() {
+                    String sStr = sPrefix + sCur;
+                    double[] daChar = new double[psaStates.length];
+                    for (int iCnt = 0; iCnt < psaStates.length; iCnt++)
+                        daChar[iCnt] = (psaStates[iCnt] == null) ?
+                            DistroDocs.get(iMinCharNGram + iCnt).normality(sStr) :
+                            psaStates[iCnt].normality(sStr);
+                    return combineNormalities(daChar, wordNormalities(sStr));
+                }
+            });
+        return runAll(lTasks);
+    }
+
+    /** Returns the analysis of a prefix for every character level, using the cache of analysed
+     * prefixes. Levels where a distribution comparator has been set are not analysed (null).
+     */
+    protected PrefixState[] getPrefixStates(String sPrefix) {
+        if (iMinCharNGram <= 0)
+            return new PrefixState[0];
+        Map<String,PrefixState[]> mCache = getPrefixCache();
+        PrefixState[] psaRes = mCache.get(sPrefix);
+        if (psaRes != null)
+            return psaRes;
+
+        psaRes = new PrefixState[iMaxCharNGram - iMinCharNGram + 1];
+        for (int iCnt=iMinCharNGram; iCnt<=iMaxCharNGram; iCnt++) {
+            DistributionDocument dCur =  DistroDocs.get(iCnt);
+            if (dCur.OnCompare == null)
+                psaRes[iCnt - iMinCharNGram] = new PrefixState(dCur, sPrefix);
+        }
+        mCache.put(sPrefix, psaRes);
+        return psaRes;
+    }
+
+    /** Runs a set of tasks, in parallel if more than one threads are allowed, returning their
+     * results in order.
+     */
+    private double[] runAll(List<Callable<Double>> lTasks) {
+        double[] daRes = new double[lTasks.size()];
+        if ((Threads <= 1) || (lTasks.size() <= 1)) {
+            try {
+                for (int iCnt = 0; iCnt < daRes.length; iCnt++)
+                    daRes[iCnt] = lTasks.get(iCnt).call();
+            } catch (Exception e) {
+                throw new IllegalStateException(e);
             }
-        
-        if (iMinWordNGram > 0)
-            for (int iCnt=iMinWordNGram; iCnt<=iMaxWordNGram; iCnt++) {
-                DistributionWordDocument dCur =  DistroWordDocs.get(iCnt);
-                dDist.setValue(Double.valueOf(iCnt), (dDist.getValue(Double.valueOf(iCnt)) + 
-                        dCur.normality(sStr)) / 2.0);
+            return daRes;
+        }
+
+        ExecutorService esPool = Executors.newFixedThreadPool(Math.min(Threads,
+                lTasks.size()));
+        try {
+            int iCnt = 0;
+            for (Future<Double> fCur : esPool.invokeAll(lTasks))
+                daRes[iCnt++] = fCur.get();
+        } catch (InterruptedException ie) {
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException("Interrupted while estimating normality.", ie);
+        } catch (ExecutionException ee) {
+            throw new IllegalStateException(ee.getCause());
+        }
+        finally {
+            esPool.shutdownNow();
+        }
+        return daRes;
+    }
+
+    /** The analysis of a prefix for a single character level. It holds the n-gram transitions
+     * found within the prefix, together with their similarities to the model, so that the
+     * normality of any text starting with the prefix only requires the transitions ending
+     * after the prefix.
+     */
+    protected static class PrefixState {
+        /** The model table of the level. */
+        protected TransitionTable Model;
+        /** The prefix. */
+        protected String Prefix;
+        /** The source n-gram size and neighbourhood window of the level. */
+        protected int NGramSize, Window;
+        /** The transitions of the prefix. */
+        protected TransitionTable Table;
+        /** The similarity to the model of every transition of the prefix. */
+        protected double[] Similarities;
+        /** The sum of the similarities. */
+        protected double Sum;
+
+        /** Analyses a prefix.
+         *@param dDoc The distribution document of the level.
+         *@param sPrefix The prefix.
+         */
+        public PrefixState(DistributionDocument dDoc, String sPrefix) {
+            Model = dDoc.toTransitionTable();
+            Prefix = sPrefix;
+            NGramSize = dDoc.getSourceNGramSize();
+            Window = dDoc.getNeighbourhoodWindow();
+            Table = dDoc.getTransitionTable(sPrefix);
+            Similarities = new double[Table.size()];
+            double[] daRow = new double[Window];
+            for (int iEntry = 0; iEntry < Table.size(); iEntry++) {
+                Arrays.fill(daRow, 0.0);
+                Table.addRowTo(iEntry, daRow);
+                Similarities[iEntry] = Model.similarityTo(daRow,
+                        Model.find(Table.getSource(iEntry), Table.getNext(iEntry)));
+                Sum += Similarities[iEntry];
             }
-        
-        if (dDist.sumOfValues() > 0.0)
-            return dDist.average(false);
-        else
-            return 0.0; // Everything is zero
+        }
+
+        /** Calculates the normality of a text starting with the prefix, as
+         * {@link DistributionDocument#normality(String)} would.
+         *@param sStr The text, starting with the prefix.
+         *@return The normality of the text.
+         */
+        public double normality(String sStr) {
+            // Transitions to tokens after the prefix
+            TransitionTable ttSuffix = new TransitionTable(Window);
+            int iLen = sStr.length();
+            int iPrefixLen = Prefix.length();
+            for (int iCurStart = Math.max(0, iPrefixLen - NGramSize - Window + 1);
+                    iCurStart + NGramSize < iLen; iCurStart++) {
+                String sCurNGram = null;
+                for (int iCurNeighbour = 0; (iCurNeighbour < Window) &&
+                        (iCurStart + NGramSize + iCurNeighbour < iLen); iCurNeighbour++) {
+                    int iPos = iCurStart + NGramSize + iCurNeighbour;
+                    if (iPos < iPrefixLen)
+                        continue;
+                    if (sCurNGram == null)
+                        sCurNGram = sStr.substring(iCurStart, iCurStart + NGramSize);
+                    ttSuffix.add(sCurNGram, sStr.substring(iPos, iPos + 1), iCurNeighbour + 1,
+                            1.0f);
+                }
+            }
+
+            // Update the prefix sum
+            double dSum = Sum;
+            int iCount = Table.size();
+            double[] daRow = new double[Window];
+            for (int iEntry = 0; iEntry < ttSuffix.size(); iEntry++) {
+                String sSource = ttSuffix.getSource(iEntry);
+                String sNext = ttSuffix.getNext(iEntry);
+                Arrays.fill(daRow, 0.0);
+                ttSuffix.addRowTo(iEntry, daRow);
+                int iPrefixEntry = Table.find(sSource, sNext);
+                if (iPrefixEntry >= 0) {
+                    Table.addRowTo(iPrefixEntry, daRow);
+                    dSum -= Similarities[iPrefixEntry];
+                }
+                else
+                    iCount++;
+                dSum += Model.similarityTo(daRow, Model.find(sSource, sNext));
+            }
+            return dSum / (iCount == 0 ? 1 : iCount);
+        }
     }
 
 
@@ -9,6 +9,7 @@ package gr.demokritos.iit.jinsect.console;
 
 import gr.demokritos.iit.ducTools.DUCDocumentInfo;
 import gr.demokritos.iit.jinsect.documentModel.documentTypes.NGramSymWinDocument;
+import gr.demokritos.iit.jinsect.storage.RepresentationCache;
 import java.io.File;
 import java.io.FileNotFoundException;
 import java.io.InvalidClassException;
@@ -49,7 +50,7 @@ public class summaryEvaluator implements Runnable {
     
     // Variables
     protected Integer WordMin, WordMax, WordDist, CharMin, CharMax, CharDist, Threads, WeightMethod;
-    protected String OutFile, SummaryDir, ModelDir, Do;
+    protected String OutFile, SummaryDir, ModelDir, Do, CheckpointFile = "";
     boolean Silent, Progress;
     protected Semaphore OutputSemaphore;
     /** Word n-gram graph representation cache.*/
@@ -70,13 +71,14 @@ public class summaryEvaluator implements Runnable {
     private static void printUsage() {
             System.err.println("Syntax:\nsummaryEvaluator -do=(char|word|all) [-summaryDir=summaries/] [-modelDir=models/]"+
                     "[-wordMin=#] [-wordMax=#] [-wordDist=#] [-charMin=#] [-charMax=#] [-charDist=#] [-o=outFile] [-t=#]" + 
-                    "[-s] [-use=o|d] [-progress]");
+                    "[-s] [-use=o|d] [-progress] [-checkpoint=file]");
             System.err.println("wordMin=#\tMin word n-gram size.\nwordMax=#\tMax word n-gram size.\nwordDist=#\tWord n-gram window\n" +
                     "charMin=#\tMin char n-gram size.\ncharMax=#\tMax char n-gram size.\ncharDist=#\tChar n-gram window.\n" +
                     "o=outFile\tThe file to output data. Default is stdout.\n-t=#\tNumber of threads. Defaults to 2.\n" +
                     "s\tFor non-verbose output (silent).\n" +
                     "progress\tFor progress indication (even in silent mode).\n" +
                     "use=o|d\tUse [o]ccurences or average [d]istance to assign weights to the graph. Defaults to o.\n" +
+                    "checkpoint=file\tRecord evaluated summaries to the given file. If it exists, the evaluation resumes.\n" +
                     "-?\tShow this screen.");
     }
 
@@ -165,6 +167,8 @@ public class summaryEvaluator implements Runnable {
             }
             // Define output file
             OutFile = gr.demokritos.iit.jinsect.utils.getSwitch(hSwitches, "o", "");
+            // Define checkpoint file (if any)
+            CheckpointFile = gr.demokritos.iit.jinsect.utils.getSwitch(hSwitches, "checkpoint", "");
             // Get summary and model dir
             SummaryDir = gr.demokritos.iit.jinsect.utils.getSwitch(hSwitches, "summaryDir", "summaries" +
                     System.getProperty("file.separator"));
@@ -186,8 +190,32 @@ public class summaryEvaluator implements Runnable {
         }
     }
     
-    /** Performs the evaluation step in a thread-safe way. */
+    /** Performs the evaluation step in a thread-safe way, through a
+     * {@link SummaryEvaluationPipeline}. */
     public void run() {
+        boolean bDistro = (WeightMethod == USE_DISTRO_AVERAGE_AS_WEIGHT);
+        SummaryEvaluationPipeline sepEval = new SummaryEvaluationPipeline(Threads,
+                4 * Threads, OutFile, CheckpointFile, SummaryDir, ModelDir, Silent, Progress);
+        if (Do.equals("word") || Do.equals("all"))
+            sepEval.addRepresentation(new SummaryEvaluationPipeline.Representation(
+                    (bDistro ? SimpleTextDistroDocument.class : SimpleTextDocument.class).getName(),
+                    (bDistro ? StandardDocumentDistroComparator.class :
+                        StandardDocumentComparator.class).getName(),
+                    WordMin, WordMax, WordDist, SummaryEvaluationPipeline.WORD_COLUMNS,
+                    true, true));
+        if (Do.equals("char") || Do.equals("all"))
+            sepEval.addRepresentation(new SummaryEvaluationPipeline.Representation(
+                    (bDistro ? NGramDistroDocument.class : NGramSymWinDocument.class).getName(),
+                    (bDistro ? StandardDocumentDistroComparator.class :
+                        StandardDocumentComparator.class).getName(),
+                    CharMin, CharMax, CharDist, SummaryEvaluationPipeline.CHAR_COLUMNS,
+                    true, false));
+        sepEval.run();
+    }
+
+    /** Performs the evaluation step using a {@link ThreadList} of
+     * {@link CalcSimilRunner}s. */
+    public void runThreaded() {
         PrintStream pOut = null;
         if (OutFile.length() != 0) {
             try {
@@ -307,8 +335,9 @@ public class summaryEvaluator implements Runnable {
                     if (hModelCache.containsKey(cfeOther.getFileName()))
                         ndDoc2 = (SimpleTextDocument)hModelCache.get(cfeOther.getFileName());
                     else {
-                        ndDoc2 = new SimpleTextDocument(WordNGramSize_Min, WordNGramSize_Max, Word_Dmax);
-                        ndDoc2.loadDataStringFromFile(cfeOther.getFileName());
+                        ndDoc2 = (SimpleTextDocument)RepresentationCache.loadCached(
+                                new SimpleTextDocument(WordNGramSize_Min, WordNGramSize_Max, Word_Dmax),
+                                cfeOther.getFileName(), WordNGramSize_Min, WordNGramSize_Max, Word_Dmax);
                         hModelCache.put(cfeOther.getFileName(), ndDoc2);
                     }
                 }
@@ -322,9 +351,10 @@ public class summaryEvaluator implements Runnable {
                     if (hNModelCache.containsKey(cfeOther.getFileName()))
                         ndNDoc2 = (NGramSymWinDocument)hNModelCache.get(cfeOther.getFileName());
                     else {
-                        ndNDoc2 = new NGramSymWinDocument(CharacterNGramSize_Min, CharacterNGramSize_Max, Character_Dmax, 
-                                  CharacterNGramSize_Min, CharacterNGramSize_Max);
-                        ndNDoc2.loadDataStringFromFile(cfeOther.getFileName());
+                        ndNDoc2 = (NGramSymWinDocument)RepresentationCache.loadCached(
+                                new NGramSymWinDocument(CharacterNGramSize_Min, CharacterNGramSize_Max, Character_Dmax, 
+                                  CharacterNGramSize_Min, CharacterNGramSize_Max),
+                                cfeOther.getFileName(), CharacterNGramSize_Min, CharacterNGramSize_Max, Character_Dmax);
                         hNModelCache.put(cfeOther.getFileName(), ndNDoc2);
                     }
                 }
@@ -475,8 +505,9 @@ public class summaryEvaluator implements Runnable {
                     if (hModelCache.containsKey(cfeOther.getFileName()))
                         ndDoc2 = (SimpleTextDistroDocument)hModelCache.get(cfeOther.getFileName());
                     else {
-                        ndDoc2 = new SimpleTextDistroDocument(WordNGramSize_Min, WordNGramSize_Max, Word_Dmax);
-                        ndDoc2.loadDataStringFromFile(cfeOther.getFileName());
+                        ndDoc2 = (SimpleTextDistroDocument)RepresentationCache.loadCached(
+                                new SimpleTextDistroDocument(WordNGramSize_Min, WordNGramSize_Max, Word_Dmax),
+                                cfeOther.getFileName(), WordNGramSize_Min, WordNGramSize_Max, Word_Dmax);
                         hModelCache.put(cfeOther.getFileName(), ndDoc2);
                     }
                 }
@@ -490,9 +521,10 @@ public class summaryEvaluator implements Runnable {
                     if (hNModelCache.containsKey(cfeOther.getFileName()))
                         ndNDoc2 = (NGramDistroDocument)hNModelCache.get(cfeOther.getFileName());
                     else {
-                        ndNDoc2 = new NGramDistroDocument(CharacterNGramSize_Min, CharacterNGramSize_Max, Character_Dmax, 
-                                CharacterNGramSize_Min, CharacterNGramSize_Max);
-                        ndNDoc2.loadDataStringFromFile(cfeOther.getFileName());
+                        ndNDoc2 = (NGramDistroDocument)RepresentationCache.loadCached(
+                                new NGramDistroDocument(CharacterNGramSize_Min, CharacterNGramSize_Max, Character_Dmax, 
+                                    CharacterNGramSize_Min, CharacterNGramSize_Max),
+                                cfeOther.getFileName(), CharacterNGramSize_Min, CharacterNGramSize_Max, Character_Dmax);
                         hNModelCache.put(cfeOther.getFileName(), ndNDoc2);
                     }
                 }
@@ -7,6 +7,7 @@
 
 package gr.demokritos.iit.jinsect.console;
 
+import gr.demokritos.iit.jinsect.storage.RepresentationCache;
 import java.io.File;
 import java.io.FileNotFoundException;
 import java.io.InvalidClassException;
@@ -36,7 +37,7 @@ public class summaryGenericEvaluator {
     // Variables
     protected Integer NMin, NMax, Dist, Threads;
     protected String OutFile, SummaryDir, ModelDir, DocumentClass, 
-            ComparatorClass;
+            ComparatorClass, CheckpointFile = "";
     protected boolean Silent, Progress;
     protected Semaphore OutputSemaphore;
     protected Hashtable hModelCache = new Hashtable();
@@ -55,7 +56,7 @@ public class summaryGenericEvaluator {
     private static void printUsage() {
             System.err.println("Syntax:\nsummaryEvaluator [-summaryDir=summaries/] [-modelDir=models/]"+
                     "[-nMin=#] [-nMax=#] [-dist=#] [-t=#]" + 
-                    "[-s] [-use=o|d] [-progress] [-docClass=...] [-compClass=...]");
+                    "[-s] [-use=o|d] [-progress] [-docClass=...] [-compClass=...] [-checkpoint=file]");
             System.err.println("nMin=#\tMin n-gram size.\nnMax=#\tMax n-gram size.\n" +
                     "dist=#\tN-gram window.\n" +
                     "-o=outFile\tThe file to output data. Default is stdout.\n" +
@@ -66,6 +67,8 @@ public class summaryGenericEvaluator {
                         "Defaults to jinsect.documentModel.NGramDocument \n" +
                     "-compClass=...\tA java class identifier to use as Comparator class. " +
                         "Defaults to jinsect.documentModel.StandardDocumentComparator \n" +
+                    "-checkpoint=file\tUse the staged, resumable pipeline (see SummaryEvaluationPipeline), " +
+                        "recording progress to the given file. If it exists, the evaluation resumes.\n" +
                     "-?\tShow this screen.");
     }
 
@@ -93,6 +96,8 @@ public class summaryGenericEvaluator {
                     StandardDocumentComparator.class.getName()); 
             // Define output file
             OutFile = gr.demokritos.iit.jinsect.utils.getSwitch(hSwitches, "o", "");
+            // Define checkpoint file (if any)
+            CheckpointFile = gr.demokritos.iit.jinsect.utils.getSwitch(hSwitches, "checkpoint", "");
             // Get summary and model dir
             SummaryDir = gr.demokritos.iit.jinsect.utils.getSwitch(hSwitches, "summaryDir", "summaries" +
                     System.getProperty("file.separator"));
@@ -248,6 +253,14 @@ public class summaryGenericEvaluator {
     
     /** Executor of the evaluation. */
     public void run() {
+        // Resumable evaluation through the staged pipeline
+        if (CheckpointFile.length() != 0) {
+            new SummaryEvaluationPipeline(NMin, NMax, Dist, Threads, 4 * Threads,
+                    OutFile, CheckpointFile, SummaryDir, ModelDir, DocumentClass,
+                    ComparatorClass, Silent, Progress).run();
+            return;
+        }
+        
         PrintStream pOut = null;
         if (OutFile.length() != 0) {
             try {
@@ -336,7 +349,8 @@ public class summaryGenericEvaluator {
             return new SimilarityArray();
         
         // Read first file        
-        ndNDoc1.loadDataStringFromFile(cfeCur.getFileName());
+        ndNDoc1 = RepresentationCache.loadCached(ndNDoc1, cfeCur.getFileName(),
+                NGramSize_Min, NGramSize_Max, Dmax);
         
         // Init Comparator Class        
         SimilarityComparatorListener sdcNComparator = null;
@@ -421,7 +435,8 @@ public class summaryGenericEvaluator {
                     }
                     if (ndNDoc2 == null)
                         return new SimilarityArray();
-                    ndNDoc2.loadDataStringFromFile(cfeOther.getFileName());
+                    ndNDoc2 = RepresentationCache.loadCached(ndNDoc2, cfeOther.getFileName(),
+                            NGramSize_Min, NGramSize_Max, Dmax);
                     hModelCache.put(cfeOther.getFileName(), ndNDoc2);
                 }
             }
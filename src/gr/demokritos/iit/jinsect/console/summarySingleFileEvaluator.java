@@ -14,6 +14,7 @@ import gr.demokritos.iit.jinsect.documentModel.comparators.StandardDocumentCompa
 import gr.demokritos.iit.jinsect.documentModel.documentTypes.NGramSymWinDocument;
 import gr.demokritos.iit.jinsect.documentModel.representations.DocumentNGramGraph;
 import gr.demokritos.iit.jinsect.events.SimilarityComparatorListener;
+import gr.demokritos.iit.jinsect.storage.RepresentationCache;
 import gr.demokritos.iit.jinsect.structs.DocumentSet;
 import gr.demokritos.iit.jinsect.structs.GraphSimilarity;
 import gr.demokritos.iit.jinsect.utils;
@@ -106,7 +107,8 @@ public class summarySingleFileEvaluator {
             return Double.NEGATIVE_INFINITY;
         
         // Read first file        
-        ndNDoc1.loadDataStringFromFile(sSummaryTextFile);
+        ndNDoc1 = RepresentationCache.loadCached(ndNDoc1, sSummaryTextFile,
+                MinNGramRank, MaxNGramRank, NGramDist);
 
         File fSummaryFile = new File(sSummaryTextFile);
         
@@ -192,7 +194,8 @@ public class summarySingleFileEvaluator {
                     }
                     if (ndNDoc2 == null)
                         return Double.NEGATIVE_INFINITY;
-                    ndNDoc2.loadDataStringFromFile(sModelFile);
+                    ndNDoc2 = RepresentationCache.loadCached(ndNDoc2, sModelFile,
+                            MinNGramRank, MaxNGramRank, NGramDist);
 
                     // Save and Output results
                     try {
@@ -257,7 +260,8 @@ public class summarySingleFileEvaluator {
             }
             if (ndNDoc2 == null)
                 return Double.NEGATIVE_INFINITY;
-            ndNDoc2.loadDataStringFromFile(sModelFile);
+            ndNDoc2 = RepresentationCache.loadCached(ndNDoc2, sModelFile,
+                    MinNGramRank, MaxNGramRank, NGramDist);
 
             // Save and Output results
             try {
@@ -318,7 +322,7 @@ public class summarySingleFileEvaluator {
             return Double.NEGATIVE_INFINITY;
         try {
             // Read first file
-            ndNDoc1.loadDataStringFromFile(sSummaryTextFile);
+            ndNDoc1 = RepresentationCache.loadCached(ndNDoc1, sSummaryTextFile);
         } catch (IOException ex) {
             Logger.getLogger(summarySingleFileEvaluator.class.getName()
                     ).log(Level.SEVERE, null, ex);
@@ -396,7 +400,7 @@ public class summarySingleFileEvaluator {
                     return Double.NEGATIVE_INFINITY;
 
                 try {
-                    ndNDoc2.loadDataStringFromFile(sModelFile);
+                    ndNDoc2 = RepresentationCache.loadCached(ndNDoc2, sModelFile);
                 } catch (IOException ex) {
                     Logger.getLogger(summarySingleFileEvaluator.class.getName()
                             ).log(Level.SEVERE, null, ex);
@@ -487,7 +491,7 @@ public class summarySingleFileEvaluator {
                         return Double.NEGATIVE_INFINITY;
 
                     try {
-                        ndNDoc2.loadDataStringFromFile(sModelFile);
+                        ndNDoc2 = RepresentationCache.loadCached(ndNDoc2, sModelFile);
                     } catch (IOException ex) {
                         Logger.getLogger(summarySingleFileEvaluator.class.getName()
                                 ).log(Level.SEVERE, null, ex);
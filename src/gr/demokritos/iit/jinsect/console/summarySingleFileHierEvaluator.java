@@ -7,6 +7,7 @@ package gr.demokritos.iit.jinsect.console;
 
 import gr.demokritos.iit.conceptualIndex.structs.Distribution;
 import gr.demokritos.iit.jinsect.documentModel.documentTypes.NGramSymWinHierDocument;
+import gr.demokritos.iit.jinsect.indexing.ConcurrentGraphIndex;
 import gr.demokritos.iit.jinsect.indexing.GraphIndex;
 import gr.demokritos.iit.jinsect.structs.DocumentSet;
 import gr.demokritos.iit.jinsect.structs.GraphSimilarity;
@@ -30,6 +31,16 @@ public class summarySingleFileHierEvaluator {
 
     public summarySingleFileHierEvaluator(int MinN, double dDistFactor, int Levels,
             boolean AvoidSelfComparison) {
+        this(MinN, dDistFactor, Levels, AvoidSelfComparison, false);
+    }
+
+    /** Creates an evaluator, optionally using {@link ConcurrentGraphIndex}
+     * indices, which match segment graphs in parallel.
+     * @param bConcurrentIndex If true, {@link ConcurrentGraphIndex} indices are
+     * used, otherwise plain {@link GraphIndex} indices.
+     */
+    public summarySingleFileHierEvaluator(int MinN, double dDistFactor, int Levels,
+            boolean AvoidSelfComparison, boolean bConcurrentIndex) {
         this.MinN = MinN;
         this.DistFactor = dDistFactor;
         this.AvoidSelfComparison = AvoidSelfComparison;
@@ -38,7 +49,8 @@ public class summarySingleFileHierEvaluator {
         // Init Graph indices' struct
         this.GraphIndices = new ArrayList<GraphIndex>(Levels);
         for (int iLevelCnt = 0; iLevelCnt < Levels; iLevelCnt++)
-            this.GraphIndices.add(new GraphIndex());
+            this.GraphIndices.add(bConcurrentIndex ? new ConcurrentGraphIndex() :
+                new GraphIndex());
     }
 
     /** Performs comparison between a (summary) text file and a set of model (summary)
@@ -123,7 +135,7 @@ public class summarySingleFileHierEvaluator {
         int NMin, Levels;
         double DistFactor;
         String SummaryFile, ModelDir;
-        boolean Silent, Merge, bAvoidSelfComparison;
+        boolean Silent, Merge, bAvoidSelfComparison, bConcurrentIndex;
 
         try {
             NMin = Integer.valueOf(utils.getSwitch(hSwitches,"nMin", "4"));
@@ -137,6 +149,8 @@ public class summarySingleFileHierEvaluator {
             Silent=utils.getSwitch(hSwitches, "s", "FALSE").equals("TRUE");
             bAvoidSelfComparison = utils.getSwitch(hSwitches,
                     "avoidSelfComparison", "FALSE").equals("TRUE");
+            bConcurrentIndex = utils.getSwitch(hSwitches,
+                    "concurrentIndex", "FALSE").equals("TRUE");
 
             if (!Silent)
                 System.err.println("Using parameters:\n" + hSwitches);
@@ -148,7 +162,7 @@ public class summarySingleFileHierEvaluator {
         }
         summarySingleFileHierEvaluator ssfeEval = new
                 summarySingleFileHierEvaluator(NMin, DistFactor, Levels,
-                bAvoidSelfComparison);
+                bAvoidSelfComparison, bConcurrentIndex);
         DocumentSet dsModels = new DocumentSet(ModelDir, 1.0);
         dsModels.createSets(true);
 
@@ -9,16 +9,28 @@ import gr.demokritos.iit.jinsect.documentModel.ILoadableTextPrint;
 import gr.demokritos.iit.jinsect.documentModel.comparators.NGramCachedGraphComparator;
 import gr.demokritos.iit.jinsect.documentModel.representations.DocumentNGramGraph;
 import gr.demokritos.iit.jinsect.documentModel.representations.DocumentNGramHistogram;
+import gr.demokritos.iit.jinsect.indexing.ConcurrentGraphIndex;
 import gr.demokritos.iit.jinsect.indexing.GraphIndex;
 import gr.demokritos.iit.jinsect.structs.ArrayGraph;
 import gr.demokritos.iit.jinsect.structs.GraphSimilarity;
 import gr.demokritos.iit.jinsect.utils;
 import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
 
 /** A class for a hierarchical representation of a document.
  * The representation splits a string into a series of segments of a given
  * size and then uses the {@link GraphIndex} structure to recursively create
  * different levels of graphs.
+ * <p>The levels are built bottom-up: the graphs of the segments of a level
+ * are created in parallel, while their symbols are assigned by the
+ * {@link GraphIndex} of the level in segment order, so that the result does
+ * not depend on the number of threads. Every level keeps the labels of its
+ * symbols, so that the level above is derived from them directly.</p>
  *
  * @author ggianna
  */
@@ -31,6 +43,8 @@ public class NGramSymWinHierDocument implements ILoadableTextPrint {
     protected ArrayList<int[][]> LevelArrays;
     protected ArrayList<DocumentNGramGraph> LevelGraphs;
     protected ArrayList<GraphIndex> GraphIndices;
+    /** The number of threads used to build and compare levels. */
+    protected int Threads = Runtime.getRuntime().availableProcessors();
 
     public NGramSymWinHierDocument(int iMinN, int iLevels, double dDistFactor,
                 ArrayList<GraphIndex> giGraphIndices) {
@@ -51,62 +65,154 @@ public class NGramSymWinHierDocument implements ILoadableTextPrint {
         LevelGraphs = new ArrayList<DocumentNGramGraph>(Levels);
     }
 
+    /** Sets the number of threads used to build and compare levels.
+     *@param iThreads The number of threads.
+     */
+    public void setThreads(int iThreads) {
+        Threads = Math.max(1, iThreads);
+    }
+
     public void setDataString(String sDataString) {
         // Clear existing data
         clear();
         // Set datastring
         DataString = sDataString;
 
-        // For the first level
-        // Create array
-        LevelArrays.add(StringToIntArray(sDataString));
+        ExecutorService es = Executors.newFixedThreadPool(Threads);
+        try {
+            // For the first level
+            // Create array
+            LevelArrays.add(StringToIntArray(sDataString));
+            String[] saLabels = toLabels(LevelArrays.get(0)[0]);
+            LevelGraphs.add(getLevelGraph(saLabels, (int)DistFactor, es));
 
-        ArrayGraph ag = new ArrayGraph();
-        DocumentNGramGraph dgZero = ag.getGraphForArray(LevelArrays.get(0), 
-                (int)DistFactor, 10000);
-        // DEBUG LINES
-//        System.err.println(utils.graphToDot(
-//            dgZero.getGraphLevel(0), true));
-        //////////////
-        LevelGraphs.add(dgZero);
+            // For every level
+            for (int iLvl=1; iLvl<Levels; iLvl++) {
+                int[] iaNew = getLevelSymbols(saLabels, iLvl, es);
+                // Add array to list of arrays
+                LevelArrays.add(new int[][] {iaNew});
+                saLabels = toLabels(iaNew);
+                LevelGraphs.add(getLevelGraph(saLabels,
+                        (int)(DistFactor * iLvl), es));
+            }
+        }
+        catch (InterruptedException ie) {
+            System.err.println("Interrupted creation.");
+            Thread.currentThread().interrupt();
+        }
+        finally {
+            es.shutdownNow();
+        }
+    }
 
-        // For every level
-        for (int iLvl=1; iLvl<Levels; iLvl++) {
-            // Get prv level array
-            int[][] iaaPrv = LevelArrays.get(iLvl - 1);
-            // Init level submatrix
-            int[][] iaaNew = new int[1][];
-            int[] iaNew = new int[iaaPrv[0].length / MinN];
-            // For every step
-            for (int iCurPos=0, iNewPos = 0; iCurPos < iaaPrv[0].length; iCurPos += MinN) {
-                // The size is based on the level and distance factor
-                int iSNeighborhoodSize = (int)(DistFactor * iLvl);
-                
-                if (iCurPos + iSNeighborhoodSize > iaaPrv[0].length)
-                    break;
-                
-                int[][] iaaCur = new int[1][];
-                int[] iaCur = new int[iSNeighborhoodSize];
-                
+    /** Returns the labels of the symbols of a level, as used in the graphs.
+     */
+    protected String[] toLabels(int[] iaSymbols) {
+        String[] saRes = new String[iaSymbols.length];
+        for (int iCnt = 0; iCnt < iaSymbols.length; iCnt++)
+            saRes[iCnt] = Integer.toString(iaSymbols[iCnt]);
+        return saRes;
+    }
+
+    /** Creates the graph of a whole level. The edges of equal parts of the
+     * level are counted in parallel and then combined in order.
+     *@param saLabels The labels of the level symbols.
+     *@param iWindowSize The window size of the graph.
+     *@param es The executor to use.
+     *@return The graph of the level.
+     */
+    protected DocumentNGramGraph getLevelGraph(final String[] saLabels,
+            final int iWindowSize, ExecutorService es)
+            throws InterruptedException {
+        int iParts = Math.max(1, Math.min(Threads, saLabels.length / 1024));
+        List<Callable<ArrayGraph.RowEdges>> lTasks =
+                new ArrayList<Callable<ArrayGraph.RowEdges>>(iParts);
+        for (int iPart = 0; iPart < iParts; iPart++) {
+            final int iPartFrom = (int)((long)saLabels.length * iPart / iParts);
+            final int iPartTo = (int)((long)saLabels.length * (iPart + 1) /
+                    iParts);
+            lTasks.add(new Callable<ArrayGraph.RowEdges>() {
+                public ArrayGraph.RowEdges call() {
+                    return ArrayGraph.countRowEdges(saLabels, 0, saLabels.length,
+                            iWindowSize, iPartFrom, iPartTo);
+                }
+            });
+        }
+
+        ArrayGraph.RowEdges reAll = null;
+        for (Future<ArrayGraph.RowEdges> fCur : es.invokeAll(lTasks)) {
+            ArrayGraph.RowEdges reCur = get(fCur);
+            if (reAll == null)
+                reAll = reCur;
+            else
+                reAll.addAll(reCur);
+        }
+        return new ArrayGraph().getGraphForEdges(reAll);
+    }
+
+    /** Creates the symbols of a level from the labels of the level below:
+     * every segment (of a size based on the level and distance factor, every
+     * MinN positions) is represented by a graph, which is assigned a symbol by
+     * the {@link GraphIndex} of the level. The segment graphs are created in
+     * parallel, a few segments ahead of the symbol assignment.
+     *@param saPrvLabels The labels of the level below.
+     *@param iLvl The level.
+     *@param es The executor to use.
+     *@return The symbols of the level.
+     */
+    protected int[] getLevelSymbols(final String[] saPrvLabels, int iLvl,
+            ExecutorService es) throws InterruptedException {
+        // Init level submatrix
+        int[] iaNew = new int[saPrvLabels.length / MinN];
+        // The size is based on the level and distance factor
+        final int iSNeighborhoodSize = (int)(DistFactor * iLvl);
+        final ArrayGraph ag = new ArrayGraph();
+        GraphIndex giLevel = GraphIndices.get(iLvl);
+
+        // Keep a window of segments being graphed ahead of the assignment
+        int iWindow = Threads * 4;
+        List<Future<DocumentNGramGraph>> lGraphs =
+                new ArrayList<Future<DocumentNGramGraph>>();
+        int iNextPos = 0;
+        // For every step
+        for (int iNewPos = 0; ; iNewPos++) {
+            // Fill window
+            while ((lGraphs.size() < iNewPos + iWindow) &&
+                    (iNextPos < saPrvLabels.length) &&
+                    (iNextPos + iSNeighborhoodSize <= saPrvLabels.length)) {
                 // TODO: IMPROVE BEHAVIOUR FOR MinN > 1
                 // It does not break down the neighbours to MinN-grams...
-                
-                // Copy sub-matrix
-                System.arraycopy(iaaPrv[0], iCurPos, iaCur, 0, iSNeighborhoodSize);
-                // Assign row to single-row matrix
-                iaaCur[0] = iaCur;
-                // Create graph
-                DocumentNGramGraph ng = ag.getGraphForArray(iaaCur, 
-                        (int)(DistFactor * iLvl),
-                        Integer.MAX_VALUE);
-                iaNew[iNewPos++] = GraphIndices.get(iLvl).searchForGraphInIndex(ng);
+                final int iCurPos = iNextPos;
+                lGraphs.add(es.submit(new Callable<DocumentNGramGraph>() {
+                    public DocumentNGramGraph call() {
+                        return ag.getGraphForRow(saPrvLabels, iCurPos,
+                                iCurPos + iSNeighborhoodSize, iSNeighborhoodSize);
+                    }
+                }));
+                iNextPos += MinN;
             }
-            iaaNew[0] = iaNew;
-            // Add array to list of arrays
-            LevelArrays.add(iaaNew);
-            DocumentNGramGraph dgLvl = ag.getGraphForArray(iaaNew,
-                    (int)(DistFactor * iLvl), 10000);
-            LevelGraphs.add(dgLvl);
+            if (iNewPos >= lGraphs.size())
+                break;
+
+            DocumentNGramGraph ng = get(lGraphs.get(iNewPos));
+            lGraphs.set(iNewPos, null); // Release
+            // The index may be shared by concurrently built documents
+            if (giLevel instanceof ConcurrentGraphIndex)
+                iaNew[iNewPos] = giLevel.searchForGraphInIndex(ng);
+            else
+                synchronized (giLevel) {
+                    iaNew[iNewPos] = giLevel.searchForGraphInIndex(ng);
+                }
+        }
+        return iaNew;
+    }
+
+    /** Returns the result of a task, rethrowing its failure. */
+    private static <T> T get(Future<T> fTask) throws InterruptedException {
+        try {
+            return fTask.get();
+        } catch (ExecutionException ee) {
+            throw new IllegalStateException(ee.getCause());
         }
     }
 
@@ -122,13 +228,44 @@ public class NGramSymWinHierDocument implements ILoadableTextPrint {
         return LevelGraphs.get(Levels - 1);
     }
     
-    public GraphSimilarity compareTo(NGramSymWinHierDocument other) {
-        NGramCachedGraphComparator ngc = new NGramCachedGraphComparator();
+    public GraphSimilarity compareTo(final NGramSymWinHierDocument other) {
+        // Compare levels in parallel
+        List<Callable<GraphSimilarity>> lTasks =
+                new ArrayList<Callable<GraphSimilarity>>();
+        for (int iLvl=1; iLvl<Levels; iLvl++) {
+            final int iLvlArg = iLvl;
+            lTasks.add(new Callable<GraphSimilarity>() {
+                public GraphSimilarity call() {
+                    NGramCachedGraphComparator ngc =
+                            new NGramCachedGraphComparator();
+                    return ngc.getSimilarityBetween(getLevelGraph(iLvlArg),
+                            other.getLevelGraph(iLvlArg));
+                }
+            });
+        }
+        List<Future<GraphSimilarity>> lResults = null;
+        ExecutorService es = Executors.newFixedThreadPool(
+                Math.max(1, Math.min(Threads, lTasks.size())));
+        try {
+            lResults = es.invokeAll(lTasks);
+        } catch (InterruptedException ie) {
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException(ie);
+        }
+        finally {
+            es.shutdownNow();
+        }
+
         GraphSimilarity gs = new GraphSimilarity();
         double dSum = 0.0;
         for (int iLvl=1; iLvl<Levels; iLvl++) {
-         GraphSimilarity gsLvl = ngc.getSimilarityBetween(this.getLevelGraph(iLvl),
-                other.getLevelGraph(iLvl));
+         GraphSimilarity gsLvl;
+         try {
+             gsLvl = get(lResults.get(iLvl - 1));
+         } catch (InterruptedException ie) {
+             // Cannot happen, since all tasks are complete
+             throw new IllegalStateException(ie);
+         }
          gs.ValueSimilarity +=  gsLvl.ValueSimilarity * utils.sumFromTo(1, iLvl);
          gs.ContainmentSimilarity +=  gsLvl.ContainmentSimilarity * utils.sumFromTo(1, iLvl);
          gs.SizeSimilarity +=  gsLvl.SizeSimilarity * utils.sumFromTo(1, iLvl);
@@ -18,6 +18,7 @@ import java.util.Vector;
 import gr.demokritos.iit.jinsect.events.NormalizerListener;
 import gr.demokritos.iit.jinsect.events.WordEvaluatorListener;
 import gr.demokritos.iit.jinsect.structs.EdgeCachedLocator;
+import gr.demokritos.iit.jinsect.structs.NGramDictionary;
 import gr.demokritos.iit.jinsect.structs.UniqueVertexGraph;
 import gr.demokritos.iit.jinsect.utils;
 import gr.demokritos.iit.jinsect.events.TextPreprocessorListener;
@@ -44,6 +45,8 @@ public class DocumentNGramGraph implements Serializable, Cloneable, IMergeable<D
     
     protected UniqueVertexGraph[] NGramGraphArray;
     protected EdgeCachedLocator eclLocator = null;
+    /** The dictionary shared by the level graphs to canonicalize labels. */
+    protected transient NGramDictionary Dictionary = null;
 
     /** Creates a new instance of INSECTDocumentGraph */
     public DocumentNGramGraph() {
@@ -69,8 +72,10 @@ public class DocumentNGramGraph implements Serializable, Cloneable, IMergeable<D
         // Create array of graphs
         NGramGraphArray = new UniqueVertexGraph[MaxSize - MinSize + 1];
         // Init array
-        for (int iCnt=MinSize; iCnt <= MaxSize; iCnt++)
+        for (int iCnt=MinSize; iCnt <= MaxSize; iCnt++) {
             NGramGraphArray[iCnt - MinSize] = new UniqueVertexGraph();
+            NGramGraphArray[iCnt - MinSize].setDictionary(Dictionary);
+        }
         // Create degraded edge list
         DegradedEdges = new HashMap();        
     }
@@ -146,6 +151,27 @@ public class DocumentNGramGraph implements Serializable, Cloneable, IMergeable<D
     public void setLocator(EdgeCachedLocator eNewLocator) {
         eclLocator = eNewLocator;
     }
+
+    /**
+     * Set an n-gram dictionary, shared among all level graphs, to
+     * canonicalize n-gram labels. Using the same dictionary (e.g.
+     * {@link NGramDictionary#getGlobal()}) for many documents keeps a single
+     * copy of every distinct n-gram in memory.
+     * @param ndNew The dictionary to use, or null to disable interning.
+     */
+    public void setDictionary(NGramDictionary ndNew) {
+        Dictionary = ndNew;
+        for (UniqueVertexGraph gCur : NGramGraphArray)
+            gCur.setDictionary(ndNew);
+    }
+
+    /**
+     * Returns the n-gram dictionary used by the level graphs.
+     * @return The dictionary, or null if none is used.
+     */
+    public NGramDictionary getDictionary() {
+        return Dictionary;
+    }
     
     /***
      * Creates an edge in [gGraph] connecting [sBaseNode] to each node in the
@@ -474,20 +500,46 @@ public class DocumentNGramGraph implements Serializable, Cloneable, IMergeable<D
                 // If not, ignore level
                 continue;
 
+            // Index the edges of this level once, by head and tail label, so
+            // that every edge of the other graph is looked up directly.
+            HashMap<String,HashMap<String,WeightedEdge>> hEdges =
+                    indexEdgesByLabel(gGraph);
             // For every edge on other graph
             java.util.Iterator iIter = gOtherGraph.getEdgeSet().iterator();
-            ArrayList<String> lOtherNodes = new ArrayList<String>();
             while (iIter.hasNext())
             {
                 WeightedEdge weCurItem = (WeightedEdge)iIter.next();
                 String sHead = weCurItem.getVertexA().getLabel();
                 String sTail = weCurItem.getVertexB().getLabel();
                 double dWeight = weCurItem.getWeight();
-                lOtherNodes.clear();
-                lOtherNodes.add(sTail);
-                // TODO: Check this
-                createWeightedEdgesConnecting(gGraph, sHead,
-                 lOtherNodes, dWeight, dWeight, fWeightPercent);
+                
+                HashMap<String,WeightedEdge> hOutEdges = hEdges.get(sHead);
+                WeightedEdge weEdge = (hOutEdges == null) ? null :
+                    hOutEdges.get(sTail);
+                if (weEdge != null) {
+                    // Found. Move weight towards the new value.
+                    double dOldWeight = weEdge.getWeight();
+                    weEdge.setWeight(dOldWeight + (dWeight - dOldWeight) * 
+                            fWeightPercent);
+                }
+                else
+                {
+                    // Not found. New edge.
+                    try {
+                        weEdge = gGraph.addEdge(locateOrAddVertex(gGraph, sHead),
+                                locateOrAddVertex(gGraph, sTail), dWeight);
+                    }
+                    catch (Exception e) {
+                        // Insert failed. Ignoring...
+                        e.printStackTrace();
+                        continue;
+                    }
+                    if (hOutEdges == null) {
+                        hOutEdges = new HashMap<String,WeightedEdge>();
+                        hEdges.put(sHead, hOutEdges);
+                    }
+                    hOutEdges.put(sTail, weEdge);
+                }
             }
 
             // DONE: Remove multi-threading
@@ -526,6 +578,52 @@ public class DocumentNGramGraph implements Serializable, Cloneable, IMergeable<D
 //                // Do nothing
 //            }
         }
+        
+        // Edges were added directly, so any cached lookups are outdated
+        if (eclLocator != null)
+            eclLocator.resetCache();
+    }
+    
+    /** Creates a lookup of the edges of a given graph, by the labels of the 
+     * head and the tail of every edge.
+     *@param gGraph The graph to index.
+     *@return A map from head labels to maps from tail labels to edges.
+     */
+    protected HashMap<String,HashMap<String,WeightedEdge>> indexEdgesByLabel(
+            UniqueVertexGraph gGraph) {
+        HashMap<String,HashMap<String,WeightedEdge>> hRes = 
+                new HashMap<String,HashMap<String,WeightedEdge>>();
+        java.util.Iterator iIter = gGraph.getEdgeSet().iterator();
+        while (iIter.hasNext()) {
+            WeightedEdge weCur = (WeightedEdge)iIter.next();
+            String sHead = weCur.getVertexA().getLabel();
+            HashMap<String,WeightedEdge> hOutEdges = hRes.get(sHead);
+            if (hOutEdges == null) {
+                hOutEdges = new HashMap<String,WeightedEdge>();
+                hRes.put(sHead, hOutEdges);
+            }
+            hOutEdges.put(weCur.getVertexB().getLabel(), weCur);
+        }
+        
+        return hRes;
+    }
+    
+    /** Returns the vertex of a given graph that has a given label, adding a
+     * new vertex with the label if no such vertex exists.
+     *@param gGraph The graph to use.
+     *@param sLabel The label of the vertex.
+     *@return The vertex of the graph with the given label.
+     *@throws Exception If the vertex cannot be added.
+     */
+    protected Vertex locateOrAddVertex(UniqueVertexGraph gGraph, String sLabel)
+            throws Exception {
+        Vertex vRes = gGraph.locateVertex(sLabel);
+        if (vRes == null) {
+            vRes = new VertexImpl();
+            vRes.setLabel(sLabel);
+            gGraph.add(vRes);
+        }
+        return vRes;
     }
     
     
@@ -988,6 +1086,7 @@ public class DocumentNGramGraph implements Serializable, Cloneable, IMergeable<D
     public Object clone() {
         DocumentNGramGraph gRes = new DocumentNGramGraph(MinSize, MaxSize, CorrelationWindow);
         gRes.DataString = DataString;
+        gRes.Dictionary = Dictionary;
         gRes.DegradedEdges.putAll((HashMap)this.DegradedEdges.clone());
         gRes.NGramGraphArray = new UniqueVertexGraph[this.NGramGraphArray.length];
         int iCnt=0;
@@ -0,0 +1,19 @@
+/*
+ * Under LGPL
+ * by George Giannakopoulos
+ */
+
+package gr.demokritos.iit.jinsect.events;
+
+/** A templated interface that receives objects as they are produced by a
+ * (possibly long running) process.
+ *
+ * @author ggianna
+ */
+public interface IObjectConsumer<TObjectType> {
+    /** Receives a produced object.
+     *
+     * @param obj The object produced.
+     */
+    void consume(TObjectType obj);
+}
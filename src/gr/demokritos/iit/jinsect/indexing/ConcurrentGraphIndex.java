@@ -0,0 +1,339 @@
+/*
+ * Under LGPL
+ * by George Giannakopoulos
+ */
+
+package gr.demokritos.iit.jinsect.indexing;
+
+import gr.demokritos.iit.jinsect.documentModel.comparators.NGramCachedGraphComparator;
+import gr.demokritos.iit.jinsect.documentModel.representations.DocumentNGramGraph;
+import gr.demokritos.iit.jinsect.structs.EdgeCachedLocator;
+import gr.demokritos.iit.jinsect.structs.GraphSimilarity;
+import gr.demokritos.iit.jinsect.structs.UniqueVertexGraph;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+import salvo.jesus.graph.WeightedEdge;
+
+/**
+ * A {@link GraphIndex} that can be searched concurrently. The graphs of the
+ * index are sharded across a number of stripes, which are matched in
+ * parallel; every stripe is matched in ascending symbol order and stops as
+ * soon as a graph with a lower symbol has already matched, so the result is
+ * the lowest symbol whose graph is similar enough (at least
+ * <code>minForMerging</code>), as with the linear search of
+ * {@link GraphIndex}.
+ * <p>Unlike {@link GraphIndex}, every candidate graph is compared to the
+ * whole searched graph, rather than to what remains of it after removing the
+ * parts found in the candidates already checked; these parts are only removed
+ * from the graph stored for a new symbol. This makes the comparisons
+ * independent, so that they can run in parallel, but may assign different
+ * symbols than {@link GraphIndex} would.</p>
+ * <p>The graphs of the index are never changed once published. A merge
+ * updates a copy of the graph of a symbol, which replaces the original only
+ * if no other merge replaced it in the meantime (optimistic versioning);
+ * otherwise the merge is repeated on the new graph.</p>
+ * @author ggianna
+ */
+public class ConcurrentGraphIndex extends GraphIndex {
+    /** The minimum number of graphs to match, for the stripes to be matched
+     * in parallel. Fewer graphs are matched by the calling thread. */
+    public static final int MIN_PARALLEL_GRAPHS = 64;
+
+    /** The state of a symbol, replaced as a whole on every update. */
+    protected static class EntryState {
+        /** The graph of the symbol. */
+        final DocumentNGramGraph Graph;
+        /** The number of graphs merged into the graph of the symbol. */
+        final double InstanceCount;
+        /** The number of updates of the symbol. */
+        final int Version;
+
+        EntryState(DocumentNGramGraph dgGraph, double dInstanceCount,
+                int iVersion) {
+            Graph = dgGraph;
+            InstanceCount = dInstanceCount;
+            Version = iVersion;
+        }
+    }
+
+    /** The number of stripes. */
+    protected int Stripes;
+    /** The state of every symbol. */
+    protected ConcurrentHashMap<Integer, AtomicReference<EntryState>> Entries =
+            new ConcurrentHashMap<Integer, AtomicReference<EntryState>>();
+    /** The number of symbols (symbols are numbered from 1 to Size). */
+    protected volatile int Size = 0;
+    /** The lock serializing the addition of symbols. */
+    private final Object AddLock = new Object();
+    /** The threads matching the stripes. Created on first use. */
+    private ExecutorService Matchers = null;
+
+    /** Creates an index with one stripe per available processor. */
+    public ConcurrentGraphIndex() {
+        this(Runtime.getRuntime().availableProcessors());
+    }
+
+    /** Creates an index with a given number of stripes.
+     *@param iStripes The number of stripes, i.e. the number of threads
+     * matching a graph.
+     */
+    public ConcurrentGraphIndex(int iStripes) {
+        Stripes = Math.max(1, iStripes);
+    }
+
+    /** Returns the number of symbols in the index. */
+    public int size() {
+        return Size;
+    }
+
+    /** Returns the current graph of a symbol.
+     *@param iSymbol The symbol.
+     *@return The graph, or null if the symbol does not exist. The graph
+     * must not be changed.
+     */
+    public DocumentNGramGraph getGraph(int iSymbol) {
+        AtomicReference<EntryState> arEntry = Entries.get(iSymbol);
+        return (arEntry == null) ? null : arEntry.get().Graph;
+    }
+
+    /** Returns the number of updates of a symbol, i.e. the version of its
+     * graph (zero for a symbol never merged), or -1 if the symbol does not
+     * exist.
+     *@param iSymbol The symbol.
+     */
+    public int getVersion(int iSymbol) {
+        AtomicReference<EntryState> arEntry = Entries.get(iSymbol);
+        return (arEntry == null) ? -1 : arEntry.get().Version;
+    }
+
+    /**
+     * Searches into the index for a given graph, updating the index if
+     * required. Can be called concurrently.
+     * @param dgNewGraph The graph to seek into the index.
+     * @return The (probably newly added) symbol of the given graph, as
+     * assigned in the index.
+     */
+    @Override
+    public int searchForGraphInIndex(DocumentNGramGraph dgNewGraph) {
+        DocumentNGramGraph dgSeg = (DocumentNGramGraph)dgNewGraph.clone();
+        // The edges of the graph found in the graphs checked
+        Set<String> sCovered = Collections.newSetFromMap(
+                new ConcurrentHashMap<String, Boolean>());
+        int iScanned = 0;
+        while (true) {
+            int iTotal = Size;
+            int iMatch = match(dgSeg, iScanned + 1, iTotal, sCovered);
+            if (iMatch > 0)
+                return iMatch;
+
+            synchronized (AddLock) {
+                // Add, unless symbols were added since the matching
+                if (Size == iTotal) {
+                    int iNew = iTotal + 1;
+                    Entries.put(iNew, new AtomicReference<EntryState>(
+                            new EntryState(withoutEdges(dgSeg, sCovered), 0.0,
+                            0)));
+                    Size = iNew;
+                    return iNew;
+                }
+            }
+            // Match the newly added symbols
+            iScanned = iTotal;
+        }
+    }
+
+    /** Matches a graph to the graphs of a range of symbols. A graph similar
+     * enough to merge (but not to be considered identical) is merged into the
+     * graph of the symbol.
+     *@param dgSeg The graph to match.
+     *@param iFirst The first symbol of the range.
+     *@param iLast The last symbol of the range.
+     *@param sCovered The set to add the edges of the graph to, which are
+     * found in graphs of the range that do not match (and do not contain the
+     * whole graph).
+     *@return The lowest matching symbol, or zero if none matches.
+     */
+    protected int match(final DocumentNGramGraph dgSeg, final int iFirst,
+            final int iLast, final Set<String> sCovered) {
+        if (iFirst > iLast)
+            return 0;
+        final AtomicInteger aiBest = new AtomicInteger(Integer.MAX_VALUE);
+        final ConcurrentHashMap<Integer, Double> hSimilarities =
+                new ConcurrentHashMap<Integer, Double>();
+        int iStripes = (iLast - iFirst + 1 < MIN_PARALLEL_GRAPHS) ? 1 : Stripes;
+
+        List<Callable<Object>> lTasks = new ArrayList<Callable<Object>>(iStripes);
+        for (int iStripe = 0; iStripe < iStripes; iStripe++) {
+            final int iStart = iFirst + iStripe;
+            final int iStep = iStripes;
+            lTasks.add(new Callable<Object>() {
+                public Object call() {
+                    NGramCachedGraphComparator ngcIntra =
+                            new NGramCachedGraphComparator();
+                    for (int iSymbol = iStart; iSymbol <= iLast; iSymbol += iStep) {
+                        // Early exit, if a lower symbol matched
+                        if (iSymbol > aiBest.get())
+                            break;
+                        DocumentNGramGraph ClassGraph =
+                                Entries.get(iSymbol).get().Graph;
+                        GraphSimilarity gs = ngcIntra.getSimilarityBetween(dgSeg,
+                                ClassGraph);
+                        double dSim = calcOverallSimilarity(gs);
+                        if (dSim >= minForMerging) {
+                            hSimilarities.put(iSymbol, dSim);
+                            int iBest;
+                            while (((iBest = aiBest.get()) > iSymbol) &&
+                                    !aiBest.compareAndSet(iBest, iSymbol));
+                            break;
+                        }
+                        // Note the parts of the graph found in the index graph,
+                        // if the graph is not contained already in the index graph.
+                        if (1.0 - gs.ContainmentSimilarity > 10e-5)
+                            addCommonEdges(dgSeg, ClassGraph, sCovered);
+                    }
+                    return null;
+                }
+            });
+        }
+        if (iStripes == 1)
+            try {
+                lTasks.get(0).call();
+            } catch (Exception e) {
+                throw new IllegalStateException(e);
+            }
+        else
+            runAll(lTasks);
+
+        int iMatch = aiBest.get();
+        if (iMatch == Integer.MAX_VALUE)
+            return 0;
+        if (hSimilarities.get(iMatch) < maxForMerging)
+            mergeInto(iMatch, dgSeg);
+        return iMatch;
+    }
+
+    /** Merges a graph into the graph of a symbol, retrying if the symbol is
+     * updated concurrently.
+     *@param iSymbol The symbol.
+     *@param dgSeg The graph to merge.
+     */
+    protected void mergeInto(int iSymbol, DocumentNGramGraph dgSeg) {
+        AtomicReference<EntryState> arEntry = Entries.get(iSymbol);
+        while (true) {
+            EntryState esOld = arEntry.get();
+            DocumentNGramGraph dgMerged = (DocumentNGramGraph)esOld.Graph.clone();
+            dgMerged.mergeGraph(dgSeg, 1 - (esOld.InstanceCount /
+                    (esOld.InstanceCount + 1)));
+            // count the instances for the contribution of the current name
+            if (arEntry.compareAndSet(esOld, new EntryState(dgMerged,
+                    esOld.InstanceCount + 1.0, esOld.Version + 1)))
+                return;
+        }
+    }
+
+    /** Adds the edges of a graph, which also exist in another graph, to a
+     * set of edge keys. */
+    private static void addCommonEdges(DocumentNGramGraph dgGraph,
+            DocumentNGramGraph dgOther, Set<String> sEdges) {
+        for (int iCurLvl = dgGraph.getMinSize(); iCurLvl <= dgGraph.getMaxSize();
+                iCurLvl++) {
+            UniqueVertexGraph gLevel = dgGraph.getGraphLevelByNGramSize(iCurLvl);
+            UniqueVertexGraph gOtherLevel = dgOther.getGraphLevelByNGramSize(iCurLvl);
+            if ((gLevel == null) || (gOtherLevel == null))
+                continue;
+            EdgeCachedLocator eclLocator = new EdgeCachedLocator(Math.max(
+                    gLevel.getEdgesCount(), 1));
+            Iterator iIter = gLevel.getEdgeSet().iterator();
+            while (iIter.hasNext()) {
+                WeightedEdge weCurItem = (WeightedEdge)iIter.next();
+                if (eclLocator.locateDirectedEdgeInGraph(gOtherLevel,
+                        weCurItem.getVertexA(), weCurItem.getVertexB()) != null)
+                    sEdges.add(edgeKey(iCurLvl, weCurItem));
+            }
+        }
+    }
+
+    /** Returns a copy of a graph, without the edges of a given set of edge
+     * keys (as {@link DocumentNGramGraph#allNotIn(DocumentNGramGraph)}
+     * does). */
+    private static DocumentNGramGraph withoutEdges(DocumentNGramGraph dgGraph,
+            Set<String> sEdges) {
+        DocumentNGramGraph dgClone = (DocumentNGramGraph)dgGraph.clone();
+        if (sEdges.isEmpty())
+            return dgClone;
+        for (int iCurLvl = dgClone.getMinSize(); iCurLvl <= dgClone.getMaxSize();
+                iCurLvl++) {
+            UniqueVertexGraph gCloneLevel = dgClone.getGraphLevelByNGramSize(iCurLvl);
+            if (gCloneLevel == null)
+                continue;
+            // For every edge of the cloned graph (using a new list of edges)
+            Iterator iIter = Arrays.asList(gCloneLevel.getEdgeSet().toArray()).iterator();
+            while (iIter.hasNext()) {
+                WeightedEdge weCurItem = (WeightedEdge)iIter.next();
+                if (sEdges.contains(edgeKey(iCurLvl, weCurItem)))
+                    try {
+                        gCloneLevel.removeEdge(weCurItem);
+                    } catch (Exception ex) {
+                        // Non-lethal exception. Continue.
+                        ex.printStackTrace(System.err);
+                    }
+            }
+        }
+        return dgClone;
+    }
+
+    /** Returns the key of an edge of a given level. */
+    private static String edgeKey(int iLevel, WeightedEdge weEdge) {
+        return iLevel + "\u0000" + weEdge.getVertexA().getLabel() + "\u0000" +
+                weEdge.getVertexB().getLabel();
+    }
+
+    /** Runs tasks on the matching threads, waiting for all of them. */
+    private void runAll(List<Callable<Object>> lTasks) {
+        try {
+            for (Future<Object> fCur : getMatchers().invokeAll(lTasks))
+                fCur.get();
+        } catch (InterruptedException ie) {
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException(ie);
+        } catch (ExecutionException ee) {
+            throw new IllegalStateException(ee.getCause());
+        }
+    }
+
+    private synchronized ExecutorService getMatchers() {
+        if (Matchers == null)
+            Matchers = Executors.newFixedThreadPool(Stripes,
+                    new ThreadFactory() {
+                public Thread newThread(Runnable r) {
+                    Thread tRes = new Thread(r, "ConcurrentGraphIndex");
+                    tRes.setDaemon(true);
+                    return tRes;
+                }
+            });
+        return Matchers;
+    }
+
+    /** Stops the matching threads. They are restarted if the index is
+     * searched afterwards.
+     */
+    public synchronized void close() {
+        if (Matchers != null) {
+            Matchers.shutdown();
+            Matchers = null;
+        }
+    }
+}
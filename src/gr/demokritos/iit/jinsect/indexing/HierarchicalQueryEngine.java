@@ -0,0 +1,366 @@
+/*
+ * Under LGPL
+ * by George Giannakopoulos
+ */
+
+package gr.demokritos.iit.jinsect.indexing;
+
+import gr.demokritos.iit.jinsect.documentModel.comparators.NGramCachedGraphComparator;
+import gr.demokritos.iit.jinsect.documentModel.representations.DocumentNGramGraph;
+import gr.demokritos.iit.jinsect.events.SimilarityComparatorListener;
+import gr.demokritos.iit.jinsect.structs.Pair;
+import gr.demokritos.iit.jinsect.utils;
+import java.io.InvalidClassException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+import salvo.jesus.graph.Vertex;
+
+/** A query engine over a {@link SimilarityBasedIndex}, that locates the
+ * documents most similar to a given graph through a beam search of the
+ * cluster hierarchy. At every step the children of all the clusters in the
+ * beam are compared to the query in parallel, and the best ones (up to the
+ * beam width) form the next beam. A path stops as soon as none of the
+ * children of a cluster is more similar to the query than the cluster itself,
+ * as in {@link SimilarityBasedIndex#locateSimilarDocuments(DocumentNGramGraph)}.
+ *
+ * The most recently used cluster representations are kept in memory, so that
+ * the upper levels of the hierarchy, which are visited by every query, are
+ * not reloaded from the storage of the index.
+ *
+ * @author ggianna
+ */
+public class HierarchicalQueryEngine {
+    /** The default number of cluster representations kept in memory. */
+    public static final int DEFAULT_CACHE_SIZE = 256;
+    /** The default maximum number of candidate documents to compare directly
+     * to the query. */
+    public static final int DEFAULT_RERANK_LIMIT = 100;
+
+    /** The index used. */
+    protected SimilarityBasedIndex Index;
+    /** The comparator used. If null, an {@link NGramCachedGraphComparator} is
+     * used per comparison. */
+    protected SimilarityComparatorListener Comparator;
+    /** The maximum number of representations kept in memory. */
+    protected int CacheSize;
+    /** The representations kept in memory, in order of access. */
+    protected LinkedHashMap<String,DocumentNGramGraph> Cache;
+    /** The children labels of the clusters visited so far. */
+    protected HashMap<String,List<String>> Children =
+            new HashMap<String,List<String>>();
+    protected ExecutorService Runner;
+    protected long Hits = 0, Misses = 0;
+
+    /** If the documents of the located clusters are no more than this limit,
+     * every document is compared directly to the query to determine its score.
+     * Otherwise, every document is assigned the score of its cluster.
+     */
+    public int RerankLimit = DEFAULT_RERANK_LIMIT;
+
+    /** Creates a new query engine over a given index, using the default
+     * comparator, as many threads as the available processors and the
+     * default cache size.
+     *@param sbiIndex The index to query.
+     */
+    public HierarchicalQueryEngine(SimilarityBasedIndex sbiIndex) {
+        this(sbiIndex, null, Runtime.getRuntime().availableProcessors(),
+                DEFAULT_CACHE_SIZE);
+    }
+
+    /** Creates a new query engine over a given index.
+     *@param sbiIndex The index to query.
+     *@param sclComparator The comparator to use. If null, an
+     * {@link NGramCachedGraphComparator} is used. A given comparator must be
+     * safe to call from many threads at once.
+     *@param iThreads The number of threads to use for comparisons.
+     *@param iCacheSize The maximum number of cluster representations to keep
+     * in memory.
+     */
+    public HierarchicalQueryEngine(SimilarityBasedIndex sbiIndex,
+            SimilarityComparatorListener sclComparator, int iThreads,
+            int iCacheSize) {
+        Index = sbiIndex;
+        Comparator = sclComparator;
+        CacheSize = iCacheSize;
+        Cache = new LinkedHashMap<String, DocumentNGramGraph>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(
+                    Map.Entry<String, DocumentNGramGraph> eEldest) {
+                return size() > CacheSize;
+            }
+        };
+
+        // Use daemon threads, so that an unused engine does not keep the
+        // application running
+        Runner = Executors.newFixedThreadPool(Math.max(1, iThreads),
+                new ThreadFactory() {
+            public Thread newThread(Runnable r) {
+                Thread tRes = new Thread(r, "HierarchicalQueryEngine");
+                tRes.setDaemon(true);
+                return tRes;
+            }
+        });
+    }
+
+    /** Returns the documents most similar to a given graph, ranked by
+     * descending similarity.
+     *@param dngQuery The graph of the query document.
+     *@param iBeamWidth The number of clusters followed at every level of the
+     * hierarchy. A width of 1 is equivalent to a greedy descent.
+     *@param iTopK The maximum number of documents to return.
+     *@return A list of document ID and similarity pairs, most similar first.
+     */
+    public List<Pair<String,Double>> locateSimilarDocuments(
+            DocumentNGramGraph dngQuery, int iBeamWidth, int iTopK) {
+        iBeamWidth = Math.max(1, iBeamWidth);
+
+        // Init beam to the root of the hierarchy
+        List<Pair<String,Double>> lBeam = new ArrayList<Pair<String,Double>>();
+        synchronized (Index) {
+            lBeam.add(new Pair<String,Double>(
+                    Index.getRootHierarchyNode(Index.Hierarchy).getLabel(), 0.0));
+        }
+        List<Pair<String,Double>> lFinal = new ArrayList<Pair<String,Double>>();
+
+        while (!lBeam.isEmpty()) {
+            // Gather the children of all the clusters in the beam
+            List<String> lCandidates = new ArrayList<String>();
+            for (Pair<String,Double> pCur : lBeam)
+                lCandidates.addAll(getChildren(pCur.getFirst()));
+            // Compare them to the query, in parallel
+            double[] daScores = getSimilarities(dngQuery, lCandidates);
+
+            List<Pair<String,Double>> lNext = new ArrayList<Pair<String,Double>>();
+            int iCandidate = 0;
+            for (Pair<String,Double> pCur : lBeam) {
+                boolean bImproved = false;
+                for (String sChild : getChildren(pCur.getFirst())) {
+                    double dScore = daScores[iCandidate++];
+                    // Keep only children more similar than their parent
+                    if (dScore > pCur.getSecond()) {
+                        lNext.add(new Pair<String,Double>(sChild, dScore));
+                        bImproved = true;
+                    }
+                }
+                // If no child is better, the path ends here
+                if (!bImproved)
+                    lFinal.add(pCur);
+            }
+
+            sortByScore(lNext);
+            lBeam = lNext.subList(0, Math.min(iBeamWidth, lNext.size()));
+
+            // Stop early, if the beam cannot improve on the located clusters
+            sortByScore(lFinal);
+            if ((lFinal.size() >= iBeamWidth) && !lBeam.isEmpty() &&
+                    (lBeam.get(0).getSecond() <=
+                        lFinal.get(iBeamWidth - 1).getSecond()))
+                break;
+        }
+
+        sortByScore(lFinal);
+        return rankDocuments(dngQuery, lFinal.subList(0,
+                Math.min(iBeamWidth, lFinal.size())), iTopK);
+    }
+
+    /** Determines the scores of the documents of a set of located clusters.
+     *@param dngQuery The graph of the query document.
+     *@param lClusters The clusters located, with their scores, best first.
+     *@param iTopK The maximum number of documents to return.
+     *@return The ranked documents.
+     */
+    protected List<Pair<String,Double>> rankDocuments(DocumentNGramGraph dngQuery,
+            List<Pair<String,Double>> lClusters, int iTopK) {
+        List<String> lDocs = new ArrayList<String>();
+        List<Double> lScores = new ArrayList<Double>();
+        HashSet<String> hsSeen = new HashSet<String>();
+        for (Pair<String,Double> pCluster : lClusters)
+            for (String sDoc : Index.getDocumentIDsFromCluster(pCluster.getFirst()))
+                if (hsSeen.add(sDoc)) {
+                    lDocs.add(sDoc);
+                    lScores.add(pCluster.getSecond());
+                }
+
+        List<Pair<String,Double>> lRes = new ArrayList<Pair<String,Double>>();
+        if (lDocs.size() <= RerankLimit) {
+            // Compare every document to the query
+            double[] daScores = getSimilarities(dngQuery, lDocs);
+            for (int iCnt = 0; iCnt < lDocs.size(); iCnt++)
+                lRes.add(new Pair<String,Double>(lDocs.get(iCnt),
+                        daScores[iCnt]));
+        }
+        else
+            for (int iCnt = 0; iCnt < lDocs.size(); iCnt++)
+                lRes.add(new Pair<String,Double>(lDocs.get(iCnt),
+                        lScores.get(iCnt)));
+
+        sortByScore(lRes);
+        return new ArrayList<Pair<String,Double>>(lRes.subList(0,
+                Math.min(Math.max(0, iTopK), lRes.size())));
+    }
+
+    /** Compares a query graph to the representations of a list of clusters,
+     * in parallel.
+     *@param dngQuery The graph of the query document.
+     *@param lLabels The labels of the clusters.
+     *@return The similarities of the query to the clusters, in the order of
+     * the labels. Clusters without a representation get a similarity of
+     * negative infinity.
+     */
+    protected double[] getSimilarities(final DocumentNGramGraph dngQuery,
+            List<String> lLabels) {
+        double[] daRes = new double[lLabels.size()];
+        List<Callable<Double>> lTasks = new ArrayList<Callable<Double>>();
+        for (final String sLabel : lLabels)
+            lTasks.add(new Callable<Double>() {
+                public Double call() throws Exception {
+                    return getSimilarity(dngQuery, sLabel);
+                }
+            });
+
+        try {
+            List<Future<Double>> lResults = Runner.invokeAll(lTasks);
+            for (int iCnt = 0; iCnt < daRes.length; iCnt++)
+                try {
+                    daRes[iCnt] = lResults.get(iCnt).get();
+                } catch (ExecutionException ee) {
+                    ee.getCause().printStackTrace(System.err);
+                    daRes[iCnt] = Double.NEGATIVE_INFINITY;
+                }
+        } catch (InterruptedException ie) {
+            System.err.println("Query interrupted.");
+            ie.printStackTrace(System.err);
+            java.util.Arrays.fill(daRes, Double.NEGATIVE_INFINITY);
+        }
+
+        return daRes;
+    }
+
+    /** Compares a query graph to the representation of a cluster.
+     *@param dngQuery The graph of the query document.
+     *@param sLabel The label of the cluster.
+     *@return The overall similarity of the query to the cluster.
+     */
+    protected double getSimilarity(DocumentNGramGraph dngQuery, String sLabel) {
+        DocumentNGramGraph dgCluster = getRepresentation(sLabel);
+        if (dgCluster == null)
+            return Double.NEGATIVE_INFINITY;
+
+        if (Comparator == null)
+            return new NGramCachedGraphComparator().getSimilarityBetween(
+                    dngQuery, dgCluster).getOverallSimilarity();
+        try {
+            return Comparator.getSimilarityBetween(dngQuery,
+                    dgCluster).getOverallSimilarity();
+        } catch (InvalidClassException ex) {
+            System.err.println("Invalid document type. Ignoring...");
+            ex.printStackTrace(System.err);
+            return Double.NEGATIVE_INFINITY;
+        }
+    }
+
+    /** Returns the representation of a cluster, using the memory cache if
+     * possible.
+     *@param sLabel The label of the cluster.
+     *@return The representation, or null if none exists.
+     */
+    protected DocumentNGramGraph getRepresentation(String sLabel) {
+        synchronized (Cache) {
+            DocumentNGramGraph dgRes = Cache.get(sLabel);
+            if (dgRes != null) {
+                Hits++;
+                return dgRes;
+            }
+            Misses++;
+        }
+
+        // The index storage and hierarchy are not safe for concurrent access
+        DocumentNGramGraph dgRes;
+        synchronized (Index) {
+            dgRes = Index.getRepresentationFromCluster(sLabel);
+        }
+        if (dgRes != null)
+            synchronized (Cache) {
+                Cache.put(sLabel, dgRes);
+            }
+        return dgRes;
+    }
+
+    /** Returns the labels of the children of a cluster.
+     *@param sLabel The label of the cluster.
+     *@return The labels of the children, or an empty list for leaves.
+     */
+    protected List<String> getChildren(String sLabel) {
+        synchronized (Index) {
+            List<String> lRes = Children.get(sLabel);
+            if (lRes != null)
+                return lRes;
+
+            lRes = new ArrayList<String>();
+            Vertex vCluster = utils.locateVertexInGraph(Index.Hierarchy, sLabel);
+            if (vCluster != null)
+                for (Object oChild : utils.getAdjacentIncomingVertices(
+                        Index.Hierarchy, vCluster))
+                    lRes.add(((Vertex)oChild).getLabel());
+            Children.put(sLabel, lRes);
+            return lRes;
+        }
+    }
+
+    /** Clears the cached representations and hierarchy structure, e.g. after
+     * the index has been rebuilt.
+     */
+    public void clearCache() {
+        synchronized (Cache) {
+            Cache.clear();
+        }
+        synchronized (Index) {
+            Children.clear();
+        }
+    }
+
+    /** Returns the number of representation lookups served from memory.
+     *@return The number of cache hits.
+     */
+    public long getHits() {
+        synchronized (Cache) {
+            return Hits;
+        }
+    }
+
+    /** Returns the number of representation lookups not served from memory.
+     *@return The number of cache misses.
+     */
+    public long getMisses() {
+        synchronized (Cache) {
+            return Misses;
+        }
+    }
+
+    /** Stops the comparison threads of the engine. */
+    public void shutdown() {
+        Runner.shutdown();
+    }
+
+    /** Sorts a list of scored items by descending score.
+     *@param lItems The list to sort.
+     */
+    private static void sortByScore(List<Pair<String,Double>> lItems) {
+        Collections.sort(lItems, new java.util.Comparator<Pair<String,Double>>() {
+            public int compare(Pair<String, Double> p1, Pair<String, Double> p2) {
+                return Double.compare(p2.getSecond(), p1.getSecond());
+            }
+        });
+    }
+}
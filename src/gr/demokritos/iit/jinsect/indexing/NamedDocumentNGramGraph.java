@@ -22,6 +22,60 @@ import salvo.jesus.graph.WeightedEdge;
 public class NamedDocumentNGramGraph extends DocumentNGramSymWinGraph implements INamed {
     protected String Name = new String();
     
+    /** Creates a new, unnamed graph with the default n-gram parameters. */
+    public NamedDocumentNGramGraph() {
+        super();
+    }
+    
+    /** Creates a new, unnamed graph with given n-gram parameters.
+     *@param iMinSize The min n-gram size.
+     *@param iMaxSize The max n-gram size.
+     *@param iCorrelationWindow The n-gram neighbourhood window.
+     */
+    public NamedDocumentNGramGraph(int iMinSize, int iMaxSize, 
+            int iCorrelationWindow) {
+        super(iMinSize, iMaxSize, iCorrelationWindow);
+    }
+    
+    /** Creates a copy of a given graph, which shares no levels with the
+     * original, so that merging into the copy leaves the original intact. The 
+     * data string, all the vertices (also the ones without edges), the edges
+     * with their weights, the listeners and the name and degraded edges (of
+     * named graphs) are copied.
+     *@param gOriginal The graph to copy.
+     *@return The copy.
+     */
+    public static NamedDocumentNGramGraph copyOf(DocumentNGramGraph gOriginal) {
+        NamedDocumentNGramGraph gRes = new NamedDocumentNGramGraph(
+                gOriginal.getMinSize(), gOriginal.getMaxSize(), 
+                gOriginal.getWindowSize());
+        // Merging into an empty graph adds every edge with its weight
+        gRes.mergeGraph(gOriginal, 1.0);
+        for (int iCurLvl = gRes.MinSize; iCurLvl <= gRes.MaxSize; iCurLvl++) {
+            UniqueVertexGraph gLevel = gOriginal.getGraphLevelByNGramSize(iCurLvl);
+            if (gLevel == null)
+                continue;
+            for (String sLabel : gLevel.UniqueVertices.keySet())
+                try {
+                    gRes.locateOrAddVertex(gRes.getGraphLevelByNGramSize(iCurLvl), 
+                            sLabel);
+                } catch (Exception e) {
+                    // Insert failed. Ignoring...
+                    e.printStackTrace(System.err);
+                }
+        }
+        gRes.DataString = gOriginal.getDataString();
+        if (gOriginal instanceof NamedDocumentNGramGraph) {
+            gRes.DegradedEdges.putAll(
+                    ((NamedDocumentNGramGraph)gOriginal).DegradedEdges);
+            gRes.Name = ((NamedDocumentNGramGraph)gOriginal).Name;
+        }
+        gRes.Normalizer = gOriginal.Normalizer;
+        gRes.TextPreprocessor = gOriginal.TextPreprocessor;
+        gRes.WordEvaluator = gOriginal.WordEvaluator;
+        return gRes;
+    }
+    
     @Override
     public String getName() {
         return Name;
@@ -16,12 +16,14 @@ import gr.demokritos.iit.jinsect.events.NotificationListener;
 import gr.demokritos.iit.jinsect.events.ProgressEvent;
 import gr.demokritos.iit.jinsect.events.SimilarityComparatorListener;
 import gr.demokritos.iit.jinsect.storage.IFileLoader;
+import gr.demokritos.iit.jinsect.storage.INSECTCachedDB;
 import gr.demokritos.iit.jinsect.storage.INSECTDB;
 import gr.demokritos.iit.jinsect.storage.INSECTFileDB;
 import gr.demokritos.iit.jinsect.storage.INSECTMemoryDB;
 import gr.demokritos.iit.jinsect.structs.UniqueVertexGraph;
 import gr.demokritos.iit.jinsect.structs.GraphSimilarity;
 import gr.demokritos.iit.jinsect.structs.ISimilarity;
+import gr.demokritos.iit.jinsect.structs.Pair;
 import gr.demokritos.iit.jinsect.utils;
 import gr.demokritos.iit.tacTools.ACQUAINT2DocumentSet;
 import java.io.File;
@@ -34,6 +36,7 @@ import java.io.ObjectOutputStream;
 import java.io.Serializable;
 import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.HashMap;
 import java.util.HashSet;
 import java.util.Hashtable;
 import java.util.Iterator;
@@ -41,6 +44,11 @@ import java.util.LinkedList;
 import java.util.List;
 import java.util.ListIterator;
 import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicInteger;
 import java.util.zip.GZIPInputStream;
 import java.util.zip.GZIPOutputStream;
 import salvo.jesus.graph.Vertex;
@@ -80,8 +88,22 @@ public class SimilarityBasedIndex implements Serializable,
     //
     //public DocumentNGramGraph Grammar = null;
     
+    /** The default of {@link #RepresentationBatchSize}. */
+    public static final int DEFAULT_REPRESENTATION_BATCH_SIZE = 32;
+    
+    /** The number of cluster representations saved to the storage at once, 
+     * by {@link #buildRepresentations(int)}.
+     */
+    public int RepresentationBatchSize = DEFAULT_REPRESENTATION_BATCH_SIZE;
+    
     private Vertex TopVertex = null;
     
+    /** The engine serving ranked queries, created on first use. */
+    private HierarchicalQueryEngine QueryEngine = null;
+    /** Guards the creation of {@link #QueryEngine}. Recreated on 
+     * deserialization. */
+    private transient Object QueryEngineLock = new Object();
+    
     /** Used as a constructor for loading purposes (serializable interface). */
     private SimilarityBasedIndex() {
     }
@@ -258,6 +280,59 @@ public class SimilarityBasedIndex implements Serializable,
         return gRes;
     }
     
+    /** Calculates the representations of all the clusters of the hierarchy,
+     * bottom-up. A cluster is built as soon as the representations of all its
+     * sub-clusters are available, so that independent subtrees are built
+     * concurrently. Every representation is kept in memory only until its 
+     * parent cluster has been built, and is saved to the storage in batches of
+     * {@link #RepresentationBatchSize}. Clusters already found in the storage 
+     * are not rebuilt. Nothing is built if no storage is set (e.g. after
+     * deserialization), since the document representations are kept in the 
+     * storage.
+     *@param iThreads The number of threads to use. If not positive, the number
+     * of available processors is used.
+     */
+    public void buildRepresentations(int iThreads) {
+        if ((Hierarchy == null) || (Storage == null))
+            return;
+        if (iThreads <= 0)
+            iThreads = Runtime.getRuntime().availableProcessors();
+        
+        HierarchyBuilder hbBuilder = new HierarchyBuilder();
+        hbBuilder.build(iThreads);
+    }
+    
+    /** Merges the representations of the children of a cluster into a new 
+     * representation for the cluster. As in 
+     * {@link #getRepresentationFromCluster(String)}, the representation starts
+     * as a copy of the first child (including its data string and vertices 
+     * without edges) and every other child is merged into it with a weight of 
+     * 0.5. Unlike there, the first child is copied deeply, so it is not 
+     * changed by the merging.
+     *@param sClusterLabel The label of the cluster.
+     *@param lChildGraphs The representations of the children of the cluster.
+     *@return The cluster representation, or null if no child representation
+     * is available.
+     */
+    protected DocumentNGramGraph mergeRepresentations(String sClusterLabel,
+            List<DocumentNGramGraph> lChildGraphs) {
+        NamedDocumentNGramGraph gRes = null;
+        for (DocumentNGramGraph gChild : lChildGraphs) {
+            if (gChild == null)
+                continue;
+            if (gRes == null)
+                // Copy the first child into a new graph, leaving the child 
+                // intact
+                gRes = NamedDocumentNGramGraph.copyOf(gChild);
+            else
+                gRes.mergeGraph(gChild, 0.5);
+        }
+        
+        if (gRes != null)
+            gRes.setName(sClusterLabel);
+        return gRes;
+    }
+    
     /** Returns the set of documents of the cluster that is most appropriate,
      * given a document graph.
      *@param dngCur The graph of the document used.
@@ -338,12 +413,32 @@ public class SimilarityBasedIndex implements Serializable,
         return getDocumentIDsFromCluster(sClusterLabel);
     }
     
+    /** Returns the documents most similar to a given graph, ranked by 
+     * descending similarity. The hierarchy is searched with a beam of a given
+     * width, through a {@link HierarchicalQueryEngine} that keeps frequently
+     * used cluster representations in memory.
+     *@param dngCur The graph of the document used.
+     *@param iBeamWidth The number of clusters to follow at every level.
+     *@param iTopK The maximum number of documents to return.
+     *@return A list of document ID and similarity pairs, most similar first.
+     */
+    public List<Pair<String,Double>> locateRankedDocuments(
+            DocumentNGramGraph dngCur, int iBeamWidth, int iTopK) {
+        HierarchicalQueryEngine hqeEngine;
+        synchronized (QueryEngineLock) {
+            if (QueryEngine == null)
+                QueryEngine = new HierarchicalQueryEngine(this);
+            hqeEngine = QueryEngine;
+        }
+        return hqeEngine.locateSimilarDocuments(dngCur, iBeamWidth, iTopK);
+    }
+    
     /** Get the top node of the cluster hierarchy. Once ran, the node is cached
      *for future reference.
      *@param g The graph, the root node of which is saught.
      *@return The root node vertex, or null if the search fails.
      */
-    private final Vertex getRootHierarchyNode(UniqueVertexGraph g) {
+    protected final Vertex getRootHierarchyNode(UniqueVertexGraph g) {
         // If calculated return
         if (TopVertex != null)
             return TopVertex;
@@ -368,6 +463,205 @@ public class SimilarityBasedIndex implements Serializable,
     }
     
     
+    /** Builds the cluster representations of the hierarchy bottom-up, using
+     * a pool of threads. The structure of the hierarchy is read once, before 
+     * any thread starts, since the hierarchy graph does not support 
+     * concurrent access.
+     */
+    private class HierarchyBuilder {
+        /** The children labels of every cluster. */
+        HashMap<String,List<String>> Children = 
+                new HashMap<String,List<String>>();
+        /** The parent labels of every cluster. */
+        HashMap<String,List<String>> Parents = 
+                new HashMap<String,List<String>>();
+        /** The clusters that need to be built. */
+        HashSet<String> ToBuild = new HashSet<String>();
+        /** The number of children of a cluster not built yet. */
+        HashMap<String,AtomicInteger> Pending = 
+                new HashMap<String,AtomicInteger>();
+        /** The number of parents of a cluster not built yet. */
+        HashMap<String,AtomicInteger> Consumers = 
+                new HashMap<String,AtomicInteger>();
+        /** The built representations still needed by a parent. */
+        ConcurrentHashMap<String,DocumentNGramGraph> Built = 
+                new ConcurrentHashMap<String,DocumentNGramGraph>();
+        /** The representations waiting to be saved. */
+        ArrayList<DocumentNGramGraph> Batch = 
+                new ArrayList<DocumentNGramGraph>();
+        ProgressEvent Progress = new ProgressEvent("Representation extraction",
+                0.0);
+        ExecutorService Runner;
+        CountDownLatch Remaining;
+        
+        /** Builds all the required representations.
+         *@param iThreads The number of threads to use.
+         */
+        void build(int iThreads) {
+            readHierarchy();
+            if (ToBuild.isEmpty())
+                return;
+            
+            Runner = Executors.newFixedThreadPool(iThreads);
+            Remaining = new CountDownLatch(ToBuild.size());
+            // Start from the clusters whose children are all available
+            for (String sLabel : ToBuild)
+                if (Pending.get(sLabel).get() == 0)
+                    submit(sLabel);
+            
+            try {
+                Remaining.await();
+            } catch (InterruptedException ie) {
+                System.err.println("Representation building interrupted.");
+                ie.printStackTrace(System.err);
+            }
+            Runner.shutdown();
+            
+            // Save remaining representations
+            flush(true);
+            Built.clear();
+        }
+        
+        /** Reads the structure of the hierarchy and determines what to build.
+         */
+        private void readHierarchy() {
+            Iterator iVertices = Hierarchy.getVertexSet().iterator();
+            while (iVertices.hasNext()) {
+                Vertex vCur = (Vertex)iVertices.next();
+                String sLabel = vCur.getLabel();
+                ArrayList<String> lChildren = new ArrayList<String>();
+                for (Object oChild : utils.getAdjacentIncomingVertices(Hierarchy, 
+                        vCur))
+                    lChildren.add(((Vertex)oChild).getLabel());
+                Children.put(sLabel, lChildren);
+                
+                for (String sChild : lChildren) {
+                    List<String> lParents = Parents.get(sChild);
+                    if (lParents == null) {
+                        lParents = new ArrayList<String>();
+                        Parents.put(sChild, lParents);
+                    }
+                    lParents.add(sLabel);
+                }
+                
+                // Leaves are the documents themselves
+                if ((lChildren.size() > 0) && 
+                        !Storage.existsObject(sLabel, CLUSTER_OBJECT_CATEGORY))
+                    ToBuild.add(sLabel);
+            }
+            
+            for (String sLabel : ToBuild) {
+                int iPending = 0;
+                for (String sChild : Children.get(sLabel)) {
+                    if (ToBuild.contains(sChild))
+                        iPending++;
+                    AtomicInteger aiConsumers = Consumers.get(sChild);
+                    if (aiConsumers == null)
+                        Consumers.put(sChild, aiConsumers = new AtomicInteger());
+                    aiConsumers.incrementAndGet();
+                }
+                Pending.put(sLabel, new AtomicInteger(iPending));
+            }
+        }
+        
+        /** Schedules the building of a cluster.
+         *@param sLabel The cluster label.
+         */
+        private void submit(final String sLabel) {
+            Runner.submit(new Runnable() {
+                public void run() {
+                    try {
+                        buildCluster(sLabel);
+                    }
+                    catch (Exception e) {
+                        System.err.println("Could not build representation for " + 
+                                sLabel + ". Continuing...");
+                        e.printStackTrace(System.err);
+                    }
+                    finally {
+                        clusterDone(sLabel);
+                    }
+                }
+            });
+        }
+        
+        /** Builds the representation of a given cluster from its children.
+         *@param sLabel The cluster label.
+         */
+        private void buildCluster(String sLabel) {
+            if (Notifier != null)
+                synchronized (Progress) {
+                    Notifier.Notify(SimilarityBasedIndex.this, 
+                            Progress.updateSubtask(sLabel).increaseProgress());
+                }
+            
+            List<String> lChildren = Children.get(sLabel);
+            ArrayList<DocumentNGramGraph> lChildGraphs = 
+                    new ArrayList<DocumentNGramGraph>(lChildren.size());
+            for (String sChild : lChildren) {
+                DocumentNGramGraph gChild = Built.get(sChild);
+                // Children not built in this run are found in the storage
+                if ((gChild == null) && !ToBuild.contains(sChild))
+                    synchronized (Storage) {
+                        gChild = Storage.loadObject(sChild, 
+                                CLUSTER_OBJECT_CATEGORY);
+                    }
+                lChildGraphs.add(gChild);
+            }
+            
+            DocumentNGramGraph gRes = mergeRepresentations(sLabel, lChildGraphs);
+            lChildGraphs.clear();
+            if (gRes == null)
+                return;
+            
+            Built.put(sLabel, gRes);
+            synchronized (Batch) {
+                Batch.add(gRes);
+            }
+            flush(false);
+        }
+        
+        /** Releases the children of a cluster that has been processed, and 
+         * schedules every parent whose children are all processed.
+         *@param sLabel The cluster label.
+         */
+        private void clusterDone(String sLabel) {
+            for (String sChild : Children.get(sLabel))
+                if (Consumers.get(sChild).decrementAndGet() == 0)
+                    Built.remove(sChild);
+            
+            List<String> lParents = Parents.get(sLabel);
+            if (lParents != null)
+                for (String sParent : lParents)
+                    if (ToBuild.contains(sParent) && 
+                            (Pending.get(sParent).decrementAndGet() == 0))
+                        submit(sParent);
+            
+            Remaining.countDown();
+        }
+        
+        /** Saves the pending representations to the storage, if a full batch
+         * is available.
+         *@param bForce If true, all pending representations are saved.
+         */
+        private void flush(boolean bForce) {
+            ArrayList<DocumentNGramGraph> lToSave;
+            synchronized (Batch) {
+                if (Batch.isEmpty() || 
+                        (!bForce && (Batch.size() < RepresentationBatchSize)))
+                    return;
+                lToSave = new ArrayList<DocumentNGramGraph>(Batch);
+                Batch.clear();
+            }
+            
+            synchronized (Storage) {
+                for (DocumentNGramGraph gCur : lToSave)
+                    Storage.saveObject(gCur, ((NamedDocumentNGramGraph)gCur).getName(),
+                            CLUSTER_OBJECT_CATEGORY);
+            }
+        }
+    }
+    
     private void readObject(java.io.ObjectInputStream in)
       throws IOException, ClassNotFoundException {
         // Comparator = (SimilarityComparatorListener)in.readObject();
@@ -375,6 +669,9 @@ public class SimilarityBasedIndex implements Serializable,
         NamedObjects = (Set<DocumentNGramGraph>)in.readObject();
         Clusterer = new AverageLinkClusterer();
         Hierarchy = (UniqueVertexGraph)in.readObject();
+        // Fields not serialized, which field initializers do not set here
+        QueryEngineLock = new Object();
+        RepresentationBatchSize = DEFAULT_REPRESENTATION_BATCH_SIZE;
         //ClusterToGraph = (HashMap<String,DocumentNGramGraph>)in.readObject();
         
         //if (Storage instanceof Serializable)
@@ -554,8 +851,8 @@ public class SimilarityBasedIndex implements Serializable,
                 gs.close();
                 fs.close();
                 // Set db
-                gi.Storage = new INSECTFileDB("",
-                    "statedata/");
+                gi.Storage = new INSECTCachedDB(new INSECTFileDB("",
+                    "statedata/"));
                 bIndexLoadedOK = true;
             }
             catch (Exception e) {
@@ -604,8 +901,8 @@ public class SimilarityBasedIndex implements Serializable,
 
             // Create index
             SimilarityComparatorListener siml = null;
-            gi = new SimilarityBasedIndex(sDocGraphs, siml, new INSECTFileDB("",
-                    "statedata/"));
+            gi = new SimilarityBasedIndex(sDocGraphs, siml, new INSECTCachedDB(
+                    new INSECTFileDB("", "statedata/")));
             gi.Notifier = new NotificationListener() {
                 int iCnt = 0;
                 @Override
@@ -620,6 +917,10 @@ public class SimilarityBasedIndex implements Serializable,
             System.err.print("Creating index...");
             gi.createIndex();
             System.err.println("Done.");
+            
+            System.err.print("Building cluster representations...");
+            gi.buildRepresentations(0);
+            System.err.println("Done.");
         }
         
         // Save index to file
@@ -698,5 +999,7 @@ public class SimilarityBasedIndex implements Serializable,
         System.out.println("Cluster: " + gi.locateSimilarDocuments(dgCur));
         System.out.println("Index lookup for file " + sName + "...Done.");
         
+        ts.close();
+        tsOther.close();
     }
 }
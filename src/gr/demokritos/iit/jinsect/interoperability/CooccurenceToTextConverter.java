@@ -16,9 +16,10 @@ import java.io.IOException;
 import java.io.ObjectInputStream;
 import java.io.ObjectOutputStream;
 import java.util.Hashtable;
-import java.util.Iterator;
 import gr.demokritos.iit.jinsect.structs.CategorizedFileEntry;
 import gr.demokritos.iit.jinsect.structs.DocumentSet;
+import gr.demokritos.iit.jinsect.structs.Pair;
+import gr.demokritos.iit.jinsect.structs.PrefetchingDocumentReader;
 import gr.demokritos.iit.jinsect.documentModel.representations.DocumentNGramGraph;
 import gr.demokritos.iit.jinsect.documentModel.representations.DocumentWordGraph;
 
@@ -67,12 +68,18 @@ public class CooccurenceToTextConverter {
         DocumentSet ds = new DocumentSet(sBaseDir, 1.0);
         ds.createSets();
         DocumentNGramGraph dngCur = new DocumentNGramGraph(iMinNGram,iMaxNGram,iDist);
-        Iterator iIter = ds.getTrainingSet().iterator();
-        while (iIter.hasNext()) {
-            CategorizedFileEntry cfeCur = (CategorizedFileEntry)iIter.next();
+        // Read files ahead, while graphs are created
+        PrefetchingDocumentReader pdrFiles = ds.readFiles(
+                DocumentSet.FROM_TRAINING_SET, null, 
+                Runtime.getRuntime().availableProcessors(), 64);
+        Pair<CategorizedFileEntry,String> pCur;
+        while ((pCur = pdrFiles.poll()) != null) {
+            CategorizedFileEntry cfeCur = pCur.getFirst();
             dngCur.setDataString("");
             try {
-                dngCur.loadDataStringFromFile(cfeCur.getFileName());
+                if (pCur.getSecond() == null)
+                    throw new IOException("Could not read " + cfeCur.getFileName());
+                dngCur.setDataString(pCur.getSecond());
                 File fDir = new File(sOutputDir + System.getProperty("file.separator") + cfeCur.getCategory());
                 fDir.mkdir();
                 File f = new File(cfeCur.getFileName());
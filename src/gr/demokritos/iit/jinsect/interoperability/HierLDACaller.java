@@ -7,27 +7,27 @@
 
 package gr.demokritos.iit.jinsect.interoperability;
 
-import gr.demokritos.iit.conceptualIndex.structs.Distribution;
 import java.io.BufferedWriter;
 import java.io.FileWriter;
 import java.io.IOException;
 import java.util.Date;
+import java.util.HashMap;
 import java.util.Hashtable;
 import java.util.Iterator;
 import java.util.Map;
 import java.util.TreeMap;
-import java.util.Vector;
 import gr.demokritos.iit.jinsect.structs.CategorizedFileEntry;
 import gr.demokritos.iit.jinsect.structs.DocumentSet;
 import gr.demokritos.iit.jinsect.console.ConsoleNotificationListener;
 import gr.demokritos.iit.jinsect.documentModel.documentTypes.SimpleTextHistoDocument;
 import gr.demokritos.iit.jinsect.events.NotificationListener;
 import gr.demokritos.iit.jinsect.threading.ThreadList;
-import java.util.Collections;
 import java.util.List;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 import probabilisticmodels.HierLDAGibbs;
+import probabilisticmodels.SparseDocTermMatrix;
+import probabilisticmodels.SparseDocTermMatrixBuilder;
 
 /**
  *
@@ -59,11 +59,13 @@ public class HierLDACaller implements NotificationListener {
                 "threads", String.valueOf(Runtime.getRuntime().availableProcessors()))).intValue();
         
         TreeMap<Integer,String> tmReverseIndex = new TreeMap<Integer,String>();
-        int[][] documentTopicMatrix = getDocumentTermMatrix(sInputDir, tmReverseIndex);
-        HierLDAGibbs hierLDA = new HierLDAGibbs(iLevels,documentTopicMatrix, dAlpha, dBeta);
+        SparseDocTermMatrix documentTermMatrix = getSparseDocumentTermMatrix(sInputDir, tmReverseIndex);
+        HierLDAGibbs hierLDA = new HierLDAGibbs(iLevels,documentTermMatrix, dAlpha, dBeta);
         hierLDA.setProgressIndicator(new ConsoleNotificationListener()); // Indicate progress
-        hierLDA.performGibbs(iIterations, iBurnInIterations, iThreads);
+        hierLDA.performPartitionedGibbs(iIterations, iBurnInIterations, iThreads);
         System.err.println();
+        System.err.println(String.format("Sampled %.0f tokens per second.", 
+                hierLDA.getTokensPerSecond()));
         
         try {
             
@@ -108,98 +110,61 @@ public class HierLDACaller implements NotificationListener {
         }
     }
     
+    /** Creates the document - term matrix of a list of documents, in dense 
+     * form. Should only be used for small corpora; see 
+     * {@link #getSparseDocumentTermMatrix(List, Map)}.
+     *@param lDocs The list of {@link CategorizedFileEntry} documents.
+     *@param tmReverseIndex A map to fill with the term of every term index.
+     *@return The document - term matrix.
+     */
     public static int[][] getDocumentTermMatrix(List<CategorizedFileEntry> lDocs, Map<Integer,String> tmReverseIndex) {
-        int[][] iaRes = new int[lDocs.size()][];
-        
-        TreeMap<String, Integer> hOverall = new TreeMap<String, Integer>();
-        //TreeMap<Integer, String> tmReverseIndex = new TreeMap<Integer, String>();
-        Vector<Distribution> vDocs = new Vector(lDocs.size());
-        ThreadList tl = new ThreadList();
-        
-        Iterator iIter = lDocs.iterator();
-        while (iIter.hasNext()) {
-            // Prepare thread params
-            final CategorizedFileEntry cfeCur = (CategorizedFileEntry)iIter.next();
-            final Map<Integer,String> tmReverseIndexArg = Collections.synchronizedMap(tmReverseIndex);
-            final Map<String, Integer> hOverallArg = Collections.synchronizedMap(hOverall);
-            final List<Distribution> vDocsArg = Collections.synchronizedList(vDocs);
-            
-            // Execute in thread
-            while (!tl.addThreadFor(new Runnable() {
-                @Override
-                public void run() {
-                    SimpleTextHistoDocument sthdDoc = new SimpleTextHistoDocument(1,1,1);
-                    sthdDoc.loadDataStringFromFile(cfeCur.getFileName());
-
-                    Distribution dDoc = new Distribution();
-                    Iterator iTerms = sthdDoc.getDocumentHistogram().NGramHistogram.keySet().iterator();
-                    while (iTerms.hasNext()) {
-                        String sTerm = (String)iTerms.next();
-                        int iTermOcc = ((Double)sthdDoc.getDocumentHistogram().NGramHistogram.get(sTerm)).intValue();
-                        dDoc.increaseValue(sTerm,(double)iTermOcc);
-
-                        synchronized (hOverallArg) {
-                            // Add term to term list if not there
-                            if (!hOverallArg.containsKey(sTerm))
-                            {
-                                synchronized (tmReverseIndexArg) {
-                                    tmReverseIndexArg.put(hOverallArg.size(), sTerm);
-                                }
-                                hOverallArg.put(sTerm, hOverallArg.size());
-                            }
-                        }
-                    }
-                    synchronized (vDocsArg) {
-                        vDocsArg.add(dDoc);
-                    }
-                }
-            }))
-                Thread.yield();
-            
-            // DEBUG LINES
-            System.err.print(".");
-            //////////////
-        }
-        
-        try {
-            // DEBUG LINES
-            System.err.println();
-            //////////////
-            tl.waitUntilCompletion();
-        } catch (InterruptedException ex) {
-            Logger.getLogger(HierLDACaller.class.getName()).log(Level.SEVERE, null, ex);
-        }
-        
-        for (int iDocCnt=0; iDocCnt < vDocs.size(); iDocCnt++) {
-            iaRes[iDocCnt] = new int[hOverall.size()];
-            for (int iCnt=0; iCnt < hOverall.size(); iCnt++) {
-                //iaRes[iDocCnt][iCnt] = 0;
-                iaRes[iDocCnt][iCnt] = (int)vDocs.get(iDocCnt).getValue(tmReverseIndex.get(iCnt));
-            }
-        }
-        
-        return iaRes;
+        return getSparseDocumentTermMatrix(lDocs, tmReverseIndex).toDense();
     }
 
+    /** Creates the document - term matrix of the documents of a directory, in
+     * dense form. Should only be used for small corpora; see 
+     * {@link #getSparseDocumentTermMatrix(String, Map)}.
+     *@param sBaseDir The base directory of the documents.
+     *@param tmReverseIndex A map to fill with the term of every term index.
+     *@return The document - term matrix.
+     */
     public static int[][] getDocumentTermMatrix(String sBaseDir, Map<Integer,String> tmReverseIndex) {
-        
+        return getSparseDocumentTermMatrix(sBaseDir, tmReverseIndex).toDense();
+    }
+    
+    /** Creates the document - term matrix of the documents of a directory.
+     *@param sBaseDir The base directory of the documents.
+     *@param tmReverseIndex A map to fill with the term of every term index.
+     *@return The sparse document - term matrix.
+     */
+    public static SparseDocTermMatrix getSparseDocumentTermMatrix(String sBaseDir, 
+            Map<Integer,String> tmReverseIndex) {
         DocumentSet dsSet = new DocumentSet(sBaseDir, 1.0);
         dsSet.createSets();
-        ThreadList tl = new ThreadList();
-        
-        int[][] iaRes = new int[dsSet.getTrainingSet().size()][];
         
-        TreeMap<String, Integer> hOverall = new TreeMap<String, Integer>();
-        //TreeMap<Integer, String> tmReverseIndex = new TreeMap<Integer, String>();
-        Vector<Distribution> vDocs = new Vector(dsSet.getTrainingSet().size());
+        return getSparseDocumentTermMatrix(dsSet.getTrainingSet(), tmReverseIndex);
+    }
+    
+    /** Creates the document - term matrix of a list of documents. Documents 
+     * are processed in parallel, each thread counting the terms of its 
+     * document locally. The rows of the matrix follow the order of the list
+     * and the term indices follow the lexicographic order of the terms.
+     *@param lDocs The list of {@link CategorizedFileEntry} documents.
+     *@param tmReverseIndex A map to fill with the term of every term index.
+     *@return The sparse document - term matrix.
+     */
+    public static SparseDocTermMatrix getSparseDocumentTermMatrix(
+            List<CategorizedFileEntry> lDocs, Map<Integer,String> tmReverseIndex) {
+        final SparseDocTermMatrixBuilder sdtmbBuilder = 
+                new SparseDocTermMatrixBuilder(lDocs.size());
+        ThreadList tl = new ThreadList();
         
-        Iterator iIter = dsSet.getTrainingSet().iterator();
+        int iDocCnt = 0;
+        Iterator iIter = lDocs.iterator();
         while (iIter.hasNext()) {
             // Prepare thread params
             final CategorizedFileEntry cfeCur = (CategorizedFileEntry)iIter.next();
-            final Map<Integer,String> tmReverseIndexArg = Collections.synchronizedMap(tmReverseIndex);
-            final Map<String, Integer> hOverallArg = Collections.synchronizedMap(hOverall);
-            final List<Distribution> vDocsArg = Collections.synchronizedList(vDocs);
+            final int iDocArg = iDocCnt++;
             
             // Execute in thread
             while (!tl.addThreadFor(new Runnable() {
@@ -208,34 +173,21 @@ public class HierLDACaller implements NotificationListener {
                     SimpleTextHistoDocument sthdDoc = new SimpleTextHistoDocument(1,1,1);
                     sthdDoc.loadDataStringFromFile(cfeCur.getFileName());
 
-                    Distribution dDoc = new Distribution();
+                    Map<String,Integer> mDoc = new HashMap<String,Integer>();
                     Iterator iTerms = sthdDoc.getDocumentHistogram().NGramHistogram.keySet().iterator();
                     while (iTerms.hasNext()) {
                         String sTerm = (String)iTerms.next();
                         int iTermOcc = ((Double)sthdDoc.getDocumentHistogram().NGramHistogram.get(sTerm)).intValue();
-                        dDoc.increaseValue(sTerm,(double)iTermOcc);
-
-                        synchronized (hOverallArg) {
-                            // Add term to term list if not there
-                            if (!hOverallArg.containsKey(sTerm))
-                            {
-                                synchronized (tmReverseIndexArg) {
-                                    tmReverseIndexArg.put(hOverallArg.size(), sTerm);
-                                }
-                                hOverallArg.put(sTerm, hOverallArg.size());
-                            }
-                        }
-                    }
-                    synchronized (vDocsArg) {
-                        vDocsArg.add(dDoc);
+                        if (iTermOcc > 0)
+                            mDoc.put(sTerm, iTermOcc);
                     }
+                    sdtmbBuilder.setDocument(iDocArg, mDoc);
                     // DEBUG LINES
                     System.err.print(".");
                     //////////////
                 }
             }))
                 Thread.yield();
-            
         }
         
         try {
@@ -247,15 +199,7 @@ public class HierLDACaller implements NotificationListener {
             Logger.getLogger(HierLDACaller.class.getName()).log(Level.SEVERE, null, ex);
         }
         
-        for (int iDocCnt=0; iDocCnt < vDocs.size(); iDocCnt++) {
-            iaRes[iDocCnt] = new int[hOverall.size()];
-            for (int iCnt=0; iCnt < hOverall.size(); iCnt++) {
-                //iaRes[iDocCnt][iCnt] = 0;
-                iaRes[iDocCnt][iCnt] = (int)vDocs.get(iDocCnt).getValue(tmReverseIndex.get(iCnt));
-            }
-        }
-        
-        return iaRes;
+        return sdtmbBuilder.build(tmReverseIndex);
     }
     
     /** Expecting a double number as parameter to indicate progress. */
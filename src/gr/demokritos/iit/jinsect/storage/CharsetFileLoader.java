@@ -0,0 +1,261 @@
+/*
+ * Under LGPL licence.
+ */
+
+package gr.demokritos.iit.jinsect.storage;
+
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.CharacterCodingException;
+import java.nio.charset.Charset;
+import java.nio.charset.CodingErrorAction;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+/** Loads text files with a single read (or a memory map, for large files)
+ * and decodes them with an explicit charset. The decoded text can be used
+ * directly as a {@link CharBuffer} (a {@link CharSequence}), or as a String
+ * with the line handling of the <code>utils.loadFileToString</code> family
+ * of functions. Sets of files can be loaded by a pool of threads.
+ * <p>The default charset is the one given by the
+ * {@link #CHARSET_PROPERTY} system property or, if not set, the platform
+ * default, as used so far by the <code>utils</code> functions.</p>
+ *
+ * @author ggianna
+ */
+public class CharsetFileLoader implements IFileLoader<String> {
+    /** The system property setting the default charset of text files. */
+    public static final String CHARSET_PROPERTY = "jinsect.fileEncoding";
+    /** The file size (in bytes) from which files are memory mapped rather
+     * than read. */
+    public static final long MAP_THRESHOLD = 1 << 20;
+
+    /** The charset used to decode files. */
+    protected Charset FileCharset;
+    /** Indicates whether newlines are kept in loaded texts. */
+    protected boolean KeepNewlines;
+
+    /** Creates a loader that uses the default charset and keeps newlines.
+     */
+    public CharsetFileLoader() {
+        this(getDefaultCharset(), true);
+    }
+
+    /** Creates a loader with a given charset.
+     *@param cCharset The charset of the files.
+     *@param bKeepNewlines If true, line terminators are converted to
+     * newlines (and a newline ends the last line); otherwise they are removed.
+     */
+    public CharsetFileLoader(Charset cCharset, boolean bKeepNewlines) {
+        FileCharset = cCharset;
+        KeepNewlines = bKeepNewlines;
+    }
+
+    /** Loads a file to a String.
+     *@param sID The filename.
+     *@return The text of the file or an empty String if it could not be read.
+     */
+    public String loadFile(String sID) {
+        try {
+            return KeepNewlines ? loadFileToStringWithNewlines(sID, FileCharset) :
+                loadFileToString(sID, FileCharset, Integer.MAX_VALUE);
+        } catch (IOException ioe) {
+            System.err.println("Coult not load file:" + sID);
+            ioe.printStackTrace(System.err);
+            return "";
+        }
+    }
+
+    /** Returns the default charset of text files.
+     *@return The charset named by the {@link #CHARSET_PROPERTY} system
+     * property, if valid, otherwise the platform default charset.
+     */
+    public static Charset getDefaultCharset() {
+        String sCharset = System.getProperty(CHARSET_PROPERTY);
+        if (sCharset != null)
+            try {
+                return Charset.forName(sCharset);
+            } catch (IllegalArgumentException iae) {
+                System.err.println("Unsupported charset " + sCharset +
+                        ". Using platform default.");
+            }
+        return Charset.defaultCharset();
+    }
+
+    /** Reads the bytes of a file with a single read, or maps the file to
+     * memory if it is larger than {@link #MAP_THRESHOLD}.
+     *@param sFilename The file to read.
+     *@return A buffer holding the file bytes, ready to be read.
+     *@throws IOException If the file cannot be read.
+     */
+    public static ByteBuffer readFile(String sFilename) throws IOException {
+        FileInputStream fisIn = new FileInputStream(sFilename);
+        try {
+            FileChannel fcIn = fisIn.getChannel();
+            long lSize = fcIn.size();
+            if (lSize > Integer.MAX_VALUE)
+                throw new IOException("File " + sFilename + " is too large.");
+            if (lSize >= MAP_THRESHOLD)
+                return fcIn.map(FileChannel.MapMode.READ_ONLY, 0, lSize);
+
+            ByteBuffer bbRes = ByteBuffer.allocate((int)lSize);
+            while (bbRes.hasRemaining() && fcIn.read(bbRes) >= 0);
+            bbRes.flip();
+            return bbRes;
+        }
+        finally {
+            fisIn.close();
+        }
+    }
+
+    /** Loads and decodes a file. Malformed input is replaced, as in
+     * {@link java.io.InputStreamReader}.
+     *@param sFilename The file to load.
+     *@param cCharset The charset of the file.
+     *@return The decoded text, as is (no line handling).
+     *@throws IOException If the file cannot be read.
+     */
+    public static CharBuffer loadFileToCharBuffer(String sFilename,
+            Charset cCharset) throws IOException {
+        ByteBuffer bbIn = readFile(sFilename);
+        try {
+            return cCharset.newDecoder().onMalformedInput(
+                    CodingErrorAction.REPLACE).onUnmappableCharacter(
+                    CodingErrorAction.REPLACE).decode(bbIn);
+        } catch (CharacterCodingException cce) {
+            // Cannot happen when replacing, but report as I/O error
+            throw new IOException("Could not decode file " + sFilename +
+                    ": " + cce.getMessage());
+        }
+    }
+
+    /** Loads a file to a String, <i>without preserving newlines</i>. Lines
+     * are appended while the text remains shorter than a given length.
+     *@param sFilename The file to load.
+     *@param cCharset The charset of the file.
+     *@param iMaxLen The maximum length of the text.
+     *@return The text of the file, without line terminators.
+     *@throws IOException If the file cannot be read.
+     */
+    public static String loadFileToString(String sFilename, Charset cCharset,
+            int iMaxLen) throws IOException {
+        return joinLines(loadFileToCharBuffer(sFilename, cCharset), false,
+                iMaxLen);
+    }
+
+    /** Loads a file to a String, preserving newlines. Line terminators
+     * (\n, \r or \r\n) are converted to \n and the last line always ends
+     * with \n.
+     *@param sFilename The file to load.
+     *@param cCharset The charset of the file.
+     *@return The text of the file.
+     *@throws IOException If the file cannot be read.
+     */
+    public static String loadFileToStringWithNewlines(String sFilename,
+            Charset cCharset) throws IOException {
+        return joinLines(loadFileToCharBuffer(sFilename, cCharset), true,
+                Integer.MAX_VALUE);
+    }
+
+    /** Joins the lines of a text, as read by
+     * {@link java.io.BufferedReader#readLine()}.
+     *@param cbText The text.
+     *@param bNewlines If true, a newline follows every line.
+     *@param iMaxLen Lines are appended while the result is shorter than this
+     * length (not counting newlines, if used).
+     *@return The joined lines.
+     */
+    private static String joinLines(CharBuffer cbText, boolean bNewlines,
+            int iMaxLen) {
+        char[] caText;
+        int iOffset;
+        if (cbText.hasArray()) {
+            caText = cbText.array();
+            iOffset = cbText.arrayOffset() + cbText.position();
+        }
+        else {
+            caText = new char[cbText.remaining()];
+            cbText.duplicate().get(caText);
+            iOffset = 0;
+        }
+        int iEnd = iOffset + cbText.remaining();
+
+        StringBuilder sbRes = new StringBuilder(cbText.remaining() + 1);
+        long lTextLen = 0;
+        int iStart = iOffset;
+        while (iStart < iEnd) {
+            // Find line end
+            int iLineEnd = iStart;
+            while (iLineEnd < iEnd && caText[iLineEnd] != '\n' &&
+                    caText[iLineEnd] != '\r')
+                iLineEnd++;
+            lTextLen += iLineEnd - iStart;
+            if (lTextLen >= iMaxLen)
+                break;
+            sbRes.append(caText, iStart, iLineEnd - iStart);
+            if (bNewlines)
+                sbRes.append('\n');
+
+            // Skip line terminator
+            if (iLineEnd < iEnd && caText[iLineEnd] == '\r' &&
+                    iLineEnd + 1 < iEnd && caText[iLineEnd + 1] == '\n')
+                iLineEnd++;
+            iStart = iLineEnd + 1;
+        }
+
+        return sbRes.toString();
+    }
+
+    /** Loads a list of files, using a pool of threads. Files that cannot be
+     * read are loaded as empty strings, after an error message.
+     *@param lFiles The filenames of the files to load.
+     *@param cCharset The charset of the files.
+     *@param bKeepNewlines If true, newlines are kept in the texts.
+     *@param iThreads The number of threads to use.
+     *@return The texts of the files, in the order of the given list.
+     */
+    public static List<String> loadFiles(List<String> lFiles,
+            final Charset cCharset, boolean bKeepNewlines, int iThreads) {
+        final CharsetFileLoader cflLoader = new CharsetFileLoader(cCharset,
+                bKeepNewlines);
+        List<String> lRes = new ArrayList<String>(lFiles.size());
+        if (iThreads <= 1 || lFiles.size() <= 1) {
+            for (String sFile : lFiles)
+                lRes.add(cflLoader.loadFile(sFile));
+            return lRes;
+        }
+
+        ExecutorService esLoaders = Executors.newFixedThreadPool(iThreads);
+        try {
+            List<Future<String>> lTasks = new ArrayList<Future<String>>(
+                    lFiles.size());
+            for (final String sFile : lFiles)
+                lTasks.add(esLoaders.submit(new Callable<String>() {
+                    public String call() {
+                        return cflLoader.loadFile(sFile);
+                    }
+                }));
+            for (Future<String> fCur : lTasks)
+                lRes.add(fCur.get());
+        } catch (InterruptedException ie) {
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException("Interrupted while loading files.",
+                    ie);
+        } catch (ExecutionException ee) {
+            throw new IllegalStateException(ee.getCause());
+        }
+        finally {
+            esLoaders.shutdownNow();
+        }
+
+        return lRes;
+    }
+}
@@ -0,0 +1,415 @@
+/* Under the terms of LGPL
+ */
+
+package gr.demokritos.iit.jinsect.storage;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.io.Serializable;
+import java.lang.ref.SoftReference;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicLong;
+
+/** A read-through cache in front of any {@link INSECTDB}. Loaded objects are
+ * kept, deserialized, in a bounded in-heap first tier (optionally through
+ * soft references, so that they can be reclaimed under memory pressure) and,
+ * optionally, in a second tier such as an {@link INSECTOffHeapDB}.
+ * <p>Concurrent loads of the same object are coalesced into a single load
+ * from the underlying database. Saving or deleting an object writes through
+ * to the underlying database and invalidates the cached copies. If a refresh
+ * interval is set, objects older than it are still returned, but are
+ * reloaded in the background (e.g. for databases also updated by other
+ * processes).</p>
+ * <p><b>Note:</b> Loaded objects are shared by all callers. Callers that
+ * modify a loaded object should either clone it or save it back.</p>
+ *
+ * @author ggianna
+ */
+public class INSECTCachedDB<TObjectType extends Serializable> extends INSECTDB {
+    /** The underlying database. */
+    protected INSECTDB Backing;
+    /** The second tier cache. May be null. */
+    protected INSECTDB SecondTier;
+    /** The maximum number of objects in the first tier. */
+    protected int MaxObjects;
+    /** If true, first tier objects are softly referenced. */
+    protected boolean SoftValues;
+    /** The age (in milliseconds) after which a cached object is reloaded in
+     * the background. Zero or less disables refreshing. */
+    public long RefreshAfterMillis = 0;
+
+    /** The first tier, in access order. */
+    protected LinkedHashMap<String,Cached> FirstTier;
+    /** The loads in progress, by key. */
+    protected ConcurrentHashMap<String,Flight> InFlight;
+    /** Locks serializing the population and invalidation of every key. */
+    private final Object[] KeyLocks;
+    private ExecutorService Refresher;
+
+    private final AtomicLong FirstTierHits = new AtomicLong();
+    private final AtomicLong SecondTierHits = new AtomicLong();
+    private final AtomicLong Misses = new AtomicLong();
+    private final AtomicLong CoalescedLoads = new AtomicLong();
+    private final AtomicLong Refreshes = new AtomicLong();
+    private final AtomicLong LoadNanos = new AtomicLong();
+
+    /** Creates a cache of up to 1000 softly referenced objects, without a
+     * second tier.
+     *@param dbBacking The underlying database.
+     */
+    public INSECTCachedDB(INSECTDB dbBacking) {
+        this(dbBacking, 1000, true, null);
+    }
+
+    /** Creates a cache.
+     *@param dbBacking The underlying database.
+     *@param iMaxObjects The maximum number of objects in the first (in-heap)
+     * tier. Least recently used objects are evicted beyond that.
+     *@param bSoftValues If true, first tier objects are softly referenced.
+     *@param dbSecondTier The second tier cache (e.g. a compressed or off-heap
+     * memory database) or null for none. It is owned by the cache.
+     */
+    public INSECTCachedDB(INSECTDB dbBacking, int iMaxObjects,
+            boolean bSoftValues, INSECTDB dbSecondTier) {
+        Backing = dbBacking;
+        SecondTier = dbSecondTier;
+        MaxObjects = Math.max(1, iMaxObjects);
+        SoftValues = bSoftValues;
+        FirstTier = new LinkedHashMap<String, Cached>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<String, Cached> eldest) {
+                return size() > MaxObjects;
+            }
+        };
+        InFlight = new ConcurrentHashMap<String, Flight>();
+        KeyLocks = new Object[64];
+        for (int iCnt = 0; iCnt < KeyLocks.length; iCnt++)
+            KeyLocks[iCnt] = new Object();
+    }
+
+    /** A first tier object. */
+    protected final class Cached {
+        private final Object Value;
+        final long LoadedAt;
+        boolean Refreshing = false;
+
+        Cached(TObjectType oValue) {
+            Value = SoftValues ? new SoftReference<TObjectType>(oValue) : oValue;
+            LoadedAt = System.currentTimeMillis();
+        }
+
+        /** Returns the object, or null if it has been reclaimed. */
+        TObjectType get() {
+            return (TObjectType)(SoftValues ?
+                ((SoftReference<TObjectType>)Value).get() : Value);
+        }
+    }
+
+    /** A load in progress, awaited by all concurrent loaders of a key. */
+    protected final class Flight {
+        final CountDownLatch Done = new CountDownLatch(1);
+        volatile TObjectType Value;
+    }
+
+    private String getKey(String sObjectName, String sObjectCategory) {
+        return sObjectCategory + '\u0000' + sObjectName;
+    }
+
+    private Object getLock(String sKey) {
+        return KeyLocks[(sKey.hashCode() & 0x7fffffff) % KeyLocks.length];
+    }
+
+    @Override
+    public TObjectType loadObject(String sObjectName, String sObjectCategory) {
+        String sKey = getKey(sObjectName, sObjectCategory);
+        TObjectType oRes = null;
+        boolean bRefresh = false;
+        synchronized (FirstTier) {
+            Cached cCur = FirstTier.get(sKey);
+            if (cCur != null) {
+                oRes = cCur.get();
+                if (oRes != null && RefreshAfterMillis > 0 && !cCur.Refreshing &&
+                        System.currentTimeMillis() - cCur.LoadedAt >
+                        RefreshAfterMillis) {
+                    cCur.Refreshing = true;
+                    bRefresh = true;
+                }
+            }
+        }
+        if (oRes == null)
+            return load(sObjectName, sObjectCategory, sKey, false);
+
+        FirstTierHits.incrementAndGet();
+        if (bRefresh)
+            refreshLater(sObjectName, sObjectCategory, sKey);
+        return oRes;
+    }
+
+    /** Loads an object through the tiers, coalescing concurrent loads.
+     *@param bRefresh If true, the object is loaded from the underlying
+     * database, bypassing the second tier.
+     */
+    private TObjectType load(String sObjectName, String sObjectCategory,
+            String sKey, boolean bRefresh) {
+        Flight fNew = new Flight();
+        Flight fCur = InFlight.putIfAbsent(sKey, fNew);
+        if (fCur != null) {
+            // Wait for the load in progress
+            CoalescedLoads.incrementAndGet();
+            boolean bInterrupted = false;
+            while (true)
+                try {
+                    fCur.Done.await();
+                    break;
+                } catch (InterruptedException ie) {
+                    bInterrupted = true;
+                }
+            if (bInterrupted)
+                Thread.currentThread().interrupt();
+            return fCur.Value;
+        }
+
+        try {
+            TObjectType oRes = null;
+            if (SecondTier != null && !bRefresh) {
+                oRes = (TObjectType)SecondTier.loadObject(sObjectName,
+                        sObjectCategory);
+                if (oRes != null)
+                    SecondTierHits.incrementAndGet();
+            }
+            boolean bFromBacking = (oRes == null);
+            if (bFromBacking) {
+                Misses.incrementAndGet();
+                long lStart = System.nanoTime();
+                oRes = (TObjectType)Backing.loadObject(sObjectName,
+                        sObjectCategory);
+                LoadNanos.addAndGet(System.nanoTime() - lStart);
+            }
+
+            synchronized (getLock(sKey)) {
+                // Do not cache objects invalidated during the load
+                if (InFlight.get(sKey) == fNew) {
+                    if (oRes != null) {
+                        synchronized (FirstTier) {
+                            FirstTier.put(sKey, new Cached(oRes));
+                        }
+                        if (bFromBacking && SecondTier != null)
+                            SecondTier.saveObject(oRes, sObjectName,
+                                    sObjectCategory);
+                    }
+                    else
+                        if (bRefresh)
+                            evict(sObjectName, sObjectCategory, sKey);
+                }
+            }
+            fNew.Value = oRes;
+            return oRes;
+        }
+        finally {
+            InFlight.remove(sKey, fNew);
+            fNew.Done.countDown();
+        }
+    }
+
+    /** Schedules the reload of an object. */
+    private void refreshLater(final String sObjectName,
+            final String sObjectCategory, final String sKey) {
+        synchronized (this) {
+            if (Refresher == null)
+                Refresher = Executors.newSingleThreadExecutor(new ThreadFactory() {
+                    public Thread newThread(Runnable r) {
+                        Thread tRes = new Thread(r, "INSECTCachedDB refresher");
+                        tRes.setDaemon(true);
+                        return tRes;
+                    }
+                });
+        }
+        try {
+            Refresher.execute(new Runnable() {
+                public void run() {
+                    Refreshes.incrementAndGet();
+                    load(sObjectName, sObjectCategory, sKey, true);
+                }
+            });
+        } catch (RejectedExecutionException ree) {
+            // Finalized
+        }
+    }
+
+    /** Removes the cached copies of an object. Called while holding the lock
+     * of the key. */
+    private void evict(String sObjectName, String sObjectCategory,
+            String sKey) {
+        synchronized (FirstTier) {
+            FirstTier.remove(sKey);
+        }
+        if (SecondTier != null)
+            SecondTier.deleteObject(sObjectName, sObjectCategory);
+    }
+
+    /** Removes the cached copies of an object, so that it is reloaded from
+     * the underlying database when next requested.
+     *@param sObjectName The name of the object.
+     *@param sObjectCategory The category of the object.
+     */
+    public void invalidate(String sObjectName, String sObjectCategory) {
+        String sKey = getKey(sObjectName, sObjectCategory);
+        synchronized (getLock(sKey)) {
+            // Loads in progress will not cache their (possibly stale) result
+            InFlight.remove(sKey);
+            evict(sObjectName, sObjectCategory, sKey);
+        }
+    }
+
+    @Override
+    public void saveObject(Serializable oObj, String sObjectName,
+            String sObjectCategory) {
+        Backing.saveObject(oObj, sObjectName, sObjectCategory);
+        invalidate(sObjectName, sObjectCategory);
+    }
+
+    @Override
+    public void deleteObject(String sObjectName, String sObjectCategory) {
+        Backing.deleteObject(sObjectName, sObjectCategory);
+        invalidate(sObjectName, sObjectCategory);
+    }
+
+    @Override
+    public boolean existsObject(String sObjectName, String sObjectCategory) {
+        synchronized (FirstTier) {
+            if (FirstTier.containsKey(getKey(sObjectName, sObjectCategory)))
+                return true;
+        }
+        return Backing.existsObject(sObjectName, sObjectCategory);
+    }
+
+    @Override
+    public String[] getObjectList(String sObjectCategory) {
+        return Backing.getObjectList(sObjectCategory);
+    }
+
+    /** Stops background refreshing, clears the cache and finalizes the
+     * second tier and the underlying database. */
+    @Override
+    public void finalizeDB() {
+        synchronized (this) {
+            if (Refresher != null)
+                Refresher.shutdown();
+        }
+        synchronized (FirstTier) {
+            FirstTier.clear();
+        }
+        if (SecondTier != null)
+            SecondTier.finalizeDB();
+        Backing.finalizeDB();
+    }
+
+    /** Returns the number of loads served by the first tier. */
+    public long getFirstTierHitCount() {
+        return FirstTierHits.get();
+    }
+
+    /** Returns the number of loads served by the second tier. */
+    public long getSecondTierHitCount() {
+        return SecondTierHits.get();
+    }
+
+    /** Returns the number of loads from the underlying database. */
+    public long getMissCount() {
+        return Misses.get();
+    }
+
+    /** Returns the number of loads that waited for a concurrent load of the
+     * same object, instead of loading it. */
+    public long getCoalescedLoadCount() {
+        return CoalescedLoads.get();
+    }
+
+    /** Returns the number of background reloads. */
+    public long getRefreshCount() {
+        return Refreshes.get();
+    }
+
+    /** Returns the fraction of loads served by the cache tiers.
+     *@return The hit rate, or zero if no object has been loaded.
+     */
+    public double getHitRate() {
+        long lHits = FirstTierHits.get() + SecondTierHits.get() +
+                CoalescedLoads.get();
+        long lTotal = lHits + Misses.get();
+        return (lTotal == 0) ? 0.0 : (double)lHits / lTotal;
+    }
+
+    /** Returns the average time of a load from the underlying database.
+     *@return The average load time in milliseconds, or zero if no load has
+     * been performed.
+     */
+    public double getAverageLoadTime() {
+        long lMisses = Misses.get();
+        return (lMisses == 0) ? 0.0 : LoadNanos.get() / 1e6 / lMisses;
+    }
+
+    @Override
+    public String toString() {
+        return String.format("%s[L1 hits=%d, L2 hits=%d, coalesced=%d, " +
+                "misses=%d, refreshes=%d, hit rate=%4.2f, avg load=%6.3fms]",
+                getClass().getSimpleName(), getFirstTierHitCount(),
+                getSecondTierHitCount(), getCoalescedLoadCount(),
+                getMissCount(), getRefreshCount(), getHitRate(),
+                getAverageLoadTime());
+    }
+
+    public String getObjDataToString(Object oObject) {
+        ByteArrayOutputStream bos = new ByteArrayOutputStream();
+
+        try {
+            ObjectOutputStream os = new ObjectOutputStream(bos);
+            os.writeObject(oObject);
+        }
+        catch (IOException e) {
+            e.printStackTrace();
+            return null; // Failed
+        }
+
+        return bos.toString();
+    }
+
+    public TObjectType getStringToObjData(String sData) {
+        ByteArrayOutputStream baos = new ByteArrayOutputStream();
+        try {
+            ObjectOutputStream bos = new ObjectOutputStream(baos);
+            bos.writeBytes(sData);
+        }
+        catch (IOException e) {
+            e.printStackTrace();
+            return null; // Failed
+        }
+
+        ByteArrayInputStream bin = new ByteArrayInputStream(baos.toByteArray());
+        ObjectInputStream ois;
+        Object oRes;
+        try {
+            ois = new ObjectInputStream(bin);
+            oRes = ois.readObject();
+        }
+        catch (IOException e) {
+            e.printStackTrace();
+            return null; // Failed
+        }
+        catch (ClassNotFoundException cnfe) {
+            cnfe.printStackTrace();
+            return null; // Class not found
+        }
+        return (TObjectType)oRes;
+    }
+}
@@ -15,9 +15,14 @@ import java.util.zip.GZIPOutputStream;
 
 /** A class that uses memory for storage, while compressing the data of stored
  *  objects to optimize memory use.
+ *  <p><b>Note:</b> Objects are keyed by the hash code of their full name, so
+ *  objects with colliding names overwrite each other.</p>
  *
  * @author pckid
+ * @deprecated Use {@link INSECTOffHeapDB}, which keeps the data out of the
+ * heap, is bounded and uses collision-safe keys.
  */
+@Deprecated
 public class INSECTCompressedMemoryDB<TObjectType extends Serializable> 
         extends INSECTMemoryDB implements Serializable {
     
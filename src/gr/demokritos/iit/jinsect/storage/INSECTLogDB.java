@@ -0,0 +1,632 @@
+/*
+ * Under LGPL
+ * by George Giannakopoulos
+ */
+
+package gr.demokritos.iit.jinsect.storage;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FilenameFilter;
+import java.io.IOException;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.io.RandomAccessFile;
+import java.io.Serializable;
+import java.nio.ByteBuffer;
+import java.nio.channels.ClosedByInterruptException;
+import java.nio.channels.ClosedChannelException;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.zip.CRC32;
+
+/** A log-structured database. Saved objects are appended, serialized, to
+ * segment files and an in-memory index maps every (category, name) pair to
+ * the latest record of the object. Saving an object thus costs a single
+ * append, however large the database, which suits frequently checkpointed
+ * models. Deletions append tombstone records.
+ * <p>Every record carries a CRC32 checksum. On opening, the index is rebuilt
+ * by scanning the segments in order; a segment is truncated at its first
+ * incomplete or corrupt record (e.g. after a crash during an append).</p>
+ * <p>Records replaced by later versions are reclaimed by a background
+ * compactor, which copies the live records of mostly stale segments to the
+ * active segment and deletes the old segments. Tombstones are dropped once
+ * no older segment holds a record of the deleted object.</p>
+ *
+ * @author ggianna
+ */
+public class INSECTLogDB<TObjectType extends Serializable> extends INSECTDB {
+    /** The suffix of segment files. */
+    public static final String SEGMENT_SUFFIX = ".seg";
+
+    private static final int RECORD_MAGIC = 0x4A4C4F47; // "JLOG"
+    private static final byte TYPE_PUT = 1;
+    private static final byte TYPE_DELETE = 2;
+    /** Magic, type, key length and data length. */
+    private static final int HEADER_SIZE = 4 + 1 + 4 + 4;
+    /** The CRC32 value, following key and data. */
+    private static final int TRAILER_SIZE = 8;
+
+    protected String Prefix;
+    protected String BaseDir;
+    /** The size from which a new segment is started. */
+    public long SegmentSize = 64L << 20;
+    /** If true, every append is forced to disk before the save returns. */
+    public boolean SyncWrites = true;
+    /** Segments with less than this fraction of live bytes are compacted. */
+    public double CompactionThreshold = 0.5;
+
+    /** The location of the latest record of every object, per category. */
+    protected ConcurrentHashMap<String,ConcurrentHashMap<String,Location>> Index;
+    /** The open segments, by number. */
+    protected ConcurrentSkipListMap<Integer,FileChannel> Segments;
+    /** The bytes of live (indexed) records of every segment. */
+    protected ConcurrentHashMap<Integer,AtomicLong> LiveBytes;
+    /** The number of the segment appended to. Changed while holding the
+     * write lock. */
+    protected volatile int ActiveSegment;
+    /** Serializes appends and index updates. */
+    protected final Object WriteLock = new Object();
+    /** Serializes compactions. */
+    protected final Object CompactionLock = new Object();
+    /** The background compactor. */
+    protected ScheduledExecutorService Compactor;
+
+    /** Opens (or creates) a log database, compacting it every minute.
+     *@param sPrefix The prefix of the segment file names.
+     *@param sBaseDir The directory of the segment files.
+     */
+    public INSECTLogDB(String sPrefix, String sBaseDir) {
+        this(sPrefix, sBaseDir, 60);
+    }
+
+    /** Opens (or creates) a log database, rebuilding its index from the
+     * segment files.
+     *@param sPrefix The prefix of the segment file names.
+     *@param sBaseDir The directory of the segment files.
+     *@param iCompactionIntervalSecs The interval between compaction checks,
+     * in seconds. Zero or less disables background compaction.
+     */
+    public INSECTLogDB(String sPrefix, String sBaseDir,
+            int iCompactionIntervalSecs) {
+        Prefix = (sPrefix == null) ? "" : sPrefix;
+        BaseDir = (sBaseDir == null) ? "./" : sBaseDir;
+        Index = new ConcurrentHashMap<String, ConcurrentHashMap<String, Location>>();
+        Segments = new ConcurrentSkipListMap<Integer, FileChannel>();
+        LiveBytes = new ConcurrentHashMap<Integer, AtomicLong>();
+        new File(BaseDir).mkdirs();
+
+        try {
+            recover();
+        } catch (IOException ioe) {
+            throw new IllegalStateException("Could not open log database in " +
+                    BaseDir, ioe);
+        }
+
+        if (iCompactionIntervalSecs > 0) {
+            Compactor = Executors.newSingleThreadScheduledExecutor(
+                    new ThreadFactory() {
+                public Thread newThread(Runnable r) {
+                    Thread tRes = new Thread(r, "INSECTLogDB compactor");
+                    tRes.setDaemon(true);
+                    return tRes;
+                }
+            });
+            Compactor.scheduleWithFixedDelay(new Runnable() {
+                public void run() {
+                    compact();
+                }
+            }, iCompactionIntervalSecs, iCompactionIntervalSecs,
+                    TimeUnit.SECONDS);
+        }
+    }
+
+    /** The location of a record. */
+    protected static final class Location {
+        final int Segment;
+        final long Offset;
+        final int Length;
+
+        Location(int iSegment, long lOffset, int iLength) {
+            Segment = iSegment;
+            Offset = lOffset;
+            Length = iLength;
+        }
+    }
+
+    /** A record, as read from a segment. */
+    protected static final class Record {
+        byte Type;
+        String Category;
+        String Name;
+        byte[] Data;
+        int Length;
+    }
+
+    private File getSegmentFile(int iSegment) {
+        return new File(BaseDir, Prefix + String.format("%08d", iSegment) +
+                SEGMENT_SUFFIX);
+    }
+
+    private FileChannel openSegment(int iSegment) throws IOException {
+        FileChannel fcRes = new RandomAccessFile(getSegmentFile(iSegment),
+                "rw").getChannel();
+        Segments.put(iSegment, fcRes);
+        LiveBytes.putIfAbsent(iSegment, new AtomicLong());
+        return fcRes;
+    }
+
+    /** Returns the channel of a segment, reopening it if it was closed by
+     * the interruption of a thread using it.
+     *@return The channel, or null if the segment has been deleted.
+     */
+    private FileChannel getChannel(int iSegment) throws IOException {
+        FileChannel fcRes = Segments.get(iSegment);
+        if (fcRes == null || fcRes.isOpen())
+            return fcRes;
+        synchronized (WriteLock) {
+            fcRes = Segments.get(iSegment);
+            if (fcRes != null && !fcRes.isOpen())
+                fcRes = openSegment(iSegment);
+            return fcRes;
+        }
+    }
+
+    /** Scans all segments, in order, rebuilding the index. */
+    private void recover() throws IOException {
+        String[] saFiles = new File(BaseDir).list(new FilenameFilter() {
+            public boolean accept(File dir, String name) {
+                return name.startsWith(Prefix) && name.endsWith(SEGMENT_SUFFIX) &&
+                        name.substring(Prefix.length(), name.length() -
+                        SEGMENT_SUFFIX.length()).matches("\\d+");
+            }
+        });
+        TreeMap<Integer,File> tmSegments = new TreeMap<Integer, File>();
+        for (String sFile : saFiles)
+            tmSegments.put(Integer.valueOf(sFile.substring(Prefix.length(),
+                    sFile.length() - SEGMENT_SUFFIX.length())), null);
+
+        for (int iSegment : tmSegments.keySet()) {
+            FileChannel fcSeg = openSegment(iSegment);
+            long lOffset = 0;
+            long lSize = fcSeg.size();
+            while (lOffset < lSize) {
+                Record rCur = readRecord(fcSeg, lOffset);
+                if (rCur == null) {
+                    System.err.println("Corrupt or incomplete record in " +
+                            getSegmentFile(iSegment) + " at offset " + lOffset +
+                            ". Truncating.");
+                    fcSeg.truncate(lOffset);
+                    break;
+                }
+                if (rCur.Type == TYPE_PUT)
+                    indexRecord(rCur.Category, rCur.Name,
+                            new Location(iSegment, lOffset, rCur.Length));
+                else
+                    unindexRecord(rCur.Category, rCur.Name);
+                lOffset += rCur.Length;
+            }
+        }
+
+        ActiveSegment = tmSegments.isEmpty() ? 0 : tmSegments.lastKey();
+        if (!Segments.containsKey(ActiveSegment))
+            openSegment(ActiveSegment);
+    }
+
+    /** Reads and verifies the record at a given offset.
+     *@return The record or null if it is incomplete or corrupt.
+     */
+    private static Record readRecord(FileChannel fcIn, long lOffset)
+            throws IOException {
+        ByteBuffer bbHeader = ByteBuffer.allocate(HEADER_SIZE);
+        if (!readFully(fcIn, bbHeader, lOffset))
+            return null;
+        bbHeader.flip();
+        if (bbHeader.getInt() != RECORD_MAGIC)
+            return null;
+        byte bType = bbHeader.get();
+        int iKeyLen = bbHeader.getInt();
+        int iDataLen = bbHeader.getInt();
+        if ((bType != TYPE_PUT && bType != TYPE_DELETE) || iKeyLen < 0 ||
+                iDataLen < 0 || (long)iKeyLen + iDataLen > Integer.MAX_VALUE -
+                HEADER_SIZE - TRAILER_SIZE ||
+                lOffset + HEADER_SIZE + iKeyLen + iDataLen + TRAILER_SIZE >
+                fcIn.size())
+            return null;
+
+        ByteBuffer bbBody = ByteBuffer.allocate(iKeyLen + iDataLen +
+                TRAILER_SIZE);
+        if (!readFully(fcIn, bbBody, lOffset + HEADER_SIZE))
+            return null;
+        byte[] baBody = bbBody.array();
+        CRC32 crc = new CRC32();
+        crc.update(bbHeader.array(), 4, HEADER_SIZE - 4);
+        crc.update(baBody, 0, iKeyLen + iDataLen);
+        bbBody.position(iKeyLen + iDataLen);
+        if (bbBody.getLong() != crc.getValue())
+            return null;
+
+        Record rRes = new Record();
+        rRes.Type = bType;
+        String sKey = new String(baBody, 0, iKeyLen, "UTF-8");
+        int iSep = sKey.indexOf('\u0000');
+        rRes.Category = sKey.substring(0, iSep);
+        rRes.Name = sKey.substring(iSep + 1);
+        rRes.Data = Arrays.copyOfRange(baBody, iKeyLen, iKeyLen + iDataLen);
+        rRes.Length = HEADER_SIZE + iKeyLen + iDataLen + TRAILER_SIZE;
+        return rRes;
+    }
+
+    private static boolean readFully(FileChannel fcIn, ByteBuffer bbTarget,
+            long lOffset) throws IOException {
+        while (bbTarget.hasRemaining()) {
+            int iRead = fcIn.read(bbTarget, lOffset + bbTarget.position());
+            if (iRead < 0)
+                return false;
+        }
+        return true;
+    }
+
+    /** Adds the keys (category and name, as in records) of the objects
+     * saved in a segment to a given set. Only record headers and keys are
+     * read; the scan stops at the first invalid header. */
+    private static void addSavedKeys(FileChannel fcSeg, Set<String> sKeys)
+            throws IOException {
+        long lSize = fcSeg.size();
+        long lOffset = 0;
+        ByteBuffer bbHeader = ByteBuffer.allocate(HEADER_SIZE);
+        while (lOffset + HEADER_SIZE <= lSize) {
+            bbHeader.clear();
+            if (!readFully(fcSeg, bbHeader, lOffset))
+                break;
+            bbHeader.flip();
+            if (bbHeader.getInt() != RECORD_MAGIC)
+                break;
+            byte bType = bbHeader.get();
+            int iKeyLen = bbHeader.getInt();
+            int iDataLen = bbHeader.getInt();
+            if (iKeyLen < 0 || iDataLen < 0)
+                break;
+            if (bType == TYPE_PUT) {
+                ByteBuffer bbKey = ByteBuffer.allocate(iKeyLen);
+                if (!readFully(fcSeg, bbKey, lOffset + HEADER_SIZE))
+                    break;
+                sKeys.add(new String(bbKey.array(), "UTF-8"));
+            }
+            lOffset += HEADER_SIZE + (long)iKeyLen + iDataLen + TRAILER_SIZE;
+        }
+    }
+
+    /** Builds a record. */
+    private static ByteBuffer createRecord(byte bType, String sCategory,
+            String sName, byte[] baData) throws IOException {
+        byte[] baKey = (sCategory + '\u0000' + sName).getBytes("UTF-8");
+        ByteBuffer bbRes = ByteBuffer.allocate(HEADER_SIZE + baKey.length +
+                baData.length + TRAILER_SIZE);
+        bbRes.putInt(RECORD_MAGIC);
+        bbRes.put(bType);
+        bbRes.putInt(baKey.length);
+        bbRes.putInt(baData.length);
+        bbRes.put(baKey);
+        bbRes.put(baData);
+        CRC32 crc = new CRC32();
+        crc.update(bbRes.array(), 4, bbRes.position() - 4);
+        bbRes.putLong(crc.getValue());
+        bbRes.flip();
+        return bbRes;
+    }
+
+    /** Points the index to a new record, updating the live byte counts.
+     * Called while holding the write lock (or during recovery). */
+    private void indexRecord(String sCategory, String sName, Location lNew) {
+        ConcurrentHashMap<String,Location> mNames = Index.get(sCategory);
+        if (mNames == null) {
+            ConcurrentHashMap<String,Location> mNew =
+                    new ConcurrentHashMap<String, Location>();
+            mNames = Index.putIfAbsent(sCategory, mNew);
+            if (mNames == null)
+                mNames = mNew;
+        }
+        Location lOld = mNames.put(sName, lNew);
+        if (lOld != null)
+            LiveBytes.get(lOld.Segment).addAndGet(-lOld.Length);
+        LiveBytes.get(lNew.Segment).addAndGet(lNew.Length);
+    }
+
+    private void unindexRecord(String sCategory, String sName) {
+        ConcurrentHashMap<String,Location> mNames = Index.get(sCategory);
+        if (mNames == null)
+            return;
+        Location lOld = mNames.remove(sName);
+        if (lOld != null)
+            LiveBytes.get(lOld.Segment).addAndGet(-lOld.Length);
+    }
+
+    private Location getLocation(String sObjectName, String sObjectCategory) {
+        ConcurrentHashMap<String,Location> mNames = Index.get(sObjectCategory);
+        return (mNames == null) ? null : mNames.get(sObjectName);
+    }
+
+    /** Appends a record to the active segment, starting a new segment if
+     * the active one is full. Called while holding the write lock.
+     *@return The location of the appended record.
+     */
+    private Location append(ByteBuffer bbRecord) throws IOException {
+        FileChannel fcActive = getChannel(ActiveSegment);
+        if (fcActive.size() >= SegmentSize) {
+            fcActive.force(false);
+            fcActive = openSegment(++ActiveSegment);
+        }
+        long lOffset = fcActive.size();
+        int iLength = bbRecord.remaining();
+        while (bbRecord.hasRemaining())
+            fcActive.write(bbRecord, lOffset + bbRecord.position());
+        if (SyncWrites)
+            fcActive.force(false);
+        return new Location(ActiveSegment, lOffset, iLength);
+    }
+
+    @Override
+    public void saveObject(Serializable oObj, String sObjectName,
+            String sObjectCategory) {
+        try {
+            // Serialize and build the record out of the lock
+            ByteArrayOutputStream baosData = new ByteArrayOutputStream();
+            ObjectOutputStream oOut = new ObjectOutputStream(baosData);
+            oOut.writeObject(oObj);
+            oOut.close();
+            ByteBuffer bbRecord = createRecord(TYPE_PUT, sObjectCategory,
+                    sObjectName, baosData.toByteArray());
+
+            synchronized (WriteLock) {
+                indexRecord(sObjectCategory, sObjectName, append(bbRecord));
+            }
+        }
+        catch (IOException e) {
+            e.printStackTrace(System.err);
+        }
+    }
+
+    @Override
+    public TObjectType loadObject(String sObjectName, String sObjectCategory) {
+        // Retry once, in case the record was moved by the compactor
+        for (int iTry = 0; iTry < 2; iTry++) {
+            Location lCur = getLocation(sObjectName, sObjectCategory);
+            if (lCur == null)
+                return null;
+            try {
+                FileChannel fcSeg = getChannel(lCur.Segment);
+                if (fcSeg == null)
+                    continue;
+                Record rCur = readRecord(fcSeg, lCur.Offset);
+                if (rCur == null) {
+                    System.err.println("Corrupt record for object " + sObjectName +
+                            " of category " + sObjectCategory);
+                    return null;
+                }
+                ObjectInputStream oIn = new ObjectInputStream(
+                        new ByteArrayInputStream(rCur.Data));
+                return (TObjectType)oIn.readObject();
+            }
+            catch (ClosedByInterruptException cbie) {
+                System.err.println("Interrupted while loading object " +
+                        sObjectName + " of category " + sObjectCategory);
+                return null;
+            }
+            catch (ClosedChannelException cce) {
+                // Compacted meanwhile
+            }
+            catch (Exception e) {
+                e.printStackTrace(System.err);
+                return null;
+            }
+        }
+        return null;
+    }
+
+    @Override
+    public void deleteObject(String sObjectName, String sObjectCategory) {
+        if (!existsObject(sObjectName, sObjectCategory))
+            return;
+        try {
+            ByteBuffer bbRecord = createRecord(TYPE_DELETE, sObjectCategory,
+                    sObjectName, new byte[0]);
+            synchronized (WriteLock) {
+                append(bbRecord);
+                unindexRecord(sObjectCategory, sObjectName);
+            }
+        }
+        catch (IOException e) {
+            e.printStackTrace(System.err);
+        }
+    }
+
+    @Override
+    public boolean existsObject(String sObjectName, String sObjectCategory) {
+        return getLocation(sObjectName, sObjectCategory) != null;
+    }
+
+    @Override
+    public String[] getObjectList(String sObjectCategory) {
+        Map<String,Location> mNames = Index.get(sObjectCategory);
+        if (mNames == null)
+            return new String[0];
+        return mNames.keySet().toArray(new String[0]);
+    }
+
+    /** Compacts all inactive segments whose live bytes are less than
+     * {@link #CompactionThreshold} of their size. Normally called by the
+     * background compactor, but can be called directly.
+     */
+    public void compact() {
+        synchronized (CompactionLock) {
+            // Segments only become inactive, so the active segment at this
+            // point is a safe bound
+            int iActive;
+            synchronized (WriteLock) {
+                iActive = ActiveSegment;
+            }
+            for (int iSegment : new ArrayList<Integer>(Segments.keySet())) {
+                if (iSegment >= iActive)
+                    continue;
+                try {
+                    FileChannel fcSeg = getChannel(iSegment);
+                    if (fcSeg == null)
+                        continue;
+                    long lSize = fcSeg.size();
+                    if (lSize > 0 && LiveBytes.get(iSegment).get() >=
+                            CompactionThreshold * lSize)
+                        continue;
+                    compactSegment(iSegment, fcSeg, lSize);
+                }
+                catch (IOException ioe) {
+                    System.err.println("Could not compact segment " + iSegment +
+                            ". Cause:");
+                    ioe.printStackTrace(System.err);
+                }
+            }
+        }
+    }
+
+    /** Moves the live records of a segment to the active segment and deletes
+     * the segment. Tombstones are moved only while an older segment holds a
+     * record of the deleted object. Called while holding the compaction lock,
+     * so older segments do not change meanwhile.
+     */
+    private void compactSegment(int iSegment, FileChannel fcSeg, long lSize)
+            throws IOException {
+        // The keys saved in older segments, read on the first tombstone
+        Set<String> sOlderKeys = null;
+        long lOffset = 0;
+        while (lOffset < lSize) {
+            Record rCur = readRecord(fcSeg, lOffset);
+            if (rCur == null)
+                break;
+            if (rCur.Type == TYPE_DELETE && sOlderKeys == null) {
+                sOlderKeys = new HashSet<String>();
+                for (int iOlder : Segments.headMap(iSegment).keySet()) {
+                    FileChannel fcOlder = getChannel(iOlder);
+                    if (fcOlder != null)
+                        addSavedKeys(fcOlder, sOlderKeys);
+                }
+            }
+            synchronized (WriteLock) {
+                if (rCur.Type == TYPE_PUT) {
+                    Location lCur = getLocation(rCur.Name, rCur.Category);
+                    // Copy only if still the latest version
+                    if (lCur != null && lCur.Segment == iSegment &&
+                            lCur.Offset == lOffset)
+                        indexRecord(rCur.Category, rCur.Name, append(
+                                createRecord(TYPE_PUT, rCur.Category, rCur.Name,
+                                rCur.Data)));
+                }
+                else
+                // Keep tombstones that hide records of older segments
+                if (sOlderKeys.contains(rCur.Category + '\u0000' + rCur.Name) &&
+                        !existsObject(rCur.Name, rCur.Category))
+                    append(createRecord(TYPE_DELETE, rCur.Category, rCur.Name,
+                            rCur.Data));
+            }
+            lOffset += rCur.Length;
+        }
+
+        synchronized (WriteLock) {
+            getChannel(ActiveSegment).force(false);
+            Segments.remove(iSegment);
+            LiveBytes.remove(iSegment);
+            fcSeg.close();
+            if (!getSegmentFile(iSegment).delete())
+                System.err.println("Could not delete segment " +
+                        getSegmentFile(iSegment));
+        }
+    }
+
+    /** Returns the number of segment files.
+     *@return The segment count.
+     */
+    public int getSegmentCount() {
+        return Segments.size();
+    }
+
+    /** Stops the compactor, forces all data to disk and closes the segment
+     * files. The database cannot be used afterwards. */
+    @Override
+    public void finalizeDB() {
+        // Do not interrupt the compactor: that would close the channels it uses
+        if (Compactor != null)
+            Compactor.shutdown();
+        // Wait for a running compaction to complete
+        synchronized (CompactionLock) {
+            synchronized (WriteLock) {
+                List<FileChannel> lChannels = new ArrayList<FileChannel>(
+                        Segments.values());
+                Segments.clear();
+                for (FileChannel fcCur : lChannels)
+                    try {
+                        fcCur.force(true);
+                        fcCur.close();
+                    } catch (IOException ioe) {
+                        ioe.printStackTrace(System.err);
+                    }
+            }
+        }
+    }
+
+    public String getObjDataToString(Object oObject) {
+        ByteArrayOutputStream bos = new ByteArrayOutputStream();
+
+        try {
+            ObjectOutputStream os = new ObjectOutputStream(bos);
+            os.writeObject(oObject);
+        }
+        catch (IOException e) {
+            e.printStackTrace();
+            return null; // Failed
+        }
+
+        return bos.toString();
+    }
+
+    public TObjectType getStringToObjData(String sData) {
+        ByteArrayOutputStream baos = new ByteArrayOutputStream();
+        try {
+            ObjectOutputStream bos = new ObjectOutputStream(baos);
+            bos.writeBytes(sData);
+        }
+        catch (IOException e) {
+            e.printStackTrace();
+            return null; // Failed
+        }
+
+        ByteArrayInputStream bin = new ByteArrayInputStream(baos.toByteArray());
+        ObjectInputStream ois;
+        Object oRes;
+        try {
+            ois = new ObjectInputStream(bin);
+            oRes = ois.readObject();
+        }
+        catch (IOException e) {
+            e.printStackTrace();
+            return null; // Failed
+        }
+        catch (ClassNotFoundException cnfe) {
+            cnfe.printStackTrace();
+            return null; // Class not found
+        }
+        return (TObjectType)oRes;
+    }
+}
@@ -0,0 +1,543 @@
+/* Under the terms of LGPL
+ */
+
+package gr.demokritos.iit.jinsect.storage;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.io.Serializable;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.zip.DataFormatException;
+import java.util.zip.Deflater;
+import java.util.zip.Inflater;
+
+/** A memory cache that stores serialized (and optionally compressed) objects
+ * outside the Java heap, in direct {@link ByteBuffer} slabs. Large model
+ * repositories can thus be kept in memory without burdening the garbage
+ * collector.
+ * <p>The cache is bounded: when a new object does not fit, the least
+ * recently used objects are evicted. It is split into independently locked
+ * shards, so that objects can be saved and loaded concurrently. Objects are
+ * identified by both their name and category.</p>
+ * <p>Every shard allocates, as needed, slabs of fixed size blocks. An object
+ * occupies as many (not necessarily consecutive) blocks as its data requires,
+ * so freed space can always be reused.</p>
+ *
+ * @author ggianna
+ */
+public class INSECTOffHeapDB<TObjectType extends Serializable> extends INSECTDB {
+    /** The codecs used for the object data. */
+    public static enum Codec {
+        /** Plain serialized data. Fastest, but uses the most memory. */
+        NONE,
+        /** Deflate compression at its fastest level, without the headers and
+         * checksums of GZIP. */
+        DEFLATE_FAST
+    }
+
+    /** The default block size, in bytes. */
+    public static final int DEFAULT_BLOCK_SIZE = 1024;
+    /** The default slab size, in bytes. */
+    public static final int DEFAULT_SLAB_SIZE = 16 << 20;
+
+    protected Codec DataCodec;
+    protected int BlockSize;
+    protected Shard[] Shards;
+
+    private final AtomicLong Hits = new AtomicLong();
+    private final AtomicLong Misses = new AtomicLong();
+    private final AtomicLong Puts = new AtomicLong();
+    private final AtomicLong Evictions = new AtomicLong();
+    private final AtomicLong Rejections = new AtomicLong();
+
+    private static final ThreadLocal<Deflater> Deflaters =
+            new ThreadLocal<Deflater>() {
+        @Override
+        protected Deflater initialValue() {
+            return new Deflater(Deflater.BEST_SPEED, true);
+        }
+    };
+    private static final ThreadLocal<Inflater> Inflaters =
+            new ThreadLocal<Inflater>() {
+        @Override
+        protected Inflater initialValue() {
+            return new Inflater(true);
+        }
+    };
+
+    /** Creates a cache of a given capacity, using fast compression and as
+     * many shards as the available processors (times four).
+     *@param lCapacity The maximum off-heap memory to use, in bytes.
+     */
+    public INSECTOffHeapDB(long lCapacity) {
+        this(lCapacity, Codec.DEFLATE_FAST,
+                Runtime.getRuntime().availableProcessors() * 4,
+                DEFAULT_BLOCK_SIZE);
+    }
+
+    /** Creates a cache.
+     *@param lCapacity The maximum off-heap memory to use, in bytes. It is
+     * divided evenly among the shards.
+     *@param cCodec The codec of the object data.
+     *@param iShards The number of shards, i.e. of concurrent accesses.
+     *@param iBlockSize The size of the memory blocks, in bytes.
+     */
+    public INSECTOffHeapDB(long lCapacity, Codec cCodec, int iShards,
+            int iBlockSize) {
+        DataCodec = cCodec;
+        BlockSize = iBlockSize;
+        iShards = Math.max(1, iShards);
+        long lShardBlocks = lCapacity / iShards / iBlockSize;
+        if (lShardBlocks < 1)
+            throw new IllegalArgumentException("Capacity " + lCapacity +
+                    " is too small for " + iShards + " shards of " +
+                    iBlockSize + " byte blocks.");
+        if (lShardBlocks > Integer.MAX_VALUE)
+            throw new IllegalArgumentException("Capacity " + lCapacity +
+                    " is too large for " + iShards + " shards of " +
+                    iBlockSize + " byte blocks.");
+        int iBlocksPerSlab = Math.max(1, DEFAULT_SLAB_SIZE / iBlockSize);
+        Shards = new Shard[iShards];
+        for (int iCnt = 0; iCnt < iShards; iCnt++)
+            Shards[iCnt] = new Shard((int)lShardBlocks,
+                    (int)Math.min(iBlocksPerSlab, lShardBlocks), iBlockSize);
+    }
+
+    /** The key of an object: its category and name. */
+    protected static final class Key {
+        final String Category;
+        final String Name;
+
+        Key(String sCategory, String sName) {
+            Category = sCategory;
+            Name = sName;
+        }
+
+        @Override
+        public boolean equals(Object oOther) {
+            if (!(oOther instanceof Key))
+                return false;
+            Key kOther = (Key)oOther;
+            return Name.equals(kOther.Name) && Category.equals(kOther.Category);
+        }
+
+        @Override
+        public int hashCode() {
+            return 31 * Category.hashCode() + Name.hashCode();
+        }
+    }
+
+    /** The blocks holding the data of an object. */
+    protected static final class Entry {
+        final int[] Blocks;
+        final int Length;
+
+        Entry(int[] iaBlocks, int iLength) {
+            Blocks = iaBlocks;
+            Length = iLength;
+        }
+    }
+
+    /** A part of the cache, with its own memory and lock. All methods must be
+     * called while holding the lock of the shard. */
+    protected static final class Shard {
+        /** The objects, in access order. */
+        final LinkedHashMap<Key,Entry> Entries =
+                new LinkedHashMap<Key, Entry>(16, 0.75f, true);
+        final List<ByteBuffer> Slabs = new ArrayList<ByteBuffer>();
+        final int MaxBlocks;
+        final int BlocksPerSlab;
+        final int BlockSize;
+        /** The stack of free blocks of the allocated slabs. Its length is
+         * always the number of allocated blocks. */
+        int[] FreeBlocks = new int[0];
+        int FreeCount = 0;
+        long UsedBytes = 0;
+
+        Shard(int iMaxBlocks, int iBlocksPerSlab, int iBlockSize) {
+            MaxBlocks = iMaxBlocks;
+            BlocksPerSlab = iBlocksPerSlab;
+            BlockSize = iBlockSize;
+        }
+
+        /** Allocates a new slab, if the capacity allows it.
+         *@return True if a slab was allocated. */
+        boolean addSlab() {
+            int iAllocated = Slabs.size() * BlocksPerSlab;
+            int iNew = Math.min(BlocksPerSlab, MaxBlocks - iAllocated);
+            if (iNew <= 0)
+                return false;
+            Slabs.add(ByteBuffer.allocateDirect(iNew * BlockSize));
+            // Every owned block may be freed at once, so the stack must be
+            // able to hold all of them
+            if (FreeBlocks.length < iAllocated + iNew)
+                FreeBlocks = Arrays.copyOf(FreeBlocks, iAllocated + iNew);
+            for (int iCnt = iAllocated + iNew - 1; iCnt >= iAllocated; iCnt--)
+                FreeBlocks[FreeCount++] = iCnt;
+            return true;
+        }
+
+        /** Stores data, replacing the data of the same key and evicting least
+         * recently used objects as needed.
+         *@return The number of evicted objects, or -1 if the data exceed the
+         * capacity of the shard. In that case the data of the same key, if
+         * any, are kept. */
+        int put(Key kKey, byte[] baData, int iLength) {
+            int iNeeded = Math.max(1, (iLength + BlockSize - 1) / BlockSize);
+            if (iNeeded > MaxBlocks)
+                return -1;
+            remove(kKey);
+            int iEvicted = 0;
+            while (FreeCount < iNeeded && !addSlab()) {
+                Iterator<Map.Entry<Key,Entry>> iEldest =
+                        Entries.entrySet().iterator();
+                Entry eEldest = iEldest.next().getValue();
+                iEldest.remove();
+                free(eEldest);
+                iEvicted++;
+            }
+
+            int[] iaBlocks = new int[iNeeded];
+            for (int iCnt = 0; iCnt < iNeeded; iCnt++) {
+                iaBlocks[iCnt] = FreeBlocks[--FreeCount];
+                int iOffset = iCnt * BlockSize;
+                ByteBuffer bbBlock = block(iaBlocks[iCnt]);
+                bbBlock.put(baData, iOffset, Math.min(BlockSize,
+                        iLength - iOffset));
+            }
+            Entries.put(kKey, new Entry(iaBlocks, iLength));
+            UsedBytes += iLength;
+            return iEvicted;
+        }
+
+        /** Copies the data of an object to the heap.
+         *@return The data, or null if the object is not cached. */
+        byte[] get(Key kKey) {
+            Entry eCur = Entries.get(kKey);
+            if (eCur == null)
+                return null;
+            byte[] baRes = new byte[eCur.Length];
+            for (int iCnt = 0; iCnt < eCur.Blocks.length; iCnt++) {
+                int iOffset = iCnt * BlockSize;
+                block(eCur.Blocks[iCnt]).get(baRes, iOffset,
+                        Math.min(BlockSize, eCur.Length - iOffset));
+            }
+            return baRes;
+        }
+
+        boolean remove(Key kKey) {
+            Entry eOld = Entries.remove(kKey);
+            if (eOld == null)
+                return false;
+            free(eOld);
+            return true;
+        }
+
+        void free(Entry eOld) {
+            for (int iBlock : eOld.Blocks)
+                FreeBlocks[FreeCount++] = iBlock;
+            UsedBytes -= eOld.Length;
+        }
+
+        /** Returns the slab of a block, positioned at the start of the block.
+         */
+        ByteBuffer block(int iBlock) {
+            ByteBuffer bbSlab = Slabs.get(iBlock / BlocksPerSlab);
+            bbSlab.clear();
+            bbSlab.position((iBlock % BlocksPerSlab) * BlockSize);
+            return bbSlab;
+        }
+
+        void clear() {
+            Entries.clear();
+            Slabs.clear();
+            FreeBlocks = new int[0];
+            FreeCount = 0;
+            UsedBytes = 0;
+        }
+    }
+
+    private Shard getShard(Key kKey) {
+        int iHash = kKey.hashCode();
+        iHash ^= (iHash >>> 16);
+        return Shards[(iHash & 0x7fffffff) % Shards.length];
+    }
+
+    @Override
+    public void saveObject(Serializable oObj, String sObjectName,
+            String sObjectCategory) {
+        byte[] baData;
+        try {
+            ByteArrayOutputStream bOut = new ByteArrayOutputStream();
+            ObjectOutputStream oOut = new ObjectOutputStream(bOut);
+            oOut.writeObject(oObj);
+            oOut.close();
+            baData = encode(bOut.toByteArray());
+        } catch (IOException e) {
+            System.err.println("Cannot save object to memory. Reason:");
+            e.printStackTrace(System.err);
+            return;
+        }
+
+        Key kKey = new Key(sObjectCategory, sObjectName);
+        Shard sShard = getShard(kKey);
+        int iEvicted;
+        synchronized (sShard) {
+            iEvicted = sShard.put(kKey, baData, baData.length);
+        }
+        if (iEvicted >= 0) {
+            Puts.incrementAndGet();
+            Evictions.addAndGet(iEvicted);
+        }
+        else {
+            Rejections.incrementAndGet();
+            System.err.println("Object " + sObjectName + " of category " +
+                    sObjectCategory + " (" + baData.length + " bytes) " +
+                    "exceeds the cache shard capacity. Not cached; any " +
+                    "previously cached version is kept.");
+        }
+    }
+
+    @Override
+    public TObjectType loadObject(String sObjectName, String sObjectCategory) {
+        Key kKey = new Key(sObjectCategory, sObjectName);
+        Shard sShard = getShard(kKey);
+        byte[] baData;
+        synchronized (sShard) {
+            baData = sShard.get(kKey);
+        }
+        if (baData == null) {
+            Misses.incrementAndGet();
+            return null;
+        }
+        Hits.incrementAndGet();
+
+        try {
+            ObjectInputStream oIn = new ObjectInputStream(
+                    new ByteArrayInputStream(decode(baData)));
+            return (TObjectType)oIn.readObject();
+        } catch (IOException iOException) {
+            System.err.println("Cannot load object from memory. Reason:");
+            iOException.printStackTrace(System.err);
+        } catch (ClassNotFoundException classNotFoundException) {
+            System.err.println("Cannot load object from memory. Reason:");
+            classNotFoundException.printStackTrace(System.err);
+        }
+        return null;
+    }
+
+    @Override
+    public void deleteObject(String sObjectName, String sObjectCategory) {
+        Key kKey = new Key(sObjectCategory, sObjectName);
+        Shard sShard = getShard(kKey);
+        synchronized (sShard) {
+            sShard.remove(kKey);
+        }
+    }
+
+    @Override
+    public boolean existsObject(String sObjectName, String sObjectCategory) {
+        Key kKey = new Key(sObjectCategory, sObjectName);
+        Shard sShard = getShard(kKey);
+        synchronized (sShard) {
+            // Do not affect the access order
+            return sShard.Entries.containsKey(kKey);
+        }
+    }
+
+    @Override
+    public String[] getObjectList(String sObjectCategory) {
+        List<String> lRes = new ArrayList<String>();
+        for (Shard sShard : Shards)
+            synchronized (sShard) {
+                for (Key kKey : sShard.Entries.keySet())
+                    if (kKey.Category.equals(sObjectCategory))
+                        lRes.add(kKey.Name);
+            }
+        return lRes.toArray(new String[lRes.size()]);
+    }
+
+    /** Compresses data, according to the codec of the cache. */
+    private byte[] encode(byte[] baData) {
+        if (DataCodec == Codec.NONE)
+            return baData;
+
+        Deflater dCur = Deflaters.get();
+        dCur.reset();
+        dCur.setInput(baData);
+        dCur.finish();
+        // Prefix the original length, to decompress in a single pass
+        byte[] baRes = new byte[4 + baData.length + (baData.length >> 6) + 64];
+        ByteBuffer.wrap(baRes).putInt(baData.length);
+        int iLen = 4;
+        while (!dCur.finished()) {
+            if (iLen == baRes.length)
+                baRes = Arrays.copyOf(baRes, baRes.length * 2);
+            iLen += dCur.deflate(baRes, iLen, baRes.length - iLen);
+        }
+        return Arrays.copyOf(baRes, iLen);
+    }
+
+    /** Decompresses data, according to the codec of the cache. */
+    private byte[] decode(byte[] baData) throws IOException {
+        if (DataCodec == Codec.NONE)
+            return baData;
+
+        Inflater iCur = Inflaters.get();
+        iCur.reset();
+        iCur.setInput(baData, 4, baData.length - 4);
+        byte[] baRes = new byte[ByteBuffer.wrap(baData).getInt()];
+        try {
+            int iLen = 0;
+            while (iLen < baRes.length && !iCur.finished()) {
+                int iRead = iCur.inflate(baRes, iLen, baRes.length - iLen);
+                if (iRead == 0 && (iCur.needsInput() || iCur.needsDictionary()))
+                    throw new IOException("Truncated compressed data.");
+                iLen += iRead;
+            }
+        } catch (DataFormatException dfe) {
+            throw new IOException("Corrupt compressed data: " +
+                    dfe.getMessage());
+        }
+        return baRes;
+    }
+
+    /** Removes all objects and releases the off-heap memory (once the slabs
+     * are garbage collected). */
+    @Override
+    public void finalizeDB() {
+        for (Shard sShard : Shards)
+            synchronized (sShard) {
+                sShard.clear();
+            }
+    }
+
+    /** Returns the number of successful loads. */
+    public long getHitCount() {
+        return Hits.get();
+    }
+
+    /** Returns the number of loads of objects not in the cache. */
+    public long getMissCount() {
+        return Misses.get();
+    }
+
+    /** Returns the fraction of loads that were successful.
+     *@return The hit rate, or zero if no object has been loaded.
+     */
+    public double getHitRate() {
+        long lHits = Hits.get();
+        long lTotal = lHits + Misses.get();
+        return (lTotal == 0) ? 0.0 : (double)lHits / lTotal;
+    }
+
+    /** Returns the number of saved objects. */
+    public long getPutCount() {
+        return Puts.get();
+    }
+
+    /** Returns the number of objects evicted to make space for others. */
+    public long getEvictionCount() {
+        return Evictions.get();
+    }
+
+    /** Returns the number of objects not saved because they were too large.
+     */
+    public long getRejectionCount() {
+        return Rejections.get();
+    }
+
+    /** Returns the number of cached objects. */
+    public int getObjectCount() {
+        int iRes = 0;
+        for (Shard sShard : Shards)
+            synchronized (sShard) {
+                iRes += sShard.Entries.size();
+            }
+        return iRes;
+    }
+
+    /** Returns the bytes of (encoded) object data in the cache. */
+    public long getUsedBytes() {
+        long lRes = 0;
+        for (Shard sShard : Shards)
+            synchronized (sShard) {
+                lRes += sShard.UsedBytes;
+            }
+        return lRes;
+    }
+
+    /** Returns the off-heap memory currently allocated, in bytes. */
+    public long getAllocatedBytes() {
+        long lRes = 0;
+        for (Shard sShard : Shards)
+            synchronized (sShard) {
+                for (ByteBuffer bbSlab : sShard.Slabs)
+                    lRes += bbSlab.capacity();
+            }
+        return lRes;
+    }
+
+    @Override
+    public String toString() {
+        return String.format("%s[objects=%d, used=%d, allocated=%d, " +
+                "hits=%d, misses=%d, puts=%d, evictions=%d, rejections=%d]",
+                getClass().getSimpleName(), getObjectCount(), getUsedBytes(),
+                getAllocatedBytes(), getHitCount(), getMissCount(),
+                getPutCount(), getEvictionCount(), getRejectionCount());
+    }
+
+    public String getObjDataToString(Object oObject) {
+        ByteArrayOutputStream bos = new ByteArrayOutputStream();
+
+        try {
+            ObjectOutputStream os = new ObjectOutputStream(bos);
+            os.writeObject(oObject);
+        }
+        catch (IOException e) {
+            e.printStackTrace();
+            return null; // Failed
+        }
+
+        return bos.toString();
+    }
+
+    public TObjectType getStringToObjData(String sData) {
+        ByteArrayOutputStream baos = new ByteArrayOutputStream();
+        try {
+            ObjectOutputStream bos = new ObjectOutputStream(baos);
+            bos.writeBytes(sData);
+        }
+        catch (IOException e) {
+            e.printStackTrace();
+            return null; // Failed
+        }
+
+        ByteArrayInputStream bin = new ByteArrayInputStream(baos.toByteArray());
+        ObjectInputStream ois;
+        Object oRes;
+        try {
+            ois = new ObjectInputStream(bin);
+            oRes = ois.readObject();
+        }
+        catch (IOException e) {
+            e.printStackTrace();
+            return null; // Failed
+        }
+        catch (ClassNotFoundException cnfe) {
+            cnfe.printStackTrace();
+            return null; // Class not found
+        }
+        return (TObjectType)oRes;
+    }
+}
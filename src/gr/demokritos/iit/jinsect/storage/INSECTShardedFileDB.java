@@ -0,0 +1,708 @@
+/*
+ * Under LGPL
+ * by George Giannakopoulos
+ */
+
+package gr.demokritos.iit.jinsect.storage;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.io.Serializable;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.WeakHashMap;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.GZIPOutputStream;
+
+/** A file database that uses a single (GZIP'ed) file per stored object, as
+ * {@link INSECTFileDB} does, but spreads the files over hashed
+ * subdirectories, so that no directory grows too large. File names are
+ * derived from the MD5 digest of the category and name of every object.
+ * <p>The names of the stored objects are kept in memory and persisted in a
+ * manifest, which is an append-only log replayed on opening. Thus
+ * {@link #existsObject(String, String)} and
+ * {@link #getObjectList(String)} do not touch the file system, and the
+ * latter returns the actual object names.</p>
+ * <p>Objects are serialized by the saving thread and written by a
+ * background writer thread, in batches. Every batch is synced to disk as a
+ * group: all object files first, then the manifest records. Objects are
+ * visible (and loadable) as soon as <code>saveObject</code> returns. Call
+ * {@link #flush()} to wait for pending writes and {@link #finalizeDB()} when
+ * done with the database. If the writer fails, the failure is rethrown
+ * (wrapped in an {@link IllegalStateException}) by every later save, delete,
+ * flush or finalization.</p>
+ *
+ * @author ggianna
+ */
+public class INSECTShardedFileDB<TObjectType extends Serializable>
+        extends INSECTFileDB<TObjectType> {
+    /** The suffix of the manifest file name. */
+    public static final String MANIFEST_NAME = "manifest.log";
+    private static final byte OP_ADD = '+';
+    private static final byte OP_DELETE = '-';
+
+    protected String Prefix;
+    protected String BaseDir;
+    /** The number of subdirectory levels. Each level has 256 subdirectories. */
+    protected int FanOutLevels;
+    /** The max number of operations written (and synced) as a group. */
+    public int BatchSize = 256;
+    /** If true, written files and manifest records are forced to disk
+     * before being considered stored. */
+    public boolean SyncWrites = true;
+    /** The number of threads used by {@link #loadObjects(Collection, String)}. */
+    public int LoadThreads = Runtime.getRuntime().availableProcessors();
+
+    /** The names of the stored objects, per category. */
+    protected transient ConcurrentHashMap<String,Set<String>> Names;
+    /** The serialized data of objects not yet written, by key. */
+    protected transient ConcurrentHashMap<String,byte[]> Pending;
+    /** The operations waiting for the writer. */
+    protected transient BlockingQueue<WriteOp> Queue;
+    /** The background writer thread, if running. */
+    protected transient Thread WriterThread;
+    /** The number of records in the manifest log. */
+    protected transient long ManifestRecords;
+    /** The failure that stopped the writer, if any. */
+    protected transient volatile Throwable WriterFailure;
+
+    /** The databases with a running writer, flushed by a single shutdown
+     * hook if the VM exits before their finalizeDB. */
+    private static final Set<INSECTShardedFileDB<?>> OpenDBs =
+            Collections.newSetFromMap(
+            new WeakHashMap<INSECTShardedFileDB<?>, Boolean>());
+    private static Thread ShutdownHook = null;
+
+    /** Creates a sharded file database with one level of subdirectories, in
+     * the current directory.
+     */
+    public INSECTShardedFileDB() {
+        this(null, null, 1);
+    }
+
+    /** Creates a sharded file database with one level of subdirectories.
+     *@param sPrefix The prefix of the file names of the database.
+     *@param sBaseDir The base directory of the database.
+     */
+    public INSECTShardedFileDB(String sPrefix, String sBaseDir) {
+        this(sPrefix, sBaseDir, 1);
+    }
+
+    /** Creates a sharded file database.
+     *@param sPrefix The prefix of the file names of the database.
+     *@param sBaseDir The base directory of the database.
+     *@param iFanOutLevels The number of subdirectory levels (1 or 2 are
+     * adequate for up to some millions of objects).
+     */
+    public INSECTShardedFileDB(String sPrefix, String sBaseDir,
+            int iFanOutLevels) {
+        super(sPrefix, sBaseDir);
+        Prefix = (sPrefix == null) ? "" : sPrefix;
+        BaseDir = (sBaseDir == null) ? "./" : sBaseDir;
+        FanOutLevels = Math.max(0, Math.min(iFanOutLevels, 4));
+        open();
+    }
+
+    /** Initializes the in-memory state and replays the manifest. */
+    private void open() {
+        Names = new ConcurrentHashMap<String, Set<String>>();
+        Pending = new ConcurrentHashMap<String, byte[]>();
+        Queue = new LinkedBlockingQueue<WriteOp>(Math.max(BatchSize, 1) * 4);
+        WriterThread = null;
+        WriterFailure = null;
+        new File(BaseDir).mkdirs();
+        try {
+            if (!replayManifest() || ManifestRecords > 2 * countObjects())
+                compactManifest();
+        } catch (IOException ioe) {
+            System.err.println("Could not read manifest of " + BaseDir + ". Cause:");
+            ioe.printStackTrace(System.err);
+        }
+    }
+
+    private File getManifestFile() {
+        return new File(BaseDir, Prefix + MANIFEST_NAME);
+    }
+
+    /** Reads the manifest log into the name index.
+     *@return False if the log ends with an incomplete record.
+     */
+    private boolean replayManifest() throws IOException {
+        ManifestRecords = 0;
+        File fManifest = getManifestFile();
+        if (!fManifest.exists())
+            return true;
+
+        DataInputStream disIn = new DataInputStream(new BufferedInputStream(
+                new FileInputStream(fManifest)));
+        try {
+            while (true) {
+                int iOp = disIn.read();
+                if (iOp == -1)
+                    return true;
+                String sCategory = disIn.readUTF();
+                String sName = disIn.readUTF();
+                if (iOp == OP_ADD)
+                    getNames(sCategory).add(sName);
+                else
+                    getNames(sCategory).remove(sName);
+                ManifestRecords++;
+            }
+        } catch (EOFException eofe) {
+            System.err.println("Incomplete manifest record in " + fManifest +
+                    ". Ignoring.");
+            return false;
+        }
+        finally {
+            disIn.close();
+        }
+    }
+
+    /** Rewrites the manifest to contain only the stored names. Should not be
+     * called while the writer is running. */
+    private void compactManifest() throws IOException {
+        File fManifest = getManifestFile();
+        File fTmp = new File(fManifest.getPath() + ".tmp");
+        FileOutputStream fosOut = new FileOutputStream(fTmp);
+        DataOutputStream dosOut = new DataOutputStream(
+                new BufferedOutputStream(fosOut));
+        long lRecords = 0;
+        try {
+            for (Map.Entry<String,Set<String>> eCur : Names.entrySet())
+                for (String sName : eCur.getValue()) {
+                    dosOut.writeByte(OP_ADD);
+                    dosOut.writeUTF(eCur.getKey());
+                    dosOut.writeUTF(sName);
+                    lRecords++;
+                }
+            dosOut.flush();
+            if (SyncWrites)
+                fosOut.getChannel().force(false);
+        }
+        finally {
+            dosOut.close();
+        }
+        if (fManifest.exists() && !fManifest.delete())
+            throw new IOException("Cannot replace manifest " + fManifest);
+        if (!fTmp.renameTo(fManifest))
+            throw new IOException("Cannot rename " + fTmp + " to " + fManifest);
+        ManifestRecords = lRecords;
+    }
+
+    private long countObjects() {
+        long lRes = 0;
+        for (Set<String> sNames : Names.values())
+            lRes += sNames.size();
+        return lRes;
+    }
+
+    private Set<String> getNames(String sCategory) {
+        Set<String> sRes = Names.get(sCategory);
+        if (sRes == null) {
+            Set<String> sNew = Collections.newSetFromMap(
+                    new ConcurrentHashMap<String, Boolean>());
+            sRes = Names.putIfAbsent(sCategory, sNew);
+            if (sRes == null)
+                sRes = sNew;
+        }
+        return sRes;
+    }
+
+    private static String getKey(String sObjectName, String sObjectCategory) {
+        return sObjectCategory + '\u0000' + sObjectName;
+    }
+
+    /** Returns the filename of the corresponding object of a given category,
+     * within its hashed subdirectory.
+     *
+     * @param sObjectName The name of the object.
+     * @param sObjectCategory The category of the object.
+     * @return A string representing the filename of the object in the db.
+     */
+    @Override
+    public String getFileName(String sObjectName, String sObjectCategory) {
+        String sHash;
+        try {
+            MessageDigest md = MessageDigest.getInstance("MD5");
+            byte[] baDigest = md.digest(getKey(sObjectName,
+                    sObjectCategory).getBytes("UTF-8"));
+            StringBuilder sb = new StringBuilder(baDigest.length * 2);
+            for (byte b : baDigest)
+                sb.append(String.format("%02x", b & 0xFF));
+            sHash = sb.toString();
+        } catch (NoSuchAlgorithmException nsae) {
+            throw new IllegalStateException(nsae);
+        } catch (IOException ioe) {
+            throw new IllegalStateException(ioe);
+        }
+
+        StringBuilder sbRes = new StringBuilder(BaseDir);
+        String sSep = System.getProperty("file.separator");
+        for (int iLevel = 0; iLevel < FanOutLevels; iLevel++)
+            sbRes.append(sSep).append(sHash, iLevel * 2, iLevel * 2 + 2);
+        sbRes.append(sSep).append(Prefix).append(sHash).append('.').append(
+                sObjectCategory);
+        return sbRes.toString();
+    }
+
+    @Override
+    public void saveObject(Serializable oObj, String sObjectName,
+            String sObjectCategory) {
+        checkWriter();
+        // Serialize in the calling thread, so that later changes to the
+        // object do not affect what is stored
+        ByteArrayOutputStream baosData = new ByteArrayOutputStream();
+        try {
+            GZIPOutputStream gzOut = new GZIPOutputStream(baosData);
+            ObjectOutputStream oOut = new ObjectOutputStream(gzOut);
+            oOut.writeObject(oObj);
+            oOut.close();
+        }
+        catch (IOException e) {
+            e.printStackTrace(System.err);
+            return;
+        }
+
+        byte[] baData = baosData.toByteArray();
+        String sKey = getKey(sObjectName, sObjectCategory);
+        Pending.put(sKey, baData);
+        getNames(sObjectCategory).add(sObjectName);
+        enqueue(new WriteOp(WriteOp.WRITE, sObjectName, sObjectCategory,
+                baData));
+    }
+
+    @Override
+    public TObjectType loadObject(String sObjectName, String sObjectCategory) {
+        byte[] baData = Pending.get(getKey(sObjectName, sObjectCategory));
+        InputStream isIn;
+        try {
+            if (baData != null)
+                isIn = new ByteArrayInputStream(baData);
+            else
+                isIn = new BufferedInputStream(new FileInputStream(
+                        getFileName(sObjectName, sObjectCategory)));
+        }
+        catch (IOException e) {
+            e.printStackTrace(System.err);
+            return null;
+        }
+
+        try {
+            ObjectInputStream oIn = new ObjectInputStream(
+                    new GZIPInputStream(isIn));
+            return (TObjectType)oIn.readObject();
+        }
+        catch (Exception e) {
+            e.printStackTrace(System.err);
+            return null;
+        }
+        finally {
+            try {
+                isIn.close();
+            } catch (IOException ex) {
+                ex.printStackTrace(System.err);
+            }
+        }
+    }
+
+    /** Loads a set of objects of a given category, using
+     * {@link #LoadThreads} threads.
+     *@param cObjectNames The names of the objects.
+     *@param sObjectCategory The category of the objects.
+     *@return A map from object names to the loaded objects, in the order of
+     * the given names. Objects that do not exist or could not be loaded are
+     * omitted.
+     */
+    public Map<String,TObjectType> loadObjects(Collection<String> cObjectNames,
+            final String sObjectCategory) {
+        Map<String,TObjectType> mRes = new LinkedHashMap<String, TObjectType>();
+        ExecutorService esLoaders = Executors.newFixedThreadPool(
+                Math.max(1, LoadThreads));
+        try {
+            List<Future<TObjectType>> lTasks = new ArrayList<Future<TObjectType>>(
+                    cObjectNames.size());
+            for (final String sName : cObjectNames)
+                lTasks.add(esLoaders.submit(new Callable<TObjectType>() {
+                    public TObjectType call() {
+                        if (!existsObject(sName, sObjectCategory))
+                            return null;
+                        return loadObject(sName, sObjectCategory);
+                    }
+                }));
+
+            int iCnt = 0;
+            for (String sName : cObjectNames) {
+                TObjectType oCur = lTasks.get(iCnt++).get();
+                if (oCur != null)
+                    mRes.put(sName, oCur);
+            }
+        } catch (InterruptedException ie) {
+            Thread.currentThread().interrupt();
+            ie.printStackTrace(System.err);
+        } catch (ExecutionException ee) {
+            ee.getCause().printStackTrace(System.err);
+        }
+        finally {
+            esLoaders.shutdownNow();
+        }
+
+        return mRes;
+    }
+
+    @Override
+    public void deleteObject(String sObjectName, String sObjectCategory) {
+        checkWriter();
+        if (!getNames(sObjectCategory).remove(sObjectName))
+            return;
+        Pending.remove(getKey(sObjectName, sObjectCategory));
+        enqueue(new WriteOp(WriteOp.DELETE, sObjectName, sObjectCategory,
+                null));
+    }
+
+    @Override
+    public boolean existsObject(String sObjectName, String sObjectCategory) {
+        Set<String> sNames = Names.get(sObjectCategory);
+        return (sNames != null) && sNames.contains(sObjectName);
+    }
+
+    /** Returns the names of the objects of a given category. Unlike
+     * {@link INSECTFileDB}, the actual object names are returned.
+     *@param sObjectCategory The required category of the objects.
+     *@return A String array, with all the saved objects corresponding to the
+     *given category.
+     */
+    @Override
+    public String[] getObjectList(String sObjectCategory) {
+        Set<String> sNames = Names.get(sObjectCategory);
+        if (sNames == null)
+            return new String[0];
+        return sNames.toArray(new String[0]);
+    }
+
+    /** Waits until all operations issued so far have been written.
+     *@throws IllegalStateException If the writer has failed.
+     */
+    public void flush() {
+        checkWriter();
+        if (WriterThread == null)
+            return;
+        WriteOp woBarrier = new WriteOp(WriteOp.BARRIER, null, null, null);
+        enqueue(woBarrier);
+        awaitWriter(woBarrier.Done);
+    }
+
+    /** Writes all pending operations, stops the writer thread and compacts
+     * the manifest. The database can still be used afterwards.
+     *@throws IllegalStateException If the writer has failed. The manifest is
+     * not compacted in that case.
+     */
+    @Override
+    public void finalizeDB() {
+        synchronized (this) {
+            synchronized (OpenDBs) {
+                OpenDBs.remove(this);
+            }
+            if (WriterThread != null) {
+                checkWriter();
+                WriteOp woStop = new WriteOp(WriteOp.STOP, null, null, null);
+                enqueue(woStop);
+                awaitWriter(woStop.Done);
+                WriterThread = null;
+            }
+        }
+        try {
+            compactManifest();
+        } catch (IOException ioe) {
+            System.err.println("Could not compact manifest. Cause:");
+            ioe.printStackTrace(System.err);
+        }
+    }
+
+    /** Throws the failure of the writer, if it has failed. */
+    private void checkWriter() {
+        Throwable tFailure = WriterFailure;
+        if (tFailure != null)
+            throw new IllegalStateException("The writer of " + BaseDir +
+                    " has failed.", tFailure);
+    }
+
+    /** Waits until a latch is counted down by the writer, or the writer
+     * fails. Interrupts are deferred until the wait is over.
+     *@throws IllegalStateException If the writer has failed.
+     */
+    private void awaitWriter(CountDownLatch cdlDone) {
+        boolean bInterrupted = false;
+        try {
+            while (true)
+                try {
+                    if (cdlDone.await(100, TimeUnit.MILLISECONDS))
+                        break;
+                    checkWriter();
+                } catch (InterruptedException ie) {
+                    bInterrupted = true;
+                }
+        }
+        finally {
+            if (bInterrupted)
+                Thread.currentThread().interrupt();
+        }
+        checkWriter();
+    }
+
+    /** Queues an operation for the writer, starting the writer if needed.
+     * Blocks while the queue is full.
+     *@throws IllegalStateException If the writer has failed.
+     */
+    private void enqueue(WriteOp woOp) {
+        synchronized (this) {
+            checkWriter();
+            if (WriterThread == null) {
+                WriterThread = new Thread(new Writer(), "INSECTShardedFileDB writer");
+                // Daemon, so that a missing finalizeDB does not hang the VM.
+                // Pending writes are completed by the shutdown hook.
+                WriterThread.setDaemon(true);
+                WriterThread.start();
+                registerForShutdown(this);
+            }
+        }
+        boolean bInterrupted = false;
+        try {
+            while (true)
+                try {
+                    if (Queue.offer(woOp, 100, TimeUnit.MILLISECONDS))
+                        break;
+                    checkWriter();
+                } catch (InterruptedException ie) {
+                    bInterrupted = true;
+                }
+        }
+        finally {
+            if (bInterrupted)
+                Thread.currentThread().interrupt();
+        }
+    }
+
+    /** Adds a database to the ones flushed on VM exit, installing the
+     * shared shutdown hook on first use. Databases are only weakly
+     * referenced and are removed by {@link #finalizeDB()}. */
+    private static void registerForShutdown(INSECTShardedFileDB<?> dbOpen) {
+        synchronized (OpenDBs) {
+            OpenDBs.add(dbOpen);
+            if (ShutdownHook != null)
+                return;
+            ShutdownHook = new Thread(new Runnable() {
+                public void run() {
+                    List<INSECTShardedFileDB<?>> lDBs;
+                    synchronized (OpenDBs) {
+                        lDBs = new ArrayList<INSECTShardedFileDB<?>>(OpenDBs);
+                    }
+                    for (INSECTShardedFileDB<?> dbCur : lDBs)
+                        try {
+                            dbCur.flush();
+                        } catch (RuntimeException re) {
+                            re.printStackTrace(System.err);
+                        }
+                }
+            });
+            Runtime.getRuntime().addShutdownHook(ShutdownHook);
+        }
+    }
+
+    /** Writes a batch of operations. Only the last operation per object is
+     * applied. Object files are written to temporary files, forced to disk
+     * as a group and then renamed, before the manifest records are appended
+     * and forced.
+     */
+    private void writeBatch(List<WriteOp> lBatch, DataOutputStream dosManifest,
+            FileOutputStream fosManifest) throws IOException {
+        LinkedHashMap<String,WriteOp> mLast = new LinkedHashMap<String, WriteOp>();
+        for (WriteOp woCur : lBatch)
+            if (woCur.Type == WriteOp.WRITE || woCur.Type == WriteOp.DELETE) {
+                String sKey = getKey(woCur.Name, woCur.Category);
+                mLast.remove(sKey);
+                mLast.put(sKey, woCur);
+            }
+        if (mLast.isEmpty())
+            return;
+
+        List<WriteOp> lDone = new ArrayList<WriteOp>(mLast.size());
+        List<FileOutputStream> lOpen = new ArrayList<FileOutputStream>();
+        List<File> lTemp = new ArrayList<File>();
+        List<WriteOp> lWritten = new ArrayList<WriteOp>();
+        try {
+            for (WriteOp woCur : mLast.values()) {
+                if (woCur.Type != WriteOp.WRITE)
+                    continue;
+                File fTarget = new File(getFileName(woCur.Name, woCur.Category));
+                fTarget.getParentFile().mkdirs();
+                File fTmp = new File(fTarget.getPath() + ".tmp");
+                FileOutputStream fosOut = new FileOutputStream(fTmp);
+                lOpen.add(fosOut);
+                lTemp.add(fTmp);
+                lWritten.add(woCur);
+                fosOut.write(woCur.Data);
+            }
+            // Group sync
+            if (SyncWrites)
+                for (FileOutputStream fosOut : lOpen)
+                    fosOut.getChannel().force(false);
+        }
+        finally {
+            for (FileOutputStream fosOut : lOpen)
+                fosOut.close();
+        }
+
+        // Make files visible
+        for (int iCnt = 0; iCnt < lTemp.size(); iCnt++) {
+            WriteOp woCur = lWritten.get(iCnt);
+            File fTarget = new File(getFileName(woCur.Name, woCur.Category));
+            if (fTarget.exists())
+                fTarget.delete();
+            if (lTemp.get(iCnt).renameTo(fTarget))
+                lDone.add(woCur);
+            else
+                System.err.println("Could not store object " + woCur.Name +
+                        " of category " + woCur.Category);
+        }
+        for (WriteOp woCur : mLast.values())
+            if (woCur.Type == WriteOp.DELETE) {
+                new File(getFileName(woCur.Name, woCur.Category)).delete();
+                lDone.add(woCur);
+            }
+
+        // Log to manifest
+        for (WriteOp woCur : lDone) {
+            dosManifest.writeByte(woCur.Type == WriteOp.WRITE ? OP_ADD : OP_DELETE);
+            dosManifest.writeUTF(woCur.Category);
+            dosManifest.writeUTF(woCur.Name);
+            ManifestRecords++;
+        }
+        dosManifest.flush();
+        if (SyncWrites)
+            fosManifest.getChannel().force(false);
+
+        // Release written data, unless replaced meanwhile
+        for (WriteOp woCur : lWritten)
+            Pending.remove(getKey(woCur.Name, woCur.Category), woCur.Data);
+    }
+
+    /** The background writer. Any failure (including failing to open the
+     * manifest) stops the writer and is kept in {@link #WriterFailure}, to
+     * be rethrown to the callers; operations still queued are discarded.
+     */
+    private class Writer implements Runnable {
+        public void run() {
+            DataOutputStream dosManifest = null;
+            List<WriteOp> lBatch = new ArrayList<WriteOp>(BatchSize);
+            try {
+                FileOutputStream fosManifest = new FileOutputStream(
+                        getManifestFile(), true);
+                dosManifest = new DataOutputStream(new BufferedOutputStream(
+                        fosManifest));
+
+                boolean bStop = false;
+                while (!bStop) {
+                    try {
+                        lBatch.add(Queue.take());
+                    } catch (InterruptedException ie) {
+                        continue;
+                    }
+                    Queue.drainTo(lBatch, Math.max(BatchSize, 1) - 1);
+
+                    writeBatch(lBatch, dosManifest, fosManifest);
+
+                    for (WriteOp woCur : lBatch) {
+                        if (woCur.Type == WriteOp.STOP)
+                            bStop = true;
+                        if (woCur.Done != null)
+                            woCur.Done.countDown();
+                    }
+                    lBatch.clear();
+                }
+            } catch (Throwable t) {
+                System.err.println("Writer of " + BaseDir + " failed. Cause:");
+                t.printStackTrace(System.err);
+                WriterFailure = t;
+                // Release the waiting callers; they will see the failure
+                Queue.drainTo(lBatch);
+                for (WriteOp woCur : lBatch)
+                    if (woCur.Done != null)
+                        woCur.Done.countDown();
+                lBatch.clear();
+            }
+            finally {
+                if (dosManifest != null)
+                    try {
+                        dosManifest.close();
+                    } catch (IOException ioe) {
+                        ioe.printStackTrace(System.err);
+                    }
+            }
+        }
+    }
+
+    /** An operation for the writer. */
+    protected static class WriteOp {
+        static final int WRITE = 0;
+        static final int DELETE = 1;
+        static final int BARRIER = 2;
+        static final int STOP = 3;
+
+        final int Type;
+        final String Name;
+        final String Category;
+        final byte[] Data;
+        /** Counted down when the operation is complete (barriers only). */
+        final CountDownLatch Done;
+
+        WriteOp(int iType, String sName, String sCategory, byte[] baData) {
+            Type = iType;
+            Name = sName;
+            Category = sCategory;
+            Data = baData;
+            Done = (iType == BARRIER || iType == STOP) ? new CountDownLatch(1) :
+                null;
+        }
+    }
+
+    private void readObject(java.io.ObjectInputStream in)
+          throws IOException, ClassNotFoundException {
+        in.defaultReadObject();
+        open();
+    }
+
+    private void writeObject(java.io.ObjectOutputStream out)
+      throws IOException {
+        flush();
+        out.defaultWriteObject();
+    }
+}
@@ -0,0 +1,528 @@
+/*
+ * Under LGPL
+ * by George Giannakopoulos
+ */
+
+package gr.demokritos.iit.jinsect.storage;
+
+import gr.demokritos.iit.jinsect.documentModel.ILoadableTextPrint;
+import gr.demokritos.iit.jinsect.documentModel.ITextPrint;
+import gr.demokritos.iit.jinsect.documentModel.representations.DocumentNGramGraph;
+import gr.demokritos.iit.jinsect.documentModel.representations.DocumentNGramHistogram;
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.io.Serializable;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/** A persistent, content-addressed cache of document representations. Every
+ * representation is keyed by the hash of the content of the represented text,
+ * the representation class, its n-gram size and window parameters and the
+ * identifier of any preprocessor used. Representations are stored
+ * uncompressed, as plain serialized objects, one file per key in a fanned-out
+ * directory structure. The total size of the cache is bounded, evicting the
+ * least recently used representations.
+ *
+ * A process-wide cache is enabled by setting the <code>jinsect.cacheDir</code>
+ * (and optionally <code>jinsect.cacheSizeMB</code>) system properties. The
+ * loaders of the evaluation tools and the summarizers use it transparently,
+ * through the <code>loadCached</code> and {@link #setCachedDataString}
+ * methods.
+ *
+ * @author ggianna
+ */
+public class RepresentationCache {
+    /** The system property defining the directory of the default cache. */
+    public static final String CACHE_DIR_PROPERTY = "jinsect.cacheDir";
+    /** The system property defining the max size (in MB) of the default cache. */
+    public static final String CACHE_SIZE_PROPERTY = "jinsect.cacheSizeMB";
+    /** The default max size of the cache in MB. */
+    public static final long DEFAULT_CACHE_SIZE_MB = 1024;
+
+    private static final String FILE_SUFFIX = ".ser";
+    private static RepresentationCache DefaultCache = null;
+    private static boolean DefaultInitialized = false;
+
+    protected File CacheDir;
+    protected long MaxBytes;
+    protected long CurrentBytes = 0;
+    protected long Hits = 0, Misses = 0;
+    /** Key to entry, in access order (least recent first). */
+    protected LinkedHashMap<String,CacheEntry> Index =
+            new LinkedHashMap<String,CacheEntry>(1024, 0.75f, true);
+
+    /** An entry of the cache. Every store creates a new entry, so that an
+     * entry read can be told from the one replacing it. */
+    protected static class CacheEntry {
+        /** The size of the stored file. */
+        protected final long Size;
+
+        protected CacheEntry(long lSize) {
+            Size = lSize;
+        }
+    }
+
+    /** Creates a cache over a given directory, indexing any representations
+     * already stored in it.
+     *@param sCacheDir The directory of the cache. It is created if needed.
+     *@param lMaxBytes The max total size of the stored representations.
+     */
+    public RepresentationCache(String sCacheDir, long lMaxBytes) {
+        CacheDir = new File(sCacheDir);
+        MaxBytes = lMaxBytes;
+        CacheDir.mkdirs();
+        scanCacheDir();
+    }
+
+    /** Returns the process-wide cache, as defined by the
+     * {@link #CACHE_DIR_PROPERTY} and {@link #CACHE_SIZE_PROPERTY} system
+     * properties.
+     *@return The default cache, or null if no cache directory has been set.
+     */
+    public static synchronized RepresentationCache getDefault() {
+        if (!DefaultInitialized) {
+            DefaultInitialized = true;
+            String sDir = System.getProperty(CACHE_DIR_PROPERTY);
+            if (sDir != null) {
+                long lSize = Long.valueOf(System.getProperty(CACHE_SIZE_PROPERTY,
+                        String.valueOf(DEFAULT_CACHE_SIZE_MB)));
+                DefaultCache = new RepresentationCache(sDir, lSize << 20);
+            }
+        }
+        return DefaultCache;
+    }
+
+    /** Sets the process-wide cache.
+     *@param rcNew The new default cache, or null to disable caching.
+     */
+    public static synchronized void setDefault(RepresentationCache rcNew) {
+        DefaultInitialized = true;
+        DefaultCache = rcNew;
+    }
+
+    /** Loads a given file into a representation, using the default cache if
+     * available. On a cache miss the file is loaded into the given (empty)
+     * representation, which is then stored in the cache.
+     *@param tpEmpty An empty representation, with the required parameters.
+     *@param sFilename The file to represent.
+     *@param iMinSize The min n-gram size of the representation.
+     *@param iMaxSize The max n-gram size of the representation.
+     *@param iDist The neighbourhood window of the representation.
+     *@return The (possibly cached) representation of the file.
+     */
+    public static ILoadableTextPrint loadCached(ILoadableTextPrint tpEmpty,
+            String sFilename, int iMinSize, int iMaxSize, int iDist) {
+        RepresentationCache rcCache = getDefault();
+        if (rcCache == null) {
+            tpEmpty.loadDataStringFromFile(sFilename);
+            return tpEmpty;
+        }
+        return rcCache.loadDocument(tpEmpty, sFilename, iMinSize, iMaxSize, iDist);
+    }
+
+    /** Loads a given file into an n-gram graph, using the default cache if
+     * available.
+     *@param gEmpty An empty graph, with the required parameters.
+     *@param sFilename The file to represent.
+     *@return The (possibly cached) graph of the file.
+     *@throws IOException If the file cannot be read.
+     */
+    public static DocumentNGramGraph loadCached(DocumentNGramGraph gEmpty,
+            String sFilename) throws IOException {
+        RepresentationCache rcCache = getDefault();
+        if (rcCache == null) {
+            gEmpty.loadDataStringFromFile(sFilename);
+            return gEmpty;
+        }
+        return rcCache.loadGraph(gEmpty, sFilename);
+    }
+
+    /** Sets the data string of an n-gram graph, using the default cache if
+     * available. This is the equivalent of
+     * {@link DocumentNGramGraph#setDataString(String)} for texts that do not
+     * come directly from a file, e.g. texts of document sets.
+     *@param gEmpty An empty graph, with the required parameters.
+     *@param sText The text to represent.
+     *@return The (possibly cached) graph of the text.
+     */
+    public static DocumentNGramGraph setCachedDataString(DocumentNGramGraph gEmpty,
+            String sText) {
+        RepresentationCache rcCache = getDefault();
+        if (rcCache == null) {
+            gEmpty.setDataString(sText);
+            return gEmpty;
+        }
+        return rcCache.loadGraphFromText(gEmpty, sText);
+    }
+
+    /** Loads a given file into a representation, through the cache.
+     *@see #loadCached(ILoadableTextPrint, String, int, int, int)
+     */
+    public ILoadableTextPrint loadDocument(ILoadableTextPrint tpEmpty,
+            String sFilename, int iMinSize, int iMaxSize, int iDist) {
+        String sKey;
+        try {
+            sKey = getKey(hashFile(sFilename), tpEmpty.getClass().getName(),
+                    iMinSize, iMaxSize, iDist, getPreprocessorID(tpEmpty));
+        } catch (IOException ex) {
+            // Let the representation handle the missing file
+            tpEmpty.loadDataStringFromFile(sFilename);
+            return tpEmpty;
+        }
+
+        Object oCached = get(sKey);
+        if (tpEmpty.getClass().isInstance(oCached)) {
+            ILoadableTextPrint tpRes = (ILoadableTextPrint)oCached;
+            if ((tpRes.getDocumentGraph() != null) &&
+                    (tpEmpty.getDocumentGraph() != null))
+                copyListeners(tpEmpty.getDocumentGraph(), tpRes.getDocumentGraph());
+            return tpRes;
+        }
+
+        tpEmpty.loadDataStringFromFile(sFilename);
+        if (tpEmpty instanceof Serializable)
+            put(sKey, (Serializable)tpEmpty);
+        return tpEmpty;
+    }
+
+    /** Loads a given file into an n-gram graph, through the cache.
+     *@see #loadCached(DocumentNGramGraph, String)
+     */
+    public DocumentNGramGraph loadGraph(DocumentNGramGraph gEmpty,
+            String sFilename) throws IOException {
+        String sKey = getGraphKey(gEmpty, hashFile(sFilename));
+        DocumentNGramGraph gRes = getGraph(sKey, gEmpty);
+        if (gRes != null)
+            return gRes;
+
+        gEmpty.loadDataStringFromFile(sFilename);
+        put(sKey, gEmpty);
+        return gEmpty;
+    }
+
+    /** Sets the data string of an n-gram graph, through the cache.
+     *@see #setCachedDataString(DocumentNGramGraph, String)
+     */
+    public DocumentNGramGraph loadGraphFromText(DocumentNGramGraph gEmpty,
+            String sText) {
+        String sKey = getGraphKey(gEmpty, hashText(sText));
+        DocumentNGramGraph gRes = getGraph(sKey, gEmpty);
+        if (gRes != null)
+            return gRes;
+
+        gEmpty.setDataString(sText);
+        put(sKey, gEmpty);
+        return gEmpty;
+    }
+
+    private static String getGraphKey(DocumentNGramGraph gEmpty,
+            String sContentHash) {
+        return getKey(sContentHash, gEmpty.getClass().getName(),
+                gEmpty.getMinSize(), gEmpty.getMaxSize(), gEmpty.getWindowSize(),
+                getPreprocessorID(gEmpty.TextPreprocessor));
+    }
+
+    /** Returns a cached graph of the class of a given graph, which also
+     * receives the listeners of the given graph.
+     *@return The graph, or null if it is not cached.
+     */
+    private DocumentNGramGraph getGraph(String sKey, DocumentNGramGraph gEmpty) {
+        Object oCached = get(sKey);
+        if (!gEmpty.getClass().isInstance(oCached))
+            return null;
+        DocumentNGramGraph gRes = (DocumentNGramGraph)oCached;
+        copyListeners(gEmpty, gRes);
+        return gRes;
+    }
+
+    /** Copies the listeners of a graph, which are not persisted, to a cached
+     * graph. */
+    private static void copyListeners(DocumentNGramGraph gFrom,
+            DocumentNGramGraph gTo) {
+        gTo.TextPreprocessor = gFrom.TextPreprocessor;
+        gTo.Normalizer = gFrom.Normalizer;
+        gTo.WordEvaluator = gFrom.WordEvaluator;
+    }
+
+    /** Returns the identifier of a preprocessor, i.e. its class name.
+     *@param oPreprocessor The preprocessor, or null.
+     *@return The identifier, or an empty string for no preprocessor.
+     */
+    protected static String getPreprocessorID(Object oPreprocessor) {
+        return (oPreprocessor == null) ? "" : oPreprocessor.getClass().getName();
+    }
+
+    /** Returns the identifier of the preprocessors of the graph and the
+     * histogram of a representation. */
+    protected static String getPreprocessorID(ITextPrint tpDoc) {
+        DocumentNGramGraph gGraph = tpDoc.getDocumentGraph();
+        DocumentNGramHistogram hHistogram = tpDoc.getDocumentHistogram();
+        return getPreprocessorID((gGraph == null) ? null : gGraph.TextPreprocessor) +
+                "|" + getPreprocessorID((hHistogram == null) ? null :
+                    hHistogram.TextPreprocessor);
+    }
+
+    /** Creates the cache key of a representation.
+     *@param sContentHash The hash of the represented content.
+     *@param sClassName The class name of the representation.
+     *@param iMinSize The min n-gram size of the representation.
+     *@param iMaxSize The max n-gram size of the representation.
+     *@param iDist The neighbourhood window of the representation.
+     *@param sPreprocessorID An identifier of the preprocessing applied, or an
+     * empty string.
+     *@return The key, usable as a file name.
+     */
+    public static String getKey(String sContentHash, String sClassName,
+            int iMinSize, int iMaxSize, int iDist, String sPreprocessorID) {
+        return sContentHash + "_" + hashString(sClassName + "|" + iMinSize + "|" +
+                iMaxSize + "|" + iDist + "|" + sPreprocessorID);
+    }
+
+    /** Returns a cached object.
+     *@param sKey The key of the object.
+     *@return The object, or null if it is not cached or cannot be read.
+     */
+    public Object get(String sKey) {
+        CacheEntry ceRead;
+        synchronized (this) {
+            ceRead = Index.get(sKey);
+            if (ceRead == null) {
+                Misses++;
+                return null;
+            }
+        }
+
+        File fObj = getFile(sKey);
+        Object oRes = null;
+        try {
+            ObjectInputStream oIn = new ObjectInputStream(new BufferedInputStream(
+                    new FileInputStream(fObj), 1 << 16));
+            try {
+                oRes = oIn.readObject();
+            }
+            finally {
+                oIn.close();
+            }
+        } catch (Exception e) {
+            // Corrupt or removed entry: drop it
+            System.err.println("Cannot read cached representation " + sKey +
+                    ". Reason: " + e.getMessage());
+            synchronized (this) {
+                // Unless the entry has been stored again meanwhile
+                if (Index.get(sKey) == ceRead)
+                    remove(sKey);
+            }
+        }
+
+        synchronized (this) {
+            if (oRes == null)
+                Misses++;
+            else
+                Hits++;
+        }
+        if (oRes != null)
+            fObj.setLastModified(System.currentTimeMillis());
+        return oRes;
+    }
+
+    /** Stores an object in the cache, evicting least recently used entries if
+     * the size bound is exceeded.
+     *@param sKey The key of the object.
+     *@param oObj The object to store.
+     */
+    public void put(String sKey, Serializable oObj) {
+        File fObj = getFile(sKey);
+        fObj.getParentFile().mkdirs();
+        // Write to a temporary file first, so that readers never see partial
+        // entries
+        File fTmp = new File(fObj.getPath() + "." + Thread.currentThread().getId() +
+                ".tmp");
+        try {
+            ObjectOutputStream oOut = new ObjectOutputStream(new BufferedOutputStream(
+                    new FileOutputStream(fTmp), 1 << 16));
+            try {
+                oOut.writeObject(oObj);
+            }
+            finally {
+                oOut.close();
+            }
+            fObj.delete();
+            if (!fTmp.renameTo(fObj))
+                throw new IOException("Cannot rename " + fTmp + " to " + fObj);
+        } catch (IOException e) {
+            System.err.println("Cannot cache representation " + sKey +
+                    ". Reason: " + e.getMessage());
+            fTmp.delete();
+            return;
+        }
+
+        synchronized (this) {
+            CacheEntry ceNew = new CacheEntry(fObj.length());
+            CacheEntry ceOld = Index.put(sKey, ceNew);
+            if (ceOld != null)
+                CurrentBytes -= ceOld.Size;
+            CurrentBytes += ceNew.Size;
+            evict();
+        }
+    }
+
+    /** Removes an entry from the cache.
+     *@param sKey The key of the entry.
+     */
+    public synchronized void remove(String sKey) {
+        CacheEntry ceOld = Index.remove(sKey);
+        if (ceOld != null)
+            CurrentBytes -= ceOld.Size;
+        getFile(sKey).delete();
+    }
+
+    /** Removes all entries from the cache. */
+    public synchronized void clear() {
+        for (String sKey : new ArrayList<String>(Index.keySet()))
+            remove(sKey);
+    }
+
+    /** Returns the number of cache hits so far. */
+    public synchronized long getHits() {
+        return Hits;
+    }
+
+    /** Returns the number of cache misses so far. */
+    public synchronized long getMisses() {
+        return Misses;
+    }
+
+    /** Returns the total size of the cached representations in bytes. */
+    public synchronized long getSize() {
+        return CurrentBytes;
+    }
+
+    /** Returns the number of cached representations. */
+    public synchronized int getCount() {
+        return Index.size();
+    }
+
+    /** Removes least recently used entries, until the size bound is met. */
+    protected void evict() {
+        Iterator<Map.Entry<String,CacheEntry>> iIter = Index.entrySet().iterator();
+        while ((CurrentBytes > MaxBytes) && iIter.hasNext()) {
+            Map.Entry<String,CacheEntry> eOldest = iIter.next();
+            iIter.remove();
+            CurrentBytes -= eOldest.getValue().Size;
+            getFile(eOldest.getKey()).delete();
+        }
+    }
+
+    /** Returns the file of a given key. The first two characters of the key
+     * define a subdirectory, to avoid huge flat directories. */
+    protected File getFile(String sKey) {
+        return new File(new File(CacheDir, sKey.substring(0, 2)), sKey + FILE_SUFFIX);
+    }
+
+    /** Indexes the representations existing in the cache directory, ordered by
+     * last access (modification) time. */
+    protected synchronized void scanCacheDir() {
+        ArrayList<File> lFiles = new ArrayList<File>();
+        File[] faSubDirs = CacheDir.listFiles();
+        if (faSubDirs == null)
+            return;
+        for (File fSubDir : faSubDirs) {
+            File[] faEntries = fSubDir.listFiles();
+            if (faEntries == null)
+                continue;
+            for (File fEntry : faEntries) {
+                if (fEntry.getName().endsWith(FILE_SUFFIX))
+                    lFiles.add(fEntry);
+                else
+                    fEntry.delete(); // Stale temporary file
+            }
+        }
+
+        File[] faFiles = lFiles.toArray(new File[lFiles.size()]);
+        Arrays.sort(faFiles, new Comparator<File>() {
+            public int compare(File f1, File f2) {
+                long lDiff = f1.lastModified() - f2.lastModified();
+                return (lDiff < 0) ? -1 : ((lDiff > 0) ? 1 : 0);
+            }
+        });
+        for (File fCur : faFiles) {
+            String sName = fCur.getName();
+            Index.put(sName.substring(0, sName.length() - FILE_SUFFIX.length()),
+                    new CacheEntry(fCur.length()));
+            CurrentBytes += fCur.length();
+        }
+        evict();
+    }
+
+    /** Returns the hex SHA-1 hash of the contents of a given file.
+     *@param sFilename The file to hash.
+     *@return The hash.
+     *@throws IOException If the file cannot be read.
+     */
+    public static String hashFile(String sFilename) throws IOException {
+        MessageDigest mdDigest = getDigest();
+        InputStream isIn = new FileInputStream(sFilename);
+        try {
+            byte[] baBuf = new byte[1 << 16];
+            int iRead;
+            while ((iRead = isIn.read(baBuf)) > 0)
+                mdDigest.update(baBuf, 0, iRead);
+        }
+        finally {
+            isIn.close();
+        }
+        return toHex(mdDigest.digest());
+    }
+
+    /** Returns the hex SHA-1 hash of a given string. */
+    protected static String hashString(String sStr) {
+        MessageDigest mdDigest = getDigest();
+        try {
+            return toHex(mdDigest.digest(sStr.getBytes("UTF-8")));
+        } catch (java.io.UnsupportedEncodingException ex) {
+            return toHex(mdDigest.digest(sStr.getBytes()));
+        }
+    }
+
+    /** Returns the hex SHA-1 hash of a given text. The hash differs from the
+     * one of a file with the same content, as files and texts are
+     * represented differently (e.g. as far as newlines are concerned). */
+    protected static String hashText(String sText) {
+        MessageDigest mdDigest = getDigest();
+        try {
+            mdDigest.update("text:".getBytes("UTF-8"));
+            return toHex(mdDigest.digest(sText.getBytes("UTF-8")));
+        } catch (java.io.UnsupportedEncodingException ex) {
+            return toHex(mdDigest.digest(sText.getBytes()));
+        }
+    }
+
+    private static MessageDigest getDigest() {
+        try {
+            return MessageDigest.getInstance("SHA-1");
+        } catch (NoSuchAlgorithmException ex) {
+            // Every Java platform is required to support SHA-1
+            throw new RuntimeException(ex);
+        }
+    }
+
+    private static String toHex(byte[] baBytes) {
+        StringBuilder sbRes = new StringBuilder(baBytes.length * 2);
+        for (byte bCur : baBytes)
+            sbRes.append(String.format("%02x", bCur));
+        return sbRes.toString();
+    }
+}
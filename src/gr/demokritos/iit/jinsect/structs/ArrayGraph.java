@@ -9,9 +9,13 @@ import gr.demokritos.iit.jinsect.documentModel.representations.DocumentNGramGrap
 import gr.demokritos.iit.jinsect.documentModel.representations.DocumentNGramSymWinGraph;
 import java.util.ArrayList;
 import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.Map;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
 import java.util.concurrent.TimeUnit;
+import salvo.jesus.graph.Vertex;
+import salvo.jesus.graph.VertexImpl;
 
 /**
  * @author pckid
@@ -128,6 +132,139 @@ public class ArrayGraph {
         return gRes;
     }
 
+    /** Counts the edges of a part of a single-row array of labels, as
+     * {@link #getGraphForArray(int[][], int, int)} creates them: every label
+     * is connected to the labels within half the window size before and after
+     * it. Only the edges starting within the given part are counted, but they
+     * may end anywhere within the row.
+     *@param saRow The labels of the row.
+     *@param iFrom The start of the row within the array (inclusive).
+     *@param iTo The end of the row within the array (exclusive).
+     *@param iWindowSize The window size.
+     *@param iPartFrom The first position of the part (inclusive).
+     *@param iPartTo The last position of the part (exclusive).
+     *@return The counted edges.
+     */
+    public static RowEdges countRowEdges(String[] saRow, int iFrom, int iTo,
+            int iWindowSize, int iPartFrom, int iPartTo) {
+        RowEdges reRes = new RowEdges();
+        int iHalf = iWindowSize / 2;
+        for (int iCur = iPartFrom; iCur < iPartTo; iCur++) {
+            int iSource = -1;
+            for (int iDist = -iHalf; iDist <= iHalf; iDist++) {
+                int iNeighbour = iCur + iDist;
+                // Ignore self
+                if ((iDist == 0) || (iNeighbour < iFrom) || (iNeighbour >= iTo))
+                    continue;
+                // The source is added along with its first neighbour
+                if (iSource < 0)
+                    iSource = reRes.getLabelId(saRow[iCur]);
+                reRes.addEdge(iSource, reRes.getLabelId(saRow[iNeighbour]), 1.0);
+            }
+        }
+        return reRes;
+    }
+
+    /** Creates the graph of a single-row array of labels, equal to the one
+     * {@link #getGraphForArray(int[][], int, int)} creates for the
+     * corresponding array. Every edge is counted once and added once, so
+     * this method is much faster; it also does not change the state of this
+     * object, so it can be called concurrently.
+     *@param saRow The labels of the row.
+     *@param iFrom The start of the row within the array (inclusive).
+     *@param iTo The end of the row within the array (exclusive).
+     *@param iWindowSize The window size.
+     *@return The graph.
+     */
+    public DocumentNGramGraph getGraphForRow(String[] saRow, int iFrom, int iTo,
+            int iWindowSize) {
+        return getGraphForEdges(countRowEdges(saRow, iFrom, iTo, iWindowSize,
+                iFrom, iTo));
+    }
+
+    /** Creates a graph holding given (counted) edges, adding vertices and
+     * edges in their order of first occurrence.
+     *@param reEdges The edges.
+     *@return The graph.
+     */
+    public DocumentNGramGraph getGraphForEdges(RowEdges reEdges) {
+        DocumentNGramGraph dgRes = new DocumentNGramSymWinGraph(1,1,1);
+        dgRes.setDataString("");
+        dgRes.setLocator(new EdgeCachedLocator(gLength * gLength));
+
+        UniqueVertexGraph uvgLevel = dgRes.getGraphLevel(0);
+        Vertex[] vaVertices = new Vertex[reEdges.Labels.size()];
+        // Use a locator for the (single) lookup of every new edge
+        uvgLevel.setLocator(new EdgeCachedLocator(Math.max(vaVertices.length, 1)));
+        try {
+            for (int iCnt = 0; iCnt < vaVertices.length; iCnt++) {
+                vaVertices[iCnt] = new VertexImpl();
+                vaVertices[iCnt].setLabel(reEdges.Labels.get(iCnt));
+                uvgLevel.add(vaVertices[iCnt]);
+            }
+            for (Map.Entry<Long, double[]> eCur : reEdges.Edges.entrySet())
+                uvgLevel.addEdge(vaVertices[(int)(eCur.getKey() >>> 32)],
+                        vaVertices[(int)(long)eCur.getKey()],
+                        eCur.getValue()[0]);
+        }
+        catch (Exception e) {
+            // Unknown error
+            e.printStackTrace(System.err);
+        }
+        finally {
+            uvgLevel.setLocator(null);
+        }
+        return dgRes;
+    }
+
+    /** The edges of a row of labels, with their weights (i.e. their number of
+     * occurrences), kept in order of first occurrence.
+     */
+    public static class RowEdges {
+        /** The labels, in order of first occurrence. */
+        protected ArrayList<String> Labels = new ArrayList<String>();
+        /** The identifier (index in Labels) of every label. */
+        protected HashMap<String, Integer> LabelIds =
+                new HashMap<String, Integer>();
+        /** The weight of every (source, target) identifier pair. */
+        protected LinkedHashMap<Long, double[]> Edges =
+                new LinkedHashMap<Long, double[]>();
+
+        /** Returns the identifier of a label, adding it if required. */
+        protected int getLabelId(String sLabel) {
+            Integer iId = LabelIds.get(sLabel);
+            if (iId == null) {
+                iId = Labels.size();
+                Labels.add(sLabel);
+                LabelIds.put(sLabel, iId);
+            }
+            return iId;
+        }
+
+        /** Adds to the weight of an edge, creating it if required. */
+        protected void addEdge(int iSource, int iTarget, double dWeight) {
+            Long lKey = ((long)iSource << 32) | iTarget;
+            double[] daWeight = Edges.get(lKey);
+            if (daWeight == null)
+                Edges.put(lKey, new double[] {dWeight});
+            else
+                daWeight[0] += dWeight;
+        }
+
+        /** Adds the edges of another part of the same row, which follows the
+         * parts already added. The order of first occurrence is kept.
+         *@param reOther The edges of the following part.
+         */
+        public void addAll(RowEdges reOther) {
+            int[] iaIds = new int[reOther.Labels.size()];
+            for (int iCnt = 0; iCnt < iaIds.length; iCnt++)
+                iaIds[iCnt] = getLabelId(reOther.Labels.get(iCnt));
+            for (Map.Entry<Long, double[]> eCur : reOther.Edges.entrySet())
+                addEdge(iaIds[(int)(eCur.getKey() >>> 32)],
+                        iaIds[(int)(long)eCur.getKey()], eCur.getValue()[0]);
+        }
+    }
+
     /**
      * This function returns true when the iNum is between the limits [iMin,iMax]
      * @param iNum the number of interest
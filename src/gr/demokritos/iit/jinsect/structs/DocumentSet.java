@@ -7,17 +7,24 @@
 
 package gr.demokritos.iit.jinsect.structs;
 
+import gr.demokritos.iit.jinsect.storage.IFileLoader;
 import gr.demokritos.iit.jinsect.utils;
 import java.io.File;
 import java.io.FileFilter;
 import java.util.ArrayList;
+import java.util.HashMap;
 import java.util.HashSet;
 import java.util.Iterator;
-import java.util.LinkedList;
 import java.util.List;
+import java.util.Map;
 import java.util.Random;
 import java.util.Arrays;
 import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
 
 /** A set of documents, that can be split to training and test sets.
  *
@@ -43,6 +50,14 @@ public class DocumentSet implements IDocumentSet {
     /** An evaluator of files to add to this document set. If null, no criteria are applied.
      */
     public FileFilter FileEvaluator = null;
+    
+    /** The number of threads used to scan the category directories. Values
+     * up to 1 cause a sequential scan.
+     */
+    public int ScanThreads = Runtime.getRuntime().availableProcessors();
+    
+    /** The number of directory entries examined by a scanning task. */
+    protected static final int SCAN_CHUNK_SIZE = 1024;
        
     /**
      * Creates a new instance of DocumentSet with a training set portion.
@@ -141,19 +156,16 @@ public class DocumentSet implements IDocumentSet {
         // If no category is found
         if (Categories.size() == 0)
             return;
+        // Get the file lists of all categories at once
+        Map<String,File[]> mCategoryFiles = scanCategories(Categories);
         Iterator iIter = Categories.iterator();        
         // For all categories
         while (iIter.hasNext())
         {
             String sCategory = (String)iIter.next();
-            File fCatDir = new File(BaseDir + System.getProperty("file.separator") + sCategory);
             
             // Get file list
-            File [] sFileList = fCatDir.listFiles(new FileFilter() {
-                public boolean accept(File inputFile) {
-                    return !(inputFile.isDirectory());
-                }
-            });
+            File [] sFileList = mCategoryFiles.get(sCategory);
             if (sFileList == null) {
                 // No files in category
                 sFileList = new File[0];
@@ -176,15 +188,10 @@ public class DocumentSet implements IDocumentSet {
             ArrayList lTempTest = new ArrayList(iAllFiles - iInTrainingSet);
             
             // Randomize file selection if part of corpus selected
-            List lFileList = Arrays.asList(sFileList);
-            LinkedList lList = new LinkedList(lFileList);
-            Iterator iFile = lList.listIterator();
-            while (iFile.hasNext()) {
-                File fCurFile = (File)iFile.next();
-                if (FileEvaluator != null) {
-                    if (!FileEvaluator.accept(fCurFile))
-                        iFile.remove();
-                }
+            ArrayList lList = new ArrayList(sFileList.length);
+            for (File fCurFile : sFileList) {
+                if ((FileEvaluator == null) || FileEvaluator.accept(fCurFile))
+                    lList.add(fCurFile);
             }
             
             if (dPartOfTheCorpus < 1.0)
@@ -227,6 +234,97 @@ public class DocumentSet implements IDocumentSet {
             shuffleTestAndTrainingSetTogether();
     }
     
+    /** Lists the files (but not the subdirectories) of the given category 
+     * directories. Entries are checked in chunks, by {@link #ScanThreads} 
+     * threads, so that large (or many) directories are scanned in parallel.
+     * The order of the files within a category is the one returned by 
+     * {@link File#list()}.
+     *@param lCategories The categories, i.e. subdirectories of the base dir.
+     *@return A map from every category to its files. Categories that could not
+     * be scanned are mapped to null.
+     */
+    protected Map<String,File[]> scanCategories(List lCategories) {
+        Map<String,File[]> mRes = new HashMap<String,File[]>();
+        Map<String,List<Future<List<File>>>> mTasks = 
+                new HashMap<String,List<Future<List<File>>>>();
+        ExecutorService esScanners = Executors.newFixedThreadPool(
+                Math.max(1, ScanThreads));
+        try {
+            // Split the entries of every directory to chunks
+            for (Object oCategory : lCategories) {
+                String sCategory = (String)oCategory;
+                final File fCatDir = new File(BaseDir + 
+                        System.getProperty("file.separator") + sCategory);
+                String[] saEntries = fCatDir.list();
+                if (saEntries == null)
+                    continue;
+                List<Future<List<File>>> lTasks = new ArrayList<Future<List<File>>>();
+                for (int iStart = 0; iStart < saEntries.length; 
+                        iStart += SCAN_CHUNK_SIZE) {
+                    final String[] saChunk = Arrays.copyOfRange(saEntries, iStart,
+                            Math.min(iStart + SCAN_CHUNK_SIZE, saEntries.length));
+                    Callable<List<File>> cScan = new Callable<List<File>>() {
+                        public List<File> call() {
+                            List<File> lFiles = new ArrayList<File>(saChunk.length);
+                            for (String sEntry : saChunk) {
+                                File fCur = new File(fCatDir, sEntry);
+                                if (!fCur.isDirectory())
+                                    lFiles.add(fCur);
+                            }
+                            return lFiles;
+                        }
+                    };
+                    lTasks.add(esScanners.submit(cScan));
+                }
+                mTasks.put(sCategory, lTasks);
+            }
+            
+            // Gather results in order
+            for (Map.Entry<String,List<Future<List<File>>>> eCur : mTasks.entrySet()) {
+                List<File> lFiles = new ArrayList<File>();
+                try {
+                    for (Future<List<File>> fChunk : eCur.getValue())
+                        lFiles.addAll(fChunk.get());
+                    mRes.put(eCur.getKey(), lFiles.toArray(new File[lFiles.size()]));
+                } catch (ExecutionException ee) {
+                    System.err.println("Could not scan category " + eCur.getKey());
+                    ee.printStackTrace(System.err);
+                }
+            }
+        } catch (InterruptedException ie) {
+            ie.printStackTrace(System.err);
+            Thread.currentThread().interrupt();
+        }
+        finally {
+            esScanners.shutdownNow();
+        }
+        
+        return mRes;
+    }
+    
+    /** Returns a reader of the files of a subset of the document set, which
+     * loads the files on background threads ahead of their use.
+     *@param iFromWhichSet One of FROM_TRAINING_SET, FROM_TEST_SET, 
+     * FROM_WHOLE_SET.
+     *@param lLoader The loader of the text of every file, or null to load
+     * the raw text (with newlines).
+     *@param iThreads The number of I/O threads.
+     *@param iCapacity The maximum number of files read ahead.
+     *@return The reader, which returns every file along with its text.
+     */
+    public PrefetchingDocumentReader readFiles(int iFromWhichSet, 
+            IFileLoader<String> lLoader,
+            int iThreads, int iCapacity) {
+        ArrayList<CategorizedFileEntry> alFiles = new ArrayList<CategorizedFileEntry>();
+        if ((iFromWhichSet & FROM_TRAINING_SET) > 0)
+            alFiles.addAll(getTrainingSet());
+        if ((iFromWhichSet & FROM_TEST_SET) > 0)
+            alFiles.addAll(getTestSet());
+        
+        return new PrefetchingDocumentReader(alFiles, lLoader, iThreads, 
+                iCapacity);
+    }
+    
     /** Shuffles (randomizes the order of) the files appearing in the training set.
      */
     public void shuffleTrainingSet() {
@@ -0,0 +1,192 @@
+/*
+ * Under LGPL
+ * by George Giannakopoulos
+ */
+
+package gr.demokritos.iit.jinsect.structs;
+
+import gr.demokritos.iit.jinsect.storage.INSECTDB;
+import java.io.IOException;
+import java.io.Serializable;
+import java.util.concurrent.ConcurrentHashMap;
+
+/** A thread-safe dictionary of n-grams, mapping every n-gram text to a
+ * stable integer identifier. The dictionary can be shared among any number of
+ * graphs (e.g. process-wide, through {@link #getGlobal()}, or per repository),
+ * so that identical n-gram labels are represented by a single {@link String}
+ * instance and can be compared as integers.
+ *
+ * Lookups of already known n-grams do not lock; only the assignment of new
+ * identifiers is serialized.
+ *
+ * @author ggianna
+ */
+public class NGramDictionary implements Serializable {
+    /** The category under which dictionaries are stored in an {@link INSECTDB}.
+     */
+    public static final String DICTIONARY_CATEGORY = "NGramDictionary";
+    /** The value returned by {@link #lookupId(String)} for unknown n-grams. */
+    public static final int NO_ID = -1;
+
+    private static NGramDictionary GlobalDictionary = null;
+
+    /** The n-gram to identifier map. Rebuilt from the labels on load. */
+    protected transient ConcurrentHashMap<String,Integer> Ids;
+    /** The labels of the n-grams, indexed by identifier. */
+    protected volatile String[] Labels;
+    /** The number of identifiers assigned. */
+    protected volatile int Size;
+
+    /** Creates a new, empty dictionary. */
+    public NGramDictionary() {
+        this(1024);
+    }
+
+    /** Creates a new, empty dictionary with a given initial capacity.
+     *@param iInitialCapacity The expected number of distinct n-grams.
+     */
+    public NGramDictionary(int iInitialCapacity) {
+        iInitialCapacity = Math.max(16, iInitialCapacity);
+        Ids = new ConcurrentHashMap<String, Integer>(iInitialCapacity);
+        Labels = new String[iInitialCapacity];
+        Size = 0;
+    }
+
+    /** Returns the process-wide dictionary, creating it if needed.
+     *@return The shared dictionary instance.
+     */
+    public static synchronized NGramDictionary getGlobal() {
+        if (GlobalDictionary == null)
+            GlobalDictionary = new NGramDictionary();
+        return GlobalDictionary;
+    }
+
+    /** Replaces the process-wide dictionary, e.g. with one loaded from a
+     * repository through {@link #loadFromDB(INSECTDB, String)}.
+     *@param ndNew The new global dictionary.
+     */
+    public static synchronized void setGlobal(NGramDictionary ndNew) {
+        GlobalDictionary = ndNew;
+    }
+
+    /** Returns the identifier of a given n-gram, assigning a new one if the
+     * n-gram has not been met before.
+     *@param sNGram The n-gram text.
+     *@return The identifier of the n-gram.
+     */
+    public int getId(String sNGram) {
+        Integer iId = Ids.get(sNGram);
+        if (iId != null)
+            return iId;
+
+        synchronized (this) {
+            // Check again, since another thread may have added it
+            iId = Ids.get(sNGram);
+            if (iId != null)
+                return iId;
+
+            int iNewId = Size;
+            if (iNewId == Labels.length) {
+                String[] saNew = new String[Labels.length << 1];
+                System.arraycopy(Labels, 0, saNew, 0, Labels.length);
+                Labels = saNew;
+            }
+            Labels[iNewId] = sNGram;
+            Size = iNewId + 1;
+            // Publish the id only after the label has been stored
+            Ids.put(sNGram, iNewId);
+            return iNewId;
+        }
+    }
+
+    /** Returns the identifier of a given n-gram, without assigning a new one.
+     *@param sNGram The n-gram text.
+     *@return The identifier of the n-gram, or {@link #NO_ID} if the n-gram is
+     * unknown.
+     */
+    public int lookupId(String sNGram) {
+        Integer iId = Ids.get(sNGram);
+        return (iId == null) ? NO_ID : iId;
+    }
+
+    /** Returns the n-gram text that corresponds to a given identifier.
+     *@param iId The identifier.
+     *@return The n-gram text, or null if the identifier has not been assigned.
+     */
+    public String getNGram(int iId) {
+        if ((iId < 0) || (iId >= Size))
+            return null;
+        return Labels[iId];
+    }
+
+    /** Returns the canonical instance of a given n-gram text, adding the
+     * n-gram to the dictionary if needed. Graphs sharing the dictionary thus
+     * share a single copy of every label.
+     *@param sNGram The n-gram text.
+     *@return The canonical string for the n-gram.
+     */
+    public String intern(String sNGram) {
+        if (sNGram == null)
+            return null;
+        return Labels[getId(sNGram)];
+    }
+
+    /** Checks whether a given n-gram has an identifier in the dictionary.
+     *@param sNGram The n-gram text.
+     *@return True if the n-gram is known, otherwise false.
+     */
+    public boolean contains(String sNGram) {
+        return Ids.containsKey(sNGram);
+    }
+
+    /** Returns the number of distinct n-grams in the dictionary.
+     *@return The number of assigned identifiers.
+     */
+    public int size() {
+        return Size;
+    }
+
+    /** Saves the dictionary to a given database.
+     *@param dbTarget The database to use.
+     *@param sName The name under which the dictionary is saved.
+     */
+    public void saveToDB(INSECTDB dbTarget, String sName) {
+        synchronized (this) {
+            dbTarget.saveObject(this, sName, DICTIONARY_CATEGORY);
+        }
+    }
+
+    /** Loads a dictionary from a given database.
+     *@param dbSource The database to use.
+     *@param sName The name under which the dictionary was saved.
+     *@return The loaded dictionary, or null if no such dictionary exists.
+     */
+    public static NGramDictionary loadFromDB(INSECTDB dbSource, String sName) {
+        if (!dbSource.existsObject(sName, DICTIONARY_CATEGORY))
+            return null;
+        return (NGramDictionary)dbSource.loadObject(sName, DICTIONARY_CATEGORY);
+    }
+
+    // Serialization: only the labels are written; the map is rebuilt on load.
+    private synchronized void writeObject(java.io.ObjectOutputStream out)
+      throws IOException {
+        out.writeInt(Size);
+        for (int iCnt = 0; iCnt < Size; iCnt++)
+            out.writeUTF(Labels[iCnt]);
+    }
+
+    private void readObject(java.io.ObjectInputStream in)
+      throws IOException, ClassNotFoundException {
+        int iSize = in.readInt();
+        String[] saLabels = new String[Math.max(16, iSize)];
+        ConcurrentHashMap<String,Integer> hIds =
+                new ConcurrentHashMap<String, Integer>(saLabels.length);
+        for (int iCnt = 0; iCnt < iSize; iCnt++) {
+            saLabels[iCnt] = in.readUTF();
+            hIds.put(saLabels[iCnt], iCnt);
+        }
+        Labels = saLabels;
+        Ids = hIds;
+        Size = iSize;
+    }
+}
@@ -0,0 +1,173 @@
+/*
+ * Under LGPL licence.
+ */
+
+package gr.demokritos.iit.jinsect.structs;
+
+import gr.demokritos.iit.jinsect.storage.IFileLoader;
+import gr.demokritos.iit.jinsect.utils;
+import java.util.Iterator;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.NoSuchElementException;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+
+/** Reads the files of a list of {@link CategorizedFileEntry} objects ahead of
+ * their consumers, using a pool of I/O threads. At most a given number of
+ * files are loaded (or being loaded) but not yet consumed, so memory remains
+ * bounded for corpora of any size. Files are returned in the order of the
+ * list. The reader can be shared by several consumer threads (e.g. threads
+ * building graphs), which should then use {@link #poll()}: a
+ * {@link #hasNext()} check followed by a {@link #next()} call is not atomic,
+ * so another consumer may take the last file in between.
+ *
+ * @author ggianna
+ */
+public class PrefetchingDocumentReader implements
+        Iterator<Pair<CategorizedFileEntry,String>>,
+        Iterable<Pair<CategorizedFileEntry,String>> {
+    /** The entries not yet submitted for loading. */
+    protected Iterator<CategorizedFileEntry> Entries;
+    /** The loader of the file texts. */
+    protected IFileLoader<String> Loader;
+    /** The files submitted for loading, in list order. */
+    protected LinkedList<Future<Pair<CategorizedFileEntry,String>>> Pending;
+    /** The maximum number of files loaded ahead. */
+    protected int Capacity;
+    /** The I/O threads. */
+    protected ExecutorService Readers;
+
+    /** Creates a reader of the given entries, using
+     * {@link utils#loadFileToStringWithNewlines(String)} to load every file, as many
+     * I/O threads as the available processors and reading up to 64 files ahead.
+     *@param lEntries The files to read.
+     */
+    public PrefetchingDocumentReader(List<CategorizedFileEntry> lEntries) {
+        this(lEntries, null, Runtime.getRuntime().availableProcessors(), 64);
+    }
+
+    /** Creates a reader of the given entries.
+     *@param lEntries The files to read.
+     *@param lLoader The loader of the text of every file. If null,
+     * {@link utils#loadFileToStringWithNewlines(String)} is used. Must be thread safe.
+     *@param iThreads The number of I/O threads.
+     *@param iCapacity The maximum number of files read ahead of the consumers.
+     */
+    public PrefetchingDocumentReader(List<CategorizedFileEntry> lEntries,
+            IFileLoader<String> lLoader, int iThreads, int iCapacity) {
+        Entries = lEntries.iterator();
+        Loader = lLoader;
+        Capacity = Math.max(1, iCapacity);
+        Pending = new LinkedList<Future<Pair<CategorizedFileEntry,String>>>();
+        Readers = Executors.newFixedThreadPool(Math.max(1, iThreads),
+                new ThreadFactory() {
+            public Thread newThread(Runnable r) {
+                Thread tRes = new Thread(r, "PrefetchingDocumentReader");
+                tRes.setDaemon(true);
+                return tRes;
+            }
+        });
+        fill();
+    }
+
+    /** Submits files for loading, until the capacity is reached. */
+    private void fill() {
+        while (Pending.size() < Capacity && Entries.hasNext()) {
+            final CategorizedFileEntry cfeCur = Entries.next();
+            Pending.add(Readers.submit(
+                    new Callable<Pair<CategorizedFileEntry,String>>() {
+                public Pair<CategorizedFileEntry, String> call() {
+                    String sText = null;
+                    try {
+                        sText = (Loader == null) ?
+                            utils.loadFileToStringWithNewlines(cfeCur.getFileName()) :
+                            Loader.loadFile(cfeCur.getFileName());
+                    } catch (RuntimeException re) {
+                        System.err.println("Could not load file " +
+                                cfeCur.getFileName() + ". Cause:");
+                        re.printStackTrace(System.err);
+                    }
+                    return new Pair<CategorizedFileEntry,String>(cfeCur, sText);
+                }
+            }));
+        }
+        if (Pending.isEmpty())
+            Readers.shutdown();
+    }
+
+    public synchronized boolean hasNext() {
+        return !Pending.isEmpty();
+    }
+
+    /** Returns the next file and its text, waiting for it to be loaded if
+     * required.
+     *@return The file entry and its text. The text is null if the file
+     * could not be loaded.
+     *@throws NoSuchElementException If there are no more files.
+     */
+    public Pair<CategorizedFileEntry,String> next() {
+        Pair<CategorizedFileEntry,String> pRes = poll();
+        if (pRes == null)
+            throw new NoSuchElementException();
+        return pRes;
+    }
+
+    /** Takes the next file and returns it with its text, waiting for it to be
+     * loaded if required. Taking the file is atomic, so several consumers can
+     * call this method until it returns null. The wait for the file is not
+     * synchronized, so other consumers can take the following files
+     * meanwhile.
+     *@return The file entry and its text, or null if there are no more files.
+     * The text is null if the file could not be loaded.
+     */
+    public Pair<CategorizedFileEntry,String> poll() {
+        Future<Pair<CategorizedFileEntry,String>> fCur;
+        synchronized (this) {
+            if (Pending.isEmpty())
+                return null;
+            fCur = Pending.removeFirst();
+            fill();
+        }
+
+        Pair<CategorizedFileEntry,String> pRes = null;
+        boolean bInterrupted = false;
+        while (pRes == null)
+            try {
+                pRes = fCur.get();
+            } catch (InterruptedException ex) {
+                bInterrupted = true;
+            } catch (ExecutionException ex) {
+                throw new IllegalStateException(ex.getCause());
+            }
+        if (bInterrupted)
+            Thread.currentThread().interrupt();
+
+        return pRes;
+    }
+
+    /** Not supported. */
+    public void remove() {
+        throw new UnsupportedOperationException("Not supported.");
+    }
+
+    /** Returns this reader, so that it can be used in for-each loops. It can
+     * only be iterated once. */
+    public Iterator<Pair<CategorizedFileEntry,String>> iterator() {
+        return this;
+    }
+
+    /** Stops reading ahead. Files already submitted for loading are
+     * discarded, except for the ones already taken by consumers, which are
+     * still waiting for them. */
+    public synchronized void close() {
+        for (Future<Pair<CategorizedFileEntry,String>> fCur : Pending)
+            fCur.cancel(true);
+        Pending.clear();
+        Readers.shutdown();
+    }
+}
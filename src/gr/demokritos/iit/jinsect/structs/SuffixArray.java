@@ -0,0 +1,382 @@
+/*
+ * Under LGPL
+ * by George Giannakopoulos
+ */
+
+package gr.demokritos.iit.jinsect.structs;
+
+import java.util.Arrays;
+
+/** A suffix array over a text, supporting substring statistics: occurrence
+ * counts in O(|pattern| log n) time, occurrence positions and the
+ * enumeration of the distinct substrings of a given length.
+ * <p>The array is built in linear time (using the SA-IS algorithm). The
+ * longest common prefix (LCP) array, required for the enumeration of
+ * substrings, is built (in linear time) when first needed.</p>
+ *
+ * @author ggianna
+ */
+public class SuffixArray {
+    /** The text. */
+    protected char[] Text;
+    /** The starting positions of the suffixes of the text, in lexicographic
+     * order. */
+    protected int[] Suffixes;
+    /** The longest common prefix of every suffix with its predecessor in
+     * lexicographic order. Null until first needed. */
+    protected int[] LCP = null;
+
+    /** Builds the suffix array of a text.
+     *@param sText The text to index.
+     */
+    public SuffixArray(CharSequence sText) {
+        int iLen = sText.length();
+        Text = new char[iLen];
+        for (int iCnt = 0; iCnt < iLen; iCnt++)
+            Text[iCnt] = sText.charAt(iCnt);
+
+        // Map the alphabet to 1..K, keeping 0 for the sentinel
+        int[] iaRank = new int[Character.MAX_VALUE + 1];
+        for (char c : Text)
+            iaRank[c] = 1;
+        int iAlphabet = 1;
+        for (int iCnt = 0; iCnt < iaRank.length; iCnt++)
+            if (iaRank[iCnt] != 0)
+                iaRank[iCnt] = iAlphabet++;
+        int[] iaText = new int[iLen + 1];
+        for (int iCnt = 0; iCnt < iLen; iCnt++)
+            iaText[iCnt] = iaRank[Text[iCnt]];
+        iaText[iLen] = 0;
+
+        int[] iaSA = new int[iLen + 1];
+        sais(iaText, iaSA, iLen + 1, iAlphabet);
+        // Remove the sentinel suffix (always first)
+        Suffixes = Arrays.copyOfRange(iaSA, 1, iLen + 1);
+    }
+
+    /** Returns the length of the indexed text. */
+    public int length() {
+        return Text.length;
+    }
+
+    /** Returns the position of the i-th suffix, in lexicographic order. */
+    public int getSuffix(int i) {
+        return Suffixes[i];
+    }
+
+    /** Returns the longest common prefix of the i-th suffix (in
+     * lexicographic order) and its predecessor. Zero for the first suffix.
+     */
+    public int getLCP(int i) {
+        return getLCPArray()[i];
+    }
+
+    /** Returns the indexed text. */
+    public String getText() {
+        return new String(Text);
+    }
+
+    /** Returns the number of (possibly overlapping) occurrences of a pattern
+     * in the text.
+     *@param sPattern The pattern to look up. The empty pattern occurs at
+     * every position of the text.
+     *@return The occurrence count.
+     */
+    public int count(CharSequence sPattern) {
+        return upperBound(sPattern) - lowerBound(sPattern);
+    }
+
+    /** Returns the positions where a pattern occurs in the text.
+     *@param sPattern The pattern to look up.
+     *@return The (possibly overlapping) occurrence positions, in ascending
+     * order.
+     */
+    public int[] getOccurrences(CharSequence sPattern) {
+        int iFrom = lowerBound(sPattern);
+        int[] iaRes = Arrays.copyOfRange(Suffixes, iFrom, upperBound(sPattern));
+        Arrays.sort(iaRes);
+        return iaRes;
+    }
+
+    /** Returns the index of the first suffix not smaller than the pattern. */
+    protected int lowerBound(CharSequence sPattern) {
+        int iLow = 0, iHigh = Suffixes.length;
+        while (iLow < iHigh) {
+            int iMid = (iLow + iHigh) >>> 1;
+            if (comparePrefix(Suffixes[iMid], sPattern) < 0)
+                iLow = iMid + 1;
+            else
+                iHigh = iMid;
+        }
+        return iLow;
+    }
+
+    /** Returns the index of the first suffix that is greater than the
+     * pattern and does not start with it. */
+    protected int upperBound(CharSequence sPattern) {
+        int iLow = 0, iHigh = Suffixes.length;
+        while (iLow < iHigh) {
+            int iMid = (iLow + iHigh) >>> 1;
+            if (comparePrefix(Suffixes[iMid], sPattern) <= 0)
+                iLow = iMid + 1;
+            else
+                iHigh = iMid;
+        }
+        return iLow;
+    }
+
+    /** Compares the prefix of a suffix, of the length of a pattern, to the
+     * pattern.
+     *@return A negative number, zero or a positive number if the prefix of
+     * the suffix is smaller, equal or greater than the pattern.
+     */
+    private int comparePrefix(int iSuffix, CharSequence sPattern) {
+        int iLen = sPattern.length();
+        for (int iCnt = 0; iCnt < iLen; iCnt++) {
+            if (iSuffix + iCnt >= Text.length)
+                return -1; // Suffix shorter than the pattern
+            int iDiff = Text[iSuffix + iCnt] - sPattern.charAt(iCnt);
+            if (iDiff != 0)
+                return iDiff;
+        }
+        return 0;
+    }
+
+    /** Returns the LCP array, building it if required (Kasai et al.). */
+    protected synchronized int[] getLCPArray() {
+        if (LCP != null)
+            return LCP;
+
+        int iLen = Suffixes.length;
+        int[] iaRank = new int[iLen];
+        for (int iCnt = 0; iCnt < iLen; iCnt++)
+            iaRank[Suffixes[iCnt]] = iCnt;
+        int[] iaLCP = new int[iLen];
+        int iCommon = 0;
+        for (int iPos = 0; iPos < iLen; iPos++) {
+            if (iaRank[iPos] == 0) {
+                iCommon = 0;
+                continue;
+            }
+            int iPrv = Suffixes[iaRank[iPos] - 1];
+            while (iPos + iCommon < iLen && iPrv + iCommon < iLen &&
+                    Text[iPos + iCommon] == Text[iPrv + iCommon])
+                iCommon++;
+            iaLCP[iaRank[iPos]] = iCommon;
+            if (iCommon > 0)
+                iCommon--;
+        }
+        LCP = iaLCP;
+        return LCP;
+    }
+
+    /** Returns the positions of the first occurrences of all the distinct
+     * substrings of a given length.
+     *@param iLength The length of the substrings.
+     *@return The first occurrence positions, in ascending order, i.e. the
+     * order in which the substrings are met when scanning the text.
+     */
+    public int[] getFirstOccurrences(int iLength) {
+        return getBoundaryOccurrences(iLength, true);
+    }
+
+    /** Returns the positions of the last occurrences of all the distinct
+     * substrings of a given length.
+     *@param iLength The length of the substrings.
+     *@return The last occurrence positions, in ascending order, i.e. the
+     * order in which every substring is met for the last time when scanning
+     * the text.
+     */
+    public int[] getLastOccurrences(int iLength) {
+        return getBoundaryOccurrences(iLength, false);
+    }
+
+    /** Returns the first or last occurrence positions of all the distinct
+     * substrings of a given length, in ascending order. */
+    private int[] getBoundaryOccurrences(int iLength, boolean bFirst) {
+        int[] iaLCP = getLCPArray();
+        int[] iaRes = new int[Suffixes.length];
+        int iCount = 0;
+        int iBoundary = -1;
+        for (int iCnt = 0; iCnt < Suffixes.length; iCnt++) {
+            int iPos = Suffixes[iCnt];
+            if (iPos + iLength > Text.length) {
+                // Too short; also ends any group
+                if (iBoundary >= 0)
+                    iaRes[iCount++] = iBoundary;
+                iBoundary = -1;
+                continue;
+            }
+            if (iBoundary < 0 || iaLCP[iCnt] < iLength) {
+                // New substring
+                if (iBoundary >= 0)
+                    iaRes[iCount++] = iBoundary;
+                iBoundary = iPos;
+            }
+            else
+                iBoundary = bFirst ? Math.min(iBoundary, iPos) :
+                    Math.max(iBoundary, iPos);
+        }
+        if (iBoundary >= 0)
+            iaRes[iCount++] = iBoundary;
+
+        iaRes = Arrays.copyOf(iaRes, iCount);
+        Arrays.sort(iaRes);
+        return iaRes;
+    }
+
+    /** Visits the groups of suffixes that share a common prefix of a given
+     * length, i.e. the distinct substrings of that length. Every group is a
+     * range of consecutive suffixes (in lexicographic order).
+     *@param iLength The length of the common prefix.
+     *@param vVisitor The visitor of the groups.
+     */
+    public void visitGroups(int iLength, GroupVisitor vVisitor) {
+        int[] iaLCP = getLCPArray();
+        int iFrom = -1;
+        for (int iCnt = 0; iCnt < Suffixes.length; iCnt++) {
+            boolean bLongEnough = Suffixes[iCnt] + iLength <= Text.length;
+            if (iFrom >= 0 && (!bLongEnough || iaLCP[iCnt] < iLength)) {
+                vVisitor.visit(iFrom, iCnt);
+                iFrom = -1;
+            }
+            if (bLongEnough && iFrom < 0)
+                iFrom = iCnt;
+        }
+        if (iFrom >= 0)
+            vVisitor.visit(iFrom, Suffixes.length);
+    }
+
+    /** A visitor of groups of suffixes with a common prefix.
+     *@see SuffixArray#visitGroups(int, GroupVisitor)
+     */
+    public static interface GroupVisitor {
+        /** Visits a group.
+         *@param iFrom The index (in lexicographic order) of the first suffix
+         * of the group.
+         *@param iTo The index after the last suffix of the group.
+         */
+        public void visit(int iFrom, int iTo);
+    }
+
+    // SA-IS (Nong, Zhang and Chan, 2009)
+
+    /** Builds the suffix array of a text ending with a unique, smallest
+     * sentinel (0).
+     *@param T The text, with symbols in [0, K).
+     *@param SA The array to fill.
+     *@param n The length of the text.
+     *@param K The alphabet size.
+     */
+    private static void sais(int[] T, int[] SA, int n, int K) {
+        if (n == 1) {
+            SA[0] = 0;
+            return;
+        }
+        // Classify suffixes: true for S-type
+        boolean[] t = new boolean[n];
+        t[n - 1] = true;
+        for (int i = n - 2; i >= 0; i--)
+            t[i] = T[i] < T[i + 1] || (T[i] == T[i + 1] && t[i + 1]);
+
+        // Stage 1: sort the LMS substrings
+        int[] bkt = new int[K];
+        getBuckets(T, bkt, n, K, true);
+        Arrays.fill(SA, 0, n, -1);
+        for (int i = 1; i < n; i++)
+            if (isLMS(t, i))
+                SA[--bkt[T[i]]] = i;
+        induceL(T, SA, t, bkt, n, K);
+        induceS(T, SA, t, bkt, n, K);
+
+        // Compact the sorted LMS substrings
+        int n1 = 0;
+        for (int i = 0; i < n; i++)
+            if (isLMS(t, SA[i]))
+                SA[n1++] = SA[i];
+
+        // Name the LMS substrings
+        Arrays.fill(SA, n1, n, -1);
+        int name = 0, prev = -1;
+        for (int i = 0; i < n1; i++) {
+            int pos = SA[i];
+            boolean diff = false;
+            for (int d = 0; d < n; d++) {
+                if (prev == -1 || T[pos + d] != T[prev + d] ||
+                        t[pos + d] != t[prev + d]) {
+                    diff = true;
+                    break;
+                }
+                else if (d > 0 && (isLMS(t, pos + d) || isLMS(t, prev + d)))
+                    break;
+            }
+            if (diff) {
+                name++;
+                prev = pos;
+            }
+            SA[n1 + (pos >> 1)] = name - 1;
+        }
+        int[] s1 = new int[n1];
+        for (int i = n - 1, j = n1 - 1; i >= n1; i--)
+            if (SA[i] >= 0)
+                s1[j--] = SA[i];
+
+        // Stage 2: sort the reduced problem
+        int[] SA1 = new int[n1];
+        if (name < n1)
+            sais(s1, SA1, n1, name);
+        else
+            for (int i = 0; i < n1; i++)
+                SA1[s1[i]] = i;
+
+        // Stage 3: induce the suffix array from the sorted LMS suffixes
+        getBuckets(T, bkt, n, K, true);
+        for (int i = 1, j = 0; i < n; i++)
+            if (isLMS(t, i))
+                s1[j++] = i;
+        for (int i = 0; i < n1; i++)
+            SA1[i] = s1[SA1[i]];
+        Arrays.fill(SA, 0, n, -1);
+        for (int i = n1 - 1; i >= 0; i--)
+            SA[--bkt[T[SA1[i]]]] = SA1[i];
+        induceL(T, SA, t, bkt, n, K);
+        induceS(T, SA, t, bkt, n, K);
+    }
+
+    private static boolean isLMS(boolean[] t, int i) {
+        return i > 0 && t[i] && !t[i - 1];
+    }
+
+    /** Computes the start (or end, exclusive) of every symbol bucket. */
+    private static void getBuckets(int[] T, int[] bkt, int n, int K,
+            boolean bEnd) {
+        Arrays.fill(bkt, 0, K, 0);
+        for (int i = 0; i < n; i++)
+            bkt[T[i]]++;
+        int sum = 0;
+        for (int i = 0; i < K; i++) {
+            sum += bkt[i];
+            bkt[i] = bEnd ? sum : sum - bkt[i];
+        }
+    }
+
+    private static void induceL(int[] T, int[] SA, boolean[] t, int[] bkt,
+            int n, int K) {
+        getBuckets(T, bkt, n, K, false);
+        for (int i = 0; i < n; i++) {
+            int j = SA[i] - 1;
+            if (SA[i] > 0 && !t[j])
+                SA[bkt[T[j]]++] = j;
+        }
+    }
+
+    private static void induceS(int[] T, int[] SA, boolean[] t, int[] bkt,
+            int n, int K) {
+        getBuckets(T, bkt, n, K, true);
+        for (int i = n - 1; i >= 0; i--) {
+            int j = SA[i] - 1;
+            if (SA[i] > 0 && t[j])
+                SA[--bkt[T[j]]] = j;
+        }
+    }
+}
@@ -36,6 +36,9 @@ public class UniqueVertexGraph extends WeightedGraphImpl implements Serializable
      */
     public HashMap<String,Vertex> UniqueVertices;
     protected EdgeCachedLocator eclLocator = null;
+    /** The (optionally shared) dictionary used to canonicalize vertex labels.
+     */
+    protected transient NGramDictionary Dictionary = null;
 
     /**
      * Set a locator to optimize the edge lookup.
@@ -44,6 +47,23 @@ public class UniqueVertexGraph extends WeightedGraphImpl implements Serializable
     public void setLocator(EdgeCachedLocator eNewLocator) {
         eclLocator = eNewLocator;
     }
+
+    /**
+     * Set a dictionary to canonicalize the labels of added vertices. Graphs
+     * sharing a dictionary share a single instance of every label.
+     * @param ndNew The dictionary to use, or null to disable interning.
+     */
+    public void setDictionary(NGramDictionary ndNew) {
+        Dictionary = ndNew;
+    }
+
+    /**
+     * Returns the dictionary used to canonicalize vertex labels.
+     * @return The dictionary, or null if none is used.
+     */
+    public NGramDictionary getDictionary() {
+        return Dictionary;
+    }
     
    
     /** Initializes the graph.
@@ -88,8 +108,12 @@ public class UniqueVertexGraph extends WeightedGraphImpl implements Serializable
         if (UniqueVertices.containsKey(v.getLabel()))
             // If already exists
             return;
-        else
+        else {
+            // Use the canonical label instance, if a dictionary is used
+            if (Dictionary != null)
+                v.setLabel(Dictionary.intern(v.getLabel()));
             super.add(v);
+        }
         // Append
         UniqueVertices.put(v.getLabel(), v);
     }
@@ -252,6 +276,7 @@ public class UniqueVertexGraph extends WeightedGraphImpl implements Serializable
 //        // Clear reference
 //        m.deleteObject("tmp", "tmp");
         UniqueVertexGraph res = new UniqueVertexGraph();
+        res.Dictionary = this.Dictionary;
         res.UniqueVertices = (HashMap<String, Vertex>) this.UniqueVertices.clone();
         
         for (WeightedEdgeImpl eCur: (Set<WeightedEdgeImpl>)this.getEdgeSet())
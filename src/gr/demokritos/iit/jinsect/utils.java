@@ -9,6 +9,7 @@ import gr.demokritos.iit.conceptualIndex.structs.Concatenation;
 import gr.demokritos.iit.conceptualIndex.structs.Distribution;
 import gr.demokritos.iit.conceptualIndex.structs.DistributionGraph;
 import gr.demokritos.iit.conceptualIndex.structs.Union;
+import gr.demokritos.iit.jinsect.storage.CharsetFileLoader;
 import gr.demokritos.iit.jinsect.storage.IFileLoader;
 import java.io.ByteArrayInputStream;
 import java.io.File;
@@ -20,8 +21,6 @@ import java.util.LinkedList;
 import java.util.List;
 import java.awt.event.WindowAdapter;
 import java.awt.event.WindowEvent;
-import java.io.BufferedReader;
-import java.io.FileReader;
 import java.util.Arrays;
 import java.util.Hashtable;
 import java.util.Map;
@@ -1029,81 +1028,64 @@ public final class utils {
     }
     
     /** Loads the contents of a file into a string, <i>without preserving newlines</i>. 
+     * The file is decoded using {@link CharsetFileLoader#getDefaultCharset()}.
      *@param sFilename The filename of the file to load.
      *@return A String containing the contents of the given file.
      */
     public static String loadFileToString(String sFilename) {
-        StringBuffer sb = new StringBuffer();
-        try {
-           BufferedReader in = new BufferedReader(new FileReader(sFilename));
-           String line;
-           while ((line = in.readLine()) != null) {
-            sb.append(line);
-           }
-           in.close();
-        } catch (Exception e) {
-            System.err.println("Coult not load file:" + sFilename);
-            e.printStackTrace(System.err);
-        }
-        
-        return sb.toString();
+        return loadFileToString(sFilename, Integer.MAX_VALUE);
     }
 
     /** Loads the contents of a file into a string, <i>without preserving newlines</i>. 
+     * The file is decoded using {@link CharsetFileLoader#getDefaultCharset()}.
      *@param sFilename The filename of the file to load.
      *@return A String containing the contents of the given file.
      */
     public static String loadFileToString(String sFilename, int iMaxLen) {
-        StringBuffer sb = new StringBuffer();
         try {
-           BufferedReader in = new BufferedReader(new FileReader(sFilename));
-           String line;
-           while (((line = in.readLine()) != null) && 
-                   (sb.length() + line.length() < iMaxLen)) {
-            sb.append(line);
-           }
-           in.close();
+            return CharsetFileLoader.loadFileToString(sFilename, 
+                    CharsetFileLoader.getDefaultCharset(), iMaxLen);
         } catch (Exception e) {
             System.err.println("Coult not load file:" + sFilename);
             e.printStackTrace(System.err);
         }
         
-        return sb.toString();
+        return "";
     }
     
     /** Loads the contents of a file into a string, preserving newlines. 
+     * The file is decoded using {@link CharsetFileLoader#getDefaultCharset()}.
      *@param sFilename The filename of the file to load.
      *@return A String containing the contents of the given file.
      */
     public static String loadFileToStringWithNewlines(String sFilename) {
-        StringBuffer sb = new StringBuffer();
         try {
-           BufferedReader in = new BufferedReader(new FileReader(sFilename));
-           String line;
-           while ((line = in.readLine()) != null) {
-            sb.append(line);
-            sb.append("\n");
-           }
-           in.close();
+            return CharsetFileLoader.loadFileToStringWithNewlines(sFilename, 
+                    CharsetFileLoader.getDefaultCharset());
         } catch (Exception e) {
             System.err.println("Coult not load file:" + sFilename);
             e.printStackTrace(System.err);
         }
         
-        return sb.toString();
+        return "";
     }
     
-    /** Loads the contents of a set of files into a string, by calling repeatedly
-     * <code>loadFileToString</code>. Each file is separated from another by a 
-     * zero character (char(0)).
+    /** Loads the contents of a set of files into a string, as 
+     * <code>loadFileToString</code> does. Files are loaded in parallel, 
+     * using as many threads as the available processors.
+     * Each file is separated from another by a zero character (char(0)).
      *@param ssFiles The set of string filenames to load.
      *@return A String containing the concatenation of the contents of the 
      * given files.
      */
     public static String loadFileSetToString(Set<String> ssFiles) {
-        StringBuffer sbRes = new StringBuffer();
-        for (String sCurFile : ssFiles) {
-            sbRes.append(loadFileToString(sCurFile)).append((char)0);
+        List<String> lTexts = CharsetFileLoader.loadFiles(
+                new ArrayList<String>(ssFiles), 
+                CharsetFileLoader.getDefaultCharset(), false, 
+                Runtime.getRuntime().availableProcessors());
+        StringBuilder sbRes = new StringBuilder();
+        for (String sCurText : lTexts) {
+            sbRes.append(sCurText).append((char)0);
         }
         
         return sbRes.toString();
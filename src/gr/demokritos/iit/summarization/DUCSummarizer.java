@@ -16,6 +16,7 @@ import gr.demokritos.iit.jinsect.events.IObjectFilter;
 import gr.demokritos.iit.jinsect.events.NotificationListener;
 import gr.demokritos.iit.jinsect.storage.INSECTDB;
 import gr.demokritos.iit.jinsect.storage.INSECTFileDB;
+import gr.demokritos.iit.jinsect.storage.RepresentationCache;
 import gr.demokritos.iit.jinsect.structs.CategorizedFileEntry;
 import gr.demokritos.iit.jinsect.structs.DocumentSet;
 import gr.demokritos.iit.jinsect.structs.GraphSimilarity;
@@ -317,7 +318,7 @@ public class DUCSummarizer {
                             iMaxNGram,iDist);
                     //DocumentWordGraph ngdTmp1 = new DocumentWordGraph(1,2,3);
 
-                    ngdTmp1.setDataString(sGrammarText);
+                    ngdTmp1 = RepresentationCache.setCachedDataString(ngdTmp1, sGrammarText);
                     System.err.print("Done. Updating Grammar...");
                     if (Grammar == null)
                         Grammar = ngdTmp1;
@@ -393,7 +394,8 @@ public class DUCSummarizer {
                 //DocumentNGramGraph  curContent = new DocumentWordGraph(1,2,3); // Init content graph
 
                 // Use document set loadFile method
-                curContent.setDataString(dsFiles.loadFile(sCurFile));
+                curContent = RepresentationCache.setCachedDataString(curContent,
+                        dsFiles.loadFile(sCurFile));
 
                 if (!bNoGrammar)
                     curContent = curContent.allNotIn(Grammar);
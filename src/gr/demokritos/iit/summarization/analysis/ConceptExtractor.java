@@ -31,15 +31,44 @@ import gr.demokritos.iit.jinsect.storage.INSECTFileDB;
 public class ConceptExtractor implements IMatching<String>, Notifier {
     protected SemanticIndex Index;
     protected NotificationListener Listener;
+    /** The maximum length of a text, for which the meanings of all its substrings are looked
+     * up in parallel before the substring analysis. Longer texts are looked up on demand. */
+    protected int MaxPrefetchLength = 64;
             
     public ConceptExtractor(SemanticIndex siIndex) {
         Index = siIndex;
     }
+
+    /** Sets the maximum length of a text, for which the meanings of all its substrings are
+     * looked up in parallel before analysis. Use zero to disable prefetching.
+     *@param iMaxPrefetchLength The maximum text length.
+     */
+    public void setMaxPrefetchLength(int iMaxPrefetchLength) {
+        MaxPrefetchLength = iMaxPrefetchLength;
+    }
+
+    /** Looks up the meanings of all the (distinct) substrings of a given text in parallel,
+     * since the substring analysis may need to look up any of them. Texts longer than
+     * {@link #MaxPrefetchLength} are ignored, as are indices whose meaning extractor is
+     * not definitive (see {@link SemanticIndex#prefetchMeanings(java.util.Collection)}).
+     *@param sText The text to analyse.
+     */
+    protected void prefetchSubStrings(String sText) {
+        if (sText.length() > MaxPrefetchLength)
+            return;
+        // Single characters are matched without lookup
+        HashSet<String> hsSubStrings = new HashSet<String>();
+        for (int iStart = 0; iStart < sText.length(); iStart++)
+            for (int iEnd = iStart + 2; iEnd <= sText.length(); iEnd++)
+                hsSubStrings.add(sText.substring(iStart, iEnd));
+        Index.prefetchMeanings(hsSubStrings);
+    }
     
     public List<WordDefinition> extractDefinitions(String sText) {
         
         ArrayList<WordDefinition> alRes = new ArrayList<WordDefinition>();
         
+        prefetchSubStrings(sText);
         // Analyse chunk in substrings
         List lSubStrings = utils.getSubStrings(sText, sText.length(), this);
         if (lSubStrings.size() == 0)
@@ -103,6 +132,7 @@ public class ConceptExtractor implements IMatching<String>, Notifier {
     public List<String> extractConceptDescriptions(String sText) {
         ArrayList<String> alRes = new ArrayList<String>();
         
+        prefetchSubStrings(sText);
         // Analyse chunk in substrings
         List lSubStrings = utils.getSubStrings(sText, sText.length(), this);
         if (lSubStrings.size() == 0)
@@ -9,17 +9,18 @@ package gr.demokritos.iit.summarization.analysis;
 
 import gr.demokritos.iit.conceptualIndex.documentModel.SymbolicGraph;
 import gr.demokritos.iit.conceptualIndex.structs.Distribution;
+import gr.demokritos.iit.jinsect.algorithms.nlp.DelimiterAutomaton;
 import gr.demokritos.iit.jinsect.algorithms.nlp.IChunker;
 import gr.demokritos.iit.jinsect.algorithms.statistics.statisticalCalculation;
 import gr.demokritos.iit.jinsect.structs.CategorizedFileEntry;
 import gr.demokritos.iit.jinsect.structs.EdgeCachedLocator;
+import gr.demokritos.iit.jinsect.structs.SuffixArray;
 import gr.demokritos.iit.jinsect.utils;
 import java.io.IOException;
 import java.io.ObjectStreamException;
 import java.io.Serializable;
 import java.io.StreamTokenizer;
 import java.util.ArrayList;
-import java.util.Arrays;
 import java.util.Iterator;
 import java.util.List;
 import java.util.Set;
@@ -42,6 +43,9 @@ public class EntropyChunker implements Serializable, IChunker {
     SymbolicGraph sgOverallGraph;
     EdgeCachedLocator clLocator;
     SortedMap smDelims;
+    /** The automaton locating the delimiters, compiled once per delimiter set.
+     */
+    DelimiterAutomaton daDelims;
     
     /** {@link Serializable} interface implementer. */
     private void writeObject(java.io.ObjectOutputStream out)
@@ -57,6 +61,7 @@ public class EntropyChunker implements Serializable, IChunker {
         sgOverallGraph = (SymbolicGraph)in.readObject();
         // Load delims
         smDelims = (SortedMap)in.readObject();
+        daDelims = null; // Compiled when needed
         // Re-init cache
         clLocator = new EdgeCachedLocator(100);
     }
@@ -103,6 +108,7 @@ public class EntropyChunker implements Serializable, IChunker {
     /** Clears list of delimiters determined. */
     public void clearDelimiters() {
         smDelims = null;
+        daDelims = null;
     }
     
     /** Returns a sorted map of delimiters, based on their entropy of next character measure.
@@ -125,6 +131,8 @@ public class EntropyChunker implements Serializable, IChunker {
         if (!smDelims.containsValue(StreamTokenizer.TT_EOF)) {
             smDelims.put((Double)smDelims.lastKey() + 0.1, new StringBuffer().append((char)StreamTokenizer.TT_EOF).toString()); // Add EOF char
         }
+        // Compile the delimiters
+        daDelims = new DelimiterAutomaton(smDelims.values());
         
         // Return copy of delims
         return new TreeMap(smDelims);
@@ -136,9 +144,28 @@ public class EntropyChunker implements Serializable, IChunker {
      */
     @Override
     public List chunkString(String sToChunk) {
-        Integer[] iRes = splitPointsByDelimiterList(sToChunk, getDelimiters());
-        String[] sRes = splitStringByDelimiterPoints(sToChunk, iRes);
-        return Arrays.asList(sRes);
+        return getDelimiterAutomaton().chunkString(sToChunk);
+    }
+    
+    /** Returns an iterator over the chunks of a given string. The chunks are 
+     * located only when requested.
+     *@param sToChunk The string to chunk.
+     *@return An {@link Iterator} of the chunks of the given string.
+     */
+    public Iterator<CharSequence> chunkIterator(CharSequence sToChunk) {
+        return getDelimiterAutomaton().chunks(sToChunk);
+    }
+    
+    /** Returns the compiled automaton of the delimiters, determining the
+     * delimiters if required.
+     *@return The {@link DelimiterAutomaton} of the delimiters.
+     */
+    protected DelimiterAutomaton getDelimiterAutomaton() {
+        if (smDelims == null)
+            getDelimiters(); // Also compiles the delimiters
+        if (daDelims == null)
+            daDelims = new DelimiterAutomaton(smDelims.values());
+        return daDelims;
     }
     
     /* Returns a list of indices concerning possible split points.
@@ -148,27 +175,10 @@ public class EntropyChunker implements Serializable, IChunker {
      * string.
      */
     protected Integer[] splitPointsByDelimiterList(String sStr, SortedMap lDelimiters) {
-        ArrayList alRes = new ArrayList();
-        TreeMap lLocal = new TreeMap();
-        lLocal.putAll(lDelimiters);
-        
-        // For every candidate delimiter
-        while (lLocal.size() > 0) {
-            Object oNext = lLocal.lastKey();
-            // Get all split points
-            int iNextSplit = 0;
-            int iLastSplit = 0;
-            while ((iNextSplit = sStr.indexOf((String)lDelimiters.get(oNext), iLastSplit)) > -1) {
-                // TODO : Check
-                alRes.add(new Integer(iNextSplit + ((String)lDelimiters.get(oNext)).length()));
-                iLastSplit = iNextSplit + 1;
-            }
-            
-            lLocal.remove(oNext);
-        }
-        Integer [] iaRes = new Integer[alRes.size()];
-        alRes.toArray(iaRes);
-        gr.demokritos.iit.jinsect.utils.bubbleSortArray(iaRes);
+        int[] iaSplits = new DelimiterAutomaton(lDelimiters.values()).splitPoints(sStr);
+        Integer [] iaRes = new Integer[iaSplits.length];
+        for (int iCnt = 0; iCnt < iaSplits.length; iCnt++)
+            iaRes[iCnt] = iaSplits[iCnt];
         
         return iaRes;
     }
@@ -332,19 +342,21 @@ public class EntropyChunker implements Serializable, IChunker {
      *@param iNGramSize The n-gram size of the delimiters to extract.
      *@return The sorted map of delimiters, sorted by their entropy of next character.
      */
-    private final SortedMap identifyCandidateDelimiters(String sStr, int iNGramSize) {
+    final SortedMap identifyCandidateDelimiters(String sStr, int iNGramSize) {
         String sSubStr = null;
         Integer[] iRes = null;
         ArrayList alRes = new ArrayList();
         TreeMap tmRes = new TreeMap();
+        // Use the shared index of the graph data string, if applicable
+        SuffixArray saIndex = (sStr == sgOverallGraph.getDataString()) ?
+            sgOverallGraph.getSuffixArray() : new SuffixArray(sStr);
         
-        for (int iCnt = 0; iCnt <= sStr.length() - iNGramSize; iCnt++) {
-            if (iCnt + iNGramSize > sStr.length())
-                continue;
+        // For every distinct n-gram, in order of last appearance, so that
+        // among n-grams of equal entropy the last one met in the text is kept
+        int[] iaLastOccurences = saIndex.getLastOccurrences(iNGramSize);
+        for (int iCnt : iaLastOccurences) {
             // Get n-gram
             sSubStr = sStr.substring(iCnt, iCnt + iNGramSize);
-            if (tmRes.containsValue(sSubStr))   // Ignore duplicates
-                continue;
             
             // Look-up current n-gram
             Vertex vStrNode = clLocator.locateVertexInGraph(sgOverallGraph, new VertexImpl(sSubStr));
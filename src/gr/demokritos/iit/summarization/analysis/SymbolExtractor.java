@@ -7,11 +7,12 @@ package gr.demokritos.iit.summarization.analysis;
 
 import gr.demokritos.iit.conceptualIndex.documentModel.DistributionDocument;
 import gr.demokritos.iit.conceptualIndex.documentModel.SymbolicGraph;
-import gr.demokritos.iit.conceptualIndex.structs.Distribution;
 import gr.demokritos.iit.jinsect.console.StatusConsole;
+import gr.demokritos.iit.jinsect.events.IObjectConsumer;
 import gr.demokritos.iit.jinsect.gui.IStatusDisplayer;
 import gr.demokritos.iit.jinsect.structs.CategorizedFileEntry;
 import gr.demokritos.iit.jinsect.structs.DocumentSet;
+import gr.demokritos.iit.jinsect.structs.SuffixArray;
 import gr.demokritos.iit.jinsect.utils;
 import java.io.StreamTokenizer;
 import java.util.ArrayList;
@@ -21,9 +22,13 @@ import java.util.List;
 import java.util.Set;
 import java.util.SortedSet;
 import java.util.TreeSet;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
-import java.util.concurrent.TimeUnit;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 
@@ -34,10 +39,37 @@ import java.util.logging.Logger;
 public class SymbolExtractor {
     protected SymbolicGraph sgOverallGraph;
     protected Set<String> Symbols = null;
+    /** The number of threads used for training and symbol extraction. */
+    protected int Threads = Runtime.getRuntime().availableProcessors();
+    /** Indicates that the running extraction has been cancelled. */
+    protected volatile boolean Cancelled = false;
+    /** The thread running the extraction, if any. */
+    protected Thread Runner = null;
 
     public SymbolExtractor() {
     }
 
+    /** Sets the number of threads used for training and symbol extraction.
+     *@param iThreads The number of threads.
+     */
+    public void setThreads(int iThreads) {
+        Threads = Math.max(1, iThreads);
+    }
+
+    /** Cancels the running extraction (if any), which then returns null. The thread
+     * running the extraction is interrupted.
+     */
+    public synchronized void cancel() {
+        Cancelled = true;
+        if (Runner != null)
+            Runner.interrupt();
+    }
+
+    /** Returns true if the last extraction has been cancelled. */
+    public boolean isCancelled() {
+        return Cancelled;
+    }
+
     public void setSymbols(Set<String> sSymbols) {
         this.Symbols = sSymbols;
     }
@@ -46,10 +78,24 @@ public class SymbolExtractor {
     }
 
     public Set<String> getSymbols(List<String> sStrings, final IStatusDisplayer fStatus) {
+        return getSymbols(sStrings, fStatus, null);
+    }
+
+    /** Returns the symbols of a set of texts, calculating them if they have not already been
+     * calculated or set.
+     *@param sStrings The texts.
+     *@param fStatus The displayer of the progress.
+     *@param ocSymbolConsumer If not null, receives every symbol once, as soon as it is found
+     * (i.e. while the extraction is still running). It is called from several threads.
+     *@return The set of symbols, or null if the extraction was cancelled or interrupted.
+     *@see #cancel()
+     */
+    public Set<String> getSymbols(List<String> sStrings, final IStatusDisplayer fStatus,
+            IObjectConsumer<String> ocSymbolConsumer) {
         if (Symbols != null)
             return Symbols;
         else
-            Symbols = calcSymbols(sStrings, fStatus);
+            Symbols = calcSymbols(sStrings, fStatus, ocSymbolConsumer);
 
         return Symbols;
     }
@@ -65,16 +111,12 @@ public class SymbolExtractor {
     private double getProbabilityOfStringInRandomText(String sPrefix, String sSuffix) {
         double dRes = 0.0;
 
-        // Look directly in the data string of the symbolic graph
-        int iPrefixCount = 0;
-        int iLastOccurence = -1;
-
         if (sPrefix.length() == 0) // Check for empty string
             return 1.0;
 
-        while ((iLastOccurence = sgOverallGraph.getDataString().indexOf(sPrefix, iLastOccurence + 1))
-            > -1)
-            iPrefixCount++;
+        // Look in the suffix array of the data string of the symbolic graph
+        SuffixArray saIndex = sgOverallGraph.getSuffixArray();
+        int iPrefixCount = saIndex.count(sPrefix);
 
         // Consider that the occurence of a random suffix is a proportion of the prefix occurences,
         // as indicated by the probability of the given suffix, as a random selection process of n
@@ -103,23 +145,15 @@ public class SymbolExtractor {
     private double getProbabilityOfStringInText(String sPrefix, String sSuffix) {
         double dRes = 0.0;
 
-        // Look directly in the data string of the symbolic graph
-        int iPrefixCount = 0;
-        int iLastOccurence = -1;
-
         if (sPrefix.length() == 0) // Check for empty string
             return 1.0;
 
-        while ((iLastOccurence = sgOverallGraph.getDataString().indexOf(sPrefix, iLastOccurence + 1))
-            > -1)
-            iPrefixCount++;
+        // Look in the suffix array of the data string of the symbolic graph
+        SuffixArray saIndex = sgOverallGraph.getSuffixArray();
+        int iPrefixCount = saIndex.count(sPrefix);
 
         String sFullString = sPrefix + sSuffix;
-        int iFullStringCount = 0;
-        iLastOccurence = -1;
-        while ((iLastOccurence = sgOverallGraph.getDataString().indexOf(sFullString, iLastOccurence + 1))
-            > -1)
-            iFullStringCount++;
+        int iFullStringCount = saIndex.count(sFullString);
 
         // Consider p(sPrefix) = N(sPrefix) / (length(Text) / length(sPrefix))
         double pPrefix = (double) iPrefixCount /
@@ -132,7 +166,8 @@ public class SymbolExtractor {
 
     }
     
-    private SortedSet<String> getSymbolsByProbabilities(String sText, IStatusDisplayer fStatus) {
+    private SortedSet<String> getSymbolsByProbabilities(String sText, IStatusDisplayer fStatus,
+            IObjectConsumer<String> ocNewSymbols) {
         StringBuffer sbSubStr = new StringBuffer();
         TreeSet tsRes = new TreeSet();
         Date dStartTime = new Date();
@@ -149,7 +184,8 @@ public class SymbolExtractor {
             else
                 // else end the existing symbol, adding it to the returned set and start a new one
             {
-                tsRes.add(sbSubStr.toString());
+                if (tsRes.add(sbSubStr.toString()) && (ocNewSymbols != null))
+                    ocNewSymbols.consume(sbSubStr.toString());
                 // DEBUG LINES
                 // System.err.println("Found symbol:" + sbSubStr.toString());
                 // appendToLog("Found symbol:" + sbSubStr.toString());
@@ -157,23 +193,54 @@ public class SymbolExtractor {
                 sbSubStr = new StringBuffer(sNextChar);
             }
 
-            Date dCurTime = new Date();
-            long lRemaining = (sText.length() - iCnt + 1) *
-                    (long)((double)(dCurTime.getTime() - dStartTime.getTime()) / iCnt);
-            String sRemaining = String.format(" - Remaining: %40s\r",
-                    gr.demokritos.iit.jinsect.utils.millisToMinSecString(lRemaining));
-            if (iCnt % 50 == 0)
+            if (iCnt % 50 == 0) {
+                if (Cancelled)
+                    return tsRes;
+                Date dCurTime = new Date();
+                long lRemaining = (sText.length() - iCnt + 1) *
+                        (long)((double)(dCurTime.getTime() - dStartTime.getTime()) / iCnt);
+                String sRemaining = String.format(" - Remaining: %40s\r",
+                        gr.demokritos.iit.jinsect.utils.millisToMinSecString(lRemaining));
                 fStatus.setStatus("Determining corpus symbols..." + sRemaining + "\n",
                     (double)iCnt / sText.length());
+            }
         }
         // Add the final symbol, if not empty.
         if (sbSubStr.length() > 0)
-            tsRes.add(sbSubStr.toString());
+            if (tsRes.add(sbSubStr.toString()) && (ocNewSymbols != null))
+                ocNewSymbols.consume(sbSubStr.toString());
         fStatus.setStatus("Determining corpus symbols... Done.\r", 1.0);
         return tsRes;
     }
 
-    private Set<String> calcSymbols(List<String> sStrings, final IStatusDisplayer fStatus) {
+    private Set<String> calcSymbols(List<String> sStrings, final IStatusDisplayer fStatus,
+            IObjectConsumer<String> ocSymbolConsumer) {
+        synchronized (this) {
+            Cancelled = false;
+            Runner = Thread.currentThread();
+        }
+        ExecutorService es = Executors.newFixedThreadPool(Threads);
+        try {
+            return calcSymbols(sStrings, fStatus, ocSymbolConsumer, es);
+        } catch (InterruptedException ex) {
+            if (!Cancelled)
+                Logger.getLogger(SymbolExtractor.class.getName()).log(
+                        Level.SEVERE, null, ex);
+            return null;
+        }
+        finally {
+            es.shutdownNow();
+            synchronized (this) {
+                Runner = null;
+                if (Cancelled)
+                    Thread.interrupted(); // Clear the interruption caused by cancel
+            }
+        }
+    }
+
+    private Set<String> calcSymbols(List<String> sStrings, final IStatusDisplayer fStatus,
+            final IObjectConsumer<String> ocSymbolConsumer, ExecutorService es)
+            throws InterruptedException {
         // Initialize SymbolicGraph
         // TODO: Add param
         int Levels=1;
@@ -186,75 +253,128 @@ public class SymbolExtractor {
         DistributionDocument[] ddaDoc = new DistributionDocument[Levels];
         for (int iCnt=0; iCnt < Levels; iCnt++)
         {
-            ddaDoc[iCnt] = new DistributionDocument(1, MinLevel + iCnt); // For all windows
+            ddaDoc[iCnt] = trainDocument(sStrings, MinLevel + iCnt, es); // For all windows
         }
 
-        for (int iCnt=0; iCnt < Levels; iCnt++) {
-            for (String sCurText: sStrings) {
-                ddaDoc[iCnt].setDataString(sCurText, false);
-            }
-        }
-
-        // Get symbol set
-        Set<String> sSymbols = new HashSet<String>();
-
+        // Train symbolic graph
+        List<String> lGraphTexts = new ArrayList<String>(sStrings.size() * 2);
         for (String sCurText: sStrings) {
-            // train symbolic graph
-            sgOverallGraph.setDataString(((new StringBuffer().append(
+            lGraphTexts.add(((new StringBuffer().append(
                     (char)StreamTokenizer.TT_EOF))).toString());
-            sgOverallGraph.setDataString(sCurText);
+            lGraphTexts.add(sCurText);
         }
+        sgOverallGraph.setDataStrings(lGraphTexts, Threads);
 
-        ExecutorService es = Executors.newFixedThreadPool(
-                Runtime.getRuntime().availableProcessors());
-        final Set<String> sSymbolsArg = sSymbols;
-        final Distribution<Double> dProg = new Distribution();
-
+        // Extract symbols in partitions, each with its own set
         final List<String> sStringsArg = sStrings;
-        for (final String sCurText: sStrings) {
-
-            es.submit(new Runnable() {
-
-                public void run() {
-                    Set<String> sTmp = getSymbolsByProbabilities(sCurText, new IStatusDisplayer() {
-                        public void setStatus(String sText, double dValue) {
-                        }
-                        public String getStatusText() {
-                            return "";
-                        }
-                        public void setVisible(boolean bShow) {
-                            return;
-                        }
-                        public boolean getVisible() {
-                            return false;
+        final AtomicInteger aiDone = new AtomicInteger(0);
+        // Report every symbol once, if required
+        final IObjectConsumer<String> ocNewSymbols = (ocSymbolConsumer == null) ? null :
+            new IObjectConsumer<String>() {
+                ConcurrentHashMap<String,Boolean> hmReported =
+                        new ConcurrentHashMap<String,Boolean>();
+                public void consume(String sSymbol) {
+                    if (hmReported.putIfAbsent(sSymbol, Boolean.TRUE) == null)
+                        ocSymbolConsumer.consume(sSymbol);
+                }
+            };
+        final IStatusDisplayer sdSilent = new IStatusDisplayer() {
+            public void setStatus(String sText, double dValue) {
+            }
+            public String getStatusText() {
+                return "";
+            }
+            public void setVisible(boolean bShow) {
+                return;
+            }
+            public boolean getVisible() {
+                return false;
+            }
+        };
+
+        List<Callable<Set<String>>> lTasks = new ArrayList<Callable<Set<String>>>();
+        for (final int[] iaPart : partition(sStrings.size(), Threads * 4)) {
+            lTasks.add(new Callable<Set<String>>() {
+                public Set<String> call() {
+                    Set<String> sLocal = new HashSet<String>();
+                    for (int iCnt = iaPart[0]; (iCnt < iaPart[1]) && !Cancelled; iCnt++) {
+                        sLocal.addAll(getSymbolsByProbabilities(sStringsArg.get(iCnt), sdSilent,
+                                ocNewSymbols));
+                        double dProgress = (double)aiDone.incrementAndGet() / sStringsArg.size();
+                        synchronized (fStatus) {
+                            fStatus.setStatus("Extracting symbols...", dProgress);
                         }
-                    });
-                    synchronized (sSymbolsArg)
-                    {
-                        sSymbolsArg.addAll(sTmp);
-                    }
-                    synchronized (dProg) {
-                        dProg.increaseValue(1.0, 1.0);
-                        fStatus.setStatus("Extracting symbols...",
-                                dProg.getValue(1.0) / sStringsArg.size());
                     }
+                    return sLocal;
                 }
             });
-            
         }
 
-        es.shutdown();
-        try {
-            es.awaitTermination(1, TimeUnit.DAYS);
-        } catch (InterruptedException ex) {
-            Logger.getLogger(SymbolExtractor.class.getName()).log(
-                    Level.SEVERE, null, ex);
+        // Reduce
+        Set<String> sSymbols = new HashSet<String>();
+        for (Set<String> sCur : runAll(lTasks, es))
+            sSymbols.addAll(sCur);
+        if (Cancelled)
             return null;
-        }
 
         return sSymbols;
     }
 
+    /** Trains a distribution document with a list of texts, as consecutive calls of 
+     * {@link DistributionDocument#setDataString(String, boolean)} would. Partitions of the 
+     * texts train separate documents in parallel, which are then merged in order.
+     */
+    private DistributionDocument trainDocument(List<String> sStrings, final int iNGramSize,
+            ExecutorService es) throws InterruptedException {
+        final List<String> sStringsArg = sStrings;
+        List<Callable<DistributionDocument>> lTasks =
+                new ArrayList<Callable<DistributionDocument>>();
+        for (final int[] iaPart : partition(sStrings.size(), Threads)) {
+            lTasks.add(new Callable<DistributionDocument>() {
+                public DistributionDocument call() {
+                    DistributionDocument ddPart = new DistributionDocument(1, iNGramSize);
+                    for (int iCnt = iaPart[0]; (iCnt < iaPart[1]) && !Cancelled; iCnt++)
+                        ddPart.setDataString(sStringsArg.get(iCnt), false);
+                    return ddPart;
+                }
+            });
+        }
+
+        DistributionDocument ddRes = new DistributionDocument(1, iNGramSize);
+        for (DistributionDocument ddPart : runAll(lTasks, es))
+            ddRes.mergeWith(ddPart, 1.0);
+        return ddRes;
+    }
+
+    /** Splits a range of indices, starting from zero, to (at most) a given number of
+     * contiguous partitions of almost equal size.
+     *@return A list of [start, end) index pairs.
+     */
+    private static List<int[]> partition(int iSize, int iParts) {
+        List<int[]> lRes = new ArrayList<int[]>();
+        iParts = Math.max(1, Math.min(iParts, iSize));
+        for (int iCnt = 0; iCnt < iParts; iCnt++) {
+            int iFrom = (int)((long)iSize * iCnt / iParts);
+            int iTo = (int)((long)iSize * (iCnt + 1) / iParts);
+            if (iTo > iFrom)
+                lRes.add(new int[] {iFrom, iTo});
+        }
+        return lRes;
+    }
+
+    /** Runs a set of tasks in a given executor, returning their results in order. */
+    private <T> List<T> runAll(List<Callable<T>> lTasks, ExecutorService es)
+            throws InterruptedException {
+        ArrayList<T> lRes = new ArrayList<T>(lTasks.size());
+        try {
+            for (Future<T> fCur : es.invokeAll(lTasks))
+                lRes.add(fCur.get());
+        } catch (ExecutionException ee) {
+            throw new IllegalStateException(ee.getCause());
+        }
+        return lRes;
+    }
+
     public static void main(String[] saArgs) {
         SymbolExtractor se = new SymbolExtractor();
         DocumentSet dsTest = new DocumentSet("/home/ggianna/Documents/JApplications/"
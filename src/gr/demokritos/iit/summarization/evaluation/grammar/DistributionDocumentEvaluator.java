@@ -8,7 +8,9 @@
 package gr.demokritos.iit.summarization.evaluation.grammar;
 
 import gr.demokritos.iit.conceptualIndex.documentModel.DistributionDocument;
+import java.util.ArrayList;
 import java.util.Iterator;
+import java.util.List;
 import java.util.Map;
 import java.util.Vector;
 import gr.demokritos.iit.jinsect.console.grammaticalityEstimator;
@@ -46,5 +48,27 @@ public class DistributionDocumentEvaluator implements IGrammaticallityEvaluator
         
         return Estimator.getNormality(sbText.toString());
     }
+
+    /** Returns the grammaticallity of every text resulting from appending one of a set of terms
+     * to a given text. The given text is analysed once, for all the candidate terms.
+     *@param vText The {@link Vector} of term indices, representing the preceding text.
+     *@param lNextTerms The {@link List} of candidate term indices.
+     *@return The grammaticallity of each candidate text, in the order of the candidate terms.
+     *@see grammaticalityEstimator#getNormalities(String, List)
+     */
+    public double[] getGrammaticallities(Vector vText, List lNextTerms) {
+        Iterator<Integer> iIter = vText.iterator();
+        StringBuffer sbText = new StringBuffer();
+        while (iIter.hasNext()) {
+            Integer iCurWord = iIter.next();
+            sbText.append(WordMap.get(iCurWord));
+        }
+
+        List<String> lNextWords = new ArrayList<String>(lNextTerms.size());
+        for (Object oCur : lNextTerms)
+            lNextWords.add(String.valueOf(WordMap.get(oCur)));
+
+        return Estimator.getNormalities(sbText.toString(), lNextWords);
+    }
     
 }
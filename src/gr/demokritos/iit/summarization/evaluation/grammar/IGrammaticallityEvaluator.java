@@ -7,6 +7,7 @@
 
 package gr.demokritos.iit.summarization.evaluation.grammar;
 
+import java.util.List;
 import java.util.Vector;
 
 /** Represents a bearer of grammaticality estimation.
@@ -18,4 +19,12 @@ public interface IGrammaticallityEvaluator {
      *@param vText A {@link Vector} of terms (probably strings or string indices).
      */
     public double getGrammaticallity(Vector vText);
+
+    /** Should determine the grammaticality of every text resulting from appending one of a
+     * set of terms to a given text.
+     *@param vText A {@link Vector} of terms, representing the common preceding text.
+     *@param lNextTerms The {@link List} of candidate terms to follow the text.
+     *@return The grammaticality of each candidate text, in the order of the candidate terms.
+     */
+    public double[] getGrammaticallities(Vector vText, List lNextTerms);
 }
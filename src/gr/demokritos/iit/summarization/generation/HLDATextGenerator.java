@@ -13,6 +13,7 @@ import java.io.FileInputStream;
 import java.io.FileOutputStream;
 import java.io.ObjectInputStream;
 import java.io.ObjectOutputStream;
+import java.util.ArrayList;
 import java.util.Date;
 import java.util.HashMap;
 import java.util.Hashtable;
@@ -25,6 +26,7 @@ import gr.demokritos.iit.jinsect.console.grammaticalityEstimator;
 import gr.demokritos.iit.jinsect.interoperability.HierLDACaller;
 import gr.demokritos.iit.jinsect.structs.DocumentSet;
 import probabilisticmodels.HierLDAGibbs;
+import probabilisticmodels.SparseDocTermMatrix;
 import gr.demokritos.iit.summarization.evaluation.grammar.DistributionDocumentEvaluator;
 import gr.demokritos.iit.summarization.evaluation.grammar.IGrammaticallityEvaluator;
 
@@ -74,18 +76,15 @@ public class HLDATextGenerator {
             hmDistroPerTopic.put(iTopic, dWordsAtSelectedTopic);
         }
         
+        // Get the grammaticality of the text, followed by every candidate word
+        ArrayList lWords = new ArrayList(dWordsAtSelectedTopic.asTreeMap().keySet());
+        double[] daGram = Evaluator.getGrammaticallities(vCurrentText, lWords);
+
         // For every word
         Distribution dOutputDistro = new Distribution();
-        Iterator iWords = dWordsAtSelectedTopic.asTreeMap().keySet().iterator();
-        while (iWords.hasNext()) {
-            Object oWord = iWords.next();
-
-            // Create a candidate text using current word
-            vCurrentText.add(oWord);
-            // Get the grammaticality of the text
-            double dGram = Evaluator.getGrammaticallity(vCurrentText);
-            // Reset text to previous state
-            vCurrentText.remove(vCurrentText.size() - 1);
+        for (int iCnt = 0; iCnt < lWords.size(); iCnt++) {
+            Object oWord = lWords.get(iCnt);
+            double dGram = daGram[iCnt];
             // TODO: CHECK
             // Ignore if grammaticality is zero
             if (dGram != 0)
@@ -198,14 +197,19 @@ public class HLDATextGenerator {
         System.err.println("Initializing HLDA...");
         
         // Read term document matrix
-        int[][] dtm = null;
+        SparseDocTermMatrix dtm = null;
         boolean bMatrixLoadedOK = false;
         if ((sDocumentMatrix.length() != 0) && !bRecalc) {
             try {
                 System.err.println("Loading document-term matrix...");
                 FileInputStream fis = new FileInputStream(sDocumentMatrix);
                 ObjectInputStream ois = new ObjectInputStream(fis);
-                dtm = (int[][])ois.readObject(); // Read model from file
+                Object oMatrix = ois.readObject(); // Read model from file
+                // Older files hold a dense matrix
+                if (oMatrix instanceof int[][])
+                    dtm = new SparseDocTermMatrix((int[][])oMatrix);
+                else
+                    dtm = (SparseDocTermMatrix)oMatrix;
                 tmIdxToStr = (TreeMap<Integer,String>)ois.readObject(); // Read map from file
                 ois.close();
                 fis.close();
@@ -221,7 +225,7 @@ public class HLDATextGenerator {
             DocumentSet dm = new DocumentSet(sInputDir,1.0);
             dm.createSets(false, 1.0, bInputDirFlat);
             System.err.print("Calculating document term matrix...");
-            dtm = HierLDACaller.getDocumentTermMatrix(dm.getTrainingSet(), tmIdxToStr);
+            dtm = HierLDACaller.getSparseDocumentTermMatrix(dm.getTrainingSet(), tmIdxToStr);
             System.err.println("Done.");
 
             // Save to file
@@ -260,14 +264,14 @@ public class HLDATextGenerator {
                 hierLDA = new HierLDAGibbs(iLevels,dtm, dAlpha, dBeta);
                 System.err.println("Performing HLDA sampling...");
                 hierLDA.setProgressIndicator(cnlReporting); // Set notification listener
-                hierLDA.performGibbs(iIterations, iBurnInIterations, Runtime.getRuntime().availableProcessors());
+                hierLDA.performPartitionedGibbs(iIterations, iBurnInIterations, Runtime.getRuntime().availableProcessors());
             }
         }
         else {
             hierLDA = new HierLDAGibbs(iLevels,dtm, dAlpha, dBeta);
             hierLDA.setProgressIndicator(cnlReporting); // Set notification listener
             System.err.println("Performing HLDA sampling...");
-            hierLDA.performGibbs(iIterations, iBurnInIterations, Runtime.getRuntime().availableProcessors());
+            hierLDA.performPartitionedGibbs(iIterations, iBurnInIterations, Runtime.getRuntime().availableProcessors());
         }
         // Save to file, if not loaded
         if ((sModel.length() != 0) && (!bHLDALoadedOK)) {
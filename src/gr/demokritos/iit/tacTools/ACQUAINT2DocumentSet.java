@@ -11,7 +11,6 @@ import gr.demokritos.iit.jinsect.storage.IFileLoader;
 import gr.demokritos.iit.jinsect.structs.CategorizedFileEntry;
 import gr.demokritos.iit.jinsect.structs.IDocumentSet;
 import gr.demokritos.iit.jinsect.utils;
-import java.io.File;
 import java.io.IOException;
 import java.text.ParseException;
 import java.text.SimpleDateFormat;
@@ -26,14 +25,7 @@ import java.util.logging.Level;
 import java.util.logging.Logger;
 import java.util.regex.Matcher;
 import java.util.regex.Pattern;
-import javax.xml.parsers.DocumentBuilder;
-import javax.xml.parsers.DocumentBuilderFactory;
-import javax.xml.parsers.ParserConfigurationException;
-import org.w3c.dom.Document;
-import org.w3c.dom.Element;
-import org.w3c.dom.Node;
-import org.w3c.dom.NodeList;
-import org.xml.sax.SAXException;
+import javax.xml.stream.XMLStreamException;
 
 /** This class implements the {@link IDocumentSet} interface, also implementing
  * a number of methods to make the retrieval of TAC document sets (also called 
@@ -57,8 +49,8 @@ public class ACQUAINT2DocumentSet implements IDocumentSet, IFileLoader<String> {
     /** The tag name of the Text tag. */
     public static final String TEXT_TAG = "TEXT";
     
-    /** The XMLDocument holding the DOCSTREAM. */
-    Document XMLDoc;
+    /** The index of the documents in the DOCSTREAM. */
+    DocStreamIndex Index;
     /** The categories of documents, derived from the <i>type</i> attribute of 
      * the <i>DOC</i> tag. */
     ArrayList Categories;
@@ -69,37 +61,47 @@ public class ACQUAINT2DocumentSet implements IDocumentSet, IFileLoader<String> {
     HashMap<String, String> hmDocsToCategories;
     
     /** Creates a new instance of TACDocumentSet, given a corresponding TAC08
-     * formatted file.
+     * formatted file. The file is indexed (see {@link DocStreamIndex}) rather
+     * than loaded, so that documents are read from the file on demand.
      *@param sTACXMLFile The XML file containing the DOCSTREAM.
      */
     public ACQUAINT2DocumentSet(String sTACXMLFile) {
-        DocumentBuilderFactory docBuilderFactory = DocumentBuilderFactory.newInstance();
-        XMLDoc = null;
+        this(sTACXMLFile, sTACXMLFile + DocStreamIndex.INDEX_SUFFIX);
+    }
+    
+    /** Creates a new instance of TACDocumentSet, given a corresponding TAC08
+     * formatted file and the file where its index is kept.
+     *@param sTACXMLFile The XML file containing the DOCSTREAM.
+     *@param sIndexFile The index file. If null, the index is not stored.
+     */
+    public ACQUAINT2DocumentSet(String sTACXMLFile, String sIndexFile) {
+        Index = null;
         Categories = null;
         hsDocs = null;
         hmDocsToCategories = null;
         
         try {
-            DocumentBuilder docBuilder = docBuilderFactory.newDocumentBuilder();
-            XMLDoc = docBuilder.parse(new File(sTACXMLFile));
-        } catch (ParserConfigurationException ex) {
-            System.err.println("Invalid XML file. Details:");
-            ex.printStackTrace(System.err);
-        } catch (SAXException ex) {
+            Index = new DocStreamIndex(sTACXMLFile, sIndexFile);
+        } catch (XMLStreamException ex) {
             System.err.println("Invalid XML file. Details:");
             ex.printStackTrace(System.err);
         } catch (IOException ex) {
             System.err.println("Could not read XML file. Cause:");
             ex.printStackTrace(System.err);
         }
-        if (XMLDoc == null)
+        if (Index == null)
             return;
         
         // Init mapping to categories
         hmDocsToCategories = new HashMap<String, String>();
-        
-        // normalize text representation
-        XMLDoc.getDocumentElement().normalize();
+    }
+
+    /** Closes the DOCSTREAM file. Documents can still be loaded afterwards,
+     * reopening the file.
+     */
+    public void close() {
+        if (Index != null)
+            Index.close();
     }
 
     public List getCategories() {
@@ -109,16 +111,8 @@ public class ACQUAINT2DocumentSet implements IDocumentSet, IFileLoader<String> {
             return Categories;
         
         
-        HashMap<String,Integer> hmCategories = new HashMap();
-        // Init categories.
-        // Get all docs
-        NodeList docList = XMLDoc.getElementsByTagName("DOC");
-        // and extract type as category.
-        for (int iNodeCnt = 0; iNodeCnt < docList.getLength(); iNodeCnt++) {
-            // Update Categories
-            hmCategories.put(docList.item(iNodeCnt).getAttributes().getNamedItem("type").getNodeValue(), 1);
-        }
-        Categories = new ArrayList(hmCategories.keySet());
+        // Init categories, as found in the type of docs while indexing.
+        Categories = new ArrayList(Index.getCategories());
         
         return Categories;
     }
@@ -127,13 +121,11 @@ public class ACQUAINT2DocumentSet implements IDocumentSet, IFileLoader<String> {
         // Clear existing set of files
         hsDocs = new HashSet<String>();
         // Get all docs
-        NodeList docList = XMLDoc.getElementsByTagName("DOC");
-        for (int iNodeCnt = 0; iNodeCnt < docList.getLength(); iNodeCnt++) {
+        for (String sDocID : Index.getDocumentIDs()) {
             // Add file ID to set
-            hsDocs.add(docList.item(iNodeCnt).getAttributes().getNamedItem("id").getNodeValue());
+            hsDocs.add(sDocID);
             // Update category for file
-            hmDocsToCategories.put(docList.item(iNodeCnt).getAttributes().getNamedItem("id").getNodeValue(),
-                    docList.item(iNodeCnt).getAttributes().getNamedItem("type").getNodeValue());
+            hmDocsToCategories.put(sDocID, Index.getCategory(sDocID));
         }
         
     }
@@ -187,14 +179,7 @@ public class ACQUAINT2DocumentSet implements IDocumentSet, IFileLoader<String> {
      *@return Null if document is not found, otherwise its full text.
      */
     public String loadFullDocumentTextToString(String sDocID) {
-        Node nDoc = XMLDoc.getElementById(sDocID);
-        if (nDoc == null)
-            return null;
-        
-        Element eDoc = (Element)nDoc;
-        String sRes = eDoc.getTextContent();
-        
-        return sRes;
+        return loadDocumentElement(sDocID, DocStreamIndex.DOC_TAG);
     }
 
     /** Returns the dateline portion of a given document as a String, if the
@@ -216,24 +201,23 @@ public class ACQUAINT2DocumentSet implements IDocumentSet, IFileLoader<String> {
      * element was not found, otherwise the document's element text.
      */
     public final String loadDocumentElement(String sDocID, String sElement) {
-        Node nDoc = XMLDoc.getElementById(sDocID);
-        if (nDoc == null)
-            return null;
-        
-        Element eDoc = (Element)nDoc;
-        NodeList nDocElements = nDoc.getChildNodes();
-        Node n = null;
-        // Find text elements
-        for (int iCnt = 0; iCnt < nDocElements.getLength(); iCnt++) {
-            if (nDocElements.item(iCnt).getNodeName().equalsIgnoreCase(sElement)) {
-                n = nDocElements.item(iCnt);
-                break;                
-            }
+        String[] saRes = null;
+        try {
+            // Read only the byte range of the document
+            saRes = Index.loadElements(sDocID, sElement);
+        } catch (XMLStreamException ex) {
+            System.err.println("Invalid XML document " + sDocID + ". Details:");
+            ex.printStackTrace(System.err);
+        } catch (IOException ex) {
+            System.err.println("Could not read document " + sDocID + ". Cause:");
+            ex.printStackTrace(System.err);
         }
+        if (saRes == null)
+            return null;
         
         String sRes;
-        if (n != null)
-            sRes = n.getTextContent();
+        if (saRes[0] != null)
+            sRes = saRes[0];
         else
             sRes = ""; // Not found
         
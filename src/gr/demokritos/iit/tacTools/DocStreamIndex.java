@@ -0,0 +1,787 @@
+/*
+ * Under LGPL licence.
+ */
+
+package gr.demokritos.iit.tacTools;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.RandomAccessFile;
+import java.io.SequenceInputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+import javax.xml.stream.XMLInputFactory;
+import javax.xml.stream.XMLStreamConstants;
+import javax.xml.stream.XMLStreamException;
+import javax.xml.stream.XMLStreamReader;
+
+/** This class implements a random-access index over a TAC document stream
+ * (DOCSTREAM) file, i.e. a file holding a sequence of <i>DOC</i> elements.
+ * The file is scanned once, as a stream, and every document is mapped to its
+ * byte offset and length in the file, as well as its category (the <i>type</i>
+ * attribute of the <i>DOC</i> tag). The index is kept in a compact index file
+ * next to the stream file, so that later instances need not scan it again.
+ * Documents are then read by positional reads of their byte range, and parsed
+ * on their own by a StAX parser, preceded by the internal DTD subset of the
+ * stream file (if any), so that the entities it declares can be used in
+ * every document. The static <code>readElements</code> methods
+ * allow single document files (e.g. TAC and DUC corpus files) to be read the
+ * same way.
+ *
+ * @author ggianna
+ */
+public class DocStreamIndex {
+    /** The tag name of the document tag. */
+    public static final String DOC_TAG = "DOC";
+    /** The attribute of the document tag holding the document ID. */
+    public static final String ID_ATTRIBUTE = "id";
+    /** The attribute of the document tag holding the document category. */
+    public static final String CATEGORY_ATTRIBUTE = "type";
+    /** The suffix of the default index filename. */
+    public static final String INDEX_SUFFIX = ".idx";
+
+    private static final int INDEX_MAGIC = 0x4A445349; // "JDSI"
+    private static final int INDEX_VERSION = 3;
+    private static final int BUFFER_SIZE = 1 << 16;
+    private static final byte[] COMMENT_END = {'-', '-', '>'};
+    private static final byte[] CDATA_END = {']', ']', '>'};
+    private static final byte[] PI_END = {'?', '>'};
+    private static final Pattern ENCODING_PATTERN = Pattern.compile(
+            "encoding\\s*=\\s*[\"']([^\"']+)[\"']");
+
+    /** The StAX factory. Creating readers is synchronized on it. */
+    private static final XMLInputFactory InputFactory = createInputFactory();
+
+    /** The document stream file. */
+    protected File SourceFile;
+    /** The index file. */
+    protected File IndexFile;
+    /** The character encoding of the document stream. */
+    protected String Encoding;
+
+    /** The mapping of document IDs to document numbers. */
+    private HashMap<String,Integer> DocNumbers;
+    /** The IDs of the documents, in file order. */
+    private ArrayList<String> DocIDs;
+    /** The distinct categories of the documents. */
+    private ArrayList<String> Categories;
+    /** The byte offset of every document. */
+    private long[] Offsets;
+    /** The byte length of every document. */
+    private int[] Lengths;
+    /** The category (index in Categories) of every document. */
+    private int[] CategoryNumbers;
+
+    /** The document type declaration prepended to every document parsed,
+     * holding the internal DTD subset of the stream file, or null if the
+     * stream file has no internal subset. */
+    private byte[] Doctype;
+
+    /** The channel used for positional reads. Opened on first use. */
+    private FileChannel Channel = null;
+    /** Held (shared) by reads from the channel, and (exclusively) by
+     * {@link #close()}, so that the channel is not closed during reads. */
+    private final ReentrantReadWriteLock ChannelLock =
+            new ReentrantReadWriteLock();
+
+    /** Creates the index of a given document stream file, using the file
+     * name followed by {@link #INDEX_SUFFIX} as index file.
+     *@param sStreamFile The document stream file.
+     *@throws IOException If the file cannot be read.
+     *@throws XMLStreamException If a document tag is not valid XML.
+     */
+    public DocStreamIndex(String sStreamFile) throws IOException,
+            XMLStreamException {
+        this(sStreamFile, sStreamFile + INDEX_SUFFIX);
+    }
+
+    /** Creates the index of a given document stream file. If the index file
+     * exists and matches the stream file (same size and modification time),
+     * it is loaded. Otherwise the stream file is scanned and the index file is
+     * (re)written; failing to write it only causes a warning.
+     *@param sStreamFile The document stream file.
+     *@param sIndexFile The index file.
+     *@throws IOException If the stream file cannot be read.
+     *@throws XMLStreamException If a document tag is not valid XML.
+     */
+    public DocStreamIndex(String sStreamFile, String sIndexFile)
+            throws IOException, XMLStreamException {
+        SourceFile = new File(sStreamFile);
+        IndexFile = (sIndexFile == null) ? null : new File(sIndexFile);
+        if (!SourceFile.canRead())
+            throw new IOException("Cannot read file " + sStreamFile);
+
+        clear();
+        if (IndexFile != null && IndexFile.exists())
+            try {
+                if (loadIndex())
+                    return;
+            } catch (IOException ioe) {
+                System.err.println("Could not read index file " + IndexFile +
+                        ". Rebuilding.");
+            }
+
+        clear();
+        buildIndex();
+        if (IndexFile != null)
+            try {
+                saveIndex();
+            } catch (IOException ioe) {
+                System.err.println("Could not write index file " + IndexFile +
+                        ". Cause:");
+                ioe.printStackTrace(System.err);
+            }
+    }
+
+    private void clear() {
+        DocNumbers = new HashMap<String, Integer>();
+        DocIDs = new ArrayList<String>();
+        Categories = new ArrayList<String>();
+        Offsets = new long[256];
+        Lengths = new int[256];
+        CategoryNumbers = new int[256];
+        Encoding = "UTF-8";
+        Doctype = null;
+    }
+
+    private static XMLInputFactory createInputFactory() {
+        XMLInputFactory xifRes = XMLInputFactory.newInstance();
+        xifRes.setProperty(XMLInputFactory.IS_COALESCING, Boolean.TRUE);
+        return xifRes;
+    }
+
+    private static XMLStreamReader createReader(InputStream isIn,
+            String sEncoding) throws XMLStreamException {
+        synchronized (InputFactory) {
+            if (sEncoding == null)
+                return InputFactory.createXMLStreamReader(isIn);
+            return InputFactory.createXMLStreamReader(isIn, sEncoding);
+        }
+    }
+
+    /** Adds a document to the index. */
+    private void addDocument(String sDocID, String sCategory, long lOffset,
+            int iLength) {
+        if (DocNumbers.containsKey(sDocID)) {
+            System.err.println("Duplicate document " + sDocID + ". Ignoring.");
+            return;
+        }
+        int iCategory = Categories.indexOf(sCategory);
+        if (iCategory < 0) {
+            Categories.add(sCategory);
+            iCategory = Categories.size() - 1;
+        }
+
+        int iDoc = DocIDs.size();
+        if (iDoc == Offsets.length) {
+            Offsets = Arrays.copyOf(Offsets, iDoc * 2);
+            Lengths = Arrays.copyOf(Lengths, iDoc * 2);
+            CategoryNumbers = Arrays.copyOf(CategoryNumbers, iDoc * 2);
+        }
+        Offsets[iDoc] = lOffset;
+        Lengths[iDoc] = iLength;
+        CategoryNumbers[iDoc] = iCategory;
+        DocIDs.add(sDocID);
+        DocNumbers.put(sDocID, iDoc);
+    }
+
+    /** Scans the stream file for document tags. Only the opening document
+     * tags are parsed (to get the ID and category), so the scan needs memory
+     * proportional to the number of documents, not to the file size. Comments,
+     * CDATA sections, processing instructions and declarations are skipped,
+     * so that document tags within them are ignored. The internal subset of
+     * the document type declaration is kept.
+     */
+    private void buildIndex() throws IOException, XMLStreamException {
+        InputStream isIn = new BufferedInputStream(new FileInputStream(
+                SourceFile), BUFFER_SIZE);
+        try {
+            Encoding = detectEncoding(isIn);
+
+            byte[] baTag = new byte[256];
+            int iTagLen;
+            long lPos = 0;
+            long lDocStart = -1;
+            String[] saCurDoc = null;
+            int iByte;
+            while ((iByte = isIn.read()) != -1) {
+                lPos++;
+                if (iByte != '<')
+                    continue;
+
+                long lTagStart = lPos - 1;
+                if ((iByte = isIn.read()) == -1)
+                    break;
+                lPos++;
+
+                // Skip markup that is not a tag
+                byte[] baEnd = null;
+                if (iByte == '?')
+                    baEnd = PI_END;
+                else
+                if (iByte == '!') {
+                    ByteArrayOutputStream baosDecl = new ByteArrayOutputStream();
+                    baosDecl.write('<');
+                    baosDecl.write('!');
+                    if ((iByte = isIn.read()) == -1)
+                        break;
+                    lPos++;
+                    baosDecl.write(iByte);
+                    if (iByte == '-') {
+                        if ((iByte = isIn.read()) == -1)
+                            break;
+                        lPos++;
+                        baosDecl.write(iByte);
+                        if (iByte == '-')
+                            baEnd = COMMENT_END;
+                    }
+                    else
+                    if (iByte == '[')
+                        baEnd = CDATA_END;
+
+                    if (baEnd == null) {
+                        // A declaration, e.g. the document type declaration
+                        long lRead = readDeclaration(isIn, baosDecl);
+                        if (lRead < 0)
+                            break;
+                        lPos += lRead;
+                        if (Doctype == null)
+                            Doctype = getDoctype(baosDecl.toByteArray());
+                        continue;
+                    }
+                }
+                if (baEnd != null) {
+                    long lSkipped = skipPast(isIn, baEnd);
+                    if (lSkipped < 0)
+                        break;
+                    lPos += lSkipped;
+                    continue;
+                }
+
+                // Read the whole tag
+                baTag[0] = '<';
+                baTag[1] = (byte)iByte;
+                iTagLen = 2;
+                while ((iByte != '>') && (iByte = isIn.read()) != -1) {
+                    lPos++;
+                    if (iTagLen == baTag.length)
+                        baTag = Arrays.copyOf(baTag, iTagLen * 2);
+                    baTag[iTagLen++] = (byte)iByte;
+                    if (iByte == '>')
+                        break;
+                }
+
+                if (isTag(baTag, iTagLen, 1)) {
+                    // Document start
+                    lDocStart = lTagStart;
+                    saCurDoc = readDocumentTag(baTag, iTagLen);
+                }
+                else
+                if (lDocStart >= 0 && baTag[1] == '/' && isTag(baTag, iTagLen, 2)) {
+                    // Document end
+                    if (saCurDoc[0] == null)
+                        System.err.println("Document at offset " + lDocStart +
+                                " has no ID. Ignoring.");
+                    else
+                        addDocument(saCurDoc[0], saCurDoc[1], lDocStart,
+                                (int)(lPos - lDocStart));
+                    lDocStart = -1;
+                }
+            }
+        }
+        finally {
+            isIn.close();
+        }
+    }
+
+    /** Skips the bytes of a stream up to, and including, a given terminator.
+     *@return The number of bytes skipped, or -1 if the stream ended before
+     * the terminator.
+     */
+    private static long skipPast(InputStream isIn, byte[] baEnd)
+            throws IOException {
+        // The last bytes read, as a circular buffer
+        byte[] baLast = new byte[baEnd.length];
+        long lRead = 0;
+        int iByte;
+        while ((iByte = isIn.read()) != -1) {
+            baLast[(int)(lRead++ % baEnd.length)] = (byte)iByte;
+            if ((iByte != baEnd[baEnd.length - 1]) || (lRead < baEnd.length))
+                continue;
+            boolean bMatch = true;
+            for (int iCnt = 0; bMatch && (iCnt < baEnd.length); iCnt++)
+                bMatch = baLast[(int)((lRead + iCnt) % baEnd.length)] == baEnd[iCnt];
+            if (bMatch)
+                return lRead;
+        }
+        return -1;
+    }
+
+    /** Reads the rest of a declaration, up to and including its closing
+     * <code>&gt;</code>. Quoted strings, and the internal subset of a document
+     * type declaration with the declarations and comments it contains, do not
+     * close the declaration.
+     *@param isIn The stream, positioned within the declaration.
+     *@param baosDecl Receives the bytes read.
+     *@return The number of bytes read, or -1 if the stream ended before the
+     * end of the declaration.
+     */
+    private static long readDeclaration(InputStream isIn,
+            ByteArrayOutputStream baosDecl) throws IOException {
+        long lRead = 0;
+        int iQuote = 0;
+        int iDepth = 0;
+        int iByte;
+        // The last 4 bytes read, to detect comments
+        int iLast = 0;
+        while ((iByte = isIn.read()) != -1) {
+            lRead++;
+            baosDecl.write(iByte);
+            iLast = (iLast << 8) | iByte;
+            if (iQuote != 0) {
+                if (iByte == iQuote)
+                    iQuote = 0;
+            }
+            else
+            if ((iByte == '"') || (iByte == '\''))
+                iQuote = iByte;
+            else
+            if (iByte == '[')
+                iDepth++;
+            else
+            if ((iByte == ']') && (iDepth > 0))
+                iDepth--;
+            else
+            if ((iByte == '>') && (iDepth == 0))
+                return lRead;
+            else
+            if ((iByte == '-') && (iDepth > 0) && (iLast == 0x3C212D2D)) {
+                // A comment ("<!--") within the internal subset
+                int iMatched = 0;
+                while ((iMatched < COMMENT_END.length) &&
+                        ((iByte = isIn.read()) != -1)) {
+                    lRead++;
+                    baosDecl.write(iByte);
+                    if (iByte == COMMENT_END[iMatched])
+                        iMatched++;
+                    else
+                        iMatched = (iByte == COMMENT_END[0]) ? 1 : 0;
+                }
+                if (iByte == -1)
+                    return -1;
+                iLast = 0;
+            }
+        }
+        return -1;
+    }
+
+    /** Returns a document type declaration for the documents of the stream,
+     * holding the internal subset of a given declaration.
+     *@param baDecl The declaration.
+     *@return The document type declaration, or null if the given declaration
+     * is not a document type declaration or has no internal subset.
+     */
+    private byte[] getDoctype(byte[] baDecl) throws IOException {
+        String sDecl = new String(baDecl, "ISO-8859-1");
+        if (!sDecl.startsWith("<!DOCTYPE"))
+            return null;
+        // The subset starts at the first '[' out of quotes (the external ID
+        // may hold quoted strings) and ends at the last ']'
+        int iQuote = 0;
+        int iStart = -1;
+        for (int iCnt = 0; (iStart < 0) && (iCnt < sDecl.length()); iCnt++) {
+            char cCur = sDecl.charAt(iCnt);
+            if (iQuote != 0) {
+                if (cCur == iQuote)
+                    iQuote = 0;
+            }
+            else
+            if ((cCur == '"') || (cCur == '\''))
+                iQuote = cCur;
+            else
+            if (cCur == '[')
+                iStart = iCnt + 1;
+        }
+        int iEnd = sDecl.lastIndexOf(']');
+        if ((iStart < 0) || (iEnd < iStart))
+            return null;
+
+        // The external ID is not kept, as it could not be resolved for the
+        // documents read on their own
+        ByteArrayOutputStream baosRes = new ByteArrayOutputStream();
+        baosRes.write(("<!DOCTYPE " + DOC_TAG + " [").getBytes(Encoding));
+        baosRes.write(baDecl, iStart, iEnd - iStart);
+        baosRes.write("]>".getBytes(Encoding));
+        return baosRes.toByteArray();
+    }
+
+    /** Checks whether the name of a tag, starting at a given index, is the
+     * document tag name. */
+    private static boolean isTag(byte[] baTag, int iTagLen, int iNameStart) {
+        int iNameEnd = iNameStart + DOC_TAG.length();
+        if (iNameEnd >= iTagLen)
+            return false;
+        for (int iCnt = 0; iCnt < DOC_TAG.length(); iCnt++)
+            if (baTag[iNameStart + iCnt] != DOC_TAG.charAt(iCnt))
+                return false;
+        byte bNext = baTag[iNameEnd];
+        return bNext == '>' || bNext == '/' || Character.isWhitespace(bNext);
+    }
+
+    /** Returns the ID and category of a document, given its opening tag. */
+    private String[] readDocumentTag(byte[] baTag, int iTagLen)
+            throws IOException, XMLStreamException {
+        byte[] baClose = ("</" + DOC_TAG + ">").getBytes(Encoding);
+        byte[] baElement = Arrays.copyOf(baTag, iTagLen + baClose.length);
+        System.arraycopy(baClose, 0, baElement, iTagLen, baClose.length);
+
+        XMLStreamReader xsrIn = createReader(new ByteArrayInputStream(
+                baElement), Encoding);
+        try {
+            while (xsrIn.next() != XMLStreamConstants.START_ELEMENT);
+            String sCategory = xsrIn.getAttributeValue(null, CATEGORY_ATTRIBUTE);
+            return new String[] {xsrIn.getAttributeValue(null, ID_ATTRIBUTE),
+                (sCategory == null) ? "" : sCategory};
+        }
+        finally {
+            xsrIn.close();
+        }
+    }
+
+    /** Reads the encoding from the XML declaration, if any, at the start of
+     * a stream. The stream is reset to its start. */
+    private static String detectEncoding(InputStream isIn) throws IOException {
+        byte[] baStart = new byte[256];
+        isIn.mark(baStart.length);
+        int iRead = 0, iCur;
+        while (iRead < baStart.length &&
+                (iCur = isIn.read(baStart, iRead, baStart.length - iRead)) > 0)
+            iRead += iCur;
+        isIn.reset();
+
+        String sStart = new String(baStart, 0, iRead, "ISO-8859-1");
+        if (sStart.startsWith("<?xml") && sStart.indexOf("?>") > 0) {
+            Matcher m = ENCODING_PATTERN.matcher(sStart.substring(0,
+                    sStart.indexOf("?>")));
+            if (m.find())
+                return m.group(1);
+        }
+        return "UTF-8";
+    }
+
+    /** Loads the index file, if it matches the stream file.
+     *@return True if the index was loaded, false if it is out of date.
+     */
+    private boolean loadIndex() throws IOException {
+        DataInputStream disIn = new DataInputStream(new BufferedInputStream(
+                new FileInputStream(IndexFile), BUFFER_SIZE));
+        try {
+            if (disIn.readInt() != INDEX_MAGIC ||
+                    disIn.readInt() != INDEX_VERSION ||
+                    disIn.readLong() != SourceFile.length() ||
+                    disIn.readLong() != SourceFile.lastModified())
+                return false;
+            Encoding = disIn.readUTF();
+            int iDoctype = disIn.readInt();
+            if (iDoctype >= 0) {
+                Doctype = new byte[iDoctype];
+                disIn.readFully(Doctype);
+            }
+            int iCategories = disIn.readInt();
+            for (int iCnt = 0; iCnt < iCategories; iCnt++)
+                Categories.add(disIn.readUTF());
+            int iDocs = disIn.readInt();
+            Offsets = new long[Math.max(iDocs, 1)];
+            Lengths = new int[Math.max(iDocs, 1)];
+            CategoryNumbers = new int[Math.max(iDocs, 1)];
+            for (int iDoc = 0; iDoc < iDocs; iDoc++) {
+                String sDocID = disIn.readUTF();
+                CategoryNumbers[iDoc] = disIn.readInt();
+                Offsets[iDoc] = disIn.readLong();
+                Lengths[iDoc] = disIn.readInt();
+                DocIDs.add(sDocID);
+                DocNumbers.put(sDocID, iDoc);
+            }
+            return true;
+        }
+        finally {
+            disIn.close();
+        }
+    }
+
+    /** Writes the index file, through a temporary file, so that a partially
+     * written index is never used. */
+    private void saveIndex() throws IOException {
+        File fTmp = new File(IndexFile.getPath() + ".tmp");
+        DataOutputStream dosOut = new DataOutputStream(new BufferedOutputStream(
+                new FileOutputStream(fTmp), BUFFER_SIZE));
+        try {
+            dosOut.writeInt(INDEX_MAGIC);
+            dosOut.writeInt(INDEX_VERSION);
+            dosOut.writeLong(SourceFile.length());
+            dosOut.writeLong(SourceFile.lastModified());
+            dosOut.writeUTF(Encoding);
+            if (Doctype == null)
+                dosOut.writeInt(-1);
+            else {
+                dosOut.writeInt(Doctype.length);
+                dosOut.write(Doctype);
+            }
+            dosOut.writeInt(Categories.size());
+            for (String sCategory : Categories)
+                dosOut.writeUTF(sCategory);
+            dosOut.writeInt(DocIDs.size());
+            for (int iDoc = 0; iDoc < DocIDs.size(); iDoc++) {
+                dosOut.writeUTF(DocIDs.get(iDoc));
+                dosOut.writeInt(CategoryNumbers[iDoc]);
+                dosOut.writeLong(Offsets[iDoc]);
+                dosOut.writeInt(Lengths[iDoc]);
+            }
+        }
+        finally {
+            dosOut.close();
+        }
+        if (IndexFile.exists() && !IndexFile.delete())
+            throw new IOException("Cannot replace index file " + IndexFile);
+        if (!fTmp.renameTo(IndexFile))
+            throw new IOException("Cannot rename " + fTmp + " to " + IndexFile);
+    }
+
+    /** Returns the number of indexed documents.
+     *@return The document count.
+     */
+    public int size() {
+        return DocIDs.size();
+    }
+
+    /** Returns the IDs of all indexed documents, in file order.
+     *@return An unmodifiable list of the document IDs.
+     */
+    public List<String> getDocumentIDs() {
+        return Collections.unmodifiableList(DocIDs);
+    }
+
+    /** Returns the distinct categories of the indexed documents.
+     *@return An unmodifiable list of the categories.
+     */
+    public List<String> getCategories() {
+        return Collections.unmodifiableList(Categories);
+    }
+
+    /** Checks whether a given document is indexed.
+     *@param sDocID The document ID.
+     *@return True if the document exists in the stream.
+     */
+    public boolean containsDocument(String sDocID) {
+        return DocNumbers.containsKey(sDocID);
+    }
+
+    /** Returns the category of a given document.
+     *@param sDocID The document ID.
+     *@return Null if the document is not found, otherwise its category.
+     */
+    public String getCategory(String sDocID) {
+        Integer iDoc = DocNumbers.get(sDocID);
+        return (iDoc == null) ? null : Categories.get(CategoryNumbers[iDoc]);
+    }
+
+    private synchronized FileChannel getChannel() throws IOException {
+        if (Channel == null || !Channel.isOpen())
+            Channel = new RandomAccessFile(SourceFile, "r").getChannel();
+        return Channel;
+    }
+
+    /** Reads the raw bytes of a given document, from its opening to its
+     * closing tag. Positional reads are used, so concurrent calls do not
+     * interfere. A concurrent {@link #close()} waits for the read to finish.
+     *@param sDocID The document ID.
+     *@return Null if the document is not found, otherwise its bytes.
+     *@throws IOException If the stream file cannot be read.
+     */
+    public byte[] readDocument(String sDocID) throws IOException {
+        Integer iDoc = DocNumbers.get(sDocID);
+        if (iDoc == null)
+            return null;
+
+        ByteBuffer bbDoc = ByteBuffer.allocate(Lengths[iDoc]);
+        ChannelLock.readLock().lock();
+        try {
+            FileChannel fcIn = getChannel();
+            while (bbDoc.hasRemaining()) {
+                if (fcIn.read(bbDoc, Offsets[iDoc] + bbDoc.position()) < 0)
+                    throw new EOFException("Document " + sDocID +
+                            " exceeds the end of " + SourceFile);
+            }
+        }
+        finally {
+            ChannelLock.readLock().unlock();
+        }
+        return bbDoc.array();
+    }
+
+    /** Returns the text of given elements of a given document. Only the
+     * direct children of the document element are looked up.
+     *@param sDocID The document ID.
+     *@param saElements The element names (e.g. TEXT or DATELINE). The
+     * document tag name ({@link #DOC_TAG}) returns the full document text.
+     *@return Null if the document is not found, otherwise the text of the
+     * first occurence of every element (null for missing elements).
+     *@throws IOException If the stream file cannot be read.
+     *@throws XMLStreamException If the document is not valid XML.
+     */
+    public String[] loadElements(String sDocID, String... saElements)
+            throws IOException, XMLStreamException {
+        byte[] baDoc = readDocument(sDocID);
+        if (baDoc == null)
+            return null;
+        InputStream isDoc = new ByteArrayInputStream(baDoc);
+        if (Doctype != null)
+            isDoc = new SequenceInputStream(new ByteArrayInputStream(Doctype),
+                    isDoc);
+        return readElements(isDoc, Encoding, true, saElements);
+    }
+
+    /** Closes the underlying file channel, after any reads in progress. It
+     * is reopened if documents are read afterwards.
+     */
+    public void close() {
+        ChannelLock.writeLock().lock();
+        try {
+            synchronized (this) {
+                if (Channel == null)
+                    return;
+                try {
+                    Channel.close();
+                } catch (IOException ioe) {
+                    ioe.printStackTrace(System.err);
+                }
+                Channel = null;
+            }
+        }
+        finally {
+            ChannelLock.writeLock().unlock();
+        }
+    }
+
+    /** Returns the text of given elements of an XML file.
+     *@param sFile The XML file.
+     *@param saElements The element names (e.g. TEXT or HEADLINE).
+     *@return The text of the first occurence of every element (null for
+     * missing elements).
+     *@throws IOException If the file cannot be read.
+     *@throws XMLStreamException If the file is not valid XML.
+     */
+    public static String[] readElements(String sFile, String... saElements)
+            throws IOException, XMLStreamException {
+        InputStream isIn = new BufferedInputStream(new FileInputStream(sFile),
+                BUFFER_SIZE);
+        try {
+            return readElements(isIn, null, false, saElements);
+        }
+        finally {
+            isIn.close();
+        }
+    }
+
+    /** Returns the text of given elements of an XML stream, at any depth.
+     *@see #readElements(InputStream, String, boolean, String...)
+     */
+    public static String[] readElements(InputStream isIn, String sEncoding,
+            String... saElements) throws XMLStreamException {
+        return readElements(isIn, sEncoding, false, saElements);
+    }
+
+    /** Returns the text of given elements of an XML stream. The text of an
+     * element is all the text it contains, including the text of nested
+     * elements, as in {@link org.w3c.dom.Node#getTextContent()}. Element names
+     * are case insensitive. Parsing stops as soon as all elements are found.
+     *@param isIn The input stream.
+     *@param sEncoding The character encoding, or null to use the one of the
+     * XML declaration.
+     *@param bChildrenOnly If true, only the root element and its direct
+     * children are looked up (as in {@link org.w3c.dom.Node#getChildNodes()}).
+     * Otherwise elements are looked up at any depth (as in
+     * {@link org.w3c.dom.Document#getElementsByTagName(String)}).
+     *@param saElements The element names.
+     *@return The text of the first occurence of every element (null for
+     * missing elements).
+     *@throws XMLStreamException If the stream is not valid XML.
+     */
+    public static String[] readElements(InputStream isIn, String sEncoding,
+            boolean bChildrenOnly, String... saElements)
+            throws XMLStreamException {
+        String[] saRes = new String[saElements.length];
+        StringBuilder[] sbaText = new StringBuilder[saElements.length];
+        int[] iaDepth = new int[saElements.length];
+        int iRemaining = saElements.length;
+        int iActive = 0;
+        int iDepth = 0;
+
+        XMLStreamReader xsrIn = createReader(isIn, sEncoding);
+        try {
+            while (iRemaining > 0 && xsrIn.hasNext()) {
+                switch (xsrIn.next()) {
+                    case XMLStreamConstants.START_ELEMENT:
+                        iDepth++;
+                        if (bChildrenOnly && (iDepth > 2))
+                            break;
+                        String sName = xsrIn.getLocalName();
+                        for (int iCnt = 0; iCnt < saElements.length; iCnt++)
+                            if (saRes[iCnt] == null && sbaText[iCnt] == null &&
+                                    saElements[iCnt].equalsIgnoreCase(sName)) {
+                                sbaText[iCnt] = new StringBuilder();
+                                iaDepth[iCnt] = iDepth;
+                                iActive++;
+                            }
+                        break;
+                    case XMLStreamConstants.END_ELEMENT:
+                        if (iActive > 0)
+                            for (int iCnt = 0; iCnt < saElements.length; iCnt++)
+                                if (sbaText[iCnt] != null &&
+                                        iaDepth[iCnt] == iDepth) {
+                                    saRes[iCnt] = sbaText[iCnt].toString();
+                                    sbaText[iCnt] = null;
+                                    iActive--;
+                                    iRemaining--;
+                                }
+                        iDepth--;
+                        break;
+                    case XMLStreamConstants.CHARACTERS:
+                    case XMLStreamConstants.CDATA:
+                    case XMLStreamConstants.SPACE:
+                    case XMLStreamConstants.ENTITY_REFERENCE:
+                        if (iActive > 0) {
+                            String sText = xsrIn.getText();
+                            for (int iCnt = 0; iCnt < saElements.length; iCnt++)
+                                if (sbaText[iCnt] != null)
+                                    sbaText[iCnt].append(sText);
+                        }
+                        break;
+                }
+            }
+        }
+        finally {
+            xsrIn.close();
+        }
+
+        return saRes;
+    }
+}
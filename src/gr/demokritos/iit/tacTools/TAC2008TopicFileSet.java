@@ -20,6 +20,7 @@ import java.util.logging.Logger;
 import javax.xml.parsers.DocumentBuilder;
 import javax.xml.parsers.DocumentBuilderFactory;
 import javax.xml.parsers.ParserConfigurationException;
+import javax.xml.stream.XMLStreamException;
 import org.w3c.dom.Document;
 import org.w3c.dom.Node;
 import org.w3c.dom.NodeList;
@@ -236,37 +237,29 @@ public class TAC2008TopicFileSet implements IDocumentSet,
      * element was not found, otherwise the document's element text.
      */
     protected final String getDocumentText(String sDocID, boolean bIncludeTitle) {
-        // Init XML doc file
-        Document XMLDoc = null;
-        DocumentBuilderFactory docBuilderFactory = DocumentBuilderFactory.newInstance();
-        
+        // Stream the XML doc file, keeping only the text and title
+        String[] saTexts = null;
         try {
-            DocumentBuilder docBuilder = docBuilderFactory.newDocumentBuilder();
-            XMLDoc = docBuilder.parse(new File(sDocID));
-        } catch (ParserConfigurationException ex) {
-            System.err.println("Invalid XML file. Details:");
-            ex.printStackTrace(System.err);
-        } catch (SAXException ex) {
+            saTexts = DocStreamIndex.readElements(sDocID, "TEXT", "HEADLINE");
+        } catch (XMLStreamException ex) {
             System.err.println("Invalid XML file. Details:");
             ex.printStackTrace(System.err);
         } catch (IOException ex) {
             System.err.println("Could not read XML file. Cause:");
             ex.printStackTrace(System.err);
         }
-        if (XMLDoc == null)
+        if (saTexts == null)
             return null;
 
         String sRes = "";
         // Get text
-        Node nDoc = XMLDoc.getElementsByTagName("TEXT").item(0);
-        if (nDoc != null)
-            sRes = nDoc.getTextContent();
+        if (saTexts[0] != null)
+            sRes = saTexts[0];
         
         if (bIncludeTitle) {
             // Get title
-            nDoc = XMLDoc.getElementsByTagName("HEADLINE").item(0);
-            if (nDoc != null) {        
-                sRes = nDoc.getTextContent() + ". " + sRes;
+            if (saTexts[1] != null) {        
+                sRes = saTexts[1] + ". " + sRes;
             }
         }
         
@@ -24,7 +24,7 @@ import gr.demokritos.iit.jinsect.threading.PooledThreadList;
  */
 public class HierLDAGibbs implements Serializable {
     
-    protected Matrix2D documentTermMatrix;
+    protected SparseDocTermMatrix documentTermMatrix;
     protected Matrix2D[] documentTopicMatrixPerLevel;
     protected Matrix2D[] topicAboveTopicMatrixPerLevel;
     protected Matrix2D leafTopicTermMatrix;
@@ -34,6 +34,8 @@ public class HierLDAGibbs implements Serializable {
     protected double beta;
     /** A NotificationListener that would expect a double number as oParams object. */
     protected NotificationListener ProgressIndicator = null;
+    /** The sampling rate of the last partitioned sampling. */
+    protected double tokensPerSecond = 0.0;
             
     /** 
      * Constructor method:
@@ -44,10 +46,24 @@ public class HierLDAGibbs implements Serializable {
      * @param dBeta the Dirichlet parameter beta
      */
     public HierLDAGibbs(int iNumOfLevels, int[][] iaDocTermMatrix, double dAlpha, double dBeta) {
+        this(iNumOfLevels, new SparseDocTermMatrix(iaDocTermMatrix), dAlpha, dBeta);
+    }
+    
+    /** 
+     * Constructor method:
+     * Creates a new instance of HierLDAGibbs, given a sparse document - term
+     * matrix.
+     * @param iNumOfLevels number of levels of the hierarchy
+     * @param sdtmDocTermMatrix the document - term matrix (the input)
+     * @param dAlpha the Dirichlet parameter alpha
+     * @param dBeta the Dirichlet parameter beta
+     */
+    public HierLDAGibbs(int iNumOfLevels, SparseDocTermMatrix sdtmDocTermMatrix, 
+            double dAlpha, double dBeta) {
         alpha= dAlpha;
         beta = dBeta;
         numOfLevels = iNumOfLevels;
-        documentTermMatrix = new Matrix2D(iaDocTermMatrix);
+        documentTermMatrix = sdtmDocTermMatrix;
         // For all levels
         documentTopicMatrixPerLevel = new Matrix2D[iNumOfLevels];
         topicAboveTopicMatrixPerLevel = new Matrix2D[iNumOfLevels];
@@ -89,10 +105,12 @@ public class HierLDAGibbs implements Serializable {
         // Leaf level
         // For every document
         for (int iDoc=0; iDoc<getDocumentCount(); iDoc++) {
-            // For every word
-            for (int iWord=0; iWord < getVocabularySize(); iWord++)
+            // For every word appearing in the document
+            for (int iWordIdx=0; iWordIdx < documentTermMatrix.getNonZeroCount(iDoc); iWordIdx++) {
+                int iWord = documentTermMatrix.getColumnAt(iDoc, iWordIdx);
+                int iWordCount = documentTermMatrix.getValueAt(iDoc, iWordIdx);
                 // For every word occurence
-                for (int iWordOcc=0; iWordOcc < documentTermMatrix.get(iDoc, iWord); iWordOcc++) {
+                for (int iWordOcc=0; iWordOcc < iWordCount; iWordOcc++) {
                     // Think from which topic the word has been chosen (Sample topic)
                     int iTopic = (int)(Math.random() * numOfLevels); // numOfLevels equals to the number of topics in the
                                                               // leaf level
@@ -123,9 +141,35 @@ public class HierLDAGibbs implements Serializable {
                         iCurrentLevelTopic = iSuperTopic;
                     }
                 }
+            }
         }
     }
     
+    /**
+     * Perform Gibbs sampling with the documents partitioned among a number of
+     * threads (see {@link HierLDAPartitionedSampler}). The model state is
+     * reinitialized before sampling. The sampling rate achieved can be
+     * retrieved through {@link #getTokensPerSecond()}.
+     * @param iIterations the number of sweeps over the corpus
+     * @param iBurnIn the number of sweeps before the super-topic counts are
+     * accumulated
+     * @param iThreads the number of threads to use
+     */
+    public void performPartitionedGibbs(int iIterations, int iBurnIn, int iThreads) {
+        HierLDAPartitionedSampler hlpsSampler = new HierLDAPartitionedSampler(this);
+        hlpsSampler.sample(iIterations, iBurnIn, iThreads);
+        tokensPerSecond = hlpsSampler.getTokensPerSecond();
+    }
+    
+    /**
+     * Get the number of tokens (term occurences) sampled per second during
+     * the last {@link #performPartitionedGibbs(int, int, int)} call.
+     * @return  the sampling rate
+     */
+    public double getTokensPerSecond() {
+        return tokensPerSecond;
+    }
+    
     public void performGibbs(int iIterations, int iBurnIn, int iThreads) {
         initModelState();
         PooledThreadList t = new PooledThreadList(iThreads);
@@ -137,10 +181,12 @@ public class HierLDAGibbs implements Serializable {
             
             // For every document
             for (int iDoc=0; iDoc<getDocumentCount(); iDoc++) {
-                // For every word
-                for (int iWord=0; iWord < getVocabularySize(); iWord++) {
+                // For every word appearing in the document
+                for (int iWordIdx=0; iWordIdx < documentTermMatrix.getNonZeroCount(iDoc); iWordIdx++) {
+                    int iWord = documentTermMatrix.getColumnAt(iDoc, iWordIdx);
+                    int iWordCount = documentTermMatrix.getValueAt(iDoc, iWordIdx);
                     // For every word occurence
-                    for (int iWordOcc=0; iWordOcc < documentTermMatrix.get(iDoc, iWord); iWordOcc++) {
+                    for (int iWordOcc=0; iWordOcc < iWordCount; iWordOcc++) {
                         // Sample leaf topic conditional
                         int iSelectedTopic = sampleLeafTopicFullConditional(numOfLevels - 1, iWord, iDoc);
                         
@@ -320,7 +366,9 @@ public class HierLDAGibbs implements Serializable {
     }
     
     private final double calcTermProbGivenLeafTopic(int iTopicNo, int iTermNo) {
-        return (double)leafTopicTermMatrix.get(iTopicNo, iTermNo) / leafTopicTermMatrix.getSumOfRow(iTopicNo);
+        // Smooth by beta, as in sampling, since a topic may hold no terms
+        return (leafTopicTermMatrix.get(iTopicNo, iTermNo) + beta) / 
+                (leafTopicTermMatrix.getSumOfRow(iTopicNo) + getVocabularySize() * beta);
     }
     
     /**
@@ -499,7 +547,8 @@ public class HierLDAGibbs implements Serializable {
         };
         
         HierLDAGibbs h = new HierLDAGibbs(3,d,0.1,0.1);
-        h.performGibbs(10000, 1000, Runtime.getRuntime().availableProcessors());
+        h.performPartitionedGibbs(10000, 1000, Runtime.getRuntime().availableProcessors());
+        System.out.println("Tokens per second: " + h.getTokensPerSecond());
         for (int iLvl=0; iLvl < 3; iLvl++) {
             System.out.println("Level:" + iLvl);
             for (int iTopic=0; iTopic <= iLvl; iTopic++)
@@ -528,7 +577,12 @@ public class HierLDAGibbs implements Serializable {
     }
     
     private void readObject(java.io.ObjectInputStream is) throws IOException, ClassNotFoundException {
-        documentTermMatrix = (Matrix2D)is.readObject();// Matrix2D        
+        Object oDocTermMatrix = is.readObject();
+        // Models saved before the sparse representation hold a Matrix2D
+        if (oDocTermMatrix instanceof Matrix2D)
+            documentTermMatrix = new SparseDocTermMatrix((Matrix2D)oDocTermMatrix);
+        else
+            documentTermMatrix = (SparseDocTermMatrix)oDocTermMatrix;// SparseDocTermMatrix
         documentTopicMatrixPerLevel = (Matrix2D[])is.readObject();//Matrix2D[]
         topicAboveTopicMatrixPerLevel = (Matrix2D[])is.readObject();//Matrix2D[]
         leafTopicTermMatrix = (Matrix2D)is.readObject();// Matrix2D        
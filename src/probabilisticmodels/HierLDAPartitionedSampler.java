@@ -0,0 +1,356 @@
+/* Under LGPL licence.
+ */
+
+package probabilisticmodels;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+/**
+ * A parallel Gibbs sampler for a {@link HierLDAGibbs} model, following the
+ * approximate distributed LDA (AD-LDA) scheme. The leaf topic of every token
+ * (term occurence) is kept in a flat array, and the documents are partitioned
+ * among the threads. In every sweep each thread samples the tokens of its
+ * documents against a private copy of the shared topic counts; the changes of
+ * all threads are merged into the shared counts once, at the end of the
+ * sweep. The document - topic counts of a document are only touched by the
+ * thread that owns the document.
+ *
+ * The leaf topic of a token is resampled in every sweep. After the burn-in
+ * sweeps, the super-topics of every level are also sampled for every token
+ * and accumulated in the topic - super-topic counts, as in
+ * {@link HierLDAGibbs#performGibbs(int, int, int)}.
+ */
+class HierLDAPartitionedSampler {
+    private HierLDAGibbs model;
+    private int levels, vocabularySize, leafTopics;
+    /** The first token of every document, followed by the number of tokens. */
+    private int[] docStart;
+    /** The term of every token. */
+    private int[] tokenTerm;
+    /** The leaf topic of every token. */
+    private int[] tokenTopic;
+
+    /** The shared counts: leaf topic - term, and their row sums. */
+    private int[][] topicTerm;
+    private int[] topicSums;
+    /** The shared counts per level: document - topic, and their row sums. */
+    private int[][][] docTopic;
+    private int[][] docSums;
+    /** The shared counts per level: topic - super-topic, and their column
+     * sums. */
+    private int[][][] topicSuper;
+    private int[][] superSums;
+
+    private double tokensPerSecond = 0.0;
+
+    /**
+     * Creates a sampler over the data of a given model.
+     * @param hlgModel the model to train
+     */
+    HierLDAPartitionedSampler(HierLDAGibbs hlgModel) {
+        model = hlgModel;
+        levels = model.numOfLevels;
+        vocabularySize = model.getVocabularySize();
+        leafTopics = model.leafTopicTermMatrix.getRowCount();
+
+        // Expand the document - term matrix to tokens
+        SparseDocTermMatrix sdtm = model.documentTermMatrix;
+        int iDocs = sdtm.getRowCount();
+        docStart = new int[iDocs + 1];
+        int iTokens = 0;
+        for (int iDoc=0; iDoc < iDocs; iDoc++) {
+            docStart[iDoc] = iTokens;
+            iTokens += sdtm.getSumOfRow(iDoc);
+        }
+        docStart[iDocs] = iTokens;
+        tokenTerm = new int[iTokens];
+        tokenTopic = new int[iTokens];
+        int iPos = 0;
+        for (int iDoc=0; iDoc < iDocs; iDoc++)
+            for (int iIdx=0; iIdx < sdtm.getNonZeroCount(iDoc); iIdx++)
+                for (int iOcc=0; iOcc < sdtm.getValueAt(iDoc, iIdx); iOcc++)
+                    tokenTerm[iPos++] = sdtm.getColumnAt(iDoc, iIdx);
+
+        topicTerm = new int[leafTopics][vocabularySize];
+        topicSums = new int[leafTopics];
+        docTopic = new int[levels][][];
+        docSums = new int[levels][iDocs];
+        topicSuper = new int[levels][][];
+        superSums = new int[levels][];
+        for (int iLevel=0; iLevel < levels; iLevel++) {
+            docTopic[iLevel] = new int[iDocs][iLevel + 1];
+            if (iLevel > 0) {
+                topicSuper[iLevel] = new int[iLevel + 1][iLevel];
+                superSums[iLevel] = new int[iLevel];
+            }
+        }
+    }
+
+    /**
+     * Get the number of tokens sampled per second in the last run.
+     * @return  the sampling rate
+     */
+    double getTokensPerSecond() {
+        return tokensPerSecond;
+    }
+
+    /**
+     * Perform the sampling and store the final counts in the model.
+     * @param iIterations the number of sweeps
+     * @param iBurnIn the number of sweeps before the super-topic counts are
+     * accumulated
+     * @param iThreads the number of threads to use
+     */
+    void sample(int iIterations, int iBurnIn, int iThreads) {
+        iThreads = Math.max(1, Math.min(iThreads, docStart.length - 1));
+        initState(new Random());
+
+        // Partition documents, balancing the tokens per thread
+        List<Partition> lPartitions = new ArrayList<Partition>();
+        int iFirstDoc = 0;
+        for (int iPart=0; iPart < iThreads; iPart++) {
+            long lTarget = (long)tokenTerm.length * (iPart + 1) / iThreads;
+            int iLastDoc = iFirstDoc;
+            while ((iLastDoc < docStart.length - 1) &&
+                    ((docStart[iLastDoc] < lTarget) || (iPart == iThreads - 1)))
+                iLastDoc++;
+            lPartitions.add(new Partition(iFirstDoc, iLastDoc));
+            iFirstDoc = iLastDoc;
+        }
+
+        ExecutorService esThreads = Executors.newFixedThreadPool(iThreads);
+        long lStart = System.currentTimeMillis();
+        try {
+            for (int iCurIter=0; iCurIter < iIterations; iCurIter++) {
+                // Update progress bar
+                if (model.ProgressIndicator != null)
+                    model.ProgressIndicator.Notify(model, (double)iCurIter / iIterations);
+
+                for (Partition pCur : lPartitions)
+                    pCur.prepare(iCurIter > iBurnIn);
+                for (Future<Object> fCur : esThreads.invokeAll(lPartitions))
+                    fCur.get();
+                mergeCounts(lPartitions);
+            }
+        } catch (InterruptedException ie) {
+            System.err.println("Sampling interrupted.");
+            ie.printStackTrace(System.err);
+        } catch (ExecutionException ee) {
+            ee.getCause().printStackTrace(System.err);
+        }
+        finally {
+            esThreads.shutdown();
+        }
+        long lElapsed = Math.max(1, System.currentTimeMillis() - lStart);
+        tokensPerSecond = (double)tokenTerm.length * iIterations * 1000.0 / lElapsed;
+
+        storeCounts();
+    }
+
+    /** Assigns random topics and super-topics to all tokens, as in the
+     * initialization of the model. */
+    private void initState(Random rRandom) {
+        int iLeafLevel = levels - 1;
+        for (int iDoc=0; iDoc < docStart.length - 1; iDoc++)
+            for (int iToken=docStart[iDoc]; iToken < docStart[iDoc + 1]; iToken++) {
+                int iTopic = rRandom.nextInt(leafTopics);
+                tokenTopic[iToken] = iTopic;
+                topicTerm[iTopic][tokenTerm[iToken]]++;
+                topicSums[iTopic]++;
+                docTopic[iLeafLevel][iDoc][iTopic]++;
+                docSums[iLeafLevel][iDoc]++;
+
+                int iCurrentLevelTopic = iTopic;
+                for (int iLevel=iLeafLevel; iLevel >= 1; iLevel--) {
+                    int iSuperTopic = rRandom.nextInt(iLevel);
+                    topicSuper[iLevel][iCurrentLevelTopic][iSuperTopic]++;
+                    superSums[iLevel][iSuperTopic]++;
+                    docTopic[iLevel][iDoc][iSuperTopic]++;
+                    docSums[iLevel][iDoc]++;
+                    iCurrentLevelTopic = iSuperTopic;
+                }
+            }
+    }
+
+    /** Adds the changes of every partition to the shared counts. */
+    private void mergeCounts(List<Partition> lPartitions) {
+        // Sum the deltas first, as every partition copy starts from the
+        // current shared counts
+        int[][] iaTopicTerm = new int[leafTopics][vocabularySize];
+        for (Partition pCur : lPartitions)
+            for (int iTopic=0; iTopic < leafTopics; iTopic++)
+                for (int iTerm=0; iTerm < vocabularySize; iTerm++)
+                    iaTopicTerm[iTopic][iTerm] += pCur.TopicTerm[iTopic][iTerm] -
+                            topicTerm[iTopic][iTerm];
+        for (int iTopic=0; iTopic < leafTopics; iTopic++) {
+            topicSums[iTopic] = 0;
+            for (int iTerm=0; iTerm < vocabularySize; iTerm++) {
+                topicTerm[iTopic][iTerm] += iaTopicTerm[iTopic][iTerm];
+                topicSums[iTopic] += topicTerm[iTopic][iTerm];
+            }
+        }
+
+        for (int iLevel=1; iLevel < levels; iLevel++) {
+            int[][] iaSuper = new int[iLevel + 1][iLevel];
+            for (Partition pCur : lPartitions)
+                for (int iTopic=0; iTopic <= iLevel; iTopic++)
+                    for (int iSuper=0; iSuper < iLevel; iSuper++)
+                        iaSuper[iTopic][iSuper] += pCur.TopicSuper[iLevel][iTopic][iSuper] -
+                                topicSuper[iLevel][iTopic][iSuper];
+            for (int iSuper=0; iSuper < iLevel; iSuper++) {
+                superSums[iLevel][iSuper] = 0;
+                for (int iTopic=0; iTopic <= iLevel; iTopic++) {
+                    topicSuper[iLevel][iTopic][iSuper] += iaSuper[iTopic][iSuper];
+                    superSums[iLevel][iSuper] += topicSuper[iLevel][iTopic][iSuper];
+                }
+            }
+        }
+    }
+
+    /** Copies the final counts to the matrices of the model. */
+    private void storeCounts() {
+        store(model.leafTopicTermMatrix, topicTerm);
+        for (int iLevel=0; iLevel < levels; iLevel++) {
+            store(model.documentTopicMatrixPerLevel[iLevel], docTopic[iLevel]);
+            if (iLevel > 0)
+                store(model.topicAboveTopicMatrixPerLevel[iLevel], topicSuper[iLevel]);
+        }
+    }
+
+    private static void store(Matrix2D mTarget, int[][] iaSource) {
+        for (int iRow=0; iRow < iaSource.length; iRow++)
+            for (int iCol=0; iCol < iaSource[iRow].length; iCol++)
+                mTarget.add(iRow, iCol, iaSource[iRow][iCol] - mTarget.get(iRow, iCol));
+    }
+
+    /** Samples an index from unnormalized cumulative probabilities.
+     * @param daCumulative the cumulative probabilities
+     * @param iCount the number of valid entries
+     * @param rRandom the random generator to use
+     * @return  the sampled index
+     */
+    private static int sampleCumulative(double[] daCumulative, int iCount,
+            Random rRandom) {
+        double u = rRandom.nextDouble() * daCumulative[iCount - 1];
+        for (int iCnt=0; iCnt < iCount; iCnt++)
+            if (u < daCumulative[iCnt])
+                return iCnt;
+        return iCount - 1;
+    }
+
+    /** A set of consecutive documents, sampled by a single thread. */
+    private class Partition implements Callable<Object> {
+        int FirstDoc, LastDoc;
+        boolean SampleSuperTopics;
+        /** The private copies of the shared counts. */
+        int[][] TopicTerm;
+        int[] TopicSums;
+        int[][][] TopicSuper;
+        int[][] SuperSums;
+        double[] Probs;
+        Random Randomizer = new Random();
+
+        Partition(int iFirstDoc, int iLastDoc) {
+            FirstDoc = iFirstDoc;
+            LastDoc = iLastDoc;
+            TopicTerm = new int[leafTopics][vocabularySize];
+            TopicSums = new int[leafTopics];
+            TopicSuper = new int[levels][][];
+            SuperSums = new int[levels][];
+            for (int iLevel=1; iLevel < levels; iLevel++) {
+                TopicSuper[iLevel] = new int[iLevel + 1][iLevel];
+                SuperSums[iLevel] = new int[iLevel];
+            }
+            Probs = new double[Math.max(leafTopics, levels)];
+        }
+
+        /** Copies the shared counts, before a sweep. */
+        void prepare(boolean bSampleSuperTopics) {
+            SampleSuperTopics = bSampleSuperTopics;
+            for (int iTopic=0; iTopic < leafTopics; iTopic++)
+                System.arraycopy(topicTerm[iTopic], 0, TopicTerm[iTopic], 0,
+                        vocabularySize);
+            System.arraycopy(topicSums, 0, TopicSums, 0, leafTopics);
+            for (int iLevel=1; iLevel < levels; iLevel++) {
+                for (int iTopic=0; iTopic <= iLevel; iTopic++)
+                    System.arraycopy(topicSuper[iLevel][iTopic], 0,
+                            TopicSuper[iLevel][iTopic], 0, iLevel);
+                System.arraycopy(superSums[iLevel], 0, SuperSums[iLevel], 0,
+                        iLevel);
+            }
+        }
+
+        /** Performs a sweep over the documents of the partition. */
+        public Object call() {
+            int iLeafLevel = levels - 1;
+            double dVocBeta = vocabularySize * model.beta;
+            double dTopicsAlpha = leafTopics * model.alpha;
+            for (int iDoc=FirstDoc; iDoc < LastDoc; iDoc++) {
+                int[] iaDocTopic = docTopic[iLeafLevel][iDoc];
+                for (int iToken=docStart[iDoc]; iToken < docStart[iDoc + 1]; iToken++) {
+                    int iTerm = tokenTerm[iToken];
+                    int iOldTopic = tokenTopic[iToken];
+                    // Remove the current assignment
+                    TopicTerm[iOldTopic][iTerm]--;
+                    TopicSums[iOldTopic]--;
+                    iaDocTopic[iOldTopic]--;
+                    docSums[iLeafLevel][iDoc]--;
+
+                    // p = P(w|t) * P(t|d), cumulated
+                    double dSum = 0.0;
+                    for (int iTopic=0; iTopic < leafTopics; iTopic++) {
+                        dSum += (TopicTerm[iTopic][iTerm] + model.beta) /
+                                (TopicSums[iTopic] + dVocBeta) *
+                                (iaDocTopic[iTopic] + model.alpha) /
+                                (docSums[iLeafLevel][iDoc] + dTopicsAlpha);
+                        Probs[iTopic] = dSum;
+                    }
+                    int iNewTopic = sampleCumulative(Probs, leafTopics, Randomizer);
+
+                    // Add the new assignment
+                    tokenTopic[iToken] = iNewTopic;
+                    TopicTerm[iNewTopic][iTerm]++;
+                    TopicSums[iNewTopic]++;
+                    iaDocTopic[iNewTopic]++;
+                    docSums[iLeafLevel][iDoc]++;
+
+                    if (SampleSuperTopics)
+                        sampleSuperTopics(iDoc);
+                }
+            }
+            return null;
+        }
+
+        /** Samples and accumulates the super-topics of all the levels, for a
+         * token of a given document. */
+        private void sampleSuperTopics(int iDoc) {
+            for (int iLevel=levels - 1; iLevel > 0; iLevel--) {
+                int[][] iaTopicSuper = TopicSuper[iLevel];
+                int[] iaSuperSums = SuperSums[iLevel];
+                int[] iaDocTopic = docTopic[iLevel][iDoc];
+                double dDocNorm = docSums[iLevel][iDoc] + iLevel * model.alpha;
+                double dSuperNorm = (iLevel + 1) * model.beta;
+                // For all topics of the level
+                for (int iTopic=1; iTopic <= iLevel; iTopic++) {
+                    double dSum = 0.0;
+                    for (int iSuper=0; iSuper < iLevel; iSuper++) {
+                        dSum += (iaTopicSuper[iTopic][iSuper] + model.beta) /
+                                (iaSuperSums[iSuper] + dSuperNorm) *
+                                (iaDocTopic[iSuper] + model.alpha) / dDocNorm;
+                        Probs[iSuper] = dSum;
+                    }
+                    int iSelected = sampleCumulative(Probs, iLevel, Randomizer);
+                    iaTopicSuper[iTopic][iSelected]++;
+                    iaSuperSums[iSelected]++;
+                }
+            }
+        }
+    }
+}
@@ -118,6 +118,18 @@ class Matrix2D implements Serializable {
         colSums[iCol]--;
     }
     
+    /**
+     * Add a given amount to a specific element of the matrix.
+     * @param iRow the specific row of the matrix
+     * @param iCol the specific column of the matrix
+     * @param iDelta the amount to add (may be negative)
+     */
+    public final void add(int iRow, int iCol, int iDelta) {
+        matrix[iRow][iCol] += iDelta;
+        rowSums[iRow] += iDelta;
+        colSums[iCol] += iDelta;
+    }
+
     /**
      * Get the number of rows of the matrix
      * @return  the number of rows
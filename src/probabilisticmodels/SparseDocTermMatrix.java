@@ -0,0 +1,223 @@
+/* Under LGPL licence.
+ */
+
+package probabilisticmodels;
+
+import java.io.IOException;
+import java.io.Serializable;
+import java.util.Arrays;
+
+/**
+ * This class implements a read-only document - term matrix of integers, in
+ * compressed sparse row (CSR) form. Only the non-zero elements are stored, so
+ * the memory required depends on the number of distinct terms per document
+ * rather than on the size of the vocabulary.
+ */
+public class SparseDocTermMatrix implements Serializable {
+    /** The index in the column and value arrays where every row starts.
+     * Row i spans [rowStart[i], rowStart[i+1]). */
+    private int[] rowStart;
+    /** The column of every non-zero element, ascending within a row. */
+    private int[] colIndex;
+    /** The value of every non-zero element. */
+    private int[] values;
+    private int[] rowSums;
+    private int[] colSums;
+    private int colCount;
+    private int rowCount;
+
+    /**
+     * Constructor method:
+     * Create the matrix from its compressed form. The arrays are used as given
+     * (not copied).
+     * @param iaRowStart the start of every row in the column and value arrays,
+     * followed by the total number of non-zero elements
+     * @param iaColIndex the column of every non-zero element, ascending within
+     * each row
+     * @param iaValues the value of every non-zero element
+     * @param iCols the number of columns of the matrix
+     */
+    public SparseDocTermMatrix(int[] iaRowStart, int[] iaColIndex,
+            int[] iaValues, int iCols) {
+        rowStart = iaRowStart;
+        colIndex = iaColIndex;
+        values = iaValues;
+        rowCount = iaRowStart.length - 1;
+        colCount = iCols;
+        calcSums();
+    }
+
+    /**
+     * Constructor method:
+     * Create the matrix from the non-zero elements of a dense matrix.
+     * @param iaSourceMatrix the input matrix
+     */
+    public SparseDocTermMatrix(int[][] iaSourceMatrix) {
+        rowCount = iaSourceMatrix.length;
+        colCount = (rowCount == 0) ? 0 : iaSourceMatrix[0].length;
+
+        // Count non-zero elements
+        int iNonZero = 0;
+        for (int iRow=0; iRow < rowCount; iRow++)
+            for (int iCol=0; iCol < iaSourceMatrix[iRow].length; iCol++)
+                if (iaSourceMatrix[iRow][iCol] != 0)
+                    iNonZero++;
+
+        rowStart = new int[rowCount + 1];
+        colIndex = new int[iNonZero];
+        values = new int[iNonZero];
+        int iPos = 0;
+        for (int iRow=0; iRow < rowCount; iRow++) {
+            rowStart[iRow] = iPos;
+            for (int iCol=0; iCol < iaSourceMatrix[iRow].length; iCol++)
+                if (iaSourceMatrix[iRow][iCol] != 0) {
+                    colIndex[iPos] = iCol;
+                    values[iPos++] = iaSourceMatrix[iRow][iCol];
+                }
+        }
+        rowStart[rowCount] = iPos;
+        calcSums();
+    }
+
+    /**
+     * Constructor method:
+     * Create the matrix from the non-zero elements of a dense
+     * {@link Matrix2D}.
+     * @param mSource the input matrix
+     */
+    SparseDocTermMatrix(Matrix2D mSource) {
+        this(toArray(mSource));
+    }
+
+    private static int[][] toArray(Matrix2D mSource) {
+        int[][] iaRes = new int[mSource.getRowCount()][mSource.getColCount()];
+        for (int iRow=0; iRow < iaRes.length; iRow++)
+            for (int iCol=0; iCol < iaRes[iRow].length; iCol++)
+                iaRes[iRow][iCol] = mSource.get(iRow, iCol);
+        return iaRes;
+    }
+
+    private void calcSums() {
+        rowSums = new int[rowCount];
+        colSums = new int[colCount];
+        for (int iRow=0; iRow < rowCount; iRow++)
+            for (int iPos=rowStart[iRow]; iPos < rowStart[iRow + 1]; iPos++) {
+                rowSums[iRow] += values[iPos];
+                colSums[colIndex[iPos]] += values[iPos];
+            }
+    }
+
+    /**
+     * Get a specific value of the matrix.
+     * @param iRow the specific row of the matrix
+     * @param iCol the specific column of the matrix
+     * @return  the value of the element [iRow][iCol]
+     */
+    public final int get(int iRow, int iCol) {
+        int iPos = Arrays.binarySearch(colIndex, rowStart[iRow],
+                rowStart[iRow + 1], iCol);
+        return (iPos < 0) ? 0 : values[iPos];
+    }
+
+    /**
+     * Get the number of non-zero elements of a specific row.
+     * @param iRow the specific row
+     * @return  the number of non-zero elements of the row
+     */
+    public final int getNonZeroCount(int iRow) {
+        return rowStart[iRow + 1] - rowStart[iRow];
+    }
+
+    /**
+     * Get the column of a non-zero element of a row.
+     * @param iRow the specific row
+     * @param iIndex the index of the element among the non-zero elements of
+     * the row
+     * @return  the column of the element
+     */
+    public final int getColumnAt(int iRow, int iIndex) {
+        return colIndex[rowStart[iRow] + iIndex];
+    }
+
+    /**
+     * Get the value of a non-zero element of a row.
+     * @param iRow the specific row
+     * @param iIndex the index of the element among the non-zero elements of
+     * the row
+     * @return  the value of the element
+     */
+    public final int getValueAt(int iRow, int iIndex) {
+        return values[rowStart[iRow] + iIndex];
+    }
+
+    /**
+     * Get the number of rows of the matrix
+     * @return  the number of rows
+     */
+    public final int getRowCount() {
+        return rowCount;
+    }
+
+    /**
+     * Get the number of columns of the matrix
+     * @return  the number of columns
+     */
+    public final int getColCount() {
+        return colCount;
+    }
+
+    /**
+     * Get the total number of non-zero elements of the matrix
+     * @return  the number of non-zero elements
+     */
+    public final int getNonZeroCount() {
+        return rowStart[rowCount];
+    }
+
+    /**
+     * Get the sum of the elements of a specific row
+     * @param iRow the specific row
+     * @return  the sum of the elements of the row iRow
+     */
+    public final int getSumOfRow(int iRow) {
+        return rowSums[iRow];
+    }
+
+    /**
+     * Get the sum of the elements of a specific column
+     * @param iCol the specific column
+     * @return  the sum of the elements of the column iCol
+     */
+    public final int getSumOfCol(int iCol) {
+        return colSums[iCol];
+    }
+
+    /**
+     * Create the equivalent dense matrix. Should only be used for small
+     * matrices.
+     * @return  the dense matrix
+     */
+    public int[][] toDense() {
+        int[][] iaRes = new int[rowCount][colCount];
+        for (int iRow=0; iRow < rowCount; iRow++)
+            for (int iPos=rowStart[iRow]; iPos < rowStart[iRow + 1]; iPos++)
+                iaRes[iRow][colIndex[iPos]] = values[iPos];
+        return iaRes;
+    }
+
+    private void writeObject(java.io.ObjectOutputStream os) throws IOException {
+        os.writeObject(rowStart);
+        os.writeObject(colIndex);
+        os.writeObject(values);
+        os.writeInt(colCount);
+    }
+
+    private void readObject(java.io.ObjectInputStream is) throws IOException, ClassNotFoundException {
+        rowStart = (int[])is.readObject();
+        colIndex = (int[])is.readObject();
+        values = (int[])is.readObject();
+        colCount = is.readInt();
+        rowCount = rowStart.length - 1;
+        calcSums();
+    }
+}
@@ -0,0 +1,120 @@
+/* Under LGPL licence.
+ */
+
+package probabilisticmodels;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+/**
+ * This class builds a {@link SparseDocTermMatrix} from the term counts of a
+ * set of documents. Documents can be added by many threads at once: every
+ * thread counts the terms of its documents locally, and the shared vocabulary
+ * is a concurrent map, so that no global lock is held. Term indices are
+ * assigned once all documents have been added, in lexicographic term order,
+ * so the resulting matrix does not depend on the order in which the
+ * documents were processed.
+ */
+public class SparseDocTermMatrixBuilder {
+    /** The vocabulary. Values are the term indices, once assigned. */
+    private ConcurrentHashMap<String,Integer> vocabulary;
+    /** The term counts of every document, by document index. */
+    private AtomicReferenceArray<Map<String,Integer>> documents;
+    private static final Integer UNASSIGNED = -1;
+
+    /**
+     * Constructor method:
+     * Create a builder for a given number of documents.
+     * @param iDocuments the number of documents (rows)
+     */
+    public SparseDocTermMatrixBuilder(int iDocuments) {
+        vocabulary = new ConcurrentHashMap<String, Integer>();
+        documents = new AtomicReferenceArray<Map<String,Integer>>(iDocuments);
+    }
+
+    /**
+     * Set the term counts of a document. Can be called concurrently for
+     * different documents.
+     * @param iDoc the index of the document (row)
+     * @param mTermCounts the number of occurences of every term in the
+     * document. The map should not be modified afterwards.
+     */
+    public void setDocument(int iDoc, Map<String,Integer> mTermCounts) {
+        for (String sTerm : mTermCounts.keySet())
+            vocabulary.putIfAbsent(sTerm, UNASSIGNED);
+        documents.set(iDoc, mTermCounts);
+    }
+
+    /**
+     * Get the number of distinct terms added so far.
+     * @return  the vocabulary size
+     */
+    public int getVocabularySize() {
+        return vocabulary.size();
+    }
+
+    /**
+     * Create the matrix. Should be called once all documents have been set.
+     * Documents that have not been set are represented as empty rows.
+     * @param mReverseIndex if not null, it is filled with the term of every
+     * term index (column)
+     * @return  the document - term matrix
+     */
+    public SparseDocTermMatrix build(Map<Integer,String> mReverseIndex) {
+        // Assign term indices in term order
+        List<String> lTerms = new ArrayList<String>(vocabulary.keySet());
+        Collections.sort(lTerms);
+        for (int iTerm=0; iTerm < lTerms.size(); iTerm++) {
+            vocabulary.put(lTerms.get(iTerm), iTerm);
+            if (mReverseIndex != null)
+                mReverseIndex.put(iTerm, lTerms.get(iTerm));
+        }
+
+        // Count non-zero elements
+        int iRows = documents.length();
+        int[] iaRowStart = new int[iRows + 1];
+        int iNonZero = 0;
+        for (int iDoc=0; iDoc < iRows; iDoc++) {
+            iaRowStart[iDoc] = iNonZero;
+            Map<String,Integer> mDoc = documents.get(iDoc);
+            if (mDoc != null)
+                iNonZero += mDoc.size();
+        }
+        iaRowStart[iRows] = iNonZero;
+
+        // Fill rows, releasing the per document counts
+        int[] iaColIndex = new int[iNonZero];
+        int[] iaValues = new int[iNonZero];
+        long[] laRow = new long[0];
+        for (int iDoc=0; iDoc < iRows; iDoc++) {
+            Map<String,Integer> mDoc = documents.getAndSet(iDoc, null);
+            if (mDoc == null)
+                continue;
+            // Pack (column, value) pairs to sort them by column
+            if (laRow.length < mDoc.size())
+                laRow = new long[mDoc.size()];
+            int iCnt = 0;
+            Iterator<Map.Entry<String,Integer>> iEntries = mDoc.entrySet().iterator();
+            while (iEntries.hasNext()) {
+                Map.Entry<String,Integer> eCur = iEntries.next();
+                laRow[iCnt++] = ((long)vocabulary.get(eCur.getKey()) << 32) |
+                        (eCur.getValue() & 0xFFFFFFFFL);
+            }
+            Arrays.sort(laRow, 0, iCnt);
+            int iPos = iaRowStart[iDoc];
+            for (int iIdx=0; iIdx < iCnt; iIdx++) {
+                iaColIndex[iPos + iIdx] = (int)(laRow[iIdx] >>> 32);
+                iaValues[iPos + iIdx] = (int)laRow[iIdx];
+            }
+        }
+
+        return new SparseDocTermMatrix(iaRowStart, iaColIndex, iaValues,
+                lTerms.size());
+    }
+}
@@ -0,0 +1,152 @@
+/*
+ * Under LGPL
+ * by George Giannakopoulos
+ */
+
+package gr.demokritos.iit.conceptualIndex;
+
+import gr.demokritos.iit.jinsect.supportUtils.linguistic.ArrayOfDefinition;
+import gr.demokritos.iit.jinsect.supportUtils.linguistic.Definition;
+import gr.demokritos.iit.jinsect.supportUtils.linguistic.WordDefinition;
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileReader;
+import java.io.IOException;
+import java.util.LinkedList;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import static org.junit.Assert.*;
+
+/** Tests {@link CachedMeaningExtractor} with a {@link FileMeaningExtractor} store.
+ *
+ * @author ggianna
+ */
+public class CachedMeaningExtractorTest {
+    private File StoreFile;
+
+    /** A source returning (or throwing) predefined results, in order. */
+    private static class ScriptedExtractor implements IMeaningExtractor {
+        final LinkedList<Object> Results = new LinkedList<Object>();
+        int Lookups = 0;
+
+        public WordDefinition getMeaning(String sString) {
+            Lookups++;
+            Object oRes = Results.removeFirst();
+            if (oRes instanceof RuntimeException)
+                throw (RuntimeException)oRes;
+            return (WordDefinition)oRes;
+        }
+    }
+
+    /** A source telling failures from words without definitions. */
+    private static class DefinitiveExtractor extends ScriptedExtractor
+            implements IDefinitiveMeaningExtractor {
+        public WordDefinition lookupMeaning(String sString) throws IOException {
+            Lookups++;
+            Object oRes = Results.removeFirst();
+            if (oRes instanceof IOException)
+                throw (IOException)oRes;
+            return (WordDefinition)oRes;
+        }
+    }
+
+    private static WordDefinition define(String sWord, String sDefinition) {
+        Definition dDef = new Definition();
+        dDef.setWord(sWord);
+        dDef.setWordDefinition(sDefinition);
+        ArrayOfDefinition aodDefs = new ArrayOfDefinition();
+        aodDefs.getDefinition().add(dDef);
+        WordDefinition wd = new WordDefinition();
+        wd.setWord(sWord);
+        wd.setDefinitions(aodDefs);
+        return wd;
+    }
+
+    private int countLines() throws IOException {
+        if (!StoreFile.exists())
+            return 0;
+        BufferedReader br = new BufferedReader(new FileReader(StoreFile));
+        try {
+            int iRes = 0;
+            while (br.readLine() != null)
+                iRes++;
+            return iRes;
+        }
+        finally {
+            br.close();
+        }
+    }
+
+    @Before
+    public void setUp() throws IOException {
+        StoreFile = File.createTempFile("definitions", ".txt");
+        StoreFile.delete();
+    }
+
+    @After
+    public void tearDown() {
+        StoreFile.delete();
+    }
+
+    @Test
+    public void testStoreLooksUpCleanedWords() throws IOException {
+        FileMeaningExtractor fmeStore = new FileMeaningExtractor(StoreFile.getPath());
+        fmeStore.store("ice\tcream", define("ice\tcream", "a frozen dessert"));
+        assertTrue(fmeStore.contains("ice\tcream"));
+        assertEquals("a frozen dessert", fmeStore.getMeaning("ice\tcream").getDefinitions()
+                .getDefinition().get(0).getWordDefinition());
+
+        // The stored word is found by later lookups, so it is not stored again
+        ScriptedExtractor seSource = new ScriptedExtractor();
+        CachedMeaningExtractor cme = new CachedMeaningExtractor(seSource, fmeStore, 10);
+        assertNotNull(cme.getMeaning("ice\tcream"));
+        cme.clear();
+        assertNotNull(cme.getMeaning("ice\tcream"));
+        assertEquals(0, seSource.Lookups);
+        assertEquals(1, countLines());
+
+        // Also after reloading the file
+        fmeStore = new FileMeaningExtractor(StoreFile.getPath());
+        assertTrue(fmeStore.contains("ice\tcream"));
+    }
+
+    @Test
+    public void testNullOfPlainSourceIsNotPersisted() throws IOException {
+        FileMeaningExtractor fmeStore = new FileMeaningExtractor(StoreFile.getPath());
+        ScriptedExtractor seSource = new ScriptedExtractor();
+        seSource.Results.add(null); // E.g. a failure
+        seSource.Results.add(define("word", "a unit of language"));
+        CachedMeaningExtractor cme = new CachedMeaningExtractor(seSource, fmeStore, 10);
+
+        // The miss is only kept in memory
+        assertNull(cme.getMeaning("word"));
+        assertNull(cme.getMeaning("word"));
+        assertEquals(1, seSource.Lookups);
+        assertFalse(fmeStore.contains("word"));
+        cme.clear();
+        assertNotNull(cme.getMeaning("word"));
+        assertTrue(fmeStore.contains("word"));
+        assertNotNull(cme.getMeaning("word"));
+        assertEquals(2, seSource.Lookups);
+    }
+
+    @Test
+    public void testFailureOfDefinitiveSourceIsNotKept() throws IOException {
+        FileMeaningExtractor fmeStore = new FileMeaningExtractor(StoreFile.getPath());
+        DefinitiveExtractor deSource = new DefinitiveExtractor();
+        deSource.Results.add(new IOException("WordNet is not available"));
+        deSource.Results.add(null);
+        CachedMeaningExtractor cme = new CachedMeaningExtractor(deSource, fmeStore, 10);
+
+        assertNull(cme.getMeaning("xyzzy"));
+        assertFalse(fmeStore.contains("xyzzy"));
+
+        // The absence of a definition is definitive, so it is kept
+        assertNull(cme.getMeaning("xyzzy"));
+        assertTrue(fmeStore.contains("xyzzy"));
+        assertNull(cme.getMeaning("xyzzy"));
+        assertEquals(2, deSource.Lookups);
+        assertEquals(1, countLines());
+    }
+}
@@ -0,0 +1,139 @@
+/*
+ * Under LGPL
+ * by George Giannakopoulos
+ */
+
+package gr.demokritos.iit.conceptualIndex;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.util.Arrays;
+import java.util.List;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import static org.junit.Assert.*;
+
+/** Tests the lookups and the index file of {@link WordNetIndex}, over a small database.
+ *
+ * @author ggianna
+ */
+public class WordNetIndexTest {
+    private File DictDir;
+    private File IndexFile;
+
+    private static void writeFile(File fOut, String sText) throws IOException {
+        FileOutputStream fosOut = new FileOutputStream(fOut);
+        try {
+            fosOut.write(sText.getBytes("ISO-8859-1"));
+        }
+        finally {
+            fosOut.close();
+        }
+    }
+
+    /** Writes the index and data files of a part of speech, with one synset per lemma.
+     *@param saEntries The lemmas (in ascending order), each followed by its gloss.
+     */
+    private void writePOS(String sPOS, char cPOS, String... saEntries) throws IOException {
+        StringBuilder sbIndex = new StringBuilder("  1 license line\n");
+        StringBuilder sbData = new StringBuilder("  1 license line\n");
+        for (int iCnt = 0; iCnt < saEntries.length; iCnt += 2) {
+            String sOffset = String.format("%08d", sbData.length());
+            sbIndex.append(saEntries[iCnt]).append(' ').append(cPOS).append(" 1 0 1 0 ")
+                    .append(sOffset).append("  \n");
+            sbData.append(sOffset).append(" 05 ").append(cPOS).append(" 01 ")
+                    .append(saEntries[iCnt]).append(" 0 000 | ").append(saEntries[iCnt + 1])
+                    .append("  \n");
+        }
+        writeFile(new File(DictDir, "index." + sPOS), sbIndex.toString());
+        writeFile(new File(DictDir, "data." + sPOS), sbData.toString());
+    }
+
+    @Before
+    public void setUp() throws IOException {
+        DictDir = File.createTempFile("wordnet", "");
+        DictDir.delete();
+        DictDir.mkdir();
+        writePOS("noun", 'n', "attorney", "a lawyer", "attorney_general", "the chief law officer",
+                "general", "a military officer", "ice_cream", "a frozen dessert",
+                "man", "an adult male", "online", "connected to a computer");
+        writeFile(new File(DictDir, "noun.exc"), "men man\n");
+        writePOS("verb", 'v', "look", "perceive with attention", "look_up",
+                "search in a reference work");
+        writeFile(new File(DictDir, "index.sense"), "");
+        IndexFile = new File(DictDir, "test" + WordNetIndex.INDEX_SUFFIX);
+    }
+
+    @After
+    public void tearDown() {
+        for (File fCur : DictDir.listFiles())
+            fCur.delete();
+        DictDir.delete();
+    }
+
+    @Test
+    public void testMultiWordLookups() throws IOException {
+        WordNetIndex wni = new WordNetIndex(DictDir.getPath(), null);
+        // Without spaces, underscores and hyphens
+        assertEquals(Arrays.asList("1. online -- (connected to a computer)"),
+                wni.getOverview("on line"));
+        assertEquals(wni.getOverview("on line"), wni.getOverview("on-line"));
+
+        // The base form of the whole collocation
+        assertEquals(Arrays.asList("ice_cream"), wni.getBaseForms("ice_creams", 0));
+        assertEquals(Arrays.asList("1. ice cream -- (a frozen dessert)"),
+                wni.getOverview("Ice creams"));
+        // The base forms of the words of the collocation
+        assertEquals(Arrays.asList("attorney_general"),
+                wni.getBaseForms("attorneys_general", 0));
+        assertEquals(Arrays.asList("man"), wni.getBaseForms("men", 0));
+        // A verb followed by a preposition
+        assertEquals(Arrays.asList("look_up"), wni.getBaseForms("looked_up", 1));
+        assertEquals(Arrays.asList("1. look up -- (search in a reference work)"),
+                wni.getOverview("looked up"));
+        assertTrue(wni.getBaseForms("ice_creamy", 0).isEmpty());
+    }
+
+    @Test
+    public void testCorruptIndexIsRebuilt() throws IOException {
+        new WordNetIndex(DictDir.getPath(), IndexFile.getPath());
+        assertTrue(IndexFile.exists());
+        long lLength = IndexFile.length();
+        List<String> lExpected = new WordNetIndex(DictDir.getPath(),
+                IndexFile.getPath()).getOverview("ice creams");
+        assertEquals(1, lExpected.size());
+
+        // A huge lemma count, after the magic number, the version, the database directory and
+        // the sizes and times of the 9 source files
+        RandomAccessFile rafIndex = new RandomAccessFile(IndexFile, "rw");
+        try {
+            rafIndex.seek(8 + 2 + DictDir.getAbsolutePath().getBytes("UTF-8").length + 9 * 16);
+            rafIndex.writeInt(Integer.MAX_VALUE);
+        }
+        finally {
+            rafIndex.close();
+        }
+        assertEquals(lExpected, new WordNetIndex(DictDir.getPath(),
+                IndexFile.getPath()).getOverview("ice creams"));
+        assertEquals(lLength, IndexFile.length());
+
+        // A truncated file
+        rafIndex = new RandomAccessFile(IndexFile, "rw");
+        try {
+            rafIndex.setLength(lLength / 2);
+        }
+        finally {
+            rafIndex.close();
+        }
+        assertEquals(lExpected, new WordNetIndex(DictDir.getPath(),
+                IndexFile.getPath()).getOverview("ice creams"));
+        assertEquals(lLength, IndexFile.length());
+
+        // No temporary files are left
+        for (File fCur : DictDir.listFiles())
+            assertFalse(fCur.getName().endsWith(".tmp"));
+    }
+}
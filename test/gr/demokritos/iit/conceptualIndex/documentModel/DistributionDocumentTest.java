@@ -0,0 +1,129 @@
+/*
+ * Under LGPL
+ * by George Giannakopoulos
+ */
+
+package gr.demokritos.iit.conceptualIndex.documentModel;
+
+import gr.demokritos.iit.conceptualIndex.structs.TransitionTable;
+import gr.demokritos.iit.jinsect.console.grammaticalityEstimator;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.io.ObjectStreamClass;
+import java.io.OutputStream;
+import org.junit.Test;
+import static org.junit.Assert.*;
+
+/** Tests the serialization and merging of {@link DistributionDocument}.
+ *
+ * @author ggianna
+ */
+public class DistributionDocumentTest {
+    private static final String TEXT = "A big big test. Indeed, a small test.";
+
+    /** Writes documents in the form of the graph based versions, by writing
+     * the graph of every document in place of its transition table. */
+    private static class GraphBasedOutputStream extends ObjectOutputStream {
+        private final DistributionDocument Document;
+
+        GraphBasedOutputStream(OutputStream osOut, DistributionDocument dDoc)
+                throws IOException {
+            super(osOut);
+            Document = dDoc;
+            enableReplaceObject(true);
+        }
+
+        @Override
+        protected Object replaceObject(Object oObj) throws IOException {
+            if (oObj == Document.toTransitionTable())
+                return Document.getDocumentGraph();
+            return oObj;
+        }
+    }
+
+    private static Object readObject(byte[] baData) throws Exception {
+        ObjectInputStream oIn = new ObjectInputStream(
+                new ByteArrayInputStream(baData));
+        try {
+            return oIn.readObject();
+        }
+        finally {
+            oIn.close();
+        }
+    }
+
+    @Test
+    public void testSerialVersionUIDs() {
+        // The implicit values of the graph based versions
+        assertEquals(-3025699745337102762L, ObjectStreamClass.lookup(
+                DistributionDocument.class).getSerialVersionUID());
+        assertEquals(5673037859199188695L, ObjectStreamClass.lookup(
+                DistributionWordDocument.class).getSerialVersionUID());
+        assertEquals(-7060892126976969781L, ObjectStreamClass.lookup(
+                grammaticalityEstimator.class).getSerialVersionUID());
+    }
+
+    @Test
+    public void testReadGraphBasedDocument() throws Exception {
+        DistributionDocument dDoc = new DistributionDocument(3, 2);
+        dDoc.setDataString(TEXT, true);
+
+        ByteArrayOutputStream baosOut = new ByteArrayOutputStream();
+        ObjectOutputStream oOut = new GraphBasedOutputStream(baosOut, dDoc);
+        oOut.writeObject(dDoc);
+        oOut.close();
+
+        DistributionDocument dRead = (DistributionDocument)readObject(
+                baosOut.toByteArray());
+        assertEquals(TEXT, dRead.getDataString());
+        assertEquals(3, dRead.getNeighbourhoodWindow());
+        assertEquals(2, dRead.getSourceNGramSize());
+        assertEquals(dDoc.length(), dRead.length());
+        assertEquals(dDoc.normality("A small big test."),
+                dRead.normality("A small big test."), 1e-6);
+    }
+
+    @Test
+    public void testRoundTrip() throws Exception {
+        DistributionDocument dDoc = new DistributionWordDocument(2, 1);
+        dDoc.setDataString(TEXT, true);
+
+        ByteArrayOutputStream baosOut = new ByteArrayOutputStream();
+        ObjectOutputStream oOut = new ObjectOutputStream(baosOut);
+        oOut.writeObject(dDoc);
+        oOut.close();
+
+        DistributionDocument dRead = (DistributionDocument)readObject(
+                baosOut.toByteArray());
+        assertTrue(dRead instanceof DistributionWordDocument);
+        assertEquals(dDoc.length(), dRead.length());
+        assertEquals(dDoc.normality("a big test"), dRead.normality("a big test"),
+                1e-6);
+    }
+
+    @Test
+    public void testMergeWith() {
+        DistributionDocument dDoc = new DistributionDocument(3, 1);
+        dDoc.setDataString("abc", true);
+        DistributionDocument dOther = new DistributionDocument(3, 1);
+        dOther.setDataString("abd", true);
+        dDoc.mergeWith(dOther, 1.0);
+
+        TransitionTable ttMerged = dDoc.toTransitionTable();
+        assertEquals(2.0f, ttMerged.getValue(ttMerged.find("a", "b"), 1), 1e-6);
+        assertTrue(ttMerged.find("b", "d") >= 0);
+        assertEquals("abcabd", dDoc.getDataString());
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testMergeWithDifferentWindow() {
+        DistributionDocument dDoc = new DistributionDocument(3, 1);
+        dDoc.setDataString("abc", true);
+        DistributionDocument dOther = new DistributionDocument(2, 1);
+        dOther.setDataString("abd", true);
+        dDoc.mergeWith(dOther, 1.0);
+    }
+}
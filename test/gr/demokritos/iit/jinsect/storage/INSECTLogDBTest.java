@@ -0,0 +1,115 @@
+/*
+ * Under LGPL
+ * by George Giannakopoulos
+ */
+
+package gr.demokritos.iit.jinsect.storage;
+
+import java.io.File;
+import java.io.IOException;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import static org.junit.Assert.*;
+
+/** Tests the compaction of {@link INSECTLogDB}.
+ *
+ * @author ggianna
+ */
+public class INSECTLogDBTest {
+    private File BaseDir;
+
+    @Before
+    public void setUp() throws IOException {
+        BaseDir = File.createTempFile("logdb", "");
+        BaseDir.delete();
+        BaseDir.mkdir();
+    }
+
+    @After
+    public void tearDown() {
+        for (File fCur : BaseDir.listFiles())
+            fCur.delete();
+        BaseDir.delete();
+    }
+
+    private static long getTotalSize(File fDir) {
+        long lRes = 0;
+        for (File fCur : fDir.listFiles())
+            lRes += fCur.length();
+        return lRes;
+    }
+
+    /** Saves an object again and compacts, so that the segment compacted
+     * last is no longer active. */
+    private static void saveAndCompact(INSECTLogDB<String> db) {
+        db.saveObject("other", "b", "text");
+        db.compact();
+    }
+
+    @Test
+    public void testTombstonesAreDroppedWhenNothingOlderIsHidden()
+            throws IOException {
+        INSECTLogDB<String> db = new INSECTLogDB<String>("t", BaseDir.getPath(), 0);
+        long lSegmentSize = db.SegmentSize;
+        // Segment 0 is live, so it is never compacted and is always older
+        // than the tombstone
+        db.saveObject("kept", "keep", "text");
+        // Segment 1 holds two objects, so that it is not compacted while one
+        // of them is live
+        db.SegmentSize = 1;
+        db.saveObject("deleted", "a", "text");
+        db.SegmentSize = lSegmentSize;
+        db.saveObject("live", "c", "text");
+        // One record per segment from now on
+        db.SegmentSize = 1;
+        db.deleteObject("a", "text");
+        db.CompactionThreshold = 0.3;
+
+        // The tombstone hides the record of segment 1, so it is kept, but
+        // the log does not grow
+        saveAndCompact(db);
+        saveAndCompact(db);
+        long lSize = getTotalSize(BaseDir);
+        for (int iCnt = 0; iCnt < 5; iCnt++)
+            saveAndCompact(db);
+        assertEquals(lSize, getTotalSize(BaseDir));
+        db.finalizeDB();
+        db = new INSECTLogDB<String>("t", BaseDir.getPath(), 0);
+        assertNull(db.loadObject("a", "text"));
+        assertEquals("kept", db.loadObject("keep", "text"));
+
+        // Once segment 1 is compacted, the tombstone is dropped and only the
+        // live records remain
+        db.SegmentSize = 1;
+        db.CompactionThreshold = 1.0;
+        for (int iCnt = 0; iCnt < 5; iCnt++)
+            saveAndCompact(db);
+        db.finalizeDB();
+
+        File fRefDir = File.createTempFile("logdb", "");
+        fRefDir.delete();
+        fRefDir.mkdir();
+        try {
+            INSECTLogDB<String> dbRef = new INSECTLogDB<String>("t",
+                    fRefDir.getPath(), 0);
+            dbRef.saveObject("kept", "keep", "text");
+            dbRef.saveObject("live", "c", "text");
+            dbRef.saveObject("other", "b", "text");
+            dbRef.finalizeDB();
+            assertEquals(getTotalSize(fRefDir), getTotalSize(BaseDir));
+        }
+        finally {
+            for (File fCur : fRefDir.listFiles())
+                fCur.delete();
+            fRefDir.delete();
+        }
+
+        db = new INSECTLogDB<String>("t", BaseDir.getPath(), 0);
+        assertNull(db.loadObject("a", "text"));
+        assertEquals("kept", db.loadObject("keep", "text"));
+        assertEquals("live", db.loadObject("c", "text"));
+        assertEquals("other", db.loadObject("b", "text"));
+        db.finalizeDB();
+    }
+}
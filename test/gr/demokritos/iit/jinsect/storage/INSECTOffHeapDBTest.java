@@ -0,0 +1,88 @@
+/*
+ * Under LGPL
+ * by George Giannakopoulos
+ */
+
+package gr.demokritos.iit.jinsect.storage;
+
+import java.util.Arrays;
+import org.junit.Test;
+import static org.junit.Assert.*;
+
+/** Tests the block management of {@link INSECTOffHeapDB}.
+ *
+ * @author ggianna
+ */
+public class INSECTOffHeapDBTest {
+    private static final int MB = 1 << 20;
+
+    private static byte[] getData(int iSize, int iSeed) {
+        byte[] baRes = new byte[iSize];
+        for (int iCnt = 0; iCnt < iSize; iCnt++)
+            baRes[iCnt] = (byte)(iCnt * 31 + iSeed);
+        return baRes;
+    }
+
+    @Test
+    public void testDeleteAndReAddOverSeveralSlabs() {
+        INSECTOffHeapDB<byte[]> db = new INSECTOffHeapDB<byte[]>(32 * MB,
+                INSECTOffHeapDB.Codec.NONE, 1,
+                INSECTOffHeapDB.DEFAULT_BLOCK_SIZE);
+        db.saveObject(getData(15 * MB, 1), "a", "data");
+        db.saveObject(getData(15 * MB, 2), "b", "data");
+        assertEquals(32L * MB, db.getAllocatedBytes());
+
+        db.deleteObject("a", "data");
+        db.deleteObject("b", "data");
+        assertEquals(0, db.getObjectCount());
+        assertEquals(0, db.getUsedBytes());
+
+        db.saveObject(getData(15 * MB, 3), "c", "data");
+        db.saveObject(getData(15 * MB, 4), "d", "data");
+        assertEquals(2, db.getObjectCount());
+        assertArrayEquals(getData(15 * MB, 3), db.loadObject("c", "data"));
+        assertArrayEquals(getData(15 * MB, 4), db.loadObject("d", "data"));
+        assertEquals(32L * MB, db.getAllocatedBytes());
+    }
+
+    @Test
+    public void testRejectedSaveKeepsCachedVersion() {
+        INSECTOffHeapDB<byte[]> db = new INSECTOffHeapDB<byte[]>(16 * MB,
+                INSECTOffHeapDB.Codec.NONE, 1,
+                INSECTOffHeapDB.DEFAULT_BLOCK_SIZE);
+        db.saveObject(getData(MB, 1), "a", "data");
+        db.saveObject(getData(20 * MB, 2), "a", "data");
+        assertEquals(1, db.getRejectionCount());
+        assertArrayEquals(getData(MB, 1), db.loadObject("a", "data"));
+        assertEquals(1, db.getObjectCount());
+    }
+
+    @Test
+    public void testEvictionOverSeveralSlabs() {
+        INSECTOffHeapDB<byte[]> db = new INSECTOffHeapDB<byte[]>(48 * MB,
+                INSECTOffHeapDB.Codec.NONE, 1,
+                INSECTOffHeapDB.DEFAULT_BLOCK_SIZE);
+        // Fill all three slabs, then keep adding, so that the least recently
+        // used objects are evicted and their blocks reused
+        for (int iCnt = 0; iCnt < 40; iCnt++)
+            db.saveObject(getData(2 * MB, iCnt), "o" + iCnt, "data");
+        assertTrue(db.getEvictionCount() > 0);
+        assertEquals(48L * MB, db.getAllocatedBytes());
+
+        // A large object evicts many small ones at once
+        db.saveObject(getData(40 * MB, 100), "large", "data");
+        assertArrayEquals(getData(40 * MB, 100), db.loadObject("large", "data"));
+        db.deleteObject("large", "data");
+
+        for (int iCnt = 40; iCnt < 60; iCnt++)
+            db.saveObject(getData(2 * MB, iCnt), "o" + iCnt, "data");
+        String[] saNames = db.getObjectList("data");
+        assertTrue(saNames.length > 0);
+        for (String sName : saNames) {
+            int iSeed = Integer.parseInt(sName.substring(1));
+            assertTrue(Arrays.equals(getData(2 * MB, iSeed),
+                    db.loadObject(sName, "data")));
+        }
+        assertEquals(48L * MB, db.getAllocatedBytes());
+    }
+}
@@ -0,0 +1,100 @@
+/*
+ * Under LGPL
+ * by George Giannakopoulos
+ */
+
+package gr.demokritos.iit.jinsect.storage;
+
+import java.io.File;
+import java.io.IOException;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import static org.junit.Assert.*;
+
+/** Tests the background writer of {@link INSECTShardedFileDB}.
+ *
+ * @author ggianna
+ */
+public class INSECTShardedFileDBTest {
+    private File BaseDir;
+
+    @Before
+    public void setUp() throws IOException {
+        BaseDir = File.createTempFile("shardedDB", "");
+        BaseDir.delete();
+        BaseDir.mkdirs();
+    }
+
+    @After
+    public void tearDown() {
+        delete(BaseDir);
+    }
+
+    private static void delete(File fCur) {
+        File[] faChildren = fCur.listFiles();
+        if (faChildren != null)
+            for (File fChild : faChildren)
+                delete(fChild);
+        fCur.delete();
+    }
+
+    @Test
+    public void testSaveLoadDelete() {
+        INSECTShardedFileDB<String> db = new INSECTShardedFileDB<String>("t",
+                BaseDir.getPath());
+        for (int iCnt = 0; iCnt < 100; iCnt++)
+            db.saveObject("Object " + iCnt, "o" + iCnt, "cat");
+        db.deleteObject("o5", "cat");
+        db.finalizeDB();
+
+        INSECTShardedFileDB<String> dbReopened = new INSECTShardedFileDB<String>(
+                "t", BaseDir.getPath());
+        assertEquals(99, dbReopened.getObjectList("cat").length);
+        assertFalse(dbReopened.existsObject("o5", "cat"));
+        assertEquals("Object 42", dbReopened.loadObject("o42", "cat"));
+        dbReopened.finalizeDB();
+    }
+
+    @Test
+    public void testManifestFailureIsReported() {
+        INSECTShardedFileDB<String> db = new INSECTShardedFileDB<String>("t",
+                BaseDir.getPath());
+        // A directory in place of the manifest cannot be opened for writing
+        new File(BaseDir, "t" + INSECTShardedFileDB.MANIFEST_NAME).mkdirs();
+        db.saveObject("Object", "o", "cat");
+        try {
+            db.flush();
+            fail("The failure of the writer was not reported.");
+        } catch (IllegalStateException ise) {
+            assertTrue(ise.getCause() instanceof IOException);
+        }
+        try {
+            db.saveObject("Other", "o2", "cat");
+            fail("Saving after a failure of the writer was accepted.");
+        } catch (IllegalStateException ise) {
+            // Expected
+        }
+    }
+
+    @Test
+    public void testRuntimeFailureDoesNotHang() {
+        INSECTShardedFileDB<String> db = new INSECTShardedFileDB<String>("t",
+                BaseDir.getPath()) {
+            @Override
+            public String getFileName(String sObjectName, String sObjectCategory) {
+                throw new UnsupportedOperationException("No files");
+            }
+        };
+        db.BatchSize = 2;
+        try {
+            // More operations than the queue holds
+            for (int iCnt = 0; iCnt < 100; iCnt++)
+                db.saveObject("Object " + iCnt, "o" + iCnt, "cat");
+            db.finalizeDB();
+            fail("The failure of the writer was not reported.");
+        } catch (IllegalStateException ise) {
+            assertTrue(ise.getCause() instanceof UnsupportedOperationException);
+        }
+    }
+}
@@ -0,0 +1,46 @@
+/*
+ * Under LGPL
+ * by George Giannakopoulos
+ */
+
+package gr.demokritos.iit.summarization.analysis;
+
+import gr.demokritos.iit.jinsect.structs.SuffixArray;
+import java.util.SortedMap;
+import org.junit.Test;
+import static org.junit.Assert.*;
+
+/** Tests the selection of candidate delimiters of {@link EntropyChunker}.
+ *
+ * @author ggianna
+ */
+public class EntropyChunkerTest {
+
+    @Test
+    public void testLastOccurrences() {
+        SuffixArray sa = new SuffixArray("axbxax");
+        assertArrayEquals(new int[] {0, 1, 2}, sa.getFirstOccurrences(1));
+        assertArrayEquals(new int[] {2, 4, 5}, sa.getLastOccurrences(1));
+        assertArrayEquals(new int[] {1, 2, 3, 4}, sa.getLastOccurrences(2));
+    }
+
+    @Test
+    public void testTiedEntropiesKeepLastOccurrence() {
+        // 'a' and 'b' have the same entropy of next character. 'a' is met
+        // both first and last, so it is the one kept.
+        EntropyChunker ec = new EntropyChunker();
+        ec.train("abbcbbcaa");
+        SortedMap smDelims = ec.identifyCandidateDelimiters(
+                ec.sgOverallGraph.getDataString(), 1);
+        assertTrue(smDelims.containsValue("a"));
+        assertFalse(smDelims.containsValue("b"));
+
+        // Same for 'c' and 'b'
+        ec = new EntropyChunker();
+        ec.train("aacbabca");
+        smDelims = ec.identifyCandidateDelimiters(
+                ec.sgOverallGraph.getDataString(), 1);
+        assertTrue(smDelims.containsValue("c"));
+        assertFalse(smDelims.containsValue("b"));
+    }
+}